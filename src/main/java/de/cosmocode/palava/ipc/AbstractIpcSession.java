@@ -16,17 +16,26 @@
 
 package de.cosmocode.palava.ipc;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OptionalDataException;
 import java.io.Serializable;
 import java.util.Collection;
 import java.util.Date;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ForwardingCollection;
+import com.google.common.collect.ForwardingSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
-import de.cosmocode.collections.callback.Callback;
-import de.cosmocode.collections.callback.Callbacks;
 import de.cosmocode.palava.scope.AbstractScopeContext;
 
 /**
@@ -34,10 +43,13 @@ import de.cosmocode.palava.scope.AbstractScopeContext;
  *
  * @author Willi Schoenborn
  */
-public abstract class AbstractIpcSession extends AbstractScopeContext implements IpcSession, Serializable {
+public abstract class AbstractIpcSession extends AbstractScopeContext 
+    implements IpcSession, IpcSessionSuspendable, IpcSessionEntryExpiry, Serializable {
 
     private static final long serialVersionUID = 6438707896566787757L;
 
+    private static final long ENTRY = 48;
+
     private long timeout;
 
     private TimeUnit timeoutUnit;
@@ -49,16 +61,110 @@ public abstract class AbstractIpcSession extends AbstractScopeContext implements
     private boolean suppressingTouch;
     
     /**
-     * {@link Callback} implementation used to handle updates in collection views.
+     * The expirations of entries written with a time to live, null until the first one.
+     */
+    private transient volatile ConcurrentMap<Object, Expiration> expirations;
+    
+    /**
+     * The keys modified since the last checkpoint, null until the first checkpoint.
+     */
+    private transient volatile Set<Object> dirty;
+    
+    private transient IpcSessionChangeEvent changeEvent;
+    
+    private transient IpcSessionAttributeEstimator estimator;
+    
+    private transient ConcurrentMap<Object, Long> sizes;
+    
+    private transient AtomicLong estimatedSize = new AtomicLong();
+    
+    private transient long quota;
+    
+    private transient IpcSessionQuotaPolicy quotaPolicy = IpcSessionQuotaPolicy.REJECT;
+    
+    private transient Set<Object> keySet;
+    
+    private transient Collection<Object> values;
+    
+    private transient Set<Entry<Object, Object>> entrySet;
+    
+    /**
+     * The expiration of an entry, bound to the value it has been written with. Expirations
+     * whose value has since been overwritten by a concurrent write without a time to live
+     * are stale and ignored.
      *
-     * @since 2.0
+     * @since 2.1
      * @author Willi Schoenborn
      */
-    private final class Toucher implements Callback {
+    private static final class Expiration implements Serializable {
+        
+        private static final long serialVersionUID = -2297263366416567651L;
 
+        private final Object value;
+        
+        private final long deadline;
+        
+        Expiration(Object value, long deadline) {
+            this.value = value;
+            this.deadline = deadline;
+        }
+        
+        boolean isBoundTo(Object current) {
+            return current != null && Objects.equal(value, current);
+        }
+        
+    }
+    
+    /**
+     * Key set view which touches this session and reclaims expired entries on every
+     * operation. Iterators are handed out unwrapped.
+     *
+     * @since 2.1
+     * @author Willi Schoenborn
+     */
+    private final class KeySet extends ForwardingSet<Object> {
+        
+        @Override
+        protected Set<Object> delegate() {
+            touch();
+            reclaimAll();
+            return AbstractIpcSession.super.keySet();
+        }
+        
+    }
+    
+    /**
+     * Values view which touches this session and reclaims expired entries on every
+     * operation. Iterators are handed out unwrapped.
+     *
+     * @since 2.1
+     * @author Willi Schoenborn
+     */
+    private final class Values extends ForwardingCollection<Object> {
+        
+        @Override
+        protected Collection<Object> delegate() {
+            touch();
+            reclaimAll();
+            return AbstractIpcSession.super.values();
+        }
+        
+    }
+    
+    /**
+     * Entry set view which touches this session and reclaims expired entries on every
+     * operation. Iterators are handed out unwrapped.
+     *
+     * @since 2.1
+     * @author Willi Schoenborn
+     */
+    private final class EntrySet extends ForwardingSet<Entry<Object, Object>> {
+        
         @Override
-        public void poke() {
+        protected Set<Entry<Object, Object>> delegate() {
             touch();
+            reclaimAll();
+            return AbstractIpcSession.super.entrySet();
         }
         
     }
@@ -74,7 +180,7 @@ public abstract class AbstractIpcSession extends AbstractScopeContext implements
     @Override
     public long getTimeout(TimeUnit unit) {
         Preconditions.checkNotNull(unit, "Unit");
-        return unit.convert(timeout, timeoutUnit);
+        return timeoutUnit == null ? 0L : unit.convert(timeout, timeoutUnit);
     }
 
     @Override
@@ -113,100 +219,631 @@ public abstract class AbstractIpcSession extends AbstractScopeContext implements
         }
     }
 
+    /**
+     * Propagates the suspension to all {@link IpcSessionSuspendable} values
+     * of this session. This method does not touch this session.
+     * 
+     * @since 2.1
+     * @param data a map to store meta informations for the later resume
+     */
+    @Override
+    public void suspend(Map<String, ? super Serializable> data) {
+        for (Object value : super.values()) {
+            if (value instanceof IpcSessionSuspendable) {
+                IpcSessionSuspendable.class.cast(value).suspend(data);
+            }
+        }
+    }
+
+    /**
+     * Propagates the resume to all {@link IpcSessionSuspendable} values
+     * of this session. This method does not touch this session.
+     * 
+     * @since 2.1
+     * @param data the map, created on suspend
+     */
+    @Override
+    public void resume(Map<String, ? extends Serializable> data) {
+        for (Object value : super.values()) {
+            if (value instanceof IpcSessionSuspendable) {
+                IpcSessionSuspendable.class.cast(value).resume(data);
+            }
+        }
+    }
+
+    /**
+     * Marks the given key as modified since the last {@link #checkpoint()}.
+     * Modifications using the {@link Map} methods of this session are tracked
+     * automatically. Modifications through collection views, their iterators or
+     * of the values themselves have to be reported using this method.
+     * 
+     * @since 2.1
+     * @param key the modified key
+     */
+    public void markDirty(Object key) {
+        final Set<Object> tracked = dirty;
+        if (tracked != null) {
+            tracked.add(key);
+        }
+        account(key);
+        if (changeEvent != null) {
+            changeEvent.eventIpcSessionChange(this, key);
+        }
+    }
+    
+    /**
+     * Sets the event which will be notified about every key being {@linkplain #markDirty(Object) modified}.
+     * The event is not serialized and has to be set again after deserialization.
+     * 
+     * @since 2.1
+     * @param changeEvent the change event, may be null
+     */
+    public void setChangeEvent(IpcSessionChangeEvent changeEvent) {
+        this.changeEvent = changeEvent;
+    }
+    
+    /**
+     * Checks whether a {@linkplain #setChangeEvent(IpcSessionChangeEvent) change event} has been set.
+     * 
+     * @since 2.1
+     * @return true if modifications of this session are reported, false otherwise
+     */
+    public boolean hasChangeEvent() {
+        return changeEvent != null;
+    }
+    
+    /**
+     * Sets the estimator used to account the size of this session. The size
+     * is recalculated once and updated incrementally on every modification
+     * being {@linkplain #markDirty(Object) tracked}. The estimator is not serialized
+     * and has to be set again after deserialization.
+     * 
+     * @since 2.1
+     * @param estimator the estimator, null disables size accounting
+     */
+    public void setSizeEstimator(IpcSessionAttributeEstimator estimator) {
+        this.estimator = estimator;
+        if (estimator == null) {
+            sizes = null;
+            estimatedSize.set(0L);
+        } else {
+            sizes = Maps.newConcurrentMap();
+            estimatedSize.set(0L);
+            for (Object key : super.keySet()) {
+                account(key);
+            }
+        }
+    }
+    
+    /**
+     * Provides the estimated size of all entries of this session.
+     * 
+     * @since 2.1
+     * @return the estimated size in bytes or -1 if no {@linkplain #setSizeEstimator(IpcSessionAttributeEstimator)
+     *         estimator} has been set
+     */
+    public long getEstimatedSize() {
+        return estimator == null ? -1L : estimatedSize.get();
+    }
+    
+    /**
+     * Sets the quota of this session. The quota only applies if an
+     * {@linkplain #setSizeEstimator(IpcSessionAttributeEstimator) estimator} has been set.
+     * Like the estimator, the quota is not serialized.
+     * 
+     * @since 2.1
+     * @param quota the maximum estimated size in bytes, zero or less disables the quota
+     * @param policy the policy applied to writes exceeding the quota
+     * @throws NullPointerException if policy is null
+     * @throws IllegalArgumentException if policy is {@link IpcSessionQuotaPolicy#SPILL}
+     *         and this session is not {@linkplain #isSpillable() spillable}
+     */
+    public void setQuota(long quota, IpcSessionQuotaPolicy policy) {
+        Preconditions.checkNotNull(policy, "Policy");
+        Preconditions.checkArgument(policy != IpcSessionQuotaPolicy.SPILL || isSpillable(),
+            "%s does not support spilling", this);
+        this.quotaPolicy = policy;
+        this.quota = quota;
+    }
+    
+    /**
+     * Checks whether this session is able to {@linkplain #spill() spill} its values
+     * out of the heap. This implementation returns false.
+     * 
+     * @since 2.1
+     * @return true if {@link IpcSessionQuotaPolicy#SPILL} is supported, false otherwise
+     */
+    public boolean isSpillable() {
+        return false;
+    }
+    
+    /**
+     * Moves the values of this session out of the heap, if {@linkplain #isSpillable() supported}.
+     * Called after a write exceeded the quota using {@link IpcSessionQuotaPolicy#SPILL}. This
+     * implementation does nothing.
+     * 
+     * @since 2.1
+     */
+    protected void spill() {
+        
+    }
+    
+    private long sizeOf(Object key, Object value) {
+        return value == null ? 0L : ENTRY + estimator.estimate(key) + estimator.estimate(value);
+    }
+    
+    private void account(Object key) {
+        if (estimator == null) return;
+        final Object value = super.get(key);
+        final long size = sizeOf(key, value);
+        final Long previous = value == null ? sizes.remove(key) : sizes.put(key, size);
+        final long total = estimatedSize.addAndGet(size - (previous == null ? 0L : previous.longValue()));
+        if (quota > 0 && total > quota && quotaPolicy == IpcSessionQuotaPolicy.SPILL) {
+            spill();
+        }
+    }
+    
+    private void checkQuota(Object key, Object value) {
+        if (estimator == null || quota <= 0 || quotaPolicy != IpcSessionQuotaPolicy.REJECT) return;
+        final Long present = sizes.get(key);
+        final long projected = estimatedSize.get() + sizeOf(key, value) - (present == null ? 0L : present.longValue());
+        if (projected > quota) {
+            throw new IpcSessionQuotaExceededException(String.format(
+                "Writing %s would exceed the quota of %s bytes of %s", key, quota, this));
+        }
+    }
+    
+    /**
+     * Checks whether adding the given entries to the nested map stored under the given key
+     * would exceed the quota of this session using {@link IpcSessionQuotaPolicy#REJECT}.
+     * In-place modifications of nested maps are only accounted once they are
+     * {@linkplain #markDirty(Object) reported}, they therefore have to be checked
+     * before they are performed. Replaced nested values are not taken into account.
+     * 
+     * @since 2.1
+     * @param key the key of the nested map
+     * @param entries the entries about to be written into the nested map, null values are ignored
+     * @throws NullPointerException if entries is null
+     * @throws IpcSessionQuotaExceededException if the entries would exceed the quota
+     */
+    public void checkQuota(Object key, Map<?, ?> entries) {
+        Preconditions.checkNotNull(entries, "Entries");
+        if (estimator == null || quota <= 0 || quotaPolicy != IpcSessionQuotaPolicy.REJECT) return;
+        long projected = estimatedSize.get();
+        for (Entry<?, ?> entry : entries.entrySet()) {
+            projected += sizeOf(entry.getKey(), entry.getValue());
+        }
+        if (projected > quota) {
+            throw new IpcSessionQuotaExceededException(String.format(
+                "Writing into %s would exceed the quota of %s bytes of %s", key, quota, this));
+        }
+    }
+    
+    /**
+     * Provides the expiration timestamps of all expiring keys. Intended for subclasses
+     * which implement their own serialization.
+     * 
+     * @since 2.1
+     * @return a copy of the expiring keys mapped to their expiration timestamp
+     */
+    protected Map<Object, Long> getExpirations() {
+        final Map<Object, Long> copy = Maps.newHashMap();
+        if (!hasExpirations()) return copy;
+        for (Entry<Object, Expiration> entry : expirations.entrySet()) {
+            if (entry.getValue().isBoundTo(super.get(entry.getKey()))) {
+                copy.put(entry.getKey(), entry.getValue().deadline);
+            }
+        }
+        return copy;
+    }
+    
+    /**
+     * Restores the expiration of the given key, bound to its current value. Intended for
+     * subclasses which implement their own serialization. Absent keys are ignored.
+     * 
+     * @since 2.1
+     * @param key the key
+     * @param deadline the expiration timestamp
+     */
+    protected void setExpiration(Object key, long deadline) {
+        final Object value = super.get(key);
+        if (value == null) return;
+        expirations().put(key, new Expiration(value, deadline));
+    }
+    
+    private ConcurrentMap<Object, Expiration> expirations() {
+        if (expirations == null) {
+            synchronized (this) {
+                if (expirations == null) {
+                    expirations = Maps.newConcurrentMap();
+                }
+            }
+        }
+        return expirations;
+    }
+    
+    private boolean hasExpirations() {
+        final ConcurrentMap<Object, Expiration> current = expirations;
+        return current != null && !current.isEmpty();
+    }
+    
+    /**
+     * {@inheritDoc}
+     * <p>
+     *   The expiration is bound to the written value. If a concurrent write without a
+     *   time to live overwrites the value, the expiration is discarded.
+     * </p>
+     */
+    @Override
+    public Object put(Object key, Object value, long ttl, TimeUnit unit) {
+        Preconditions.checkArgument(ttl > 0, "Ttl must be positive");
+        Preconditions.checkNotNull(unit, "Unit");
+        touch();
+        checkQuota(key, value);
+        final Expiration expiration = new Expiration(value, System.currentTimeMillis() + unit.toMillis(ttl));
+        clearExpiration(key);
+        final Object previous = super.put(key, value);
+        expirations().put(key, expiration);
+        markDirty(key);
+        return previous;
+    }
+    
+    @Override
+    public long getTimeToLive(Object key, TimeUnit unit) {
+        Preconditions.checkNotNull(unit, "Unit");
+        final Expiration expiration = hasExpirations() ? expirations.get(key) : null;
+        if (expiration == null || !expiration.isBoundTo(super.get(key))) {
+            return -1L;
+        } else {
+            return unit.convert(Math.max(0L, expiration.deadline - System.currentTimeMillis()), 
+                TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    @Override
+    public int purgeExpiredEntries() {
+        if (!hasExpirations()) return 0;
+        return reclaimAll(System.currentTimeMillis());
+    }
+    
+    private void reclaimAll() {
+        if (!hasExpirations()) return;
+        reclaimAll(System.currentTimeMillis());
+    }
+    
+    private int reclaimAll(long now) {
+        int purged = 0;
+        for (Object key : expirations.keySet()) {
+            if (reclaim(key, now)) {
+                purged++;
+            }
+        }
+        return purged;
+    }
+    
+    private void reclaim(Object key) {
+        if (!hasExpirations()) return;
+        reclaim(key, System.currentTimeMillis());
+    }
+    
+    private boolean reclaim(Object key, long now) {
+        final Expiration expiration = expirations.get(key);
+        if (expiration == null || expiration.deadline > now) return false;
+        final Object value = super.get(key);
+        // a concurrent write replaced or removed the expiration
+        if (!expirations.remove(key, expiration)) return false;
+        // the expiration is stale, the value has been overwritten
+        if (!expiration.isBoundTo(value)) return false;
+        if (super.remove(key, value)) {
+            markDirty(key);
+            return true;
+        } else {
+            return false;
+        }
+    }
+    
+    /**
+     * Moves the expiration of the given key from the replaced value to its replacement.
+     */
+    private void rebind(Object key, Object replaced, Object replacement) {
+        if (!hasExpirations()) return;
+        final Expiration expiration = expirations.get(key);
+        if (expiration == null || !expiration.isBoundTo(replaced)) return;
+        expirations.replace(key, expiration, new Expiration(replacement, expiration.deadline));
+    }
+    
+    private void clearExpiration(Object key) {
+        if (!hasExpirations()) return;
+        expirations.remove(key);
+    }
+    
+    /**
+     * Checks whether this session has been modified since the last {@link #checkpoint()}.
+     * Before the first checkpoint, every non-empty session is considered modified.
+     * 
+     * @since 2.1
+     * @return true if there are modifications, false otherwise
+     */
+    public boolean isDirty() {
+        final Set<Object> tracked = dirty;
+        return tracked == null ? !super.isEmpty() : !tracked.isEmpty();
+    }
+    
+    /**
+     * Creates a delta of all entries which have been modified since the last checkpoint
+     * and starts a new one. Keys being modified concurrently are either part of the
+     * returned delta or will be part of the next one. This method does not touch this session.
+     * <p>
+     *   Modified keys are only tracked once this method has been called. The first checkpoint,
+     *   also the first one after deserialization, therefore returns a {@link #snapshot()}.
+     *   Checkpoints are intended to be created by a single consumer.
+     * </p>
+     * 
+     * @since 2.1
+     * @return the delta since the last checkpoint
+     */
+    public IpcSessionDelta checkpoint() {
+        if (dirty == null) {
+            dirty = Sets.newSetFromMap(Maps.<Object, Boolean>newConcurrentMap());
+            return snapshot();
+        }
+        final Set<Object> tracked = dirty;
+        final Set<Object> keys = Sets.newHashSet();
+        for (Object key : tracked) {
+            tracked.remove(key);
+            keys.add(key);
+        }
+        return delta(keys);
+    }
+    
+    /**
+     * Creates a delta which contains the current state of the given keys. Keys
+     * which are not present in this session are treated as removals. This method
+     * does not touch this session and does not start a new {@linkplain #checkpoint() checkpoint}.
+     * 
+     * @since 2.1
+     * @param keys the keys
+     * @return a delta for the given keys
+     * @throws NullPointerException if keys is null
+     */
+    public IpcSessionDelta delta(Iterable<?> keys) {
+        Preconditions.checkNotNull(keys, "Keys");
+        final Map<Object, Object> updates = Maps.newHashMap();
+        final Set<Object> removals = Sets.newHashSet();
+        
+        for (Object key : keys) {
+            final Object value = super.get(key);
+            if (value == null) {
+                removals.add(key);
+            } else {
+                updates.put(key, value);
+            }
+        }
+        
+        return new IpcSessionDelta(getSessionId(), lastAccess, updates, removals);
+    }
+    
+    /**
+     * Creates a delta which contains all entries of this session. This method
+     * does not touch this session and does not start a new {@linkplain #checkpoint() checkpoint}.
+     * 
+     * @since 2.1
+     * @return a delta containing the current state of this session
+     */
+    public IpcSessionDelta snapshot() {
+        return delta(super.keySet());
+    }
+    
+    /**
+     * Applies the given delta, e.g. received from another node, to this session. The affected
+     * keys are neither {@linkplain #markDirty(Object) marked as dirty} nor reported to the
+     * {@linkplain #setChangeEvent(IpcSessionChangeEvent) change event}. The last access time
+     * is advanced to the one of the delta.
+     * 
+     * @since 2.1
+     * @param delta the delta to apply
+     * @throws NullPointerException if delta is null
+     */
+    public void apply(IpcSessionDelta delta) {
+        Preconditions.checkNotNull(delta, "Delta");
+        for (Object key : delta.getRemovals()) {
+            super.remove(key);
+            clearExpiration(key);
+            account(key);
+        }
+        for (Entry<Object, Object> entry : delta.getUpdates().entrySet()) {
+            super.put(entry.getKey(), entry.getValue());
+            account(entry.getKey());
+        }
+        lastAccess = Math.max(lastAccess, delta.getLastAccess());
+    }
+
     @Override
     public Object putIfAbsent(Object key, Object value) {
         touch();
-        return super.putIfAbsent(key, value);
+        reclaim(key);
+        final Object existing = super.get(key);
+        if (existing != null) return existing;
+        checkQuota(key, value);
+        final Object present = super.putIfAbsent(key, value);
+        if (present == null) {
+            clearExpiration(key);
+            markDirty(key);
+        }
+        return present;
     }
 
     @Override
     public boolean remove(Object key, Object value) {
         touch();
-        return super.remove(key, value);
+        final boolean removed = super.remove(key, value);
+        if (removed) {
+            clearExpiration(key);
+            markDirty(key);
+        }
+        return removed;
     }
 
     @Override
     public Object replace(Object key, Object value) {
         touch();
-        return super.replace(key, value);
+        checkQuota(key, value);
+        reclaim(key);
+        final Object replaced = super.replace(key, value);
+        if (replaced != null) {
+            rebind(key, replaced, value);
+            markDirty(key);
+        }
+        return replaced;
     }
 
     @Override
     public boolean replace(Object key, Object oldValue, Object newValue) {
         touch();
-        return super.replace(key, oldValue, newValue);
+        checkQuota(key, newValue);
+        reclaim(key);
+        final boolean replaced = super.replace(key, oldValue, newValue);
+        if (replaced) {
+            rebind(key, oldValue, newValue);
+            markDirty(key);
+        }
+        return replaced;
     }
 
     @Override
     public int size() {
         touch();
+        reclaimAll();
         return super.size();
     }
 
     @Override
     public boolean isEmpty() {
         touch();
+        reclaimAll();
         return super.isEmpty();
     }
 
     @Override
     public Object remove(Object object) {
         touch();
-        return super.remove(object);
+        final Object removed = super.remove(object);
+        if (removed != null) {
+            clearExpiration(object);
+            markDirty(object);
+        }
+        return removed;
     }
 
     @Override
     public void clear() {
         touch();
+        final Set<Object> keys = Sets.newHashSet(super.keySet());
         super.clear();
+        if (expirations != null) {
+            expirations.clear();
+        }
+        for (Object key : keys) {
+            markDirty(key);
+        }
     }
 
     @Override
     public boolean containsKey(Object key) {
         touch();
+        reclaim(key);
         return super.containsKey(key);
     }
 
     @Override
     public boolean containsValue(Object value) {
         touch();
+        reclaimAll();
         return super.containsValue(value);
     }
 
     @Override
     public Object get(Object key) {
         touch();
+        reclaim(key);
         return super.get(key);
     }
 
     @Override
     public Object put(Object key, Object value) {
         touch();
-        return super.put(key, value);
+        checkQuota(key, value);
+        // removing the expiration first prevents a concurrent reclaim from removing the new value
+        clearExpiration(key);
+        final Object previous = super.put(key, value);
+        markDirty(key);
+        return previous;
     }
 
     @Override
     public void putAll(Map<? extends Object, ? extends Object> map) {
         touch();
-        super.putAll(map);
+        for (Entry<? extends Object, ? extends Object> entry : map.entrySet()) {
+            checkQuota(entry.getKey(), entry.getValue());
+            clearExpiration(entry.getKey());
+            super.put(entry.getKey(), entry.getValue());
+            markDirty(entry.getKey());
+        }
     }
 
     @Override
     public Set<Object> keySet() {
         touch();
-        return Callbacks.compose(super.keySet(), new Toucher());
+        if (keySet == null) {
+            keySet = new KeySet();
+        }
+        return keySet;
     }
 
     @Override
     public Collection<Object> values() {
         touch();
-        return Callbacks.compose(super.values(), new Toucher());
+        if (values == null) {
+            values = new Values();
+        }
+        return values;
     }
 
     @Override
     public Set<Entry<Object, Object>> entrySet() {
         touch();
-        return Callbacks.compose(super.entrySet(), new Toucher());
+        if (entrySet == null) {
+            entrySet = new EntrySet();
+        }
+        return entrySet;
+    }
+
+    private void writeObject(ObjectOutputStream stream) throws IOException {
+        stream.defaultWriteObject();
+        if (!hasExpirations()) return;
+        final Map<Object, Expiration> bound = Maps.newHashMap();
+        for (Entry<Object, Expiration> entry : expirations.entrySet()) {
+            if (entry.getValue().isBoundTo(super.get(entry.getKey()))) {
+                bound.put(entry.getKey(), entry.getValue());
+            }
+        }
+        if (bound.isEmpty()) return;
+        stream.writeObject(bound);
+    }
+
+    private void readObject(ObjectInputStream stream) throws IOException, ClassNotFoundException {
+        stream.defaultReadObject();
+        estimatedSize = new AtomicLong();
+        quotaPolicy = IpcSessionQuotaPolicy.REJECT;
+        try {
+            @SuppressWarnings("unchecked")
+            final Map<Object, Expiration> bound = (Map<Object, Expiration>) stream.readObject();
+            expirations = Maps.newConcurrentMap();
+            expirations.putAll(bound);
+        } catch (OptionalDataException e) {
+            // written without expirations, e.g. by a previous version
+            if (!e.eof) throw e;
+        }
     }
 
 }
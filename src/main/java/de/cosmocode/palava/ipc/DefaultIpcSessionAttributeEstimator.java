@@ -0,0 +1,154 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+
+/**
+ * Default {@link IpcSessionAttributeEstimator} which assumes a 64 bit jvm with compressed
+ * references and descends into strings, arrays, collections and maps up to a fixed depth.
+ * Estimators for specific attribute types can be {@linkplain #register(Class, IpcSessionAttributeEstimator)
+ * registered}. They are used for matching attributes as well as for their elements.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public final class DefaultIpcSessionAttributeEstimator implements IpcSessionAttributeEstimator {
+
+    private static final long ENTRY = 48;
+    
+    private static final long OBJECT = 64;
+    
+    private static final int MAX_DEPTH = 4;
+    
+    /**
+     * The estimator for types without a registered estimator.
+     */
+    private final IpcSessionAttributeEstimator structural = new IpcSessionAttributeEstimator() {
+        
+        @Override
+        public long estimate(Object attribute) {
+            return estimateStructure(attribute, 0);
+        }
+        
+    };
+    
+    private final ConcurrentMap<Class<?>, IpcSessionAttributeEstimator> registered = Maps.newConcurrentMap();
+    
+    private final ConcurrentMap<Class<?>, IpcSessionAttributeEstimator> resolved = Maps.newConcurrentMap();
+    
+    /**
+     * Registers an estimator for all attributes of the given type, including subtypes.
+     * 
+     * @since 2.1
+     * @param type the attribute type
+     * @param estimator the estimator
+     * @return this
+     * @throws NullPointerException if type or estimator is null
+     */
+    public DefaultIpcSessionAttributeEstimator register(Class<?> type, IpcSessionAttributeEstimator estimator) {
+        Preconditions.checkNotNull(type, "Type");
+        Preconditions.checkNotNull(estimator, "Estimator");
+        registered.put(type, estimator);
+        resolved.clear();
+        return this;
+    }
+    
+    private IpcSessionAttributeEstimator resolve(Class<?> type) {
+        final IpcSessionAttributeEstimator cached = resolved.get(type);
+        if (cached != null) return cached;
+        
+        IpcSessionAttributeEstimator estimator = structural;
+        for (Class<?> current = type; current != null && estimator == structural; current = current.getSuperclass()) {
+            estimator = registeredOf(current);
+        }
+        resolved.put(type, estimator);
+        return estimator;
+    }
+    
+    private IpcSessionAttributeEstimator registeredOf(Class<?> type) {
+        final IpcSessionAttributeEstimator estimator = registered.get(type);
+        if (estimator != null) return estimator;
+        for (Class<?> iface : type.getInterfaces()) {
+            final IpcSessionAttributeEstimator inherited = registeredOf(iface);
+            if (inherited != structural) return inherited;
+        }
+        return structural;
+    }
+    
+    @Override
+    public long estimate(Object attribute) {
+        Preconditions.checkNotNull(attribute, "Attribute");
+        return estimate(attribute, 0);
+    }
+    
+    private long estimate(Object value, int depth) {
+        if (value == null) return 0L;
+        
+        if (!registered.isEmpty()) {
+            final IpcSessionAttributeEstimator estimator = resolve(value.getClass());
+            if (estimator != structural) return estimator.estimate(value);
+        }
+        
+        return estimateStructure(value, depth);
+    }
+    
+    private long estimateStructure(Object value, int depth) {
+        if (value instanceof String) {
+            return 40 + 2L * String.class.cast(value).length();
+        } else if (value instanceof Number || value instanceof Boolean || value instanceof Character) {
+            return 16;
+        } else if (value instanceof byte[]) {
+            return 16 + byte[].class.cast(value).length;
+        } else if (value instanceof Object[]) {
+            final Object[] array = Object[].class.cast(value);
+            long size = 16 + 4L * array.length;
+            if (depth < MAX_DEPTH) {
+                for (Object element : array) {
+                    size += estimate(element, depth + 1);
+                }
+            }
+            return size;
+        } else if (value instanceof Collection<?>) {
+            final Collection<?> collection = Collection.class.cast(value);
+            long size = OBJECT + 16L * collection.size();
+            if (depth < MAX_DEPTH) {
+                for (Object element : collection) {
+                    size += estimate(element, depth + 1);
+                }
+            }
+            return size;
+        } else if (value instanceof Map<?, ?>) {
+            final Map<?, ?> map = Map.class.cast(value);
+            long size = OBJECT + ENTRY * map.size();
+            if (depth < MAX_DEPTH) {
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    size += estimate(entry.getKey(), depth + 1) + estimate(entry.getValue(), depth + 1);
+                }
+            }
+            return size;
+        } else {
+            return OBJECT;
+        }
+    }
+    
+}
@@ -0,0 +1,199 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import com.google.common.base.Preconditions;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+/**
+ * Default {@link IpcSessionIdGenerator} which uses one {@link SecureRandom} per thread,
+ * so generating ids does not contend on a shared generator. Ids consist of 18 bytes
+ * encoded using the url-safe base64 alphabet without padding, i.e. 24 characters.
+ * <p>
+ *   If a {@linkplain IpcSessionConfig#NODE_ID node id} or a number of
+ *   {@linkplain IpcSessionConfig#SHARDS shards} is configured, the first three
+ *   bytes carry a 16 bit tag of the node id and a uniformly chosen shard,
+ *   leaving 120 random bits. Otherwise all 144 bits are random.
+ * </p>
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public final class DefaultIpcSessionIdGenerator implements IpcSessionIdGenerator {
+
+    private static final char[] ALPHABET = 
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+    
+    private static final int[] INDEX = new int[128];
+    
+    private static final int BYTES = 18;
+    
+    private static final int LENGTH = BYTES / 3 * 4;
+    
+    private static final int ROUTING = 3;
+    
+    private static final int MAX_SHARDS = 256;
+    
+    private static final int RESEED_INTERVAL = 1 << 20;
+    
+    private static final SecureRandom SEEDS = new SecureRandom();
+    
+    static {
+        Arrays.fill(INDEX, -1);
+        for (int i = 0; i < ALPHABET.length; i++) {
+            INDEX[ALPHABET[i]] = i;
+        }
+    }
+    
+    private final ThreadLocal<Generator> generators = new ThreadLocal<Generator>() {
+        
+        @Override
+        protected Generator initialValue() {
+            return new Generator();
+        }
+        
+    };
+    
+    private boolean routing;
+    
+    private int tag;
+    
+    private int shards = 1;
+    
+    /**
+     * The random generator and buffer of a single thread.
+     *
+     * @since 2.1
+     * @author Willi Schoenborn
+     */
+    private static final class Generator {
+        
+        private final SecureRandom random;
+        
+        private final byte[] bytes = new byte[BYTES];
+        
+        private final char[] chars = new char[LENGTH];
+        
+        private int count;
+        
+        Generator() {
+            SecureRandom instance;
+            try {
+                instance = SecureRandom.getInstance("SHA1PRNG");
+            } catch (NoSuchAlgorithmException e) {
+                instance = new SecureRandom();
+            }
+            this.random = instance;
+            reseed();
+        }
+        
+        private void reseed() {
+            final byte[] seed = new byte[32];
+            synchronized (SEEDS) {
+                SEEDS.nextBytes(seed);
+            }
+            random.setSeed(seed);
+        }
+        
+        void nextBytes() {
+            if (++count == RESEED_INTERVAL) {
+                count = 0;
+                reseed();
+            }
+            random.nextBytes(bytes);
+        }
+        
+    }
+    
+    @Inject(optional = true)
+    void setNodeId(@Named(IpcSessionConfig.NODE_ID) String nodeId) {
+        Preconditions.checkNotNull(nodeId, "NodeId");
+        final int hash = nodeId.hashCode();
+        this.tag = (hash ^ (hash >>> 16)) & 0xFFFF;
+        this.routing = true;
+    }
+    
+    @Inject(optional = true)
+    void setShards(@Named(IpcSessionConfig.SHARDS) int shards) {
+        Preconditions.checkArgument(shards > 0 && shards <= MAX_SHARDS, "Shards must be in [1, %s]", MAX_SHARDS);
+        this.shards = shards;
+        this.routing = true;
+    }
+    
+    @Override
+    public String generate() {
+        final Generator generator = generators.get();
+        generator.nextBytes();
+        final byte[] bytes = generator.bytes;
+        
+        if (routing) {
+            bytes[0] = (byte) (tag >>> 8);
+            bytes[1] = (byte) tag;
+            // slightly biased unless shards is a power of two, which is negligible for balancing
+            bytes[2] = (byte) ((bytes[2] & 0xFF) % shards);
+        }
+        
+        final char[] chars = generator.chars;
+        for (int i = 0, j = 0; i < BYTES; i += 3, j += 4) {
+            final int group = (bytes[i] & 0xFF) << 16 | (bytes[i + 1] & 0xFF) << 8 | (bytes[i + 2] & 0xFF);
+            chars[j] = ALPHABET[group >>> 18];
+            chars[j + 1] = ALPHABET[(group >>> 12) & 0x3F];
+            chars[j + 2] = ALPHABET[(group >>> 6) & 0x3F];
+            chars[j + 3] = ALPHABET[group & 0x3F];
+        }
+        return new String(chars);
+    }
+    
+    /**
+     * Decodes the routing prefix of the given session id.
+     * 
+     * @param sessionId the session id
+     * @return the decoded 24 bit prefix or -1 if sessionId has not been generated by this class
+     */
+    private int routingOf(String sessionId) {
+        Preconditions.checkNotNull(sessionId, "SessionId");
+        if (!routing || sessionId.length() != LENGTH) return -1;
+        int group = 0;
+        for (int i = 0; i < ROUTING + 1; i++) {
+            final char c = sessionId.charAt(i);
+            final int value = c < INDEX.length ? INDEX[c] : -1;
+            if (value < 0) return -1;
+            group = group << 6 | value;
+        }
+        return group;
+    }
+    
+    @Override
+    public int getShard(String sessionId) {
+        final int group = routingOf(sessionId);
+        if (group < 0) return -1;
+        final int shard = group & 0xFF;
+        return shard < shards ? shard : -1;
+    }
+    
+    @Override
+    public boolean isLocal(String sessionId) {
+        final int group = routingOf(sessionId);
+        return group >= 0 && group >>> 8 == tag;
+    }
+    
+}
@@ -37,6 +37,7 @@ public final class IpcEventModule extends ProxyModule {
         bindProxy(IpcConnectionCreateEvent.class);
         bindProxy(IpcConnectionDestroyEvent.class);
         bindProxy(IpcSessionCreateEvent.class);
+        bindProxy(IpcSessionChangeEvent.class);
         bindProxy(IpcSessionSuspendEvent.class);
         bindProxy(IpcSessionResumeEvent.class);
         bindProxy(IpcSessionDestroyEvent.class);
@@ -47,6 +48,7 @@ public final class IpcEventModule extends ProxyModule {
         bindSilentProxy(IpcConnectionCreateEvent.class);
         bindSilentProxy(IpcConnectionDestroyEvent.class);
         bindSilentProxy(IpcSessionCreateEvent.class);
+        bindSilentProxy(IpcSessionChangeEvent.class);
         bindSilentProxy(IpcSessionSuspendEvent.class);
         bindSilentProxy(IpcSessionResumeEvent.class);
         bindSilentProxy(IpcSessionDestroyEvent.class);
@@ -0,0 +1,37 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc;
+
+/**
+ * Estimates the number of bytes a single session attribute, i.e. a key
+ * or a value, retains on the heap.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public interface IpcSessionAttributeEstimator {
+
+    /**
+     * Estimates the retained size of the given attribute.
+     * 
+     * @since 2.1
+     * @param attribute the attribute, never null
+     * @return the estimated size in bytes
+     */
+    long estimate(Object attribute);
+    
+}
@@ -35,6 +35,148 @@ public final class IpcSessionConfig {
      */
     public static final String EXPIRATION_TIME_UNIT = PREFIX + "expirationTimeUnit";
 
+    /**
+     * Defines how long a session may stay idle until it gets suspended.
+     */
+    public static final String SUSPENSION_TIME = PREFIX + "suspensionTime";
+
+    /**
+     * The TimeUnit for {@link IpcSessionConfig#SUSPENSION_TIME}.
+     */
+    public static final String SUSPENSION_TIME_UNIT = PREFIX + "suspensionTimeUnit";
+
+    /**
+     * Defines how often sessions are checked for suspension and expiration.
+     */
+    public static final String SWEEP_INTERVAL = PREFIX + "sweepInterval";
+
+    /**
+     * The TimeUnit for {@link IpcSessionConfig#SWEEP_INTERVAL}.
+     */
+    public static final String SWEEP_INTERVAL_UNIT = PREFIX + "sweepIntervalUnit";
+
+    /**
+     * The directory suspended sessions are written to.
+     */
+    public static final String SWAP_DIRECTORY = PREFIX + "swapDirectory";
+
+    /**
+     * Defines whether sessions should be suspended instead of destroyed on shutdown.
+     */
+    public static final String SUSPEND_ON_SHUTDOWN = PREFIX + "suspendOnShutdown";
+
+    /**
+     * The unique id of this node within a cluster.
+     */
+    public static final String NODE_ID = PREFIX + "nodeId";
+
+    /**
+     * Defines how often session modifications are shipped to other nodes.
+     */
+    public static final String REPLICATION_INTERVAL = PREFIX + "replicationInterval";
+
+    /**
+     * The TimeUnit for {@link IpcSessionConfig#REPLICATION_INTERVAL}.
+     */
+    public static final String REPLICATION_INTERVAL_UNIT = PREFIX + "replicationIntervalUnit";
+
+    /**
+     * The maximum number of replication messages being sent at once.
+     */
+    public static final String REPLICATION_BATCH_SIZE = PREFIX + "replicationBatchSize";
+
+    /**
+     * The deflate level, from 0 to 9, used to compress suspended sessions kept on the heap.
+     */
+    public static final String COMPRESSION_LEVEL = PREFIX + "compressionLevel";
+
+    /**
+     * The number of deserialized values an off-heap session keeps on the heap.
+     */
+    public static final String OFF_HEAP_CACHE_SIZE = PREFIX + "offHeap.cacheSize";
+
+    /**
+     * The serialized size in bytes from which on values are moved into direct memory.
+     */
+    public static final String OFF_HEAP_THRESHOLD = PREFIX + "offHeap.threshold";
+
+    /**
+     * The maximum number of sessions kept on the heap.
+     */
+    public static final String MAX_SESSIONS = PREFIX + "maxSessions";
+
+    /**
+     * The maximum estimated size in bytes of all sessions kept on the heap.
+     */
+    public static final String MAX_SIZE = PREFIX + "maxSize";
+
+    /**
+     * The maximum estimated size in bytes of a single session.
+     */
+    public static final String QUOTA = PREFIX + "quota";
+
+    /**
+     * The {@link IpcSessionQuotaPolicy} applied to writes exceeding the quota.
+     */
+    public static final String QUOTA_POLICY = PREFIX + "quotaPolicy";
+
+    /**
+     * Whether new sessions are handed out as placeholders which are created on the first write.
+     */
+    public static final String LAZY = PREFIX + "lazy";
+
+    /**
+     * The number of shards encoded into generated session ids, at most 256.
+     */
+    public static final String SHARDS = PREFIX + "shards";
+
+    /**
+     * The directory all sessions are written to on shutdown and restored from on startup.
+     */
+    public static final String SNAPSHOT_DIRECTORY = PREFIX + "snapshotDirectory";
+
+    /**
+     * Defines whether restored sessions are handed to the swap and resumed on first access
+     * instead of being resumed on startup.
+     */
+    public static final String RESTORE_LAZILY = PREFIX + "restoreLazily";
+
+    /**
+     * The directory session modifications are journaled to.
+     */
+    public static final String JOURNAL_DIRECTORY = PREFIX + "journal.directory";
+
+    /**
+     * Defines how often journaled modifications are committed to disk, i.e. the maximum
+     * window of modifications a crash may lose.
+     */
+    public static final String JOURNAL_INTERVAL = PREFIX + "journal.interval";
+
+    /**
+     * The TimeUnit for {@link IpcSessionConfig#JOURNAL_INTERVAL}.
+     */
+    public static final String JOURNAL_INTERVAL_UNIT = PREFIX + "journal.intervalUnit";
+
+    /**
+     * The number of journal files, which are recovered in parallel.
+     */
+    public static final String JOURNAL_SHARDS = PREFIX + "journal.shards";
+
+    /**
+     * Defines how often journals are compacted into snapshots.
+     */
+    public static final String JOURNAL_SNAPSHOT_INTERVAL = PREFIX + "journal.snapshotInterval";
+
+    /**
+     * The TimeUnit for {@link IpcSessionConfig#JOURNAL_SNAPSHOT_INTERVAL}.
+     */
+    public static final String JOURNAL_SNAPSHOT_INTERVAL_UNIT = PREFIX + "journal.snapshotIntervalUnit";
+
+    /**
+     * The maximum time in milliseconds a watch call may block a worker thread.
+     */
+    public static final String MAX_WATCH_TIMEOUT = PREFIX + "maxWatchTimeout";
+
     /**
      * Will not be used.
      */
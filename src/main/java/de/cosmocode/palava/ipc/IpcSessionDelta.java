@@ -0,0 +1,121 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * The serializable set of changes of an {@link AbstractIpcSession} between two
+ * {@linkplain AbstractIpcSession#checkpoint() checkpoints}.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public final class IpcSessionDelta implements Serializable {
+
+    private static final long serialVersionUID = -8126937153071394565L;
+
+    private final String sessionId;
+    
+    private final long lastAccess;
+    
+    private final HashMap<Object, Object> updates;
+    
+    private final HashSet<Object> removals;
+    
+    public IpcSessionDelta(String sessionId, long lastAccess, Map<Object, Object> updates, Set<Object> removals) {
+        this.sessionId = Preconditions.checkNotNull(sessionId, "SessionId");
+        this.lastAccess = lastAccess;
+        this.updates = Maps.newHashMap(Preconditions.checkNotNull(updates, "Updates"));
+        this.removals = Sets.newHashSet(Preconditions.checkNotNull(removals, "Removals"));
+    }
+    
+    public String getSessionId() {
+        return sessionId;
+    }
+    
+    /**
+     * Provides the last access time of the session at the time this delta was created.
+     * 
+     * @since 2.1
+     * @return the last access time in milliseconds
+     */
+    public long getLastAccess() {
+        return lastAccess;
+    }
+    
+    /**
+     * Provides all entries which have been added or modified.
+     * 
+     * @since 2.1
+     * @return an unmodifiable map of all updated entries
+     */
+    public Map<Object, Object> getUpdates() {
+        return Collections.unmodifiableMap(updates);
+    }
+    
+    /**
+     * Provides all keys which have been removed.
+     * 
+     * @since 2.1
+     * @return an unmodifiable set of all removed keys
+     */
+    public Set<Object> getRemovals() {
+        return Collections.unmodifiableSet(removals);
+    }
+    
+    /**
+     * Checks whether this delta contains any changes.
+     * 
+     * @since 2.1
+     * @return true if there are no changes, false otherwise
+     */
+    public boolean isEmpty() {
+        return updates.isEmpty() && removals.isEmpty();
+    }
+    
+    /**
+     * Applies this delta to the given map.
+     * 
+     * @since 2.1
+     * @param target the map this delta should be applied to
+     * @throws NullPointerException if target is null
+     */
+    public void applyTo(Map<Object, Object> target) {
+        Preconditions.checkNotNull(target, "Target");
+        for (Object key : removals) {
+            target.remove(key);
+        }
+        target.putAll(updates);
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("IpcSessionDelta [sessionId=%s, updates=%s, removals=%s]", 
+            sessionId, updates.keySet(), removals);
+    }
+    
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Extension of {@link IpcSession}s which supports entries expiring
+ * independently of the session.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public interface IpcSessionEntryExpiry {
+
+    /**
+     * Associates the given value with the given key for the given amount of time.
+     * Expired entries behave like absent ones and are reclaimed lazily on access
+     * or by {@link #purgeExpiredEntries()}. A subsequent {@code put} of the same key
+     * without a time to live removes the expiry, replacing the value keeps it.
+     * 
+     * @since 2.1
+     * @param key the key
+     * @param value the value
+     * @param ttl the time to live
+     * @param unit the unit of ttl
+     * @return the previous value or null if there was none
+     * @throws NullPointerException if unit is null
+     * @throws IllegalArgumentException if ttl is not positive
+     */
+    Object put(Object key, Object value, long ttl, TimeUnit unit);
+    
+    /**
+     * Provides the remaining time to live of the given key.
+     * 
+     * @since 2.1
+     * @param key the key
+     * @param unit the desired unit
+     * @return the remaining time to live or -1 if the key does not expire
+     * @throws NullPointerException if unit is null
+     */
+    long getTimeToLive(Object key, TimeUnit unit);
+    
+    /**
+     * Removes all expired entries. Entries are removed one by one, concurrent
+     * access to the session is not blocked. This method does not touch the session.
+     * 
+     * @since 2.1
+     * @return the number of removed entries
+     */
+    int purgeExpiredEntries();
+    
+}
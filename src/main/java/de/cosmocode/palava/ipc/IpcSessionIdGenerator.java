@@ -0,0 +1,54 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc;
+
+/**
+ * Generates session ids for {@link IpcSessionProvider}s. Implementations must
+ * be thread-safe and should produce unpredictable, url-safe ids.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public interface IpcSessionIdGenerator {
+
+    /**
+     * Generates a new session id.
+     * 
+     * @return a new, unique session id
+     */
+    String generate();
+    
+    /**
+     * Extracts the shard which has been encoded into the given session id.
+     * 
+     * @param sessionId the session id
+     * @return the shard of the given session id or -1 if it does not carry a shard
+     *         produced by this generator
+     * @throws NullPointerException if sessionId is null
+     */
+    int getShard(String sessionId);
+    
+    /**
+     * Checks whether the given session id has been generated on this node.
+     * 
+     * @param sessionId the session id
+     * @return true if sessionId carries the tag of this node, false otherwise
+     * @throws NullPointerException if sessionId is null
+     */
+    boolean isLocal(String sessionId);
+    
+}
@@ -0,0 +1,46 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc;
+
+/**
+ * A special RuntimeException thrown by an {@link AbstractIpcSession} if a write
+ * would exceed its quota and the quota policy is {@link IpcSessionQuotaPolicy#REJECT}.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public class IpcSessionQuotaExceededException extends IllegalStateException {
+
+    private static final long serialVersionUID = -3350227290845337140L;
+
+    public IpcSessionQuotaExceededException() {
+        super();
+    }
+
+    public IpcSessionQuotaExceededException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public IpcSessionQuotaExceededException(String s) {
+        super(s);
+    }
+
+    public IpcSessionQuotaExceededException(Throwable cause) {
+        super(cause);
+    }
+
+}
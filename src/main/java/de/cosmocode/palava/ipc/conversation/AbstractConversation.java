@@ -16,36 +16,74 @@
 
 package de.cosmocode.palava.ipc.conversation;
 
-import java.util.Iterator;
+import java.io.Serializable;
+import java.util.Date;
+import java.util.List;
 import java.util.Map;
+import java.util.SortedMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Preconditions;
 import com.google.common.collect.ForwardingConcurrentMap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
+import de.cosmocode.palava.scope.Destroyable;
+
 /**
- * Abstract {@link Conversation} implementation.
+ * Abstract {@link ManagedConversation} implementation. Entries, timeout and last access time
+ * are serialized, which allows expiry to continue once the owning session is resumed.
  *
  * @since 1.4
  * @author Willi Schoenborn
  */
-abstract class AbstractConversation extends ForwardingConcurrentMap<Object, Object> implements Conversation {
+abstract class AbstractConversation extends ForwardingConcurrentMap<Object, Object> 
+    implements ManagedConversation, Serializable {
+
+    private static final long serialVersionUID = 4309741537626458223L;
 
     private static final Logger LOG = LoggerFactory.getLogger(AbstractConversation.class);
     
+    private static final Executor SAME_THREAD = new Executor() {
+        
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+        
+    };
+    
     private ConcurrentMap<Object, Object> map;
     
+    private volatile long lastAccess = System.currentTimeMillis();
+    
+    private volatile long timeout;
+    
     @Override
     protected ConcurrentMap<Object, Object> delegate() {
+        lastAccess = System.currentTimeMillis();
         if (map == null) {
             map = Maps.newConcurrentMap();
         }
         return map;
     }
     
+    /**
+     * Marks this conversation as accessed.
+     * 
+     * @since 2.1
+     */
+    void touch() {
+        lastAccess = System.currentTimeMillis();
+    }
+    
     @Override
     public final void destroy() {
         if (map == null) {
@@ -55,36 +93,84 @@ abstract class AbstractConversation extends ForwardingConcurrentMap<Object, Obje
         }
     }
 
+    @Override
+    public Date lastAccessTime() {
+        return new Date(lastAccess);
+    }
+    
+    @Override
+    public long getTimeout(TimeUnit unit) {
+        Preconditions.checkNotNull(unit, "Unit");
+        return unit.convert(timeout, TimeUnit.MILLISECONDS);
+    }
+    
+    @Override
+    public void setTimeout(long time, TimeUnit unit) {
+        Preconditions.checkNotNull(unit, "Unit");
+        this.timeout = unit.toMillis(time);
+    }
+    
+    @Override
+    public boolean isExpired() {
+        return timeout > 0 && System.currentTimeMillis() - lastAccess > timeout;
+    }
+    
+    /**
+     * Calls {@link Destroyable#destroy()} on all {@link Destroyable} keys and values,
+     * even in case of an error.
+     * 
+     * @since 2.1
+     */
+    protected void destroyAll() {
+        if (map == null) return;
+        for (Entry<Object, Object> entry : map.entrySet()) {
+            destroy(entry.getKey());
+            destroy(entry.getValue());
+        }
+    }
+    
+    private void destroy(Object object) {
+        if (object instanceof Destroyable) {
+            try {
+                LOG.trace("Destroying {}", object);
+                Destroyable.class.cast(object).destroy();
+                /*CHECKSTYLE:OFF*/
+            } catch (RuntimeException e) {
+                /*CHECKSTYLE:ON*/
+                LOG.error("Failed to destroy: " + object, e);
+            }
+        }
+    }
+
     @Override
     public void end() throws CompletionFailedException {
-        final Map<Throwable, Object> errors = Maps.newHashMap();
-        final Iterator<Entry<Object, Object>> iterator = entrySet().iterator();
+        end(SAME_THREAD);
+    }
+    
+    @Override
+    public void end(Executor executor) throws CompletionFailedException {
+        Preconditions.checkNotNull(executor, "Executor");
+        final Map<Throwable, Object> errors = Maps.newConcurrentMap();
         
-        while (iterator.hasNext()) {
-            final Entry<Object, Object> entry = iterator.next();
-
-            if (entry.getKey() instanceof Completable) {
+        for (List<Completable> completables : orders().values()) {
+            final CountDownLatch latch = new CountDownLatch(completables.size());
+            for (Completable completable : completables) {
+                final Runnable task = new Completion(completable, errors, latch);
                 try {
-                    LOG.trace("Completing key {}", entry.getKey());
-                    Completable.class.cast(entry.getKey()).complete();
-                    /*CHECKSTYLE:OFF*/
-                } catch (RuntimeException e) {
-                    /*CHECKSTYLE:ON*/
-                    LOG.error("Failed to complete key: " + entry.getKey(), e);
-                    errors.put(e, entry.getKey());
+                    executor.execute(task);
+                } catch (RejectedExecutionException e) {
+                    LOG.debug("{} rejected completion, completing in current thread", executor);
+                    task.run();
                 }
             }
             
-            if (entry.getValue() instanceof Completable) {
-                try {
-                    LOG.trace("Completing value {}", entry.getValue());
-                    Completable.class.cast(entry.getValue()).complete();
-                    /*CHECKSTYLE:OFF*/
-                } catch (RuntimeException e) {
-                    /*CHECKSTYLE:ON*/
-                    LOG.error("Failed to complete value: " + entry.getValue(), e);
-                    errors.put(e, entry.getValue());
-                }
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                LOG.warn("Interrupted while ending {}", this);
+                Thread.currentThread().interrupt();
+                errors.put(e, this);
+                break;
             }
         }
         
@@ -92,5 +178,69 @@ abstract class AbstractConversation extends ForwardingConcurrentMap<Object, Obje
             throw new CompletionFailedException(errors);
         }
     }
+    
+    /**
+     * Collects all {@link Completable} keys and values, grouped and sorted by their {@link CompletionOrder}.
+     * 
+     * @return all completables by order
+     */
+    private SortedMap<Integer, List<Completable>> orders() {
+        final SortedMap<Integer, List<Completable>> orders = Maps.newTreeMap();
+        for (Entry<Object, Object> entry : entrySet()) {
+            add(orders, entry.getKey());
+            add(orders, entry.getValue());
+        }
+        return orders;
+    }
+    
+    private void add(SortedMap<Integer, List<Completable>> orders, Object object) {
+        if (object instanceof Completable) {
+            final CompletionOrder annotation = object.getClass().getAnnotation(CompletionOrder.class);
+            final Integer order = annotation == null ? 0 : annotation.value();
+            List<Completable> completables = orders.get(order);
+            if (completables == null) {
+                completables = Lists.newArrayList();
+                orders.put(order, completables);
+            }
+            completables.add(Completable.class.cast(object));
+        }
+    }
+    
+    /**
+     * Completes a single {@link Completable} and records its failure.
+     *
+     * @since 2.1
+     * @author Willi Schoenborn
+     */
+    private static final class Completion implements Runnable {
+        
+        private final Completable completable;
+        
+        private final Map<Throwable, Object> errors;
+        
+        private final CountDownLatch latch;
+        
+        Completion(Completable completable, Map<Throwable, Object> errors, CountDownLatch latch) {
+            this.completable = completable;
+            this.errors = errors;
+            this.latch = latch;
+        }
+        
+        @Override
+        public void run() {
+            try {
+                LOG.trace("Completing {}", completable);
+                completable.complete();
+                /*CHECKSTYLE:OFF*/
+            } catch (RuntimeException e) {
+                /*CHECKSTYLE:ON*/
+                LOG.error("Failed to complete: " + completable, e);
+                errors.put(e, completable);
+            } finally {
+                latch.countDown();
+            }
+        }
+        
+    }
 
 }
@@ -0,0 +1,73 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.conversation;
+
+/**
+ * Configuration keys for the {@link ConversationService}.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public final class ConversationConfig {
+
+    public static final String PREFIX = "ipc.conversation.";
+
+    /**
+     * Defines how long a conversation may stay idle before it is aborted, 0 disables expiry.
+     */
+    public static final String IDLE_TIMEOUT = PREFIX + "idleTimeout";
+
+    /**
+     * The TimeUnit for {@link ConversationConfig#IDLE_TIMEOUT}.
+     */
+    public static final String IDLE_TIMEOUT_UNIT = PREFIX + "idleTimeoutUnit";
+
+    /**
+     * The maximum number of conversations per session.
+     */
+    public static final String MAX_CONVERSATIONS = PREFIX + "maxConversations";
+
+    /**
+     * Defines how often idle conversations are searched and aborted.
+     */
+    public static final String SWEEP_INTERVAL = PREFIX + "sweepInterval";
+
+    /**
+     * The TimeUnit for {@link ConversationConfig#SWEEP_INTERVAL}.
+     */
+    public static final String SWEEP_INTERVAL_UNIT = PREFIX + "sweepIntervalUnit";
+
+    /**
+     * The number of threads used to complete {@link Completable}s concurrently when a conversation
+     * ends, 0 completes them in the ending thread.
+     */
+    public static final String COMPLETION_THREADS = PREFIX + "completionThreads";
+
+    /**
+     * The number of completions which may wait for a thread, further completions
+     * are run in the ending thread.
+     */
+    public static final String COMPLETION_QUEUE_SIZE = PREFIX + "completionQueueSize";
+
+    /**
+     * Will not be used.
+     */
+    private ConversationConfig() {
+
+    }
+
+}
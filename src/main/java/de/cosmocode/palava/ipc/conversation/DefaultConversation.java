@@ -17,6 +17,7 @@
 package de.cosmocode.palava.ipc.conversation;
 
 import java.io.Serializable;
+import java.util.concurrent.Executor;
 
 import com.google.common.base.Preconditions;
 
@@ -24,7 +25,10 @@ import de.cosmocode.palava.ipc.IpcSession;
 
 /**
  * Default {@link Conversation} implementation. This implementation removes the given key
- * from the specified session when {@link Conversation#abort()} is called.
+ * from the specified session when {@link Conversation#abort()} is called, unless another
+ * conversation has been stored using the same key in the meantime. If created with an executor,
+ * {@link Conversation#end()} completes independent {@link Completable}s concurrently and outside
+ * of the caller's scopes, see {@link ManagedConversation#end(Executor)}.
  * 
  * @author Tobias Sarnowski
  */
@@ -34,18 +38,49 @@ public final class DefaultConversation extends AbstractConversation implements S
     
     private IpcSession session;
     private String key;
+    
+    private transient Executor executor;
 
     public DefaultConversation(IpcSession session, String key) {
         this.session = Preconditions.checkNotNull(session, "Session");
         this.key = Preconditions.checkNotNull(key, "Key");
     }
+    
+    DefaultConversation(IpcSession session, String key, Executor executor) {
+        this(session, key);
+        setExecutor(executor);
+    }
+    
+    /**
+     * Sets the executor used to complete independent {@link Completable}s. The executor
+     * is not serialized and has to be set again once the owning session has been resumed.
+     * 
+     * @since 2.1
+     * @param executor the executor
+     * @throws NullPointerException if executor is null
+     */
+    void setExecutor(Executor executor) {
+        this.executor = Preconditions.checkNotNull(executor, "Executor");
+    }
 
     @Override
     public void abort() {
         try {
+            destroyAll();
             clear();
         } finally {
-            session.remove(key);
+            if (session.get(key) == this) {
+                session.remove(key, this);
+            }
+        }
+    }
+    
+    @Override
+    public void end() throws CompletionFailedException {
+        if (executor == null) {
+            super.end();
+        } else {
+            end(executor);
         }
     }
     
@@ -16,47 +16,282 @@
 
 package de.cosmocode.palava.ipc.conversation;
 
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.MapMaker;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import com.google.inject.Key;
 import com.google.inject.Provider;
+import com.google.inject.name.Named;
 import com.google.inject.name.Names;
 
+import de.cosmocode.palava.core.Registry;
+import de.cosmocode.palava.core.lifecycle.Disposable;
+import de.cosmocode.palava.core.lifecycle.Initializable;
+import de.cosmocode.palava.core.lifecycle.LifecycleException;
 import de.cosmocode.palava.ipc.IpcSession;
+import de.cosmocode.palava.ipc.IpcSessionResumeEvent;
 
 /**
- * Default {@link ConversationService} implementation.
+ * Default {@link ConversationService} implementation. The session keys of conversations
+ * are cached per name and conversations are created atomically, so concurrent calls
+ * for the same name always share one conversation. Conversations which have been idle
+ * for longer than their timeout are aborted by a background sweeper or, at the latest,
+ * when they are requested again. Expiry is checked again while holding the conversation's
+ * monitor before aborting, which guards conversations being requested concurrently.
+ * Conversations of resumed sessions are registered with the sweeper again and
+ * complete concurrently, if configured, like newly created ones.
  *
  * @since 1.4
  * @author Willi Schoenborn
  */
-final class DefaultConversationService implements ConversationService {
+final class DefaultConversationService implements ManagedConversationService, IpcSessionResumeEvent, 
+    Initializable, Runnable, Disposable {
 
     private static final Logger LOG = LoggerFactory.getLogger(DefaultConversationService.class);
 
+    private final Registry registry;
+    
     private final Provider<IpcSession> currentSession;
     
+    private final ConcurrentMap<String, String> keys = Maps.newConcurrentMap();
+    
+    /**
+     * Conversations with a timeout, weakly referenced to not outlive their sessions.
+     */
+    private final Set<ManagedConversation> expiring = Sets.newSetFromMap(
+        new MapMaker().weakKeys().<ManagedConversation, Boolean>makeMap()
+    );
+    
+    private long timeout;
+    
+    private TimeUnit timeoutUnit = TimeUnit.MINUTES;
+    
+    private int maxConversations = Integer.MAX_VALUE;
+    
+    private long sweepInterval = 1;
+    
+    private TimeUnit sweepIntervalUnit = TimeUnit.MINUTES;
+    
+    private int completionThreads;
+    
+    private int completionQueueSize = 100;
+    
+    private ScheduledExecutorService scheduler;
+    
+    private ExecutorService completer;
+    
     @Inject
-    public DefaultConversationService(Provider<IpcSession> currentSession) {
+    public DefaultConversationService(Registry registry, Provider<IpcSession> currentSession) {
+        this.registry = Preconditions.checkNotNull(registry, "Registry");
         this.currentSession = Preconditions.checkNotNull(currentSession, "CurrentSession");
     }
-
+    
+    @Inject(optional = true)
+    void setTimeout(@Named(ConversationConfig.IDLE_TIMEOUT) long timeout) {
+        Preconditions.checkArgument(timeout >= 0, "Timeout must not be negative");
+        this.timeout = timeout;
+    }
+    
+    @Inject(optional = true)
+    void setTimeoutUnit(@Named(ConversationConfig.IDLE_TIMEOUT_UNIT) TimeUnit timeoutUnit) {
+        this.timeoutUnit = Preconditions.checkNotNull(timeoutUnit, "TimeoutUnit");
+    }
+    
+    @Inject(optional = true)
+    void setMaxConversations(@Named(ConversationConfig.MAX_CONVERSATIONS) int maxConversations) {
+        Preconditions.checkArgument(maxConversations > 0, "MaxConversations must be positive");
+        this.maxConversations = maxConversations;
+    }
+    
+    @Inject(optional = true)
+    void setSweepInterval(@Named(ConversationConfig.SWEEP_INTERVAL) long sweepInterval) {
+        Preconditions.checkArgument(sweepInterval > 0, "SweepInterval must be positive");
+        this.sweepInterval = sweepInterval;
+    }
+    
+    @Inject(optional = true)
+    void setSweepIntervalUnit(@Named(ConversationConfig.SWEEP_INTERVAL_UNIT) TimeUnit sweepIntervalUnit) {
+        this.sweepIntervalUnit = Preconditions.checkNotNull(sweepIntervalUnit, "SweepIntervalUnit");
+    }
+    
+    @Inject(optional = true)
+    void setCompletionThreads(@Named(ConversationConfig.COMPLETION_THREADS) int completionThreads) {
+        Preconditions.checkArgument(completionThreads >= 0, "CompletionThreads must not be negative");
+        this.completionThreads = completionThreads;
+    }
+    
+    @Inject(optional = true)
+    void setCompletionQueueSize(@Named(ConversationConfig.COMPLETION_QUEUE_SIZE) int completionQueueSize) {
+        Preconditions.checkArgument(completionQueueSize > 0, "CompletionQueueSize must be positive");
+        this.completionQueueSize = completionQueueSize;
+    }
+    
     @Override
-    public Conversation get(String name) {
+    public void initialize() throws LifecycleException {
+        scheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("ipc-conversation-sweeper-%d").setDaemon(true).build()
+        );
+        scheduler.scheduleWithFixedDelay(this, sweepInterval, sweepInterval, sweepIntervalUnit);
+        if (completionThreads > 0) {
+            // bounded, so exhausted pools reject completions which then run in the ending thread
+            completer = new ThreadPoolExecutor(completionThreads, completionThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(completionQueueSize),
+                new ThreadFactoryBuilder().setNameFormat("ipc-conversation-completer-%d").setDaemon(true).build()
+            );
+            LOG.info("Completing conversations using {} threads", completionThreads);
+        }
+        registry.register(IpcSessionResumeEvent.class, this);
+    }
+
+    private String keyOf(String name) {
+        final String cached = keys.get(name);
+        if (cached != null) return cached;
         final String key = Key.get(Conversation.class, Names.named(name)).toString();
+        final String raced = keys.putIfAbsent(name, key);
+        return raced == null ? key : raced;
+    }
+
+    @Override
+    public ManagedConversation get(String name) {
+        return get(name, timeout, timeoutUnit);
+    }
+    
+    @Override
+    public ManagedConversation get(String name, long idleTimeout, TimeUnit unit) {
+        Preconditions.checkNotNull(name, "Name");
+        Preconditions.checkNotNull(unit, "Unit");
+        final String key = keyOf(name);
         final IpcSession session = currentSession.get();
-        final Conversation present = (Conversation) session.get(key);
-        if (present == null) {
-            final Conversation conversation = new DefaultConversation(session, key);
+        final ManagedConversation present = (ManagedConversation) session.get(key);
+        if (present != null) {
+            synchronized (present) {
+                if (!present.isExpired()) {
+                    LOG.trace("Found old conversation {} in session", present);
+                    touch(present);
+                    return present;
+                }
+                LOG.debug("Aborting expired conversation {}", present);
+                expiring.remove(present);
+                present.abort();
+            }
+        }
+        
+        limit(session);
+        final ManagedConversation conversation = completer == null ?
+            new DefaultConversation(session, key) : new DefaultConversation(session, key, completer);
+        conversation.setTimeout(idleTimeout, unit);
+        final ManagedConversation raced = (ManagedConversation) session.putIfAbsent(key, conversation);
+        if (raced == null) {
             LOG.trace("Starting new conversation {}", conversation);
-            session.put(key, conversation);
+            if (idleTimeout > 0) {
+                expiring.add(conversation);
+            }
             return conversation;
         } else {
-            LOG.trace("Found old conversation {} in session", present);
-            return present;
+            LOG.trace("Found old conversation {} in session", raced);
+            return raced;
+        }
+    }
+    
+    private void touch(ManagedConversation conversation) {
+        if (conversation instanceof AbstractConversation) {
+            AbstractConversation.class.cast(conversation).touch();
+        }
+    }
+    
+    /**
+     * Aborts the least recently used conversation of the given session
+     * if the session reached the maximum number of conversations.
+     * 
+     * @param session the current session
+     */
+    private void limit(IpcSession session) {
+        if (maxConversations == Integer.MAX_VALUE) return;
+        int count = 0;
+        ManagedConversation oldest = null;
+        for (Object value : session.values()) {
+            if (value instanceof ManagedConversation) {
+                final ManagedConversation conversation = ManagedConversation.class.cast(value);
+                count++;
+                if (oldest == null || conversation.lastAccessTime().before(oldest.lastAccessTime())) {
+                    oldest = conversation;
+                }
+            }
+        }
+        if (count < maxConversations) return;
+        LOG.info("Session {} reached maximum of {} conversations, aborting {}", new Object[] {
+            session.getSessionId(), maxConversations, oldest
+        });
+        synchronized (oldest) {
+            expiring.remove(oldest);
+            oldest.abort();
+        }
+    }
+    
+    @Override
+    public void eventIpcSessionResume(IpcSession session, Map<String, ? extends Serializable> data) {
+        for (Object value : session.values()) {
+            if (value instanceof ManagedConversation) {
+                final ManagedConversation conversation = ManagedConversation.class.cast(value);
+                if (conversation.getTimeout(TimeUnit.MILLISECONDS) > 0) {
+                    LOG.trace("Watching resumed conversation {}", conversation);
+                    expiring.add(conversation);
+                }
+                if (completer != null && conversation instanceof DefaultConversation) {
+                    DefaultConversation.class.cast(conversation).setExecutor(completer);
+                }
+            }
+        }
+    }
+    
+    @Override
+    public void run() {
+        final Iterator<ManagedConversation> iterator = expiring.iterator();
+        while (iterator.hasNext()) {
+            final ManagedConversation conversation = iterator.next();
+            if (!conversation.isExpired()) continue;
+            synchronized (conversation) {
+                // the conversation may have been requested in the meantime
+                if (!conversation.isExpired()) continue;
+                iterator.remove();
+                try {
+                    LOG.debug("Aborting idle conversation {}", conversation);
+                    conversation.abort();
+                    /*CHECKSTYLE:OFF*/
+                } catch (RuntimeException e) {
+                    /*CHECKSTYLE:ON*/
+                    LOG.error("Failed to abort idle conversation " + conversation, e);
+                }
+            }
+        }
+    }
+    
+    @Override
+    public void dispose() throws LifecycleException {
+        registry.remove(IpcSessionResumeEvent.class, this);
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        if (completer != null) {
+            completer.shutdown();
         }
     }
 
@@ -21,7 +21,8 @@ import com.google.inject.Module;
 import com.google.inject.Singleton;
 
 /**
- * Binds {@link ConversationService} to {@link DefaultConversationService}.
+ * Binds {@link ConversationService} and {@link ManagedConversationService}
+ * to {@link DefaultConversationService}.
  *
  * @since 1.0
  * @author Willi Schoenborn
@@ -30,7 +31,9 @@ public final class DefaultConversationServiceModule implements Module {
 
     @Override
     public void configure(Binder binder) {
-        binder.bind(ConversationService.class).to(DefaultConversationService.class).in(Singleton.class);
+        binder.bind(DefaultConversationService.class).in(Singleton.class);
+        binder.bind(ConversationService.class).to(DefaultConversationService.class);
+        binder.bind(ManagedConversationService.class).to(DefaultConversationService.class);
     }
 
 }
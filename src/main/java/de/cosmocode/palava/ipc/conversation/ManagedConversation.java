@@ -0,0 +1,95 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.palava.ipc.conversation;
+
+import java.util.Date;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link Conversation} which is managed by a {@link ManagedConversationService},
+ * i.e. expires after being idle and may complete its {@link Completable}s concurrently.
+ * These methods are kept apart from {@link Conversation} to not break existing implementations.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public interface ManagedConversation extends Conversation {
+
+    /**
+     * Ends this conversation and calls {@link Completable#complete()}
+     * on all {@link Completable} keys and values stored in this conversation
+     * using the given executor. Completables of the same {@link CompletionOrder}
+     * are completed concurrently, orders are completed one after another.
+     * <p>
+     *   This method tries to call all {@link Completable}s, even in case of an error,
+     *   and blocks until all of them have been completed.
+     * </p>
+     * <p>
+     *   Completables run in the executor's threads, i.e. outside of the call and connection
+     *   scope of the caller. Completables relying on scoped objects have to obtain them before
+     *   this method is called or must not be completed using an executor other than the
+     *   current thread.
+     * </p>
+     * 
+     * @since 2.1
+     * @param executor the executor used to complete independent completables
+     * @throws NullPointerException if executor is null
+     * @throws CompletionFailedException if any key/value completion failed
+     */
+    void end(Executor executor) throws CompletionFailedException;
+    
+    /**
+     * Provides the time this conversation has been accessed the last time.
+     * 
+     * @since 2.1
+     * @return the date of last access
+     */
+    Date lastAccessTime();
+    
+    /**
+     * Gets the idle timeout of this conversation.
+     * 
+     * @since 2.1
+     * @param unit the desired time unit
+     * @return the idle timeout in the specified unit, 0 if this conversation never expires
+     * @throws NullPointerException if unit is null
+     */
+    long getTimeout(TimeUnit unit);
+    
+    /**
+     * Sets the idle timeout of this conversation.
+     * 
+     * @since 2.1
+     * @param timeout the new timeout, 0 disables expiry
+     * @param unit the time unit of timeout
+     * @throws NullPointerException if unit is null
+     */
+    void setTimeout(long timeout, TimeUnit unit);
+    
+    /**
+     * Checks whether this conversation is expired, i.e. has been idle
+     * for longer than its timeout. Expired conversations are aborted by
+     * the {@link ManagedConversationService}.
+     * 
+     * @since 2.1
+     * @return true if this conversation is expired, false otherwise
+     */
+    boolean isExpired();
+    
+}
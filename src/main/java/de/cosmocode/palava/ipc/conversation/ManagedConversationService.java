@@ -0,0 +1,49 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.palava.ipc.conversation;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link ConversationService} which hands out {@link ManagedConversation}s.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public interface ManagedConversationService extends ConversationService {
+
+    @Override
+    ManagedConversation get(String name);
+    
+    /**
+     * Retrieves a named Conversation. This may result in
+     * the creation of a conversation if no conversation
+     * with the specified name is currently in progress. A newly created
+     * conversation will be aborted automatically after being idle for
+     * longer than the specified timeout.
+     * 
+     * @since 2.1
+     * @param name the name of the conversation
+     * @param timeout the idle timeout of a newly created conversation, 0 disables expiry
+     * @param unit the time unit of timeout
+     * @return the conversation associated with the given name
+     * @throws NullPointerException if name or unit is null
+     */
+    ManagedConversation get(String name, long timeout, TimeUnit unit);
+    
+}
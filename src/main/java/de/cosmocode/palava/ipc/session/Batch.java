@@ -0,0 +1,323 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.inject.Singleton;
+
+import de.cosmocode.palava.ipc.IpcArguments;
+import de.cosmocode.palava.ipc.IpcCall;
+import de.cosmocode.palava.ipc.IpcCommand;
+import de.cosmocode.palava.ipc.IpcCommandExecutionException;
+import de.cosmocode.palava.ipc.IpcSession;
+
+/**
+ * See below.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+@IpcCommand.Description("Executes several get, set, remove and contains operations in one call. " +
+    "All operations are validated before the first one is executed. Atomic batches undo all writes " +
+    "and remove created namespaces if an operation fails, concurrent calls may however observe " +
+    "intermediate states. Entries overwritten concurrently in the meantime are kept.")
+@IpcCommand.Params({
+    @IpcCommand.Param(name = Naming.OPERATIONS, description = "List of operations, each one a map containing " +
+        "the type (get, set, remove or contains), the keys (get, remove, contains) or entries (set) and " +
+        "an optional namespace", type = "array"),
+    @IpcCommand.Param(name = Naming.ATOMIC, description = "Whether all writes should be undone on failure",
+        type = "boolean", optional = true, defaultValue = "false")
+})
+@IpcCommand.Return(name = Naming.RESULTS, description = "List of results in the order of the operations, " +
+    "entries for get, status for contains and null for set and remove")
+@Singleton
+final class Batch implements IpcCommand {
+
+    /**
+     * The supported operation types.
+     *
+     * @since 2.1
+     * @author Willi Schoenborn
+     */
+    private enum Type {
+        
+        GET, SET, REMOVE, CONTAINS;
+        
+    }
+    
+    /**
+     * A single parsed operation.
+     *
+     * @since 2.1
+     * @author Willi Schoenborn
+     */
+    private static final class Operation {
+        
+        private final Type type;
+        
+        private final String namespace;
+        
+        private final List<Object> keys;
+        
+        private final Map<Object, Object> entries;
+        
+        @SuppressWarnings("unchecked")
+        Operation(Map<?, ?> operation) {
+            final Object typeName = operation.get(Naming.TYPE);
+            if (typeName == null) {
+                throw new IllegalArgumentException("Missing type in " + operation);
+            }
+            this.type = Type.valueOf(typeName.toString().toUpperCase(Locale.ENGLISH));
+            
+            final Object namespaceName = operation.get(Naming.NAMESPACE);
+            this.namespace = namespaceName == null ? null : namespaceName.toString();
+            
+            if (type == Type.SET) {
+                final Object value = operation.get(Naming.ENTRIES);
+                if (!(value instanceof Map<?, ?>)) {
+                    throw new IllegalArgumentException("Missing entries in " + operation);
+                }
+                this.keys = null;
+                this.entries = (Map<Object, Object>) value;
+            } else {
+                final Object value = operation.get(Naming.KEYS);
+                if (!(value instanceof List<?>)) {
+                    throw new IllegalArgumentException("Missing keys in " + operation);
+                }
+                this.keys = (List<Object>) value;
+                this.entries = null;
+            }
+        }
+        
+    }
+    
+    /**
+     * A single write which can be undone.
+     *
+     * @since 2.1
+     * @author Willi Schoenborn
+     */
+    private abstract static class Undo {
+        
+        /**
+         * Undoes the write, unless it has been overwritten concurrently.
+         */
+        abstract void undo();
+        
+    }
+    
+    /**
+     * Undoes a single set or remove of an entry.
+     *
+     * @since 2.1
+     * @author Willi Schoenborn
+     */
+    private static final class EntryUndo extends Undo {
+        
+        private final ConcurrentMap<Object, Object> map;
+        
+        private final Object key;
+        
+        private final Object previous;
+        
+        private final Object written;
+        
+        EntryUndo(ConcurrentMap<Object, Object> map, Object key, Object previous, Object written) {
+            this.map = map;
+            this.key = key;
+            this.previous = previous;
+            this.written = written;
+        }
+        
+        @Override
+        void undo() {
+            if (written == null) {
+                if (previous != null) {
+                    map.putIfAbsent(key, previous);
+                }
+            } else if (previous == null) {
+                map.remove(key, written);
+            } else {
+                map.replace(key, written, previous);
+            }
+        }
+        
+    }
+    
+    /**
+     * Undoes the creation of a namespace by removing it, if it is still empty.
+     *
+     * @since 2.1
+     * @author Willi Schoenborn
+     */
+    private static final class NamespaceUndo extends Undo {
+        
+        private final IpcSession session;
+        
+        private final String namespace;
+        
+        private final ConcurrentMap<Object, Object> created;
+        
+        NamespaceUndo(IpcSession session, String namespace, ConcurrentMap<Object, Object> created) {
+            this.session = session;
+            this.namespace = namespace;
+            this.created = created;
+        }
+        
+        @Override
+        void undo() {
+            if (created.isEmpty()) {
+                session.remove(namespace, created);
+            }
+        }
+        
+    }
+    
+    @Override
+    public void execute(IpcCall call, Map<String, Object> result) throws IpcCommandExecutionException {
+        final IpcArguments arguments = call.getArguments();
+        final List<Object> values = arguments.getList(Naming.OPERATIONS);
+        final boolean atomic = arguments.getBoolean(Naming.ATOMIC, false);
+        
+        final List<Operation> operations = Lists.newArrayListWithCapacity(values.size());
+        try {
+            for (Object value : values) {
+                if (!(value instanceof Map<?, ?>)) {
+                    throw new IllegalArgumentException("Not an operation: " + value);
+                }
+                operations.add(new Operation(Map.class.cast(value)));
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IpcCommandExecutionException(e);
+        }
+        
+        final IpcSession session = call.getConnection().getSession();
+        final Map<String, ConcurrentMap<Object, Object>> namespaces = Maps.newHashMap();
+        final Set<String> modified = Sets.newHashSet();
+        final List<Undo> undos = atomic ? Lists.<Undo>newArrayList() : null;
+        final List<Object> results = Lists.newArrayListWithCapacity(operations.size());
+        
+        try {
+            for (Operation operation : operations) {
+                results.add(execute(session, operation, namespaces, modified, undos));
+            }
+            /*CHECKSTYLE:OFF*/
+        } catch (RuntimeException e) {
+            /*CHECKSTYLE:ON*/
+            if (atomic) {
+                for (Undo undo : Lists.reverse(undos)) {
+                    undo.undo();
+                }
+            }
+            throw new IpcCommandExecutionException(e);
+        } finally {
+            for (String namespace : modified) {
+                Namespaces.publish(session, namespace, namespaces.get(namespace));
+            }
+        }
+        
+        result.put(Naming.RESULTS, results);
+    }
+    
+    private ConcurrentMap<Object, Object> resolve(IpcSession session, String namespace, boolean create,
+        Map<String, ConcurrentMap<Object, Object>> namespaces, List<Undo> undos) {
+        
+        final ConcurrentMap<Object, Object> cached = namespaces.get(namespace);
+        if (cached != null) return cached;
+        ConcurrentMap<Object, Object> namespaced = Namespaces.get(session, namespace);
+        if (namespaced == null && create) {
+            namespaced = Namespaces.getOrCreate(session, namespace);
+            if (undos != null) {
+                undos.add(new NamespaceUndo(session, namespace, namespaced));
+            }
+        }
+        if (namespaced != null) {
+            namespaces.put(namespace, namespaced);
+        }
+        return namespaced;
+    }
+    
+    private Object execute(IpcSession session, Operation operation, 
+        Map<String, ConcurrentMap<Object, Object>> namespaces, Set<String> modified, List<Undo> undos) {
+        
+        final String namespace = operation.namespace;
+        
+        switch (operation.type) {
+            case GET: {
+                final Map<Object, Object> namespaced = resolve(session, namespace, false, namespaces, undos);
+                final Map<Object, Object> entries = Maps.newHashMap();
+                for (Object key : operation.keys) {
+                    entries.put(key, namespaced == null ? null : namespaced.get(key));
+                }
+                return entries;
+            }
+            case CONTAINS: {
+                final Map<Object, Object> namespaced = resolve(session, namespace, false, namespaces, undos);
+                final Map<Object, Boolean> status = Maps.newHashMap();
+                for (Object key : operation.keys) {
+                    status.put(key, Boolean.valueOf(namespaced != null && namespaced.containsKey(key)));
+                }
+                return status;
+            }
+            case SET: {
+                Namespaces.checkQuota(session, namespace, operation.entries);
+                final ConcurrentMap<Object, Object> namespaced = resolve(session, namespace, true, namespaces, undos);
+                for (Map.Entry<Object, Object> entry : operation.entries.entrySet()) {
+                    final Object previous;
+                    if (entry.getValue() == null) {
+                        previous = namespaced.remove(entry.getKey());
+                    } else {
+                        previous = namespaced.put(entry.getKey(), entry.getValue());
+                    }
+                    if (undos != null) {
+                        undos.add(new EntryUndo(namespaced, entry.getKey(), previous, entry.getValue()));
+                    }
+                }
+                if (namespace != null) {
+                    modified.add(namespace);
+                }
+                return null;
+            }
+            case REMOVE: {
+                final ConcurrentMap<Object, Object> namespaced = resolve(session, namespace, false, namespaces, undos);
+                if (namespaced == null) return null;
+                for (Object key : operation.keys) {
+                    final Object previous = namespaced.remove(key);
+                    if (previous != null && undos != null) {
+                        undos.add(new EntryUndo(namespaced, key, previous, null));
+                    }
+                }
+                if (namespace != null) {
+                    modified.add(namespace);
+                }
+                return null;
+            }
+            default: {
+                throw new AssertionError("Unknown type " + operation.type);
+            }
+        }
+    }
+
+}
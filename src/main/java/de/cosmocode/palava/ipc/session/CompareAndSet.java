@@ -0,0 +1,87 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.inject.Singleton;
+
+import de.cosmocode.palava.ipc.IpcArguments;
+import de.cosmocode.palava.ipc.IpcCall;
+import de.cosmocode.palava.ipc.IpcCommand;
+import de.cosmocode.palava.ipc.IpcCommandExecutionException;
+import de.cosmocode.palava.ipc.IpcSession;
+
+/**
+ * See below.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+@IpcCommand.Description("Atomically sets an entry if its current value equals the expected one")
+@IpcCommand.Params({
+    @IpcCommand.Param(name = Naming.KEY, description = "The key", type = "string"),
+    @IpcCommand.Param(name = Naming.EXPECTED, description = "The expected value (null expects an absent entry)", 
+        optional = true),
+    @IpcCommand.Param(name = Naming.VALUE, description = "The new value (null removes the entry)", optional = true),
+    @IpcCommand.Param(name = Naming.NAMESPACE, description = "The global namespace keys (null disables)", 
+        type = "string", optional = true)
+})
+@IpcCommand.Return(name = Naming.STATUS, description = "Whether the entry has been set")
+@Singleton
+final class CompareAndSet implements IpcCommand {
+
+    @Override
+    public void execute(IpcCall call, Map<String, Object> result) throws IpcCommandExecutionException {
+        final IpcArguments arguments = call.getArguments();
+        final String key = arguments.getString(Naming.KEY);
+        final Object expected = arguments.get(Naming.EXPECTED);
+        final Object value = arguments.get(Naming.VALUE);
+        final String namespace = arguments.getString(Naming.NAMESPACE, null);
+        final IpcSession session = call.getConnection().getSession();
+        
+        Namespaces.checkQuota(session, namespace, Collections.singletonMap(key, value));
+        final ConcurrentMap<Object, Object> namespaced = Namespaces.getOrCreate(session, namespace);
+        final boolean updated = compareAndSet(namespaced, key, expected, value);
+        if (updated) {
+            Namespaces.publish(session, namespace, namespaced);
+        }
+        result.put(Naming.STATUS, updated);
+    }
+    
+    /**
+     * Atomically sets the entry for the given key if its current value equals the expected one.
+     * 
+     * @param map the map, e.g. the session
+     * @param key the key
+     * @param expected the expected value, null if the entry is expected to be absent
+     * @param value the new value, null to remove the entry
+     * @return true if the entry has been set, false otherwise
+     */
+    static boolean compareAndSet(ConcurrentMap<Object, Object> map, Object key, Object expected, Object value) {
+        if (expected == null) {
+            return value == null ? !map.containsKey(key) : map.putIfAbsent(key, value) == null;
+        } else if (value == null) {
+            return map.remove(key, expected);
+        } else {
+            return map.replace(key, expected, value);
+        }
+    }
+
+}
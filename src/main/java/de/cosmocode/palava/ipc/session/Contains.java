@@ -54,20 +54,10 @@ final class Contains implements IpcCommand {
         
         final Map<Object, Boolean> status = Maps.newHashMap();
         
+        final Map<Object, Object> namespaced = Namespaces.get(session, namespace);
+        
         for (Object key : keys) {
-            final boolean contained;
-            
-            if (namespace == null) {
-                contained = session.containsKey(key);
-            } else if (session.containsKey(namespace)) {
-                @SuppressWarnings("unchecked")
-                final Map<Object, Object> namespaced = (Map<Object, Object>) session.get(namespace);
-                contained = namespaced.containsKey(key);
-            } else {
-                contained = false;
-            }
-            
-            status.put(key, Boolean.valueOf(contained));
+            status.put(key, Boolean.valueOf(namespaced != null && namespaced.containsKey(key)));
         }
         
         result.put(Naming.STATUS, status);
@@ -58,11 +58,9 @@ final class Entries implements IpcCommand {
         
         final Map<Object, Object> entries = sort ? Maps.newTreeMap(ordering) : Maps.newHashMap();
         
-        if (namespace == null) {
-            entries.putAll(session);
-        } else if (session.containsKey(namespace)) {
-            @SuppressWarnings("unchecked")
-            final Map<Object, Object> namespaced = (Map<Object, Object>) session.get(namespace);
+        final Map<Object, Object> namespaced = Namespaces.get(session, namespace);
+        
+        if (namespaced != null) {
             entries.putAll(namespaced);
         }
         
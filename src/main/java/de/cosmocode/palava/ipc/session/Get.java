@@ -53,20 +53,10 @@ final class Get implements IpcCommand {
         
         final Map<Object, Object> entries = Maps.newHashMap();
         
+        final Map<Object, Object> namespaced = Namespaces.get(session, namespace);
+        
         for (Object key : keys) {
-            final Object value;
-            
-            if (namespace == null) {
-                value = session.get(key);
-            } else if (session.containsKey(namespace)) {
-                @SuppressWarnings("unchecked")
-                final Map<Object, Object> namespaced = (Map<Object, Object>) session.get(namespace);
-                value = namespaced.get(key);
-            } else {
-                value = null;
-            }
-            
-            entries.put(key, value);
+            entries.put(key, namespaced == null ? null : namespaced.get(key));
         }
         
         result.put(Naming.ENTRIES, entries);
@@ -0,0 +1,120 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.inject.Singleton;
+
+import de.cosmocode.palava.ipc.IpcArguments;
+import de.cosmocode.palava.ipc.IpcCall;
+import de.cosmocode.palava.ipc.IpcCommand;
+import de.cosmocode.palava.ipc.IpcCommandExecutionException;
+import de.cosmocode.palava.ipc.IpcSession;
+
+/**
+ * See below.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+@IpcCommand.Description("Atomically adds the specified delta to an integral numeric entry, " +
+    "absent entries count as zero. Entries holding fractional numbers and overflowing results are rejected")
+@IpcCommand.Params({
+    @IpcCommand.Param(name = Naming.KEY, description = "The key", type = "string"),
+    @IpcCommand.Param(name = Naming.DELTA, description = "The delta", type = "long", 
+        optional = true, defaultValue = "1"),
+    @IpcCommand.Param(name = Naming.NAMESPACE, description = "The global namespace keys (null disables)", 
+        type = "string", optional = true)
+})
+@IpcCommand.Return(name = Naming.VALUE, description = "The new value")
+@Singleton
+final class Increment implements IpcCommand {
+
+    @Override
+    public void execute(IpcCall call, Map<String, Object> result) throws IpcCommandExecutionException {
+        final IpcArguments arguments = call.getArguments();
+        final String key = arguments.getString(Naming.KEY);
+        final long delta = arguments.getLong(Naming.DELTA, 1L);
+        final String namespace = arguments.getString(Naming.NAMESPACE, null);
+        final IpcSession session = call.getConnection().getSession();
+        final ConcurrentMap<Object, Object> namespaced = Namespaces.getOrCreate(session, namespace);
+        
+        while (true) {
+            final Object current = namespaced.get(key);
+            if (current == null) {
+                if (namespaced.putIfAbsent(key, Long.valueOf(delta)) == null) {
+                    Namespaces.publish(session, namespace, namespaced);
+                    result.put(Naming.VALUE, delta);
+                    return;
+                }
+            } else if (current instanceof Number) {
+                final long value = add(key, integralValueOf(key, Number.class.cast(current)), delta);
+                if (namespaced.replace(key, current, Long.valueOf(value))) {
+                    Namespaces.publish(session, namespace, namespaced);
+                    result.put(Naming.VALUE, value);
+                    return;
+                }
+            } else {
+                throw new IpcCommandExecutionException(new IllegalStateException(
+                    String.format("%s is not a number: %s", key, current)));
+            }
+        }
+    }
+    
+    private static long add(String key, long value, long delta) throws IpcCommandExecutionException {
+        final long sum = value + delta;
+        // overflow occurred if both operands have the same sign which differs from the sign of the sum
+        if (((value ^ sum) & (delta ^ sum)) < 0) {
+            throw new IpcCommandExecutionException(new ArithmeticException(
+                String.format("Adding %s to %s of %s overflows", delta, value, key)));
+        }
+        return sum;
+    }
+    
+    private static long integralValueOf(String key, Number number) throws IpcCommandExecutionException {
+        if (number instanceof Long || number instanceof Integer || number instanceof Short || 
+            number instanceof Byte || number instanceof AtomicLong || number instanceof AtomicInteger) {
+            return number.longValue();
+        } else if (number instanceof BigDecimal) {
+            try {
+                return BigDecimal.class.cast(number).longValueExact();
+            } catch (ArithmeticException e) {
+                throw new IpcCommandExecutionException(new IllegalStateException(
+                    String.format("%s is not an integral number: %s", key, number), e));
+            }
+        } else if (number instanceof BigInteger) {
+            if (BigInteger.class.cast(number).bitLength() < Long.SIZE) {
+                return number.longValue();
+            }
+        } else {
+            final double value = number.doubleValue();
+            // Long.MAX_VALUE is not representable, its double value is one above
+            if (value == Math.rint(value) && value >= Long.MIN_VALUE && value < Long.MAX_VALUE) {
+                return (long) value;
+            }
+        }
+        throw new IpcCommandExecutionException(new IllegalStateException(
+            String.format("%s is not an integral number: %s", key, number)));
+    }
+
+}
@@ -49,11 +49,9 @@ final class Keys implements IpcCommand {
         
         final List<Object> keys = Lists.newArrayList();
 
-        if (namespace == null) {
-            keys.addAll(session.keySet());
-        } else if (session.containsKey(namespace)) {
-            @SuppressWarnings("unchecked")
-            final Map<Object, Object> namespaced = (Map<Object, Object>) session.get(namespace);
+        final Map<Object, Object> namespaced = Namespaces.get(session, namespace);
+        
+        if (namespaced != null) {
             keys.addAll(namespaced.keySet());
         }
         
@@ -0,0 +1,118 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import de.cosmocode.palava.ipc.AbstractIpcSession;
+import de.cosmocode.palava.ipc.IpcSession;
+import de.cosmocode.palava.ipc.IpcSessionQuotaExceededException;
+
+/**
+ * Resolves namespaces, i.e. concurrent maps stored under a global key of a session.
+ * Namespaces stored as plain maps by previous versions are upgraded on first access.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+final class Namespaces {
+
+    private Namespaces() {
+        
+    }
+    
+    /**
+     * Resolves the given namespace.
+     * 
+     * @param session the session
+     * @param namespace the namespace, null resolves to the session itself
+     * @return the namespace or null if there is no such namespace
+     * @throws IllegalArgumentException if the key is used by a value which is not a map
+     */
+    static ConcurrentMap<Object, Object> get(IpcSession session, String namespace) {
+        if (namespace == null) return session;
+        while (true) {
+            final Object value = session.get(namespace);
+            if (value == null) {
+                return null;
+            } else if (value instanceof ConcurrentMap<?, ?>) {
+                @SuppressWarnings("unchecked")
+                final ConcurrentMap<Object, Object> namespaced = (ConcurrentMap<Object, Object>) value;
+                return namespaced;
+            } else if (value instanceof Map<?, ?>) {
+                final ConcurrentMap<Object, Object> upgraded = new ConcurrentHashMap<Object, Object>();
+                for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                    if (entry.getKey() == null || entry.getValue() == null) continue;
+                    upgraded.put(entry.getKey(), entry.getValue());
+                }
+                if (session.replace(namespace, value, upgraded)) {
+                    return upgraded;
+                }
+            } else {
+                throw new IllegalArgumentException(String.format("%s is not a namespace: %s", namespace, value));
+            }
+        }
+    }
+    
+    /**
+     * Resolves the given namespace and creates it atomically if necessary.
+     * 
+     * @param session the session
+     * @param namespace the namespace, null resolves to the session itself
+     * @return the namespace
+     * @throws IllegalArgumentException if the key is used by a value which is not a map
+     */
+    static ConcurrentMap<Object, Object> getOrCreate(IpcSession session, String namespace) {
+        while (true) {
+            final ConcurrentMap<Object, Object> present = get(session, namespace);
+            if (present != null) return present;
+            final ConcurrentMap<Object, Object> created = new ConcurrentHashMap<Object, Object>();
+            if (session.putIfAbsent(namespace, created) == null) {
+                return created;
+            }
+        }
+    }
+    
+    /**
+     * Checks the quota of the session before the given entries are written into the given namespace.
+     * 
+     * @param session the session
+     * @param namespace the namespace, null is ignored because the session checks its own writes
+     * @param entries the entries about to be written
+     * @throws IpcSessionQuotaExceededException if the entries would exceed the quota of the session
+     */
+    static void checkQuota(IpcSession session, String namespace, Map<?, ?> entries) {
+        if (namespace == null || !(session instanceof AbstractIpcSession)) return;
+        AbstractIpcSession.class.cast(session).checkQuota(namespace, entries);
+    }
+    
+    /**
+     * Reports an in-place modification of the given namespace to the session.
+     * 
+     * @param session the session
+     * @param namespace the namespace, null is ignored
+     * @param namespaced the resolved namespace
+     */
+    static void publish(IpcSession session, String namespace, ConcurrentMap<Object, Object> namespaced) {
+        if (namespace == null) return;
+        // re-publishes the namespace to report the in-place modification
+        session.replace(namespace, namespaced);
+    }
+    
+}
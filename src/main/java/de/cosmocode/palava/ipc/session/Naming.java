@@ -28,8 +28,22 @@ final class Naming {
     public static final String ENTRIES = "entries";
     public static final String STATUS = "status";
     
+    public static final String KEY = "key";
+    public static final String VALUE = "value";
+    public static final String EXPECTED = "expected";
+    public static final String DELTA = "delta";
+    
+    public static final String OPERATIONS = "operations";
+    public static final String TYPE = "type";
+    public static final String ATOMIC = "atomic";
+    public static final String RESULTS = "results";
+    
+    public static final String VERSION = "version";
+    public static final String TIMEOUT = "timeout";
+    
     public static final String SORT = "sort";
     public static final String NAMESPACE = "namespace";
+    public static final String TTL = "ttl";
 
     private Naming() {
         
@@ -0,0 +1,74 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.inject.Singleton;
+
+import de.cosmocode.palava.ipc.IpcArguments;
+import de.cosmocode.palava.ipc.IpcCall;
+import de.cosmocode.palava.ipc.IpcCommand;
+import de.cosmocode.palava.ipc.IpcCommandExecutionException;
+import de.cosmocode.palava.ipc.IpcSession;
+
+/**
+ * See below.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+@IpcCommand.Description("Atomically sets an entry unless the key is already present")
+@IpcCommand.Params({
+    @IpcCommand.Param(name = Naming.KEY, description = "The key", type = "string"),
+    @IpcCommand.Param(name = Naming.VALUE, description = "The value, must not be null"),
+    @IpcCommand.Param(name = Naming.NAMESPACE, description = "The global namespace keys (null disables)", 
+        type = "string", optional = true)
+})
+@IpcCommand.Returns({
+    @IpcCommand.Return(name = Naming.STATUS, description = "Whether the entry has been set"),
+    @IpcCommand.Return(name = Naming.VALUE, description = "The current value")
+})
+@Singleton
+final class PutIfAbsent implements IpcCommand {
+
+    @Override
+    public void execute(IpcCall call, Map<String, Object> result) throws IpcCommandExecutionException {
+        final IpcArguments arguments = call.getArguments();
+        final String key = arguments.getString(Naming.KEY);
+        final Object value = arguments.get(Naming.VALUE);
+        final String namespace = arguments.getString(Naming.NAMESPACE, null);
+        final IpcSession session = call.getConnection().getSession();
+        
+        if (value == null) {
+            throw new IpcCommandExecutionException(new IllegalArgumentException(
+                String.format("Missing value for %s", key)));
+        }
+        
+        Namespaces.checkQuota(session, namespace, Collections.singletonMap(key, value));
+        final ConcurrentMap<Object, Object> namespaced = Namespaces.getOrCreate(session, namespace);
+        final Object present = namespaced.putIfAbsent(key, value);
+        if (present == null) {
+            Namespaces.publish(session, namespace, namespaced);
+        }
+        result.put(Naming.STATUS, present == null);
+        result.put(Naming.VALUE, present == null ? value : present);
+    }
+
+}
@@ -18,6 +18,7 @@ package de.cosmocode.palava.ipc.session;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
 
 import com.google.inject.Singleton;
 
@@ -49,14 +50,15 @@ final class Remove implements IpcCommand {
         final String namespace = arguments.getString(Naming.NAMESPACE, null);
         final IpcSession session = call.getConnection().getSession();
 
+        final ConcurrentMap<Object, Object> namespaced = Namespaces.get(session, namespace);
+        if (namespaced == null) return;
+        
+        boolean removed = false;
         for (Object key : keys) {
-            if (namespace == null) {
-                session.remove(key);
-            } else if (session.containsKey(namespace)) {
-                @SuppressWarnings("unchecked")
-                final Map<Object, Object> namespaced = (Map<Object, Object>) session.get(namespace);
-                namespaced.remove(key);
-            }
+            removed |= namespaced.remove(key) != null;
+        }
+        if (removed) {
+            Namespaces.publish(session, namespace, namespaced);
         }
     }
 
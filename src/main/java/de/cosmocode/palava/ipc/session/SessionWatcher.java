@@ -0,0 +1,286 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session;
+
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+import de.cosmocode.palava.core.Registry;
+import de.cosmocode.palava.core.lifecycle.Disposable;
+import de.cosmocode.palava.core.lifecycle.Initializable;
+import de.cosmocode.palava.core.lifecycle.LifecycleException;
+import de.cosmocode.palava.ipc.IpcSession;
+import de.cosmocode.palava.ipc.IpcSessionChangeEvent;
+import de.cosmocode.palava.ipc.IpcSessionConfig;
+import de.cosmocode.palava.ipc.IpcSessionDestroyEvent;
+
+/**
+ * Tracks versions of session keys based on {@link IpcSessionChangeEvent}s and allows
+ * waiting for changes. Versions are only tracked for sessions which have been
+ * {@linkplain #watch(IpcSession) watched} at least once. Only sessions which fire change
+ * events, i.e. sessions managed by the {@code TieredIpcSessionProvider}, can be watched.
+ * <p>
+ *   Not every session ends with a destroy event, e.g. lazy placeholders which are never
+ *   written to. Tracked sessions which are expired or no longer referenced and have no
+ *   waiting calls are therefore pruned periodically. Calls using a version issued before
+ *   their session has been pruned report all keys.
+ * </p>
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+@Singleton
+final class SessionWatcher implements IpcSessionChangeEvent, IpcSessionDestroyEvent, Initializable, Runnable, 
+    Disposable {
+
+    private final Registry registry;
+    
+    private final ConcurrentMap<String, Watched> sessions = Maps.newConcurrentMap();
+    
+    private long sweepInterval = 1;
+    
+    private TimeUnit sweepIntervalUnit = TimeUnit.MINUTES;
+    
+    private ScheduledExecutorService scheduler;
+    
+    /**
+     * The changed keys and the version they have been determined at.
+     *
+     * @since 2.1
+     * @author Willi Schoenborn
+     */
+    static final class Changes {
+        
+        private final Set<Object> keys;
+        
+        private final long version;
+        
+        Changes(Set<Object> keys, long version) {
+            this.keys = keys;
+            this.version = version;
+        }
+        
+        Set<Object> getKeys() {
+            return keys;
+        }
+        
+        long getVersion() {
+            return version;
+        }
+        
+    }
+    
+    /**
+     * The versions of a single watched session.
+     *
+     * @since 2.1
+     * @author Willi Schoenborn
+     */
+    static final class Watched {
+        
+        private final Map<Object, Long> versions = Maps.newHashMap();
+        
+        private long version = 1L;
+        
+        private boolean destroyed;
+        
+        private int waiting;
+        
+        private Reference<IpcSession> session;
+        
+        synchronized void attach(IpcSession current) {
+            if (session == null || session.get() != current) {
+                session = new WeakReference<IpcSession>(current);
+            }
+        }
+        
+        synchronized void changed(Object key) {
+            version++;
+            versions.put(key, version);
+            notifyAll();
+        }
+        
+        synchronized void destroyed() {
+            destroyed = true;
+            notifyAll();
+        }
+        
+        /**
+         * Checks whether the watched session is gone, i.e. expired or no longer referenced,
+         * and nobody is waiting for changes.
+         * 
+         * @return true if this can be pruned, false otherwise
+         */
+        synchronized boolean isAbandoned() {
+            if (waiting > 0) return false;
+            final IpcSession current = session == null ? null : session.get();
+            return current == null || current.isExpired();
+        }
+        
+        /**
+         * Provides all given keys together with the current version.
+         * 
+         * @param keys the watched keys
+         * @return the given keys and the current version
+         */
+        synchronized Changes current(Collection<Object> keys) {
+            return new Changes(ImmutableSet.copyOf(keys), version);
+        }
+        
+        /**
+         * Waits until at least one of the given keys changed after the given version.
+         * 
+         * @param keys the watched keys
+         * @param since the version known by the caller
+         * @param timeout the maximum time to wait in milliseconds
+         * @return all given keys which changed after the given version, empty on timeout,
+         *         together with the version they have been determined at
+         * @throws InterruptedException if the current thread has been interrupted while waiting
+         */
+        synchronized Changes await(Collection<Object> keys, long since, long timeout) throws InterruptedException {
+            // unknown versions, e.g. issued before a restart, and destroyed sessions report all keys
+            if (destroyed || since > version) return current(keys);
+            
+            final long deadline = System.currentTimeMillis() + timeout;
+            waiting++;
+            try {
+                while (true) {
+                    final Set<Object> changed = Sets.newHashSet();
+                    for (Object key : keys) {
+                        final Long changedAt = versions.get(key);
+                        if (changedAt != null && changedAt.longValue() > since) {
+                            changed.add(key);
+                        }
+                    }
+                    if (!changed.isEmpty()) return new Changes(changed, version);
+                    if (destroyed) return current(keys);
+                    final long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) return new Changes(changed, version);
+                    wait(remaining);
+                }
+            } finally {
+                waiting--;
+            }
+        }
+        
+    }
+    
+    @Inject
+    SessionWatcher(Registry registry) {
+        this.registry = Preconditions.checkNotNull(registry, "Registry");
+    }
+    
+    @Inject(optional = true)
+    void setSweepInterval(@Named(IpcSessionConfig.SWEEP_INTERVAL) long sweepInterval) {
+        Preconditions.checkArgument(sweepInterval > 0, "SweepInterval must be positive");
+        this.sweepInterval = sweepInterval;
+    }
+    
+    @Inject(optional = true)
+    void setSweepIntervalUnit(@Named(IpcSessionConfig.SWEEP_INTERVAL_UNIT) TimeUnit sweepIntervalUnit) {
+        this.sweepIntervalUnit = Preconditions.checkNotNull(sweepIntervalUnit, "SweepIntervalUnit");
+    }
+    
+    @Override
+    public void initialize() throws LifecycleException {
+        registry.register(IpcSessionChangeEvent.class, this);
+        registry.register(IpcSessionDestroyEvent.class, this);
+        scheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("ipc-session-watcher-%d").setDaemon(true).build()
+        );
+        scheduler.scheduleWithFixedDelay(this, sweepInterval, sweepInterval, sweepIntervalUnit);
+    }
+    
+    /**
+     * Starts tracking the given session, if not done already.
+     * 
+     * @param session the session
+     * @return the tracked versions of the session
+     */
+    Watched watch(IpcSession session) {
+        final String sessionId = session.getSessionId();
+        final Watched present = sessions.get(sessionId);
+        final Watched watched;
+        if (present == null) {
+            final Watched created = new Watched();
+            final Watched raced = sessions.putIfAbsent(sessionId, created);
+            watched = raced == null ? created : raced;
+        } else {
+            watched = present;
+        }
+        // resumed sessions are new instances
+        watched.attach(session);
+        return watched;
+    }
+    
+    @Override
+    public void eventIpcSessionChange(IpcSession session, Object key) {
+        final Watched watched = sessions.get(session.getSessionId());
+        if (watched == null) return;
+        watched.changed(key);
+    }
+    
+    @Override
+    public void eventIpcSessionDestroy(IpcSession session) {
+        final Watched watched = sessions.remove(session.getSessionId());
+        if (watched == null) return;
+        watched.destroyed();
+    }
+    
+    /**
+     * Prunes abandoned sessions.
+     */
+    @Override
+    public void run() {
+        for (Map.Entry<String, Watched> entry : sessions.entrySet()) {
+            final Watched watched = entry.getValue();
+            if (watched.isAbandoned() && sessions.remove(entry.getKey(), watched)) {
+                watched.destroyed();
+            }
+        }
+    }
+    
+    @Override
+    public void dispose() throws LifecycleException {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        registry.remove(IpcSessionChangeEvent.class, this);
+        registry.remove(IpcSessionDestroyEvent.class, this);
+        for (Watched watched : sessions.values()) {
+            watched.destroyed();
+        }
+        sessions.clear();
+    }
+    
+}
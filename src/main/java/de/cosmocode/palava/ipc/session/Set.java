@@ -17,8 +17,9 @@
 package de.cosmocode.palava.ipc.session;
 
 import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
-import com.google.common.collect.Maps;
 import com.google.inject.Singleton;
 
 import de.cosmocode.palava.ipc.IpcArguments;
@@ -26,6 +27,7 @@ import de.cosmocode.palava.ipc.IpcCall;
 import de.cosmocode.palava.ipc.IpcCommand;
 import de.cosmocode.palava.ipc.IpcCommandExecutionException;
 import de.cosmocode.palava.ipc.IpcSession;
+import de.cosmocode.palava.ipc.IpcSessionEntryExpiry;
 
 /**
  * See below.
@@ -34,11 +36,15 @@ import de.cosmocode.palava.ipc.IpcSession;
  * @author Willi Schoenborn
  * @author Tobias Sarnowski
  */
-@IpcCommand.Description("Adds all specified entries to the session.")
+@IpcCommand.Description("Adds all specified entries to the session. " +
+    "Null values remove the respective entries from the namespace, if specified.")
 @IpcCommand.Params({
-    @IpcCommand.Param(name = Naming.ENTRIES, description = "Map of entries"),
+    @IpcCommand.Param(name = Naming.ENTRIES, description = "Map of entries, null values remove entries " +
+        "from the namespace"),
     @IpcCommand.Param(name = Naming.NAMESPACE, description = "The global namespace keys (null disables)", 
-        type = "string", optional = true)
+        type = "string", optional = true),
+    @IpcCommand.Param(name = Naming.TTL, description = "Time to live of the entries in seconds, " +
+        "not supported together with a namespace", type = "long", optional = true)
 })
 @Singleton
 final class Set implements IpcCommand {
@@ -48,23 +54,45 @@ final class Set implements IpcCommand {
         final IpcArguments arguments = call.getArguments();
         final Map<Object, Object> entries = arguments.getMap(Naming.ENTRIES);
         final String namespace = arguments.getString(Naming.NAMESPACE, null);
+        final long ttl = arguments.getLong(Naming.TTL, 0L);
         final IpcSession session = call.getConnection().getSession();
 
+        if (namespace != null && ttl > 0) {
+            throw new IpcCommandExecutionException(new IllegalArgumentException(
+                "A time to live is not supported for entries of namespace " + namespace));
+        }
+
         if (namespace == null) {
-            session.putAll(entries);
-        } else {
-            final Map<Object, Object> namespaced;
-            if (session.containsKey(namespace)) {
-                @SuppressWarnings("unchecked")
-                final Map<Object, Object> cacged = (Map<Object, Object>) session.get(namespace);
-                namespaced = cacged;
+            if (ttl > 0) {
+                final IpcSessionEntryExpiry expiry = expiryOf(session);
+                for (Map.Entry<Object, Object> entry : entries.entrySet()) {
+                    expiry.put(entry.getKey(), entry.getValue(), ttl, TimeUnit.SECONDS);
+                }
             } else {
-                namespaced = Maps.newHashMap();
-                session.put(namespace, namespaced);
+                session.putAll(entries);
+            }
+        } else {
+            Namespaces.checkQuota(session, namespace, entries);
+            final ConcurrentMap<Object, Object> namespaced = Namespaces.getOrCreate(session, namespace);
+            for (Map.Entry<Object, Object> entry : entries.entrySet()) {
+                if (entry.getValue() == null) {
+                    namespaced.remove(entry.getKey());
+                } else {
+                    namespaced.put(entry.getKey(), entry.getValue());
+                }
             }
-            namespaced.putAll(entries);
+            Namespaces.publish(session, namespace, namespaced);
         }
         
     }
+    
+    private IpcSessionEntryExpiry expiryOf(IpcSession session) throws IpcCommandExecutionException {
+        if (session instanceof IpcSessionEntryExpiry) {
+            return IpcSessionEntryExpiry.class.cast(session);
+        } else {
+            throw new IpcCommandExecutionException(new UnsupportedOperationException(
+                session + " does not support entries with a time to live"));
+        }
+    }
 
 }
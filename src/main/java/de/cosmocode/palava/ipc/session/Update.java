@@ -0,0 +1,90 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.collect.Maps;
+import com.google.inject.Singleton;
+
+import de.cosmocode.palava.ipc.IpcArguments;
+import de.cosmocode.palava.ipc.IpcCall;
+import de.cosmocode.palava.ipc.IpcCommand;
+import de.cosmocode.palava.ipc.IpcCommandExecutionException;
+import de.cosmocode.palava.ipc.IpcSession;
+
+/**
+ * See below.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+@IpcCommand.Description("Sets several entries, each one atomically. Entries with an expected value are only " +
+    "set if their current value equals the expected one, all other entries are set unconditionally.")
+@IpcCommand.Params({
+    @IpcCommand.Param(name = Naming.ENTRIES, description = "Map of new values (null removes the entry)"),
+    @IpcCommand.Param(name = Naming.EXPECTED, description = "Map of expected values (null expects an absent entry)",
+        optional = true),
+    @IpcCommand.Param(name = Naming.NAMESPACE, description = "The global namespace keys (null disables)", 
+        type = "string", optional = true)
+})
+@IpcCommand.Return(name = Naming.STATUS, 
+    description = "A mapping of key to boolean, where keys mapped to true have been set")
+@Singleton
+final class Update implements IpcCommand {
+
+    @Override
+    public void execute(IpcCall call, Map<String, Object> result) throws IpcCommandExecutionException {
+        final IpcArguments arguments = call.getArguments();
+        final Map<Object, Object> entries = arguments.getMap(Naming.ENTRIES);
+        final Map<Object, Object> expected = arguments.getMap(Naming.EXPECTED, Maps.<Object, Object>newHashMap());
+        final String namespace = arguments.getString(Naming.NAMESPACE, null);
+        final IpcSession session = call.getConnection().getSession();
+        Namespaces.checkQuota(session, namespace, entries);
+        final ConcurrentMap<Object, Object> namespaced = Namespaces.getOrCreate(session, namespace);
+        
+        final Map<Object, Boolean> status = Maps.newHashMap();
+        boolean modified = false;
+        
+        for (Map.Entry<Object, Object> entry : entries.entrySet()) {
+            final Object key = entry.getKey();
+            final Object value = entry.getValue();
+            final boolean updated;
+            
+            if (expected.containsKey(key)) {
+                updated = CompareAndSet.compareAndSet(namespaced, key, expected.get(key), value);
+            } else if (value == null) {
+                namespaced.remove(key);
+                updated = true;
+            } else {
+                namespaced.put(key, value);
+                updated = true;
+            }
+            
+            modified |= updated;
+            status.put(key, Boolean.valueOf(updated));
+        }
+        
+        if (modified) {
+            Namespaces.publish(session, namespace, namespaced);
+        }
+        
+        result.put(Naming.STATUS, status);
+    }
+
+}
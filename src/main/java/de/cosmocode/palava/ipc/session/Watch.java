@@ -0,0 +1,115 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session;
+
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+import de.cosmocode.palava.ipc.AbstractIpcSession;
+import de.cosmocode.palava.ipc.IpcArguments;
+import de.cosmocode.palava.ipc.IpcCall;
+import de.cosmocode.palava.ipc.IpcCommand;
+import de.cosmocode.palava.ipc.IpcCommandExecutionException;
+import de.cosmocode.palava.ipc.IpcSession;
+import de.cosmocode.palava.ipc.IpcSessionConfig;
+
+/**
+ * See below.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+@IpcCommand.Description("Waits until at least one of the specified keys or namespaces changes. " +
+    "Calls without a version return immediately and start tracking changes. A waiting call blocks " +
+    "a worker thread of the server for its whole duration, the timeout is therefore capped. " +
+    "Requires sessions which report their changes, i.e. sessions managed by the tiered session provider.")
+@IpcCommand.Params({
+    @IpcCommand.Param(name = Naming.KEYS, description = "The watched keys and namespaces", type = "array"),
+    @IpcCommand.Param(name = Naming.VERSION, description = "The version returned by the previous call", 
+        type = "long", optional = true),
+    @IpcCommand.Param(name = Naming.TIMEOUT, description = "The maximum time to wait in milliseconds, " +
+        "capped at the configured maximum", type = "long", optional = true, defaultValue = "10000")
+})
+@IpcCommand.Returns({
+    @IpcCommand.Return(name = Naming.ENTRIES, description = "The changed entries, empty on timeout"),
+    @IpcCommand.Return(name = Naming.VERSION, description = "The version to pass to the next call")
+})
+@Singleton
+final class Watch implements IpcCommand {
+
+    private static final long DEFAULT_TIMEOUT = 10000L;
+    
+    private final SessionWatcher watcher;
+    
+    private long maxTimeout = DEFAULT_TIMEOUT;
+    
+    @Inject
+    Watch(SessionWatcher watcher) {
+        this.watcher = Preconditions.checkNotNull(watcher, "Watcher");
+    }
+    
+    @Inject(optional = true)
+    void setMaxTimeout(@Named(IpcSessionConfig.MAX_WATCH_TIMEOUT) long maxTimeout) {
+        Preconditions.checkArgument(maxTimeout >= 0, "MaxTimeout must not be negative");
+        this.maxTimeout = maxTimeout;
+    }
+    
+    @Override
+    public void execute(IpcCall call, Map<String, Object> result) throws IpcCommandExecutionException {
+        final IpcArguments arguments = call.getArguments();
+        final List<Object> keys = arguments.getList(Naming.KEYS);
+        final long since = arguments.getLong(Naming.VERSION, -1L);
+        final long timeout = Math.min(Math.max(arguments.getLong(Naming.TIMEOUT, DEFAULT_TIMEOUT), 0L), maxTimeout);
+        final IpcSession session = call.getConnection().getSession();
+        
+        if (session instanceof AbstractIpcSession && !AbstractIpcSession.class.cast(session).hasChangeEvent()) {
+            throw new IpcCommandExecutionException(new IllegalStateException(String.format(
+                "%s does not report changes, watching requires the TieredIpcSessionProvider", session)));
+        }
+        
+        final SessionWatcher.Watched watched = watcher.watch(session);
+        
+        final SessionWatcher.Changes changes;
+        if (since < 0) {
+            changes = watched.current(keys);
+        } else {
+            try {
+                changes = watched.await(keys, since, timeout);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IpcCommandExecutionException(e);
+            }
+        }
+        
+        // entries are read after the version has been determined, changes in between
+        // are therefore reported again by the next call instead of being lost
+        result.put(Naming.VERSION, changes.getVersion());
+        
+        final Map<Object, Object> entries = Maps.newHashMap();
+        for (Object key : changes.getKeys()) {
+            entries.put(key, session.get(key));
+        }
+        result.put(Naming.ENTRIES, entries);
+    }
+
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session.replication;
+
+import java.io.Serializable;
+
+import com.google.common.base.Preconditions;
+
+import de.cosmocode.palava.ipc.IpcSessionDelta;
+
+/**
+ * A single, ordered modification of a session shipped to other nodes. A message
+ * either carries a {@link IpcSessionDelta} or denotes the destruction of the session.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public final class IpcSessionReplicationMessage implements Serializable {
+
+    private static final long serialVersionUID = 3466185233212604047L;
+
+    private final String origin;
+    
+    private final String sessionId;
+    
+    private final String identifier;
+    
+    private final long timeout;
+    
+    private final long sequence;
+    
+    private final IpcSessionDelta delta;
+    
+    private IpcSessionReplicationMessage(String origin, String sessionId, String identifier, 
+        long timeout, long sequence, IpcSessionDelta delta) {
+        this.origin = Preconditions.checkNotNull(origin, "Origin");
+        this.sessionId = Preconditions.checkNotNull(sessionId, "SessionId");
+        this.identifier = identifier;
+        this.timeout = timeout;
+        this.sequence = sequence;
+        this.delta = delta;
+    }
+    
+    /**
+     * Creates a message which carries the given delta.
+     * 
+     * @since 2.1
+     * @param origin the id of the sending node
+     * @param identifier the identifier of the session
+     * @param timeout the timeout of the session in milliseconds
+     * @param sequence the per session sequence number
+     * @param delta the delta
+     * @return a new message
+     */
+    static IpcSessionReplicationMessage update(String origin, String identifier, 
+        long timeout, long sequence, IpcSessionDelta delta) {
+        Preconditions.checkNotNull(delta, "Delta");
+        return new IpcSessionReplicationMessage(origin, delta.getSessionId(), identifier, timeout, sequence, delta);
+    }
+    
+    /**
+     * Creates a message which denotes the destruction of a session.
+     * 
+     * @since 2.1
+     * @param origin the id of the sending node
+     * @param sessionId the id of the destroyed session
+     * @param sequence the per session sequence number
+     * @return a new message
+     */
+    static IpcSessionReplicationMessage destroy(String origin, String sessionId, long sequence) {
+        return new IpcSessionReplicationMessage(origin, sessionId, null, 0L, sequence, null);
+    }
+    
+    public String getOrigin() {
+        return origin;
+    }
+    
+    public String getSessionId() {
+        return sessionId;
+    }
+    
+    public String getIdentifier() {
+        return identifier;
+    }
+    
+    public long getTimeout() {
+        return timeout;
+    }
+    
+    public long getSequence() {
+        return sequence;
+    }
+    
+    /**
+     * Provides the delta of this message.
+     * 
+     * @since 2.1
+     * @return the delta or null if this message denotes a destruction
+     */
+    public IpcSessionDelta getDelta() {
+        return delta;
+    }
+    
+    public boolean isDestroy() {
+        return delta == null;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("IpcSessionReplicationMessage [origin=%s, sessionId=%s, sequence=%s, delta=%s]",
+            origin, sessionId, sequence, delta);
+    }
+    
+}
@@ -0,0 +1,48 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session.replication;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A transport ships {@link IpcSessionReplicationMessage}s to all peer nodes.
+ * Implementations have to preserve the order of messages.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public interface IpcSessionReplicationTransport {
+
+    /**
+     * Sends the given batch to all peers.
+     * 
+     * @since 2.1
+     * @param messages the messages
+     * @throws IOException if sending failed
+     */
+    void send(List<IpcSessionReplicationMessage> messages) throws IOException;
+    
+    /**
+     * Sets the receiver of all batches sent by peers.
+     * 
+     * @since 2.1
+     * @param receiver the receiver
+     */
+    void setReceiver(IpcSessionReplicationReceiver receiver);
+    
+}
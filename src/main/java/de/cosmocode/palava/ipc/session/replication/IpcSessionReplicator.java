@@ -0,0 +1,334 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session.replication;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+import de.cosmocode.palava.core.Registry;
+import de.cosmocode.palava.core.lifecycle.Disposable;
+import de.cosmocode.palava.core.lifecycle.Initializable;
+import de.cosmocode.palava.core.lifecycle.LifecycleException;
+import de.cosmocode.palava.ipc.AbstractIpcSession;
+import de.cosmocode.palava.ipc.IpcSession;
+import de.cosmocode.palava.ipc.IpcSessionChangeEvent;
+import de.cosmocode.palava.ipc.IpcSessionConfig;
+import de.cosmocode.palava.ipc.IpcSessionDestroyEvent;
+import de.cosmocode.palava.ipc.session.store.IpcSessionStore;
+
+/**
+ * Ships session modifications asynchronously to peer nodes and applies modifications
+ * received from peers to the local {@link IpcSessionStore}. Modified keys are collected
+ * per session and sent in batches, messages of the same session are strictly ordered.
+ * Reads stay local.
+ * <p>
+ *   Only sessions which have been modified by this node are destroyed on peers when they
+ *   are destroyed locally, expiring replicas therefore never destroy the original session.
+ *   Sessions which existed before a node joined the cluster are not shipped to that node
+ *   until they are modified.
+ * </p>
+ * <p>
+ *   Sequence numbers are tracked per session and forgotten once the session is destroyed,
+ *   either locally, e.g. because a replica expired, or by a peer.
+ * </p>
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+final class IpcSessionReplicator implements IpcSessionChangeEvent, IpcSessionDestroyEvent,
+    IpcSessionReplicationReceiver, Initializable, Disposable, Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IpcSessionReplicator.class);
+    
+    private final ConcurrentMap<String, Pending> pending = Maps.newConcurrentMap();
+    
+    private final ConcurrentMap<String, Long> sequences = Maps.newConcurrentMap();
+    
+    // session id -> origin -> last applied sequence
+    private final ConcurrentMap<String, ConcurrentMap<String, Long>> applied = Maps.newConcurrentMap();
+    
+    private final ThreadLocal<Boolean> receiving = new ThreadLocal<Boolean>();
+    
+    private final Registry registry;
+    
+    private final IpcSessionReplicationTransport transport;
+    
+    private final IpcSessionStore store;
+    
+    private String nodeId = UUID.randomUUID().toString();
+    
+    private long interval = 100;
+    
+    private TimeUnit intervalUnit = TimeUnit.MILLISECONDS;
+    
+    private int batchSize = 100;
+    
+    private ScheduledExecutorService scheduler;
+    
+    /**
+     * The modifications of a single session since the last flush.
+     *
+     * @since 2.1
+     * @author Willi Schoenborn
+     */
+    private static final class Pending {
+        
+        private final IpcSession session;
+        
+        private final Set<Object> keys = Sets.newHashSet();
+        
+        private boolean destroyed;
+        
+        private boolean closed;
+        
+        Pending(IpcSession session) {
+            this.session = session;
+        }
+        
+    }
+    
+    @Inject
+    public IpcSessionReplicator(Registry registry, IpcSessionReplicationTransport transport, IpcSessionStore store) {
+        this.registry = Preconditions.checkNotNull(registry, "Registry");
+        this.transport = Preconditions.checkNotNull(transport, "Transport");
+        this.store = Preconditions.checkNotNull(store, "Store");
+    }
+    
+    @Inject(optional = true)
+    void setNodeId(@Named(IpcSessionConfig.NODE_ID) String nodeId) {
+        this.nodeId = Preconditions.checkNotNull(nodeId, "NodeId");
+    }
+    
+    @Inject(optional = true)
+    void setInterval(@Named(IpcSessionConfig.REPLICATION_INTERVAL) long interval) {
+        this.interval = interval;
+    }
+    
+    @Inject(optional = true)
+    void setIntervalUnit(@Named(IpcSessionConfig.REPLICATION_INTERVAL_UNIT) TimeUnit intervalUnit) {
+        this.intervalUnit = Preconditions.checkNotNull(intervalUnit, "IntervalUnit");
+    }
+    
+    @Inject(optional = true)
+    void setBatchSize(@Named(IpcSessionConfig.REPLICATION_BATCH_SIZE) int batchSize) {
+        Preconditions.checkArgument(batchSize > 0, "BatchSize must be positive");
+        this.batchSize = batchSize;
+    }
+    
+    @Override
+    public void initialize() throws LifecycleException {
+        transport.setReceiver(this);
+        registry.register(IpcSessionChangeEvent.class, this);
+        registry.register(IpcSessionDestroyEvent.class, this);
+        scheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("ipc-session-replicator-%d").setDaemon(true).build()
+        );
+        scheduler.scheduleWithFixedDelay(this, interval, interval, intervalUnit);
+        LOG.info("Replicating sessions of node {} using {}", nodeId, transport);
+    }
+    
+    @Override
+    public void eventIpcSessionChange(IpcSession session, Object key) {
+        if (receiving.get() != null) return;
+        while (true) {
+            final Pending current = pendingOf(session);
+            synchronized (current) {
+                if (!current.closed) {
+                    current.keys.add(key);
+                    return;
+                }
+            }
+        }
+    }
+    
+    @Override
+    public void eventIpcSessionDestroy(IpcSession session) {
+        final String sessionId = session.getSessionId();
+        applied.remove(sessionId);
+        if (receiving.get() != null) return;
+        if (!sequences.containsKey(sessionId) && !pending.containsKey(sessionId)) return;
+        while (true) {
+            final Pending current = pendingOf(session);
+            synchronized (current) {
+                if (!current.closed) {
+                    current.destroyed = true;
+                    return;
+                }
+            }
+        }
+    }
+    
+    private Pending pendingOf(IpcSession session) {
+        final Pending present = pending.get(session.getSessionId());
+        if (present != null) return present;
+        final Pending created = new Pending(session);
+        final Pending raced = pending.putIfAbsent(session.getSessionId(), created);
+        return raced == null ? created : raced;
+    }
+    
+    private long next(String sessionId) {
+        final Long last = sequences.get(sessionId);
+        final long sequence = last == null ? 1L : last.longValue() + 1;
+        sequences.put(sessionId, sequence);
+        return sequence;
+    }
+    
+    @Override
+    public void run() {
+        List<IpcSessionReplicationMessage> batch = Lists.newArrayListWithCapacity(batchSize);
+        
+        for (Pending current : pending.values()) {
+            final IpcSession session = current.session;
+            final String sessionId = session.getSessionId();
+            final Set<Object> keys;
+            final boolean destroyed;
+            
+            synchronized (current) {
+                current.closed = true;
+                pending.remove(sessionId, current);
+                keys = current.keys;
+                destroyed = current.destroyed;
+            }
+            
+            if (destroyed) {
+                batch.add(IpcSessionReplicationMessage.destroy(nodeId, sessionId, next(sessionId)));
+                sequences.remove(sessionId);
+            } else if (session instanceof AbstractIpcSession) {
+                batch.add(IpcSessionReplicationMessage.update(nodeId, session.getIdentifier(), 
+                    session.getTimeout(TimeUnit.MILLISECONDS), next(sessionId),
+                    AbstractIpcSession.class.cast(session).delta(keys)));
+            } else {
+                LOG.warn("Unable to replicate {}", session);
+                continue;
+            }
+            
+            if (batch.size() >= batchSize) {
+                send(batch);
+                batch = Lists.newArrayListWithCapacity(batchSize);
+            }
+        }
+        
+        if (!batch.isEmpty()) {
+            send(batch);
+        }
+    }
+    
+    private void send(List<IpcSessionReplicationMessage> batch) {
+        try {
+            LOG.trace("Sending {} messages", batch.size());
+            transport.send(batch);
+        } catch (IOException e) {
+            LOG.error("Unable to send " + batch.size() + " replication messages", e);
+            /*CHECKSTYLE:OFF*/
+        } catch (RuntimeException e) {
+            /*CHECKSTYLE:ON*/
+            LOG.error("Unable to send " + batch.size() + " replication messages", e);
+        }
+    }
+    
+    @Override
+    public void receive(List<IpcSessionReplicationMessage> messages) {
+        receiving.set(Boolean.TRUE);
+        try {
+            for (IpcSessionReplicationMessage message : messages) {
+                if (nodeId.equals(message.getOrigin())) continue;
+                try {
+                    apply(message);
+                    /*CHECKSTYLE:OFF*/
+                } catch (RuntimeException e) {
+                    /*CHECKSTYLE:ON*/
+                    LOG.error("Unable to apply " + message, e);
+                }
+            }
+        } finally {
+            receiving.remove();
+        }
+    }
+    
+    private ConcurrentMap<String, Long> appliedOf(String sessionId) {
+        final ConcurrentMap<String, Long> present = applied.get(sessionId);
+        if (present != null) return present;
+        final ConcurrentMap<String, Long> created = Maps.newConcurrentMap();
+        final ConcurrentMap<String, Long> raced = applied.putIfAbsent(sessionId, created);
+        return raced == null ? created : raced;
+    }
+    
+    private void apply(IpcSessionReplicationMessage message) {
+        final String sessionId = message.getSessionId();
+        final ConcurrentMap<String, Long> streams = applied.get(sessionId);
+        final Long last = streams == null ? null : streams.get(message.getOrigin());
+        
+        if (last != null && message.getSequence() <= last.longValue()) {
+            LOG.debug("Skipping outdated {}", message);
+            return;
+        }
+        
+        if (message.isDestroy()) {
+            applied.remove(sessionId);
+            sequences.remove(sessionId);
+            LOG.trace("Destroying replica {}", sessionId);
+            store.remove(sessionId);
+            return;
+        }
+        
+        appliedOf(sessionId).put(message.getOrigin(), message.getSequence());
+        final IpcSession session = store.get(sessionId);
+        
+        if (session == null) {
+            LOG.trace("Creating replica {}", sessionId);
+            store.restore(sessionId, message.getIdentifier(), message.getTimeout(), TimeUnit.MILLISECONDS, 
+                message.getDelta().getUpdates());
+        } else if (session instanceof AbstractIpcSession) {
+            AbstractIpcSession.class.cast(session).apply(message.getDelta());
+        } else {
+            LOG.warn("Unable to apply {} to {}", message, session);
+        }
+    }
+    
+    @Override
+    public void dispose() throws LifecycleException {
+        registry.remove(IpcSessionChangeEvent.class, this);
+        registry.remove(IpcSessionDestroyEvent.class, this);
+        if (scheduler == null) return;
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // ships modifications which occurred since the last run
+        run();
+    }
+    
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session.replication;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * In-process {@link IpcSessionReplicationTransport} which delivers batches synchronously
+ * to all connected peers. Batches are serialized to mimic a real network transport.
+ * Intended for testing.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public final class LoopbackIpcSessionReplicationTransport implements IpcSessionReplicationTransport {
+
+    private final List<LoopbackIpcSessionReplicationTransport> peers = 
+        new CopyOnWriteArrayList<LoopbackIpcSessionReplicationTransport>();
+    
+    private volatile IpcSessionReplicationReceiver receiver;
+    
+    /**
+     * Connects this transport with the given peer in both directions.
+     * 
+     * @since 2.1
+     * @param peer the peer
+     * @throws NullPointerException if peer is null
+     */
+    public void connect(LoopbackIpcSessionReplicationTransport peer) {
+        Preconditions.checkNotNull(peer, "Peer");
+        peers.add(peer);
+        peer.peers.add(this);
+    }
+    
+    @Override
+    public void setReceiver(IpcSessionReplicationReceiver receiver) {
+        this.receiver = Preconditions.checkNotNull(receiver, "Receiver");
+    }
+    
+    @Override
+    public void send(List<IpcSessionReplicationMessage> messages) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream stream = new ObjectOutputStream(bytes);
+        try {
+            stream.writeObject(new ArrayList<IpcSessionReplicationMessage>(messages));
+        } finally {
+            stream.close();
+        }
+        final byte[] payload = bytes.toByteArray();
+        for (LoopbackIpcSessionReplicationTransport peer : peers) {
+            peer.deliver(payload);
+        }
+    }
+    
+    private void deliver(byte[] payload) throws IOException {
+        final IpcSessionReplicationReceiver current = receiver;
+        if (current == null) return;
+        final ObjectInputStream stream = new ObjectInputStream(new ByteArrayInputStream(payload));
+        final List<IpcSessionReplicationMessage> messages;
+        try {
+            @SuppressWarnings("unchecked")
+            final List<IpcSessionReplicationMessage> read = (List<IpcSessionReplicationMessage>) stream.readObject();
+            messages = read;
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        } finally {
+            stream.close();
+        }
+        current.receive(messages);
+    }
+    
+}
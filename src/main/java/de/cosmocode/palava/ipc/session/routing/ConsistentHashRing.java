@@ -0,0 +1,156 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session.routing;
+
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+
+/**
+ * An immutable consistent hash ring which maps keys to node ids. Every node
+ * is placed on the ring multiple times using virtual nodes, adding or removing
+ * a node therefore only moves the keys of the affected arcs. The hash function
+ * is stable across virtual machines.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public final class ConsistentHashRing {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    
+    private static final long FNV_PRIME = 0x100000001b3L;
+    
+    private final int virtualNodes;
+    
+    private final Set<String> nodes;
+    
+    private final NavigableMap<Long, String> ring = new TreeMap<Long, String>();
+    
+    private ConsistentHashRing(Set<String> nodes, int virtualNodes) {
+        Preconditions.checkArgument(virtualNodes > 0, "VirtualNodes must be positive");
+        this.virtualNodes = virtualNodes;
+        this.nodes = ImmutableSet.copyOf(nodes);
+        
+        for (String node : this.nodes) {
+            for (int i = 0; i < virtualNodes; i++) {
+                final Long point = Long.valueOf(hash(node + "#" + i));
+                final String present = ring.get(point);
+                // collisions are resolved independently of the insertion order
+                if (present == null || node.compareTo(present) < 0) {
+                    ring.put(point, node);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Creates a new ring.
+     * 
+     * @since 2.1
+     * @param nodes the node ids
+     * @param virtualNodes the number of virtual nodes per node
+     * @return a new ring
+     * @throws NullPointerException if nodes is null
+     * @throws IllegalArgumentException if virtualNodes is not positive
+     */
+    public static ConsistentHashRing of(Iterable<String> nodes, int virtualNodes) {
+        return new ConsistentHashRing(ImmutableSet.copyOf(nodes), virtualNodes);
+    }
+    
+    /**
+     * Creates a new ring which additionally contains the given node.
+     * 
+     * @since 2.1
+     * @param node the node to add
+     * @return a new ring
+     */
+    public ConsistentHashRing with(String node) {
+        Preconditions.checkNotNull(node, "Node");
+        final Set<String> copy = Sets.newHashSet(nodes);
+        copy.add(node);
+        return new ConsistentHashRing(copy, virtualNodes);
+    }
+    
+    /**
+     * Creates a new ring without the given node.
+     * 
+     * @since 2.1
+     * @param node the node to remove
+     * @return a new ring
+     */
+    public ConsistentHashRing without(String node) {
+        final Set<String> copy = Sets.newHashSet(nodes);
+        copy.remove(node);
+        return new ConsistentHashRing(copy, virtualNodes);
+    }
+    
+    public Set<String> getNodes() {
+        return nodes;
+    }
+    
+    public boolean isEmpty() {
+        return nodes.isEmpty();
+    }
+    
+    /**
+     * Finds the node owning the given key.
+     * 
+     * @since 2.1
+     * @param key the key
+     * @return the id of the owning node
+     * @throws IllegalStateException if this ring is empty
+     */
+    public String ownerOf(String key) {
+        Preconditions.checkNotNull(key, "Key");
+        Preconditions.checkState(!ring.isEmpty(), "Ring is empty");
+        final Map.Entry<Long, String> entry = ring.ceilingEntry(Long.valueOf(hash(key)));
+        return entry == null ? ring.firstEntry().getValue() : entry.getValue();
+    }
+    
+    /**
+     * A 64 bit FNV-1a hash followed by the murmur3 finalizer to improve the avalanche effect.
+     * 
+     * @param value the value to hash
+     * @return the hash
+     */
+    static long hash(String value) {
+        long hash = FNV_OFFSET;
+        for (byte b : value.getBytes(Charsets.UTF_8)) {
+            hash ^= b & 0xFF;
+            hash *= FNV_PRIME;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("ConsistentHashRing [nodes=%s, virtualNodes=%s]", nodes, virtualNodes);
+    }
+    
+}
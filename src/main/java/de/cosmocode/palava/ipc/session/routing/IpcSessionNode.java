@@ -0,0 +1,68 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session.routing;
+
+import de.cosmocode.palava.ipc.IpcSession;
+import de.cosmocode.palava.ipc.IpcSessionProvider;
+
+/**
+ * A node of a cluster which owns a part of all sessions. Implementations for
+ * remote nodes forward these calls over the network.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public interface IpcSessionNode {
+
+    /**
+     * Provides the unique id of this node.
+     * 
+     * @since 2.1
+     * @return the id
+     */
+    String getId();
+    
+    /**
+     * Forwards a session lookup to this node.
+     * 
+     * @since 2.1
+     * @see IpcSessionProvider#getSession(String, String)
+     * @param sessionId the session id, may be null
+     * @param identifier the identifier, may be null
+     * @return the requested session or a new one
+     */
+    IpcSession getSession(String sessionId, String identifier);
+    
+    /**
+     * Hands the session with the given id over to the caller. The session
+     * will no longer be held by this node.
+     * 
+     * @since 2.1
+     * @param sessionId the session id
+     * @return the session or null if this node does not hold such a session
+     */
+    IpcSession release(String sessionId);
+    
+    /**
+     * Takes over the given session.
+     * 
+     * @since 2.1
+     * @param session the session
+     */
+    void adopt(IpcSession session);
+    
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session.routing;
+
+import java.util.Set;
+
+import com.google.common.base.Preconditions;
+
+import de.cosmocode.palava.ipc.IpcSession;
+import de.cosmocode.palava.ipc.IpcSessionProvider;
+import de.cosmocode.palava.ipc.session.store.IpcSessionStore;
+
+/**
+ * {@link IpcSessionNode} implementation for the local virtual machine backed by an
+ * {@link IpcSessionProvider} and the corresponding {@link IpcSessionStore}.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public final class LocalIpcSessionNode implements IpcSessionNode {
+
+    private final String id;
+    
+    private final IpcSessionProvider provider;
+    
+    private final IpcSessionStore store;
+    
+    public LocalIpcSessionNode(String id, IpcSessionProvider provider, IpcSessionStore store) {
+        this.id = Preconditions.checkNotNull(id, "Id");
+        this.provider = Preconditions.checkNotNull(provider, "Provider");
+        this.store = Preconditions.checkNotNull(store, "Store");
+    }
+    
+    @Override
+    public String getId() {
+        return id;
+    }
+    
+    @Override
+    public IpcSession getSession(String sessionId, String identifier) {
+        return provider.getSession(sessionId, identifier);
+    }
+    
+    /**
+     * Looks up a session held by this node without touching it.
+     * 
+     * @since 2.1
+     * @param sessionId the session id
+     * @return the session or null if there is no such session
+     */
+    IpcSession peek(String sessionId) {
+        return store.get(sessionId);
+    }
+    
+    Set<String> getSessionIds() {
+        return store.getSessionIds();
+    }
+    
+    @Override
+    public IpcSession release(String sessionId) {
+        return store.release(sessionId);
+    }
+    
+    @Override
+    public void adopt(IpcSession session) {
+        store.put(session);
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("LocalIpcSessionNode [id=%s]", id);
+    }
+    
+}
@@ -0,0 +1,190 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session.routing;
+
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+
+import de.cosmocode.palava.ipc.IpcSession;
+import de.cosmocode.palava.ipc.IpcSessionProvider;
+
+/**
+ * An {@link IpcSessionProvider} which assigns every session to an owning node using a
+ * {@link ConsistentHashRing}. Lookups of sessions owned by other nodes are forwarded
+ * to the owner, new sessions are handed over to their owner.
+ * <p>
+ *   When nodes join or leave, sessions are rebalanced incrementally: sessions held
+ *   locally but owned by another node are handed over in batches by {@link #run()},
+ *   which should be scheduled periodically, and a lookup of a session which is missing
+ *   locally pulls it from its previous owner.
+ * </p>
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public final class RoutingIpcSessionProvider implements IpcSessionProvider, Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RoutingIpcSessionProvider.class);
+    
+    private final LocalIpcSessionNode local;
+    
+    private final ConcurrentMap<String, IpcSessionNode> nodes = Maps.newConcurrentMap();
+    
+    private volatile ConsistentHashRing ring;
+    
+    private volatile ConsistentHashRing previous;
+    
+    private int batchSize = 100;
+    
+    public RoutingIpcSessionProvider(LocalIpcSessionNode local, int virtualNodes) {
+        this.local = Preconditions.checkNotNull(local, "Local");
+        this.nodes.put(local.getId(), local);
+        this.ring = ConsistentHashRing.of(ImmutableSet.of(local.getId()), virtualNodes);
+        this.previous = ring;
+    }
+    
+    /**
+     * Sets the maximum number of sessions handed over per {@link #run()}.
+     * 
+     * @since 2.1
+     * @param batchSize the batch size
+     * @throws IllegalArgumentException if batchSize is not positive
+     */
+    public void setBatchSize(int batchSize) {
+        Preconditions.checkArgument(batchSize > 0, "BatchSize must be positive");
+        this.batchSize = batchSize;
+    }
+    
+    /**
+     * Adds the given node to the cluster.
+     * 
+     * @since 2.1
+     * @param node the joining node
+     */
+    public synchronized void join(IpcSessionNode node) {
+        Preconditions.checkNotNull(node, "Node");
+        LOG.info("{} joined the cluster", node);
+        nodes.put(node.getId(), node);
+        update(ring.with(node.getId()));
+    }
+    
+    /**
+     * Removes the node with the given id from the cluster.
+     * 
+     * @since 2.1
+     * @param nodeId the id of the leaving node
+     * @throws IllegalArgumentException if nodeId is the id of the local node
+     */
+    public synchronized void leave(String nodeId) {
+        Preconditions.checkArgument(!local.getId().equals(nodeId), "The local node can't leave");
+        LOG.info("{} left the cluster", nodeId);
+        update(ring.without(nodeId));
+    }
+    
+    private void update(ConsistentHashRing next) {
+        // nodes of the previous ring are kept to allow pulling sessions from them
+        nodes.keySet().retainAll(ImmutableSet.builder().addAll(ring.getNodes()).addAll(next.getNodes()).build());
+        previous = ring;
+        ring = next;
+    }
+    
+    public ConsistentHashRing getRing() {
+        return ring;
+    }
+    
+    /**
+     * Checks whether the given session is owned by the local node.
+     * 
+     * @since 2.1
+     * @param sessionId the session id
+     * @return true if the local node owns the session, false otherwise
+     */
+    public boolean isLocal(String sessionId) {
+        return local.getId().equals(ring.ownerOf(sessionId));
+    }
+    
+    @Override
+    public IpcSession getSession(String sessionId, String identifier) {
+        if (sessionId == null) {
+            return place(local, local.getSession(null, identifier));
+        }
+        
+        final IpcSessionNode owner = nodes.get(ring.ownerOf(sessionId));
+        if (owner == null || owner == local) {
+            pull(sessionId);
+            return place(local, local.getSession(sessionId, identifier));
+        } else {
+            LOG.trace("Forwarding {} to {}", sessionId, owner);
+            return place(owner, owner.getSession(sessionId, identifier));
+        }
+    }
+    
+    private void pull(String sessionId) {
+        final ConsistentHashRing before = previous;
+        if (before == ring || before.isEmpty()) return;
+        if (local.peek(sessionId) != null) return;
+        final IpcSessionNode former = nodes.get(before.ownerOf(sessionId));
+        if (former == null || former == local) return;
+        final IpcSession session = former.release(sessionId);
+        if (session == null) return;
+        LOG.trace("Pulled {} from {}", session, former);
+        local.adopt(session);
+    }
+    
+    private IpcSession place(IpcSessionNode holder, IpcSession session) {
+        final String sessionId = session.getSessionId();
+        final IpcSessionNode owner = nodes.get(ring.ownerOf(sessionId));
+        if (owner == null || owner == holder) return session;
+        final IpcSession released = holder.release(sessionId);
+        if (released != null) {
+            LOG.trace("Handing {} over to {}", released, owner);
+            owner.adopt(released);
+        }
+        return session;
+    }
+    
+    @Override
+    public void run() {
+        int moved = 0;
+        for (String sessionId : local.getSessionIds()) {
+            if (moved >= batchSize) break;
+            final IpcSessionNode owner = nodes.get(ring.ownerOf(sessionId));
+            if (owner == null || owner == local) continue;
+            final IpcSession session = local.release(sessionId);
+            if (session == null) continue;
+            try {
+                owner.adopt(session);
+                moved++;
+                /*CHECKSTYLE:OFF*/
+            } catch (RuntimeException e) {
+                /*CHECKSTYLE:ON*/
+                LOG.error("Unable to hand " + session + " over to " + owner, e);
+                local.adopt(session);
+            }
+        }
+        if (moved > 0) {
+            LOG.debug("Handed {} sessions over to their owners", moved);
+        }
+    }
+    
+}
@@ -0,0 +1,360 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session.store;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.common.base.Charsets;
+
+/**
+ * A compact binary codec for session attributes. Integral numbers and lengths are
+ * written as zig-zag encoded varints. Strings, numbers, booleans and the common
+ * list and map implementations are encoded using a type tag, every other value
+ * falls back to java serialization.
+ * <p>
+ *   When writing to an {@link ObjectOutput}, serialized values are written to that
+ *   stream directly, which preserves shared references between them. Other targets
+ *   get a separate serialization stream per value.
+ * </p>
+ * <p>
+ *   Unlike java serialization, identity of tagged values is not preserved, i.e.
+ *   a list stored under two keys will be read as two equal lists. Tagged values
+ *   must not contain themselves.
+ * </p>
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+final class BinaryCodec {
+
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte INTEGER = 2;
+    private static final byte LONG = 3;
+    private static final byte DOUBLE = 4;
+    private static final byte FLOAT = 5;
+    private static final byte TRUE = 6;
+    private static final byte FALSE = 7;
+    private static final byte ARRAY_LIST = 8;
+    private static final byte HASH_MAP = 9;
+    private static final byte LINKED_HASH_MAP = 10;
+    private static final byte CONCURRENT_HASH_MAP = 11;
+    private static final byte SERIALIZED = 12;
+    private static final byte OBJECT = 13;
+    
+    private BinaryCodec() {
+        
+    }
+    
+    /**
+     * Writes a zig-zag encoded varint.
+     * 
+     * @since 2.1
+     * @param output the target
+     * @param value the value
+     * @throws IOException if writing failed
+     */
+    static void writeVarLong(DataOutput output, long value) throws IOException {
+        long zigzag = (value << 1) ^ (value >> 63);
+        while ((zigzag & ~0x7FL) != 0) {
+            output.writeByte((int) ((zigzag & 0x7F) | 0x80));
+            zigzag >>>= 7;
+        }
+        output.writeByte((int) zigzag);
+    }
+    
+    /**
+     * Reads a zig-zag encoded varint.
+     * 
+     * @since 2.1
+     * @param input the source
+     * @return the value
+     * @throws IOException if reading failed
+     */
+    static long readVarLong(DataInput input) throws IOException {
+        long zigzag = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final byte current = input.readByte();
+            zigzag |= (long) (current & 0x7F) << shift;
+            if ((current & 0x80) == 0) {
+                return (zigzag >>> 1) ^ -(zigzag & 1);
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+    
+    private static int readLength(DataInput input) throws IOException {
+        final long length = readVarLong(input);
+        if (length < 0 || length > Integer.MAX_VALUE) {
+            throw new IOException("Illegal length " + length);
+        }
+        return (int) length;
+    }
+    
+    /**
+     * Writes a string, which may be null.
+     * 
+     * @since 2.1
+     * @param output the target
+     * @param value the string
+     * @throws IOException if writing failed
+     */
+    static void writeString(DataOutput output, String value) throws IOException {
+        if (value == null) {
+            writeVarLong(output, -1);
+        } else {
+            final byte[] bytes = value.getBytes(Charsets.UTF_8);
+            writeVarLong(output, bytes.length);
+            output.write(bytes);
+        }
+    }
+    
+    /**
+     * Reads a string as written by {@link #writeString(DataOutput, String)}.
+     * 
+     * @since 2.1
+     * @param input the source
+     * @return the string, may be null
+     * @throws IOException if reading failed
+     */
+    static String readString(DataInput input) throws IOException {
+        final long length = readVarLong(input);
+        if (length == -1) return null;
+        if (length < 0 || length > Integer.MAX_VALUE) {
+            throw new IOException("Illegal length " + length);
+        }
+        final byte[] bytes = new byte[(int) length];
+        input.readFully(bytes);
+        return new String(bytes, Charsets.UTF_8);
+    }
+    
+    /**
+     * Writes an arbitrary value.
+     * 
+     * @since 2.1
+     * @param output the target
+     * @param value the value, may be null
+     * @throws IOException if writing failed, e.g. because value is not serializable
+     */
+    static void writeValue(DataOutput output, Object value) throws IOException {
+        if (value == null) {
+            output.writeByte(NULL);
+        } else if (value instanceof String) {
+            output.writeByte(STRING);
+            writeString(output, String.class.cast(value));
+        } else if (value instanceof Integer) {
+            output.writeByte(INTEGER);
+            writeVarLong(output, Integer.class.cast(value).intValue());
+        } else if (value instanceof Long) {
+            output.writeByte(LONG);
+            writeVarLong(output, Long.class.cast(value).longValue());
+        } else if (value instanceof Double) {
+            output.writeByte(DOUBLE);
+            output.writeDouble(Double.class.cast(value).doubleValue());
+        } else if (value instanceof Float) {
+            output.writeByte(FLOAT);
+            output.writeFloat(Float.class.cast(value).floatValue());
+        } else if (value instanceof Boolean) {
+            output.writeByte(Boolean.TRUE.equals(value) ? TRUE : FALSE);
+        } else if (value.getClass() == ArrayList.class) {
+            output.writeByte(ARRAY_LIST);
+            final List<?> list = List.class.cast(value);
+            writeVarLong(output, list.size());
+            for (Object element : list) {
+                writeValue(output, element);
+            }
+        } else if (value.getClass() == HashMap.class) {
+            output.writeByte(HASH_MAP);
+            writeEntries(output, Map.class.cast(value));
+        } else if (value.getClass() == LinkedHashMap.class) {
+            output.writeByte(LINKED_HASH_MAP);
+            writeEntries(output, Map.class.cast(value));
+        } else if (value.getClass() == ConcurrentHashMap.class) {
+            output.writeByte(CONCURRENT_HASH_MAP);
+            writeEntries(output, Map.class.cast(value));
+        } else if (output instanceof ObjectOutput) {
+            if (!(value instanceof Serializable)) {
+                throw new IOException(value.getClass().getName() + " is not serializable");
+            }
+            output.writeByte(OBJECT);
+            ObjectOutput.class.cast(output).writeObject(value);
+        } else {
+            output.writeByte(SERIALIZED);
+            final byte[] bytes = serialize(value);
+            writeVarLong(output, bytes.length);
+            output.write(bytes);
+        }
+    }
+    
+    /**
+     * Writes the size and all entries of the given map.
+     * 
+     * @since 2.1
+     * @param output the target
+     * @param map the map
+     * @throws IOException if writing failed
+     */
+    static void writeEntries(DataOutput output, Map<?, ?> map) throws IOException {
+        // the size may change concurrently, entries are therefore buffered
+        final List<Object> entries = new ArrayList<Object>(map.size() * 2);
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            entries.add(entry.getKey());
+            entries.add(entry.getValue());
+        }
+        writeVarLong(output, entries.size() / 2);
+        for (Object element : entries) {
+            writeValue(output, element);
+        }
+    }
+    
+    /**
+     * Reads entries as written by {@link #writeEntries(DataOutput, Map)} into the given map.
+     * 
+     * @since 2.1
+     * @param input the source
+     * @param map the target map
+     * @throws IOException if reading failed
+     */
+    static void readEntries(DataInput input, Map<Object, Object> map) throws IOException {
+        final int size = readLength(input);
+        for (int i = 0; i < size; i++) {
+            final Object key = readValue(input);
+            map.put(key, readValue(input));
+        }
+    }
+    
+    /**
+     * Reads a value as written by {@link #writeValue(DataOutput, Object)}.
+     * 
+     * @since 2.1
+     * @param input the source
+     * @return the value, may be null
+     * @throws IOException if reading failed
+     */
+    static Object readValue(DataInput input) throws IOException {
+        final byte tag = input.readByte();
+        switch (tag) {
+            case NULL: {
+                return null;
+            }
+            case STRING: {
+                return readString(input);
+            }
+            case INTEGER: {
+                return Integer.valueOf((int) readVarLong(input));
+            }
+            case LONG: {
+                return Long.valueOf(readVarLong(input));
+            }
+            case DOUBLE: {
+                return Double.valueOf(input.readDouble());
+            }
+            case FLOAT: {
+                return Float.valueOf(input.readFloat());
+            }
+            case TRUE: {
+                return Boolean.TRUE;
+            }
+            case FALSE: {
+                return Boolean.FALSE;
+            }
+            case ARRAY_LIST: {
+                final int size = readLength(input);
+                final List<Object> list = new ArrayList<Object>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue(input));
+                }
+                return list;
+            }
+            case HASH_MAP: {
+                final Map<Object, Object> map = new HashMap<Object, Object>();
+                readEntries(input, map);
+                return map;
+            }
+            case LINKED_HASH_MAP: {
+                final Map<Object, Object> map = new LinkedHashMap<Object, Object>();
+                readEntries(input, map);
+                return map;
+            }
+            case CONCURRENT_HASH_MAP: {
+                final Map<Object, Object> map = new ConcurrentHashMap<Object, Object>();
+                readEntries(input, map);
+                return map;
+            }
+            case SERIALIZED: {
+                final byte[] bytes = new byte[readLength(input)];
+                input.readFully(bytes);
+                return deserialize(bytes);
+            }
+            case OBJECT: {
+                if (input instanceof ObjectInput) {
+                    try {
+                        return ObjectInput.class.cast(input).readObject();
+                    } catch (ClassNotFoundException e) {
+                        throw new IOException(e);
+                    }
+                } else {
+                    throw new IOException("Serialized object requires an ObjectInput");
+                }
+            }
+            default: {
+                throw new IOException("Unknown type tag " + tag);
+            }
+        }
+    }
+    
+    private static byte[] serialize(Object value) throws IOException {
+        if (!(value instanceof Serializable)) {
+            throw new IOException(value.getClass().getName() + " is not serializable");
+        }
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream stream = new ObjectOutputStream(bytes);
+        try {
+            stream.writeObject(value);
+        } finally {
+            stream.close();
+        }
+        return bytes.toByteArray();
+    }
+    
+    private static Object deserialize(byte[] bytes) throws IOException {
+        final ObjectInputStream stream = new ObjectInputStream(new ByteArrayInputStream(bytes));
+        try {
+            return stream.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        } finally {
+            stream.close();
+        }
+    }
+    
+}
@@ -0,0 +1,329 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session.store;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+/**
+ * A {@link ConcurrentMap} optimized for the few attributes most sessions hold.
+ * Up to a threshold, entries are kept in a single array of alternating keys and values
+ * which is replaced on every modification, so reads never lock. Exceeding the threshold
+ * moves all entries into a {@link ConcurrentHashMap} for good. String keys are interned
+ * and therefore shared across all sessions. Null keys and values are not supported.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+final class CompactConcurrentMap extends AbstractMap<Object, Object> implements ConcurrentMap<Object, Object> {
+
+    static final int DEFAULT_THRESHOLD = 8;
+    
+    private static final Interner<String> KEYS = Interners.newWeakInterner();
+    
+    private static final Object[] EMPTY = new Object[0];
+    
+    /**
+     * Marks the table of a map which has been moved into {@link #large}.
+     */
+    private static final Object[] MIGRATED = new Object[0];
+    
+    private final int threshold;
+    
+    private volatile Object[] table = EMPTY;
+    
+    private volatile ConcurrentMap<Object, Object> large;
+    
+    private transient Set<Entry<Object, Object>> entrySet;
+    
+    CompactConcurrentMap() {
+        this(DEFAULT_THRESHOLD);
+    }
+    
+    CompactConcurrentMap(int threshold) {
+        Preconditions.checkArgument(threshold >= 0, "Threshold must not be negative");
+        this.threshold = threshold;
+    }
+    
+    private static Object intern(Object key) {
+        return key instanceof String ? KEYS.intern(String.class.cast(key)) : key;
+    }
+    
+    private static int indexOf(Object[] array, Object key) {
+        // interned keys are mostly found by identity
+        for (int i = 0; i < array.length; i += 2) {
+            if (array[i] == key) return i;
+        }
+        for (int i = 0; i < array.length; i += 2) {
+            if (array[i].equals(key)) return i;
+        }
+        return -1;
+    }
+    
+    private static Object[] with(Object[] array, int index, Object value) {
+        final Object[] copy = array.clone();
+        copy[index + 1] = value;
+        return copy;
+    }
+    
+    private static Object[] without(Object[] array, int index) {
+        if (array.length == 2) return EMPTY;
+        final Object[] copy = new Object[array.length - 2];
+        System.arraycopy(array, 0, copy, 0, index);
+        System.arraycopy(array, index + 2, copy, index, copy.length - index);
+        return copy;
+    }
+    
+    /**
+     * Adds a new entry, migrating into a {@link ConcurrentHashMap} if necessary.
+     * Must be called while holding the lock of this map.
+     */
+    private void add(Object[] array, Object key, Object value) {
+        if (array.length / 2 < threshold) {
+            final Object[] copy = new Object[array.length + 2];
+            System.arraycopy(array, 0, copy, 0, array.length);
+            copy[array.length] = intern(key);
+            copy[array.length + 1] = value;
+            table = copy;
+        } else {
+            final ConcurrentMap<Object, Object> map = new ConcurrentHashMap<Object, Object>(threshold * 4);
+            for (int i = 0; i < array.length; i += 2) {
+                map.put(array[i], array[i + 1]);
+            }
+            map.put(intern(key), value);
+            large = map;
+            // publishing the marker after the map guarantees readers seeing it also see the map
+            table = MIGRATED;
+        }
+    }
+    
+    @Override
+    public Object get(Object key) {
+        final Object[] array = table;
+        if (array == MIGRATED) return large.get(key);
+        if (key == null) return null;
+        final int index = indexOf(array, key);
+        return index < 0 ? null : array[index + 1];
+    }
+    
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+    
+    @Override
+    public int size() {
+        final Object[] array = table;
+        return array == MIGRATED ? large.size() : array.length / 2;
+    }
+    
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+    
+    @Override
+    public Object put(Object key, Object value) {
+        Preconditions.checkNotNull(key, "Key");
+        Preconditions.checkNotNull(value, "Value");
+        if (table == MIGRATED) return large.put(intern(key), value);
+        synchronized (this) {
+            final Object[] array = table;
+            if (array == MIGRATED) return large.put(intern(key), value);
+            final int index = indexOf(array, key);
+            if (index < 0) {
+                add(array, key, value);
+                return null;
+            } else {
+                table = with(array, index, value);
+                return array[index + 1];
+            }
+        }
+    }
+    
+    @Override
+    public Object putIfAbsent(Object key, Object value) {
+        Preconditions.checkNotNull(key, "Key");
+        Preconditions.checkNotNull(value, "Value");
+        if (table == MIGRATED) return large.putIfAbsent(intern(key), value);
+        synchronized (this) {
+            final Object[] array = table;
+            if (array == MIGRATED) return large.putIfAbsent(intern(key), value);
+            final int index = indexOf(array, key);
+            if (index < 0) {
+                add(array, key, value);
+                return null;
+            } else {
+                return array[index + 1];
+            }
+        }
+    }
+    
+    @Override
+    public Object remove(Object key) {
+        if (table == MIGRATED) return large.remove(key);
+        if (key == null) return null;
+        synchronized (this) {
+            final Object[] array = table;
+            if (array == MIGRATED) return large.remove(key);
+            final int index = indexOf(array, key);
+            if (index < 0) return null;
+            table = without(array, index);
+            return array[index + 1];
+        }
+    }
+    
+    @Override
+    public boolean remove(Object key, Object value) {
+        if (table == MIGRATED) return large.remove(key, value);
+        if (key == null) return false;
+        synchronized (this) {
+            final Object[] array = table;
+            if (array == MIGRATED) return large.remove(key, value);
+            final int index = indexOf(array, key);
+            if (index < 0 || !Objects.equal(array[index + 1], value)) return false;
+            table = without(array, index);
+            return true;
+        }
+    }
+    
+    @Override
+    public Object replace(Object key, Object value) {
+        Preconditions.checkNotNull(value, "Value");
+        if (table == MIGRATED) return large.replace(key, value);
+        synchronized (this) {
+            final Object[] array = table;
+            if (array == MIGRATED) return large.replace(key, value);
+            final int index = indexOf(array, key);
+            if (index < 0) return null;
+            table = with(array, index, value);
+            return array[index + 1];
+        }
+    }
+    
+    @Override
+    public boolean replace(Object key, Object oldValue, Object newValue) {
+        Preconditions.checkNotNull(newValue, "NewValue");
+        if (table == MIGRATED) return large.replace(key, oldValue, newValue);
+        synchronized (this) {
+            final Object[] array = table;
+            if (array == MIGRATED) return large.replace(key, oldValue, newValue);
+            final int index = indexOf(array, key);
+            if (index < 0 || !Objects.equal(array[index + 1], oldValue)) return false;
+            table = with(array, index, newValue);
+            return true;
+        }
+    }
+    
+    @Override
+    public void clear() {
+        if (table == MIGRATED) {
+            large.clear();
+            return;
+        }
+        synchronized (this) {
+            if (table == MIGRATED) {
+                large.clear();
+            } else {
+                table = EMPTY;
+            }
+        }
+    }
+    
+    @Override
+    public Set<Entry<Object, Object>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new EntrySet();
+        }
+        return entrySet;
+    }
+    
+    /**
+     * Entry set view which iterates the array current at creation or the migrated map.
+     *
+     * @since 2.1
+     * @author Willi Schoenborn
+     */
+    private final class EntrySet extends AbstractSet<Entry<Object, Object>> {
+        
+        @Override
+        public Iterator<Entry<Object, Object>> iterator() {
+            final Object[] array = table;
+            if (array == MIGRATED) return large.entrySet().iterator();
+            return new Iterator<Entry<Object, Object>>() {
+                
+                private int index;
+                
+                private Object last;
+                
+                @Override
+                public boolean hasNext() {
+                    return index < array.length;
+                }
+                
+                @Override
+                public Entry<Object, Object> next() {
+                    if (index >= array.length) throw new NoSuchElementException();
+                    final Object key = array[index];
+                    last = key;
+                    index += 2;
+                    return new SimpleEntry<Object, Object>(key, array[index - 1]) {
+                        
+                        private static final long serialVersionUID = 5493140932812431017L;
+
+                        @Override
+                        public Object setValue(Object value) {
+                            super.setValue(value);
+                            return put(key, value);
+                        }
+                        
+                    };
+                }
+                
+                @Override
+                public void remove() {
+                    Preconditions.checkState(last != null, "next() has not been called");
+                    CompactConcurrentMap.this.remove(last);
+                    last = null;
+                }
+                
+            };
+        }
+        
+        @Override
+        public int size() {
+            return CompactConcurrentMap.this.size();
+        }
+        
+        @Override
+        public void clear() {
+            CompactConcurrentMap.this.clear();
+        }
+        
+    }
+    
+}
@@ -0,0 +1,155 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session.store;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+import de.cosmocode.palava.ipc.IpcSessionConfig;
+
+/**
+ * An {@link IpcSessionSwap} which keeps suspended sessions on the heap, compressed
+ * using deflate at {@link IpcSessionConfig#COMPRESSION_LEVEL}, which defaults to
+ * {@link Deflater#BEST_SPEED}. Idle sessions therefore only occupy a fraction of
+ * their object graph and are inflated on their next access.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+final class CompressingIpcSessionSwap implements IpcSessionSwap {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CompressingIpcSessionSwap.class);
+
+    private static final int BUFFER_SIZE = 4096;
+    
+    private final ConcurrentMap<String, Payload> payloads = Maps.newConcurrentMap();
+    
+    private int level = Deflater.BEST_SPEED;
+    
+    /**
+     * A compressed payload.
+     *
+     * @since 2.1
+     * @author Willi Schoenborn
+     */
+    private static final class Payload {
+        
+        private final byte[] bytes;
+        
+        private final int length;
+        
+        private final long timestamp = System.currentTimeMillis();
+        
+        Payload(byte[] bytes, int length) {
+            this.bytes = bytes;
+            this.length = length;
+        }
+        
+    }
+    
+    @Inject(optional = true)
+    void setLevel(@Named(IpcSessionConfig.COMPRESSION_LEVEL) int level) {
+        Preconditions.checkArgument(level >= Deflater.NO_COMPRESSION && level <= Deflater.BEST_COMPRESSION,
+            "Level must be in [%s, %s]", Deflater.NO_COMPRESSION, Deflater.BEST_COMPRESSION);
+        this.level = level;
+    }
+    
+    @Override
+    public void put(String sessionId, byte[] payload) throws IOException {
+        Preconditions.checkNotNull(sessionId, "SessionId");
+        Preconditions.checkNotNull(payload, "Payload");
+        payloads.put(sessionId, new Payload(deflate(payload), payload.length));
+    }
+    
+    @Override
+    public byte[] remove(String sessionId) throws IOException {
+        final Payload payload = payloads.remove(sessionId);
+        return payload == null ? null : inflate(payload);
+    }
+    
+    @Override
+    public Map<String, byte[]> purge(long timestamp) throws IOException {
+        final Map<String, byte[]> purged = Maps.newHashMap();
+        for (Map.Entry<String, Payload> entry : payloads.entrySet()) {
+            final Payload payload = entry.getValue();
+            if (payload.timestamp >= timestamp || !payloads.remove(entry.getKey(), payload)) continue;
+            try {
+                purged.put(entry.getKey(), inflate(payload));
+            } catch (IOException e) {
+                LOG.warn("Unable to inflate purged session " + entry.getKey(), e);
+                purged.put(entry.getKey(), null);
+            }
+        }
+        return purged;
+    }
+    
+    private byte[] deflate(byte[] payload) {
+        final Deflater deflater = new Deflater(level);
+        try {
+            deflater.setInput(payload);
+            deflater.finish();
+            final ByteArrayOutputStream output = new ByteArrayOutputStream(payload.length / 2 + 16);
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            while (!deflater.finished()) {
+                output.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return output.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+    
+    private byte[] inflate(Payload payload) throws IOException {
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(payload.bytes);
+            final byte[] bytes = new byte[payload.length];
+            int offset = 0;
+            while (offset < bytes.length) {
+                final int inflated = inflater.inflate(bytes, offset, bytes.length - offset);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Unexpected end of compressed payload");
+                }
+                offset += inflated;
+            }
+            return bytes;
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("CompressingIpcSessionSwap [level=%s]", level);
+    }
+    
+}
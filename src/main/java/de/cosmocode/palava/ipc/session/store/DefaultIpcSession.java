@@ -0,0 +1,132 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session.store;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Preconditions;
+
+import de.cosmocode.palava.ipc.AbstractIpcSession;
+
+/**
+ * Default {@link AbstractIpcSession} implementation backed by a {@link ConcurrentMap}
+ * which keeps small sessions in a compact array and interns their string keys.
+ * <p>
+ *   Sessions are {@link Externalizable} using a compact, versioned binary format.
+ *   Timestamps are written as varints and common attribute types are written
+ *   using type tags, see {@link BinaryCodec}. Version 2 added the expiration
+ *   of entries, version 3 writes serialized attributes to the enclosing stream
+ *   to preserve shared references. Older versions are still readable.
+ * </p>
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public final class DefaultIpcSession extends AbstractIpcSession implements Externalizable {
+
+    private static final long serialVersionUID = -3253150612389431436L;
+    
+    private static final byte VERSION = 3;
+
+    private String sessionId;
+    
+    private String identifier;
+    
+    private final ConcurrentMap<Object, Object> context = new CompactConcurrentMap();
+    
+    /**
+     * Constructor used by {@link Externalizable deserialization}.
+     * 
+     * @deprecated do not use
+     */
+    @Deprecated
+    public DefaultIpcSession() {
+        
+    }
+    
+    public DefaultIpcSession(String sessionId, String identifier) {
+        this.sessionId = Preconditions.checkNotNull(sessionId, "SessionId");
+        this.identifier = identifier;
+    }
+    
+    @Override
+    protected ConcurrentMap<Object, Object> delegate() {
+        return context;
+    }
+    
+    @Override
+    public String getSessionId() {
+        return sessionId;
+    }
+    
+    @Override
+    public String getIdentifier() {
+        return identifier;
+    }
+    
+    @Override
+    public void writeExternal(ObjectOutput output) throws IOException {
+        final long startedAt = startedAt().getTime();
+        output.writeByte(VERSION);
+        BinaryCodec.writeString(output, sessionId);
+        BinaryCodec.writeString(output, identifier);
+        BinaryCodec.writeVarLong(output, startedAt);
+        BinaryCodec.writeVarLong(output, lastAccessTime().getTime() - startedAt);
+        BinaryCodec.writeVarLong(output, getTimeout(TimeUnit.MILLISECONDS));
+        BinaryCodec.writeEntries(output, context);
+        final Map<Object, Long> expirations = getExpirations();
+        BinaryCodec.writeVarLong(output, expirations.size());
+        for (Map.Entry<Object, Long> entry : expirations.entrySet()) {
+            BinaryCodec.writeValue(output, entry.getKey());
+            BinaryCodec.writeVarLong(output, entry.getValue().longValue() - startedAt);
+        }
+    }
+    
+    @Override
+    public void readExternal(ObjectInput input) throws IOException {
+        final byte version = input.readByte();
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported version " + version);
+        }
+        sessionId = BinaryCodec.readString(input);
+        identifier = BinaryCodec.readString(input);
+        final long startedAt = BinaryCodec.readVarLong(input);
+        setStartedAt(new Date(startedAt));
+        setLastAccess(new Date(startedAt + BinaryCodec.readVarLong(input)));
+        setTimeout(BinaryCodec.readVarLong(input), TimeUnit.MILLISECONDS);
+        BinaryCodec.readEntries(input, context);
+        if (version == 1) return;
+        final long size = BinaryCodec.readVarLong(input);
+        for (long i = 0; i < size; i++) {
+            final Object key = BinaryCodec.readValue(input);
+            setExpiration(key, startedAt + BinaryCodec.readVarLong(input));
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return "IpcSession [sessionId=" + sessionId + ", identifier=" + identifier + "]";
+    }
+    
+}
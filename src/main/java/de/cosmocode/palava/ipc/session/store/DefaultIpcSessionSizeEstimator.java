@@ -0,0 +1,52 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session.store;
+
+import de.cosmocode.palava.ipc.AbstractIpcSession;
+import de.cosmocode.palava.ipc.DefaultIpcSessionAttributeEstimator;
+import de.cosmocode.palava.ipc.IpcSession;
+import de.cosmocode.palava.ipc.IpcSessionAttributeEstimator;
+
+/**
+ * Default {@link IpcSessionSizeEstimator} which uses the size accounted by
+ * {@link AbstractIpcSession}s and estimates all entries otherwise.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+final class DefaultIpcSessionSizeEstimator implements IpcSessionSizeEstimator {
+
+    private static final long SESSION = 256;
+    
+    private final IpcSessionAttributeEstimator estimator = new DefaultIpcSessionAttributeEstimator();
+    
+    @Override
+    public long estimate(IpcSession session) {
+        if (session instanceof AbstractIpcSession) {
+            final AbstractIpcSession abstractSession = AbstractIpcSession.class.cast(session);
+            final long accounted = abstractSession.getEstimatedSize();
+            if (accounted >= 0) {
+                return SESSION + accounted;
+            } else {
+                return SESSION + estimator.estimate(abstractSession.snapshot().getUpdates());
+            }
+        } else {
+            return SESSION + estimator.estimate(session);
+        }
+    }
+    
+}
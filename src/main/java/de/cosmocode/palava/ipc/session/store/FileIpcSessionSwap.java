@@ -0,0 +1,142 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+import de.cosmocode.palava.core.lifecycle.Initializable;
+import de.cosmocode.palava.core.lifecycle.LifecycleException;
+import de.cosmocode.palava.ipc.IpcSessionConfig;
+
+/**
+ * File based {@link IpcSessionSwap} implementation which stores
+ * every suspended session in its own file. Files are kept on shutdown and
+ * purged once they expired.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+final class FileIpcSessionSwap implements IpcSessionSwap, Initializable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FileIpcSessionSwap.class);
+    
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    
+    private static final String SUFFIX = ".session";
+    
+    private final File directory;
+
+    @Inject
+    public FileIpcSessionSwap(@Named(IpcSessionConfig.SWAP_DIRECTORY) String directory) {
+        this.directory = new File(Preconditions.checkNotNull(directory, "Directory"));
+    }
+    
+    @Override
+    public void initialize() throws LifecycleException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new LifecycleException(String.format("Unable to create swap directory %s", directory));
+        }
+        LOG.info("Swapping suspended sessions to {}", directory);
+    }
+    
+    private File fileOf(String sessionId) {
+        final byte[] bytes = sessionId.getBytes(Charsets.UTF_8);
+        final char[] name = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            name[i * 2] = HEX[(bytes[i] >> 4) & 0x0F];
+            name[i * 2 + 1] = HEX[bytes[i] & 0x0F];
+        }
+        return new File(directory, new String(name) + SUFFIX);
+    }
+    
+    private String idOf(File file) {
+        final String name = file.getName();
+        final byte[] bytes = new byte[(name.length() - SUFFIX.length()) / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(name.substring(i * 2, i * 2 + 2), 16);
+        }
+        return new String(bytes, Charsets.UTF_8);
+    }
+    
+    @Override
+    public void put(String sessionId, byte[] payload) throws IOException {
+        Preconditions.checkNotNull(payload, "Payload");
+        final File file = fileOf(sessionId);
+        final File temporary = new File(directory, file.getName() + ".tmp");
+        Files.write(payload, temporary);
+        if (!temporary.renameTo(file)) {
+            temporary.delete();
+            throw new IOException(String.format("Unable to move %s to %s", temporary, file));
+        }
+    }
+    
+    @Override
+    public byte[] remove(String sessionId) throws IOException {
+        final File file = fileOf(sessionId);
+        if (!file.exists()) return null;
+        final byte[] payload = Files.toByteArray(file);
+        if (!file.delete()) {
+            // purged concurrently
+            if (!file.exists()) return null;
+            LOG.warn("Unable to delete {}", file);
+        }
+        return payload;
+    }
+    
+    @Override
+    public Map<String, byte[]> purge(long timestamp) throws IOException {
+        final Map<String, byte[]> purged = Maps.newHashMap();
+        final File[] files = directory.listFiles();
+        if (files == null) return purged;
+        for (File file : files) {
+            if (file.getName().endsWith(SUFFIX) && file.lastModified() < timestamp) {
+                LOG.trace("Purging {}", file);
+                byte[] payload;
+                try {
+                    payload = Files.toByteArray(file);
+                } catch (IOException e) {
+                    LOG.warn("Unable to read " + file, e);
+                    payload = null;
+                }
+                if (file.delete()) {
+                    purged.put(idOf(file), payload);
+                } else if (file.exists()) {
+                    LOG.warn("Unable to purge {}", file);
+                }
+            }
+        }
+        return purged;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("FileIpcSessionSwap [directory=%s]", directory);
+    }
+    
+}
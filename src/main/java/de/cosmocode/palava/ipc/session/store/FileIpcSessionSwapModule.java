@@ -0,0 +1,40 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session.store;
+
+import com.google.inject.Binder;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+
+import de.cosmocode.palava.ipc.IpcSessionConfig;
+
+/**
+ * Binds {@link IpcSessionSwap} to a file based implementation which stores
+ * every suspended session in its own file below {@link IpcSessionConfig#SWAP_DIRECTORY}.
+ * The files are kept on shutdown and purged by the provider once they expired.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public final class FileIpcSessionSwapModule implements Module {
+
+    @Override
+    public void configure(Binder binder) {
+        binder.bind(IpcSessionSwap.class).to(FileIpcSessionSwap.class).in(Singleton.class);
+    }
+
+}
@@ -0,0 +1,629 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session.store;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+import de.cosmocode.palava.core.Registry;
+import de.cosmocode.palava.core.lifecycle.Disposable;
+import de.cosmocode.palava.core.lifecycle.Initializable;
+import de.cosmocode.palava.core.lifecycle.LifecycleException;
+import de.cosmocode.palava.ipc.AbstractIpcSession;
+import de.cosmocode.palava.ipc.IpcSession;
+import de.cosmocode.palava.ipc.IpcSessionChangeEvent;
+import de.cosmocode.palava.ipc.IpcSessionConfig;
+import de.cosmocode.palava.ipc.IpcSessionDelta;
+import de.cosmocode.palava.ipc.IpcSessionDestroyEvent;
+import de.cosmocode.palava.ipc.IpcSessionSuspendEvent;
+
+/**
+ * Persists session modifications asynchronously into append-only journal files and
+ * recovers all journaled sessions into the {@link IpcSessionStore} on startup.
+ * <p>
+ *   Request threads only collect the modified keys per session. A background thread
+ *   writes the current state of these keys every {@link IpcSessionConfig#JOURNAL_INTERVAL}
+ *   and forces all written journals to disk at once, so a crash loses at most one interval.
+ *   Suspended sessions are journaled completely, which captures values being modified
+ *   in place. Sessions are distributed over {@link IpcSessionConfig#JOURNAL_SHARDS} journals
+ *   by their id, each journal is compacted into a snapshot every
+ *   {@link IpcSessionConfig#JOURNAL_SNAPSHOT_INTERVAL} and recovered in parallel.
+ * </p>
+ * <p>
+ *   Every record is prefixed by its length and checksum, a record torn by a crash ends
+ *   the recovery of its journal and is truncated. Recovered sessions are
+ *   {@linkplain IpcSessionStore#restore(String, String, long, TimeUnit, Map) restored}
+ *   through the store, i.e. created by the configured {@link IpcSessionFactory},
+ *   considered accessed on recovery and announced as resumed.
+ * </p>
+ * <p>
+ *   The journal is at least as recent as a snapshot written on shutdown, which is why
+ *   recovered sessions supersede sessions with the same id restored from such a snapshot.
+ * </p>
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+final class IpcSessionJournal implements IpcSessionChangeEvent, IpcSessionDestroyEvent, IpcSessionSuspendEvent,
+    Initializable, Disposable, Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IpcSessionJournal.class);
+    
+    private static final byte UPDATE = 1;
+    
+    private static final byte FULL = 2;
+    
+    private static final byte DESTROY = 3;
+    
+    private static final int MAX_RECORD = 64 * 1024 * 1024;
+    
+    private final ConcurrentMap<String, Pending> pending = Maps.newConcurrentMap();
+    
+    private final Registry registry;
+    
+    private final IpcSessionStore store;
+    
+    private final File directory;
+    
+    private long interval = 100;
+    
+    private TimeUnit intervalUnit = TimeUnit.MILLISECONDS;
+    
+    private int shards = 16;
+    
+    private long snapshotInterval = 10;
+    
+    private TimeUnit snapshotIntervalUnit = TimeUnit.MINUTES;
+    
+    private Shard[] journals;
+    
+    private long lastSnapshot;
+    
+    private ScheduledExecutorService scheduler;
+    
+    /**
+     * The modifications of a single session since the last commit.
+     *
+     * @since 2.1
+     * @author Willi Schoenborn
+     */
+    private static final class Pending {
+        
+        private final IpcSession session;
+        
+        private final Set<Object> keys = Sets.newHashSet();
+        
+        private boolean full;
+        
+        private boolean destroyed;
+        
+        private boolean closed;
+        
+        Pending(IpcSession session) {
+            this.session = session;
+        }
+        
+    }
+    
+    /**
+     * The recovered state of a single session.
+     *
+     * @since 2.1
+     * @author Willi Schoenborn
+     */
+    private static final class State {
+        
+        private String identifier;
+        
+        private long timeout;
+        
+        private long lastAccess;
+        
+        private final Map<Object, Object> values = Maps.newHashMap();
+        
+    }
+    
+    /**
+     * A journal file and its snapshot.
+     *
+     * @since 2.1
+     * @author Willi Schoenborn
+     */
+    private final class Shard {
+        
+        private final File journal;
+        
+        private final File snapshot;
+        
+        private FileOutputStream stream;
+        
+        private DataOutputStream output;
+        
+        private boolean dirty;
+        
+        Shard(int index) {
+            this.journal = new File(directory, String.format("shard-%03d.journal", index));
+            this.snapshot = new File(directory, String.format("shard-%03d.snapshot", index));
+        }
+        
+        void open(boolean append) throws IOException {
+            stream = new FileOutputStream(journal, append);
+            output = new DataOutputStream(new BufferedOutputStream(stream));
+        }
+        
+        void append(byte[] record) throws IOException {
+            frame(output, record);
+            dirty = true;
+        }
+        
+        void commit() throws IOException {
+            if (!dirty) return;
+            output.flush();
+            stream.getChannel().force(false);
+            dirty = false;
+        }
+        
+        Map<String, State> recover() throws IOException {
+            final Map<String, State> states = Maps.newHashMap();
+            replay(snapshot, states);
+            final long valid = replay(journal, states);
+            if (journal.exists() && journal.length() > valid) {
+                LOG.warn("Truncating torn tail of {} at {}", journal, valid);
+                final RandomAccessFile file = new RandomAccessFile(journal, "rw");
+                try {
+                    file.setLength(valid);
+                } finally {
+                    file.close();
+                }
+            }
+            return states;
+        }
+        
+        void compact(Set<String> live, long now) throws IOException {
+            commit();
+            final Map<String, State> states = Maps.newHashMap();
+            replay(snapshot, states);
+            replay(journal, states);
+            
+            final File temporary = new File(directory, snapshot.getName() + ".tmp");
+            final FileOutputStream target = new FileOutputStream(temporary);
+            try {
+                final DataOutputStream data = new DataOutputStream(new BufferedOutputStream(target));
+                for (Map.Entry<String, State> entry : states.entrySet()) {
+                    final State state = entry.getValue();
+                    if (state.timeout > 0 && now - state.lastAccess > state.timeout && 
+                        !live.contains(entry.getKey())) {
+                        continue;
+                    }
+                    frame(data, encode(FULL, entry.getKey(), state.identifier, state.timeout, 
+                        state.lastAccess, state.values, Collections.emptySet()));
+                }
+                data.flush();
+                target.getChannel().force(false);
+            } finally {
+                target.close();
+            }
+            
+            if (!temporary.renameTo(snapshot)) {
+                temporary.delete();
+                throw new IOException(String.format("Unable to move %s to %s", temporary, snapshot));
+            }
+            // replaying the old journal on top of the new snapshot is idempotent until it's truncated
+            close();
+            open(false);
+        }
+        
+        void close() {
+            closeQuietly(output);
+        }
+        
+    }
+    
+    @Inject
+    public IpcSessionJournal(Registry registry, IpcSessionStore store, 
+        @Named(IpcSessionConfig.JOURNAL_DIRECTORY) String directory) {
+        this.registry = Preconditions.checkNotNull(registry, "Registry");
+        this.store = Preconditions.checkNotNull(store, "Store");
+        this.directory = new File(Preconditions.checkNotNull(directory, "Directory"));
+    }
+    
+    @Inject(optional = true)
+    void setInterval(@Named(IpcSessionConfig.JOURNAL_INTERVAL) long interval) {
+        this.interval = interval;
+    }
+    
+    @Inject(optional = true)
+    void setIntervalUnit(@Named(IpcSessionConfig.JOURNAL_INTERVAL_UNIT) TimeUnit intervalUnit) {
+        this.intervalUnit = Preconditions.checkNotNull(intervalUnit, "IntervalUnit");
+    }
+    
+    @Inject(optional = true)
+    void setShards(@Named(IpcSessionConfig.JOURNAL_SHARDS) int shards) {
+        Preconditions.checkArgument(shards > 0, "Shards must be positive");
+        this.shards = shards;
+    }
+    
+    @Inject(optional = true)
+    void setSnapshotInterval(@Named(IpcSessionConfig.JOURNAL_SNAPSHOT_INTERVAL) long snapshotInterval) {
+        this.snapshotInterval = snapshotInterval;
+    }
+    
+    @Inject(optional = true)
+    void setSnapshotIntervalUnit(
+        @Named(IpcSessionConfig.JOURNAL_SNAPSHOT_INTERVAL_UNIT) TimeUnit snapshotIntervalUnit) {
+        this.snapshotIntervalUnit = Preconditions.checkNotNull(snapshotIntervalUnit, "SnapshotIntervalUnit");
+    }
+    
+    @Override
+    public void initialize() throws LifecycleException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new LifecycleException(String.format("Unable to create journal directory %s", directory));
+        }
+        
+        journals = new Shard[shards];
+        for (int i = 0; i < shards; i++) {
+            journals[i] = new Shard(i);
+        }
+        
+        recover();
+        
+        try {
+            for (Shard shard : journals) {
+                shard.open(true);
+            }
+        } catch (IOException e) {
+            throw new LifecycleException(e);
+        }
+        lastSnapshot = System.currentTimeMillis();
+        
+        registry.register(IpcSessionChangeEvent.class, this);
+        registry.register(IpcSessionDestroyEvent.class, this);
+        registry.register(IpcSessionSuspendEvent.class, this);
+        scheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("ipc-session-journal-%d").setDaemon(true).build()
+        );
+        scheduler.scheduleWithFixedDelay(this, interval, interval, intervalUnit);
+        LOG.info("Journaling sessions to {}", directory);
+    }
+    
+    private void recover() throws LifecycleException {
+        final int threads = Math.min(shards, Runtime.getRuntime().availableProcessors());
+        final ExecutorService executor = Executors.newFixedThreadPool(threads,
+            new ThreadFactoryBuilder().setNameFormat("ipc-session-recovery-%d").setDaemon(true).build()
+        );
+        
+        try {
+            final List<Future<Integer>> futures = Lists.newArrayListWithCapacity(shards);
+            for (final Shard shard : journals) {
+                futures.add(executor.submit(new Callable<Integer>() {
+                    
+                    @Override
+                    public Integer call() throws IOException {
+                        return restore(shard.recover());
+                    }
+                    
+                }));
+            }
+            
+            int recovered = 0;
+            for (Future<Integer> future : futures) {
+                recovered += future.get().intValue();
+            }
+            LOG.info("Recovered {} sessions from {}", recovered, directory);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LifecycleException(e);
+        } catch (ExecutionException e) {
+            throw new LifecycleException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    private int restore(Map<String, State> states) {
+        for (Map.Entry<String, State> entry : states.entrySet()) {
+            final String sessionId = entry.getKey();
+            final State state = entry.getValue();
+            store.restore(sessionId, state.identifier, state.timeout, TimeUnit.MILLISECONDS, state.values);
+        }
+        return states.size();
+    }
+    
+    @Override
+    public void eventIpcSessionChange(IpcSession session, Object key) {
+        while (true) {
+            final Pending current = pendingOf(session);
+            synchronized (current) {
+                if (!current.closed) {
+                    current.keys.add(key);
+                    return;
+                }
+            }
+        }
+    }
+    
+    @Override
+    public void eventIpcSessionSuspend(IpcSession session, Map<String, ? super Serializable> data) {
+        while (true) {
+            final Pending current = pendingOf(session);
+            synchronized (current) {
+                if (!current.closed) {
+                    current.full = true;
+                    return;
+                }
+            }
+        }
+    }
+    
+    @Override
+    public void eventIpcSessionDestroy(IpcSession session) {
+        while (true) {
+            final Pending current = pendingOf(session);
+            synchronized (current) {
+                if (!current.closed) {
+                    current.destroyed = true;
+                    return;
+                }
+            }
+        }
+    }
+    
+    private Pending pendingOf(IpcSession session) {
+        final Pending present = pending.get(session.getSessionId());
+        if (present != null) return present;
+        final Pending created = new Pending(session);
+        final Pending raced = pending.putIfAbsent(session.getSessionId(), created);
+        return raced == null ? created : raced;
+    }
+    
+    private Shard shardOf(String sessionId) {
+        return journals[(sessionId.hashCode() & Integer.MAX_VALUE) % journals.length];
+    }
+    
+    @Override
+    public void run() {
+        for (Pending current : pending.values()) {
+            final IpcSession session = current.session;
+            final String sessionId = session.getSessionId();
+            final Set<Object> keys;
+            final boolean full;
+            final boolean destroyed;
+            
+            synchronized (current) {
+                current.closed = true;
+                pending.remove(sessionId, current);
+                keys = current.keys;
+                full = current.full;
+                destroyed = current.destroyed;
+            }
+            
+            try {
+                final byte[] record;
+                if (destroyed) {
+                    record = encode(DESTROY, sessionId, null, 0L, 0L, 
+                        Collections.emptyMap(), Collections.emptySet());
+                } else if (session instanceof AbstractIpcSession) {
+                    final AbstractIpcSession abstractSession = AbstractIpcSession.class.cast(session);
+                    final IpcSessionDelta delta = full ? abstractSession.snapshot() : abstractSession.delta(keys);
+                    record = encode(full ? FULL : UPDATE, sessionId, session.getIdentifier(), 
+                        session.getTimeout(TimeUnit.MILLISECONDS), delta.getLastAccess(), 
+                        delta.getUpdates(), delta.getRemovals());
+                } else {
+                    LOG.warn("Unable to journal {}", session);
+                    continue;
+                }
+                shardOf(sessionId).append(record);
+            } catch (IOException e) {
+                LOG.error("Unable to journal " + session, e);
+            }
+        }
+        
+        for (Shard shard : journals) {
+            try {
+                shard.commit();
+            } catch (IOException e) {
+                LOG.error("Unable to commit " + shard.journal, e);
+            }
+        }
+        
+        final long now = System.currentTimeMillis();
+        if (now - lastSnapshot >= snapshotIntervalUnit.toMillis(snapshotInterval)) {
+            lastSnapshot = now;
+            snapshot(now);
+        }
+    }
+    
+    private void snapshot(long now) {
+        final Set<String> live = store.getSessionIds();
+        for (Shard shard : journals) {
+            try {
+                shard.compact(live, now);
+            } catch (IOException e) {
+                LOG.error("Unable to compact " + shard.journal, e);
+            }
+        }
+    }
+    
+    private static byte[] encode(byte type, String sessionId, String identifier, long timeout, long lastAccess,
+        Map<?, ?> updates, Set<?> removals) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream output = new DataOutputStream(bytes);
+        output.writeByte(type);
+        BinaryCodec.writeString(output, sessionId);
+        if (type != DESTROY) {
+            BinaryCodec.writeString(output, identifier);
+            BinaryCodec.writeVarLong(output, timeout);
+            BinaryCodec.writeVarLong(output, lastAccess);
+            BinaryCodec.writeEntries(output, updates);
+            BinaryCodec.writeVarLong(output, removals.size());
+            for (Object key : removals) {
+                BinaryCodec.writeValue(output, key);
+            }
+        }
+        output.flush();
+        return bytes.toByteArray();
+    }
+    
+    private static void frame(DataOutputStream output, byte[] record) throws IOException {
+        final CRC32 crc = new CRC32();
+        crc.update(record);
+        output.writeInt(record.length);
+        output.writeInt((int) crc.getValue());
+        output.write(record);
+    }
+    
+    /**
+     * Replays all intact records of the given file into the given states.
+     * 
+     * @param file the journal or snapshot
+     * @param states the target states
+     * @return the number of bytes which have been replayed
+     * @throws IOException if reading failed
+     */
+    private static long replay(File file, Map<String, State> states) throws IOException {
+        if (!file.exists()) return 0L;
+        final DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        long position = 0L;
+        try {
+            while (true) {
+                final int length;
+                final int checksum;
+                final byte[] record;
+                try {
+                    length = input.readInt();
+                    checksum = input.readInt();
+                    if (length < 0 || length > MAX_RECORD) break;
+                    record = new byte[length];
+                    input.readFully(record);
+                } catch (EOFException e) {
+                    break;
+                }
+                final CRC32 crc = new CRC32();
+                crc.update(record);
+                if ((int) crc.getValue() != checksum) break;
+                apply(record, states);
+                position += 8 + length;
+            }
+        } finally {
+            input.close();
+        }
+        return position;
+    }
+    
+    private static void apply(byte[] record, Map<String, State> states) throws IOException {
+        final DataInputStream input = new DataInputStream(new ByteArrayInputStream(record));
+        final byte type = input.readByte();
+        final String sessionId = BinaryCodec.readString(input);
+        
+        if (type == DESTROY) {
+            states.remove(sessionId);
+            return;
+        } else if (type != UPDATE && type != FULL) {
+            throw new IOException("Unknown record type " + type);
+        }
+        
+        final String identifier = BinaryCodec.readString(input);
+        final long timeout = BinaryCodec.readVarLong(input);
+        final long lastAccess = BinaryCodec.readVarLong(input);
+        final Map<Object, Object> updates = Maps.newHashMap();
+        BinaryCodec.readEntries(input, updates);
+        final long removals = BinaryCodec.readVarLong(input);
+        
+        State state = states.get(sessionId);
+        if (state == null) {
+            // removals following a destroy, e.g. caused by clearing the session, must not resurrect it
+            if (type == UPDATE && updates.isEmpty()) return;
+            state = new State();
+            states.put(sessionId, state);
+        } else if (type == FULL) {
+            state.values.clear();
+        }
+        
+        state.identifier = identifier;
+        state.timeout = timeout;
+        state.lastAccess = lastAccess;
+        state.values.putAll(updates);
+        for (long i = 0; i < removals; i++) {
+            state.values.remove(BinaryCodec.readValue(input));
+        }
+    }
+    
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            LOG.warn("Unable to close " + closeable, e);
+        }
+    }
+    
+    @Override
+    public void dispose() throws LifecycleException {
+        registry.remove(IpcSessionChangeEvent.class, this);
+        registry.remove(IpcSessionDestroyEvent.class, this);
+        registry.remove(IpcSessionSuspendEvent.class, this);
+        if (scheduler == null) return;
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // commits modifications which occurred since the last run
+        run();
+        for (Shard shard : journals) {
+            shard.close();
+        }
+    }
+    
+}
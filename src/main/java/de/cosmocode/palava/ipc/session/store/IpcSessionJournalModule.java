@@ -0,0 +1,36 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session.store;
+
+import com.google.inject.Binder;
+import com.google.inject.Module;
+
+/**
+ * Enables journaling of sessions to {@link de.cosmocode.palava.ipc.IpcSessionConfig#JOURNAL_DIRECTORY}
+ * and their recovery on startup. Requires a binding for {@link IpcSessionStore}.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public final class IpcSessionJournalModule implements Module {
+
+    @Override
+    public void configure(Binder binder) {
+        binder.bind(IpcSessionJournal.class).asEagerSingleton();
+    }
+
+}
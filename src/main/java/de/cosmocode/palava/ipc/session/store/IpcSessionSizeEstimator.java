@@ -0,0 +1,39 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session.store;
+
+import de.cosmocode.palava.ipc.IpcSession;
+
+/**
+ * Estimates the number of bytes a session retains on the heap.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public interface IpcSessionSizeEstimator {
+
+    /**
+     * Estimates the retained size of the given session. Implementations
+     * must not touch the session.
+     * 
+     * @since 2.1
+     * @param session the session
+     * @return the estimated size in bytes
+     */
+    long estimate(IpcSession session);
+    
+}
@@ -0,0 +1,65 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session.store;
+
+import java.util.Map;
+
+/**
+ * Runtime statistics of the sessions held by an {@link IpcSessionStore}.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public interface IpcSessionStatistics {
+
+    /**
+     * Provides the number of sessions currently kept on the heap.
+     * 
+     * @since 2.1
+     * @return the number of sessions
+     */
+    int getSessionCount();
+    
+    /**
+     * Provides the estimated size of all sessions kept on the heap, as
+     * calculated during the last sweep. Sizes are only estimated if a
+     * maximum size has been configured.
+     * 
+     * @since 2.1
+     * @return the estimated size in bytes, or -1 if not estimated
+     */
+    long getEstimatedSize();
+    
+    /**
+     * Provides the number of sessions evicted because a bound has been exceeded.
+     * 
+     * @since 2.1
+     * @return the number of evicted sessions
+     */
+    long getEvictionCount();
+    
+    /**
+     * Provides the estimated sizes of the largest sessions kept on the heap.
+     * 
+     * @since 2.1
+     * @param limit the maximum number of sessions to report
+     * @return session ids mapped to their estimated size in bytes, largest first
+     * @throws IllegalArgumentException if limit is negative
+     */
+    Map<String, Long> getLargestSessions(int limit);
+    
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session.store;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import de.cosmocode.palava.ipc.IpcSession;
+import de.cosmocode.palava.ipc.IpcSessionProvider;
+
+/**
+ * Low level access to the sessions managed by an {@link IpcSessionProvider}, used by
+ * infrastructure like replication. None of these methods touch sessions.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public interface IpcSessionStore {
+
+    /**
+     * Looks up the session with the given id, resuming it if necessary.
+     * 
+     * @since 2.1
+     * @param sessionId the session id
+     * @return the session or null if there is no such session
+     */
+    IpcSession get(String sessionId);
+    
+    /**
+     * Adds an existing session, replacing any session with the same id.
+     * No {@link de.cosmocode.palava.ipc.IpcSessionCreateEvent} will be fired.
+     * 
+     * @since 2.1
+     * @param session the session
+     * @throws NullPointerException if session is null
+     */
+    void put(IpcSession session);
+    
+    /**
+     * Restores a session recovered from persistent storage, e.g. a journal, using the configured
+     * {@link IpcSessionFactory}. The session is considered accessed on
+     * restoration and announced using an {@link de.cosmocode.palava.ipc.IpcSessionResumeEvent}.
+     * The restored state supersedes any session with the same id, including suspended ones,
+     * e.g. restored from a snapshot.
+     * 
+     * @since 2.1
+     * @param sessionId the session id
+     * @param identifier the identifier, may be null
+     * @param timeout the timeout
+     * @param timeoutUnit the unit of timeout
+     * @param values the entries of the session
+     * @return the restored session
+     * @throws NullPointerException if sessionId, timeoutUnit or values is null
+     */
+    IpcSession restore(String sessionId, String identifier, long timeout, TimeUnit timeoutUnit, 
+        Map<Object, Object> values);
+    
+    /**
+     * Removes and destroys the session with the given id.
+     * 
+     * @since 2.1
+     * @param sessionId the session id
+     * @return the removed session or null if there was no such session
+     */
+    IpcSession remove(String sessionId);
+    
+    /**
+     * Removes the session with the given id without destroying it, e.g.
+     * to hand it over to another node.
+     * 
+     * @since 2.1
+     * @param sessionId the session id
+     * @return the released session or null if there was no such session
+     */
+    IpcSession release(String sessionId);
+    
+    /**
+     * Provides the ids of all sessions currently held on the heap. Suspended
+     * sessions are not included.
+     * 
+     * @since 2.1
+     * @return an immutable snapshot of all session ids
+     */
+    Set<String> getSessionIds();
+    
+}
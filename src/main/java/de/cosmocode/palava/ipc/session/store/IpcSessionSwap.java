@@ -0,0 +1,63 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session.store;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * A swap holds suspended sessions in their serialized form outside of the heap.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public interface IpcSessionSwap {
+
+    /**
+     * Stores the given serialized session, replacing any previously stored
+     * payload for the same session id.
+     * 
+     * @since 2.1
+     * @param sessionId the session id
+     * @param payload the serialized session
+     * @throws IOException if writing failed
+     */
+    void put(String sessionId, byte[] payload) throws IOException;
+    
+    /**
+     * Removes and returns the serialized session with the given id.
+     * 
+     * @since 2.1
+     * @param sessionId the session id
+     * @return the serialized session or null if there is no such session in this swap
+     * @throws IOException if reading failed
+     */
+    byte[] remove(String sessionId) throws IOException;
+    
+    /**
+     * Removes and returns all payloads which have been stored before the given timestamp.
+     * Callers are responsible to properly destroy the corresponding sessions.
+     * 
+     * @since 2.1
+     * @param timestamp the timestamp in milliseconds
+     * @return the removed payloads by session id, with null values for payloads
+     *         which could not be read
+     * @throws IOException if purging failed
+     */
+    Map<String, byte[]> purge(long timestamp) throws IOException;
+    
+}
@@ -0,0 +1,216 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session.store;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Preconditions;
+
+import de.cosmocode.palava.ipc.IpcSession;
+import de.cosmocode.palava.ipc.IpcSessionEntryExpiry;
+import de.cosmocode.palava.scope.AbstractScopeContext;
+
+/**
+ * A placeholder for a session which has not been written to yet. It appears
+ * empty and is not known to its {@link TieredIpcSessionProvider} until the first
+ * write, which creates and registers the real session using the same session id.
+ * From then on all operations are forwarded to the real session.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+final class LazyIpcSession extends AbstractScopeContext implements IpcSession, IpcSessionEntryExpiry {
+
+    /**
+     * Shared by all placeholders, is never written to because all
+     * adding operations materialize the session first.
+     */
+    private static final ConcurrentMap<Object, Object> EMPTY = new ConcurrentHashMap<Object, Object>(1);
+    
+    private final TieredIpcSessionProvider provider;
+    
+    private final String sessionId;
+    
+    private final String identifier;
+    
+    private final Date startedAt = new Date();
+    
+    private volatile long lastAccess = startedAt.getTime();
+    
+    private volatile long timeout;
+    
+    private volatile TimeUnit timeoutUnit;
+    
+    private volatile IpcSession session;
+    
+    LazyIpcSession(TieredIpcSessionProvider provider, String sessionId, String identifier) {
+        this.provider = Preconditions.checkNotNull(provider, "Provider");
+        this.sessionId = Preconditions.checkNotNull(sessionId, "SessionId");
+        this.identifier = identifier;
+    }
+    
+    @Override
+    protected ConcurrentMap<Object, Object> delegate() {
+        final IpcSession present = session;
+        return present == null ? EMPTY : present;
+    }
+    
+    private IpcSession materialize() {
+        final IpcSession present = session;
+        if (present != null) return present;
+        synchronized (this) {
+            if (session == null) {
+                session = provider.materialize(this);
+            }
+            return session;
+        }
+    }
+    
+    /**
+     * Checks whether the real session has been created.
+     * 
+     * @return true if this placeholder has been written to, false otherwise
+     */
+    boolean isMaterialized() {
+        return session != null;
+    }
+    
+    @Override
+    public Object put(Object key, Object value) {
+        return materialize().put(key, value);
+    }
+    
+    @Override
+    public void putAll(Map<? extends Object, ? extends Object> map) {
+        if (map.isEmpty()) return;
+        materialize().putAll(map);
+    }
+    
+    @Override
+    public Object putIfAbsent(Object key, Object value) {
+        return materialize().putIfAbsent(key, value);
+    }
+    
+    @Override
+    public Object put(Object key, Object value, long ttl, TimeUnit unit) {
+        final IpcSession real = materialize();
+        if (real instanceof IpcSessionEntryExpiry) {
+            return IpcSessionEntryExpiry.class.cast(real).put(key, value, ttl, unit);
+        } else {
+            throw new UnsupportedOperationException(real + " does not support entry expiry");
+        }
+    }
+    
+    @Override
+    public long getTimeToLive(Object key, TimeUnit unit) {
+        final IpcSession present = session;
+        if (present instanceof IpcSessionEntryExpiry) {
+            return IpcSessionEntryExpiry.class.cast(present).getTimeToLive(key, unit);
+        } else {
+            Preconditions.checkNotNull(unit, "Unit");
+            return -1L;
+        }
+    }
+    
+    @Override
+    public int purgeExpiredEntries() {
+        final IpcSession present = session;
+        if (present instanceof IpcSessionEntryExpiry) {
+            return IpcSessionEntryExpiry.class.cast(present).purgeExpiredEntries();
+        } else {
+            return 0;
+        }
+    }
+    
+    @Override
+    public String getSessionId() {
+        return sessionId;
+    }
+    
+    @Override
+    public String getIdentifier() {
+        return identifier;
+    }
+    
+    @Override
+    public Date startedAt() {
+        final IpcSession present = session;
+        return present == null ? new Date(startedAt.getTime()) : present.startedAt();
+    }
+    
+    @Override
+    public Date lastAccessTime() {
+        final IpcSession present = session;
+        return present == null ? new Date(lastAccess) : present.lastAccessTime();
+    }
+    
+    @Override
+    public void touch() {
+        final IpcSession present = session;
+        if (present == null) {
+            lastAccess = System.currentTimeMillis();
+        } else {
+            present.touch();
+        }
+    }
+    
+    @Override
+    public long getTimeout(TimeUnit unit) {
+        Preconditions.checkNotNull(unit, "Unit");
+        final IpcSession present = session;
+        if (present == null) {
+            final TimeUnit currentUnit = timeoutUnit;
+            return currentUnit == null ? 0L : unit.convert(timeout, currentUnit);
+        } else {
+            return present.getTimeout(unit);
+        }
+    }
+    
+    @Override
+    public void setTimeout(long time, TimeUnit unit) {
+        Preconditions.checkNotNull(unit, "Unit");
+        synchronized (this) {
+            if (session == null) {
+                this.timeout = unit.toMillis(time);
+                this.timeoutUnit = TimeUnit.MILLISECONDS;
+                return;
+            }
+        }
+        session.setTimeout(time, unit);
+    }
+    
+    @Override
+    public boolean isExpired() {
+        final IpcSession present = session;
+        if (present == null) {
+            return timeoutUnit != null && timeout != 0 && System.currentTimeMillis() - lastAccess > timeout;
+        } else {
+            return present.isExpired();
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return "LazyIpcSession [sessionId=" + sessionId + ", identifier=" + identifier + 
+            ", materialized=" + isMaterialized() + "]";
+    }
+    
+}
@@ -0,0 +1,365 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+import de.cosmocode.palava.core.lifecycle.Disposable;
+import de.cosmocode.palava.core.lifecycle.Initializable;
+import de.cosmocode.palava.core.lifecycle.LifecycleException;
+import de.cosmocode.palava.ipc.IpcSessionConfig;
+
+/**
+ * Persistent {@link IpcSessionSwap} implementation backed by a memory mapped file
+ * with an append-only record layout. Stored sessions survive restarts. On startup
+ * only the record headers are scanned to rebuild the index, payloads are read
+ * once a session is actually requested.
+ * <p>
+ *   Each record consists of a status byte, the timestamp, the length of the
+ *   session id, the length of the payload, the session id and the payload.
+ *   The status byte is written last, which makes partially written records
+ *   invisible. Removed records are marked dead and reclaimed by a compaction
+ *   once they make up more than half of the file. The file is limited to 2GB.
+ * </p>
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+final class MappedIpcSessionSwap implements IpcSessionSwap, Initializable, Disposable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MappedIpcSessionSwap.class);
+    
+    private static final String FILE_NAME = "sessions.dat";
+    
+    /**
+     * Status of the first unused byte after the last record.
+     */
+    private static final byte END = 0;
+    
+    /**
+     * Status of a record holding a suspended session.
+     */
+    private static final byte LIVE = 1;
+    
+    /**
+     * Status of a removed or replaced record, which will be reclaimed by the next compaction.
+     */
+    private static final byte DEAD = 2;
+    
+    /**
+     * Status byte, timestamp, id length and payload length.
+     */
+    private static final int HEADER = 1 + 8 + 4 + 4;
+    
+    private static final int INITIAL_CAPACITY = 1 << 20;
+    
+    /**
+     * The minimum amount of dead bytes before a compaction is worth it.
+     */
+    private static final int MIN_GARBAGE = 1 << 20;
+    
+    private final File directory;
+    
+    private final File file;
+    
+    private final Map<String, Integer> index = Maps.newHashMap();
+    
+    private RandomAccessFile access;
+    
+    private MappedByteBuffer buffer;
+    
+    private int position;
+    
+    private int garbage;
+    
+    @Inject
+    public MappedIpcSessionSwap(@Named(IpcSessionConfig.SWAP_DIRECTORY) String directory) {
+        this.directory = new File(Preconditions.checkNotNull(directory, "Directory"));
+        this.file = new File(this.directory, FILE_NAME);
+    }
+    
+    @Override
+    public synchronized void initialize() throws LifecycleException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new LifecycleException(String.format("Unable to create swap directory %s", directory));
+        }
+        try {
+            access = new RandomAccessFile(file, "rw");
+            buffer = map(access, Math.max(access.length(), INITIAL_CAPACITY));
+        } catch (IOException e) {
+            throw new LifecycleException(e);
+        }
+        scan();
+        LOG.info("Found {} suspended sessions in {}", index.size(), file);
+    }
+    
+    /**
+     * Maps the given file, growing it to the given size if necessary.
+     * 
+     * @param access the file
+     * @param size the size in bytes, must not exceed {@link Integer#MAX_VALUE}
+     * @return the mapped buffer
+     * @throws IOException if mapping failed
+     */
+    private static MappedByteBuffer map(RandomAccessFile access, long size) throws IOException {
+        Preconditions.checkState(size <= Integer.MAX_VALUE, "Swap file exceeds %s bytes", Integer.MAX_VALUE);
+        return access.getChannel().map(MapMode.READ_WRITE, 0, size);
+    }
+    
+    /**
+     * Provides the total length of the record at the given offset, including its header.
+     * 
+     * @param offset the offset of the record
+     * @return the length in bytes
+     */
+    private int lengthOf(int offset) {
+        return HEADER + buffer.getInt(offset + 9) + buffer.getInt(offset + 13);
+    }
+    
+    /**
+     * Reads the session id of the record at the given offset.
+     * 
+     * @param offset the offset of the record
+     * @return the session id
+     */
+    private String idOf(int offset) {
+        final byte[] id = new byte[buffer.getInt(offset + 9)];
+        read(offset + HEADER, id);
+        return new String(id, Charsets.UTF_8);
+    }
+    
+    private void read(int offset, byte[] target) {
+        final ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.get(target);
+    }
+    
+    private void write(int offset, byte[] source) {
+        final ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.put(source);
+    }
+    
+    /**
+     * Rebuilds the index by reading the record headers from the start of the file
+     * up to the end marker. A truncated record ends the scan, later ids win over
+     * earlier ones.
+     */
+    private void scan() {
+        position = 0;
+        garbage = 0;
+        index.clear();
+        
+        while (position + HEADER <= buffer.capacity()) {
+            final byte status = buffer.get(position);
+            if (status == END) break;
+            final int length = lengthOf(position);
+            if (length < HEADER || position + length > buffer.capacity()) {
+                LOG.warn("Found truncated record at {} in {}", position, file);
+                break;
+            }
+            if (status == LIVE) {
+                final Integer previous = index.put(idOf(position), position);
+                if (previous != null) {
+                    kill(previous.intValue());
+                }
+            } else {
+                garbage += length;
+            }
+            position += length;
+        }
+    }
+    
+    /**
+     * Marks the record at the given offset as dead.
+     * 
+     * @param offset the offset of the record
+     */
+    private void kill(int offset) {
+        buffer.put(offset, DEAD);
+        garbage += lengthOf(offset);
+    }
+    
+    @Override
+    public synchronized void put(String sessionId, byte[] payload) throws IOException {
+        Preconditions.checkNotNull(payload, "Payload");
+        final Integer previous = index.remove(sessionId);
+        if (previous != null) {
+            kill(previous.intValue());
+        }
+        
+        final byte[] id = sessionId.getBytes(Charsets.UTF_8);
+        final int length = HEADER + id.length + payload.length;
+        ensureCapacity(length);
+        
+        buffer.putLong(position + 1, System.currentTimeMillis());
+        buffer.putInt(position + 9, id.length);
+        buffer.putInt(position + 13, payload.length);
+        write(position + HEADER, id);
+        write(position + HEADER + id.length, payload);
+        buffer.put(position + length, END);
+        buffer.put(position, LIVE);
+        
+        index.put(sessionId, position);
+        position += length;
+    }
+    
+    /**
+     * Makes room for a record of the given length at the current position by
+     * compacting the file, if worth it, or growing it.
+     * 
+     * @param length the length of the new record
+     * @throws IOException if compacting or growing failed
+     */
+    private void ensureCapacity(int length) throws IOException {
+        // one additional byte for the end marker
+        if (position + length + 1 <= buffer.capacity()) return;
+        if (garbage >= MIN_GARBAGE) {
+            compact();
+            if (position + length + 1 <= buffer.capacity()) return;
+        }
+        long capacity = buffer.capacity();
+        while (capacity < position + length + 1L) {
+            capacity *= 2;
+        }
+        LOG.debug("Growing {} to {} bytes", file, capacity);
+        buffer.force();
+        buffer = map(access, capacity);
+    }
+    
+    @Override
+    public synchronized byte[] remove(String sessionId) throws IOException {
+        final Integer offset = index.remove(sessionId);
+        if (offset == null) return null;
+        final byte[] payload = payloadOf(offset.intValue());
+        kill(offset.intValue());
+        return payload;
+    }
+    
+    /**
+     * Reads the payload of the record at the given offset.
+     * 
+     * @param offset the offset of the record
+     * @return a copy of the payload
+     */
+    private byte[] payloadOf(int offset) {
+        final byte[] payload = new byte[buffer.getInt(offset + 13)];
+        read(offset + HEADER + buffer.getInt(offset + 9), payload);
+        return payload;
+    }
+    
+    @Override
+    public synchronized Map<String, byte[]> purge(long timestamp) throws IOException {
+        final Map<String, byte[]> purged = Maps.newHashMap();
+        final Iterator<Map.Entry<String, Integer>> iterator = index.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<String, Integer> entry = iterator.next();
+            final int offset = entry.getValue().intValue();
+            if (buffer.getLong(offset + 1) < timestamp) {
+                purged.put(entry.getKey(), payloadOf(offset));
+                iterator.remove();
+                kill(offset);
+            }
+        }
+        if (garbage >= MIN_GARBAGE && garbage > position / 2) {
+            compact();
+        }
+        return purged;
+    }
+    
+    /**
+     * Copies all live records into a new file which replaces the current one.
+     * 
+     * @throws IOException if writing or replacing the file failed
+     */
+    private void compact() throws IOException {
+        LOG.debug("Compacting {} reclaiming {} bytes", file, garbage);
+        final File temporary = new File(directory, FILE_NAME + ".tmp");
+        final RandomAccessFile target = new RandomAccessFile(temporary, "rw");
+        final Map<String, Integer> moved = Maps.newHashMap();
+        final MappedByteBuffer compacted;
+        int offset = 0;
+        
+        try {
+            target.setLength(0);
+            compacted = map(target, Math.max(INITIAL_CAPACITY, (position - garbage) * 2L + 1));
+            for (Map.Entry<String, Integer> entry : index.entrySet()) {
+                final int start = entry.getValue().intValue();
+                final int length = lengthOf(start);
+                final ByteBuffer record = buffer.duplicate();
+                record.position(start);
+                record.limit(start + length);
+                final ByteBuffer view = compacted.duplicate();
+                view.position(offset);
+                view.put(record);
+                moved.put(entry.getKey(), offset);
+                offset += length;
+            }
+            compacted.put(offset, END);
+            compacted.force();
+        } catch (IOException e) {
+            target.close();
+            temporary.delete();
+            throw e;
+        }
+        
+        if (!temporary.renameTo(file)) {
+            target.close();
+            throw new IOException(String.format("Unable to move %s to %s", temporary, file));
+        }
+        
+        index.putAll(moved);
+        access.close();
+        access = target;
+        buffer = compacted;
+        position = offset;
+        garbage = 0;
+    }
+    
+    @Override
+    public synchronized void dispose() throws LifecycleException {
+        if (access == null) return;
+        buffer.force();
+        try {
+            access.close();
+        } catch (IOException e) {
+            throw new LifecycleException(e);
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("MappedIpcSessionSwap [file=%s]", file);
+    }
+    
+}
@@ -0,0 +1,610 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session.store;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+
+/**
+ * A {@link ConcurrentMap} which keeps the serialized form of its values in direct memory.
+ * Only the keys and a small number of recently used values stay on the heap. Values are
+ * deserialized lazily on access and written back when they fall out of the hot cache, so
+ * modifications of a value are retained as long as it is hot. Values which are unchanged
+ * keep their previous buffer. An evicted value which is still
+ * referenced elsewhere is handed out again instead of a deserialized copy, but modifications
+ * of such a value have to be {@linkplain #refresh(Object) reported} to be written back.
+ * <p>
+ *   The key set, the values, the entry set and {@link #containsValue(Object)} don't move values
+ *   into the hot cache. Only {@link #get(Object)} does. Cold values handed out by these views are
+ *   deserialized copies, modifications of them are not retained.
+ * </p>
+ * <p>
+ *   Immutable value types, like strings and numbers, as well as values which can't be
+ *   serialized are kept on the heap. Null keys and values are not supported.
+ * </p>
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+final class OffHeapConcurrentMap extends AbstractMap<Object, Object> 
+    implements ConcurrentMap<Object, Object>, Serializable {
+
+    private static final long serialVersionUID = 4136985079223574384L;
+
+    private static final Logger LOG = LoggerFactory.getLogger(OffHeapConcurrentMap.class);
+    
+    private final int cacheSize;
+    
+    private final int threshold;
+    
+    private transient ConcurrentMap<Object, Object> index;
+    
+    private transient Map<Segment, Boolean> hot;
+    
+    private transient Set<Object> keySet;
+    
+    private transient Collection<Object> values;
+    
+    private transient Set<Entry<Object, Object>> entrySet;
+    
+    OffHeapConcurrentMap(int cacheSize, int threshold) {
+        Preconditions.checkArgument(cacheSize >= 0, "CacheSize must not be negative");
+        Preconditions.checkArgument(threshold >= 0, "Threshold must not be negative");
+        this.cacheSize = cacheSize;
+        this.threshold = threshold;
+        initialize();
+    }
+    
+    private void initialize() {
+        index = Maps.newConcurrentMap();
+        hot = new LinkedHashMap<Segment, Boolean>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 8264727839407213458L;
+
+            @Override
+            protected boolean removeEldestEntry(Entry<Segment, Boolean> eldest) {
+                if (size() > cacheSize) {
+                    eldest.getKey().evict();
+                    return true;
+                } else {
+                    return false;
+                }
+            }
+            
+        };
+    }
+
+    /**
+     * A single value which is either hot, i.e. deserialized on the heap,
+     * or cold, i.e. serialized in a buffer.
+     *
+     * @since 2.1
+     * @author Willi Schoenborn
+     */
+    private final class Segment {
+        
+        private Object value;
+        
+        private ByteBuffer buffer;
+        
+        /**
+         * The evicted value, as long as it is referenced elsewhere.
+         */
+        private WeakReference<Object> evicted;
+        
+        private boolean pinned;
+        
+        Segment(Object value) {
+            this.value = value;
+        }
+        
+        synchronized Object get() {
+            if (value == null) {
+                // the buffer is kept, an unmodified value doesn't need a new one on eviction
+                value = decode();
+                evicted = null;
+            }
+            return value;
+        }
+        
+        synchronized Object peek() {
+            return value == null ? decode() : value;
+        }
+        
+        private Object decode() {
+            final Object present = evicted == null ? null : evicted.get();
+            return present == null ? deserialize(buffer) : present;
+        }
+        
+        synchronized void evict() {
+            if (value == null || pinned) return;
+            if (store(value)) {
+                evicted = new WeakReference<Object>(value);
+                value = null;
+            }
+        }
+        
+        /**
+         * Writes back an evicted value which may have been modified since its eviction.
+         */
+        synchronized void refresh() {
+            if (value != null || evicted == null) return;
+            final Object present = evicted.get();
+            if (present == null) return;
+            if (!store(present)) {
+                value = present;
+                evicted = null;
+                buffer = null;
+            }
+        }
+        
+        private boolean store(Object object) {
+            final byte[] bytes;
+            try {
+                bytes = serialize(object);
+            } catch (IOException e) {
+                LOG.debug("Unable to serialize {}, pinning it on the heap", object);
+                pinned = true;
+                return false;
+            }
+            if (buffer != null && buffer.equals(ByteBuffer.wrap(bytes))) {
+                return true;
+            } else if (bytes.length < threshold) {
+                buffer = ByteBuffer.wrap(bytes);
+            } else {
+                buffer = ByteBuffer.allocateDirect(bytes.length);
+                buffer.put(bytes);
+                buffer.flip();
+            }
+            return true;
+        }
+        
+    }
+    
+    private static byte[] serialize(Object value) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream stream = new ObjectOutputStream(bytes);
+        try {
+            stream.writeObject(value);
+        } finally {
+            stream.close();
+        }
+        return bytes.toByteArray();
+    }
+    
+    private static Object deserialize(ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        try {
+            final ObjectInputStream stream = new ObjectInputStream(new ByteArrayInputStream(bytes));
+            try {
+                return stream.readObject();
+            } finally {
+                stream.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    private boolean isInline(Object value) {
+        return value instanceof String || value instanceof Number || value instanceof Boolean ||
+            value instanceof Character || value instanceof Enum<?> || !(value instanceof Serializable);
+    }
+    
+    private Object wrap(Object value) {
+        Preconditions.checkNotNull(value, "Value");
+        return isInline(value) ? value : new Segment(value);
+    }
+    
+    private void admit(Object stored) {
+        if (stored instanceof Segment) {
+            synchronized (hot) {
+                hot.put(Segment.class.cast(stored), Boolean.TRUE);
+            }
+        }
+    }
+    
+    private void release(Object stored) {
+        if (stored instanceof Segment) {
+            synchronized (hot) {
+                hot.remove(stored);
+            }
+        }
+    }
+    
+    /**
+     * Writes back all hot values, leaving only inline values on the heap.
+     * 
+     * @since 2.1
+     */
+    void spill() {
+        synchronized (hot) {
+            for (Segment segment : hot.keySet()) {
+                segment.evict();
+            }
+            hot.clear();
+        }
+    }
+    
+    /**
+     * Writes back the value of the given key if it has been evicted while still being referenced
+     * elsewhere, e.g. because it has been modified after eviction.
+     * 
+     * @since 2.1
+     * @param key the key
+     */
+    void refresh(Object key) {
+        final Object stored = index.get(key);
+        if (stored instanceof Segment) {
+            Segment.class.cast(stored).refresh();
+        }
+    }
+    
+    private Object unwrap(Object stored) {
+        if (stored instanceof Segment) {
+            final Object value = Segment.class.cast(stored).get();
+            admit(stored);
+            return value;
+        } else {
+            return stored;
+        }
+    }
+    
+    private Object peek(Object stored) {
+        return stored instanceof Segment ? Segment.class.cast(stored).peek() : stored;
+    }
+    
+    @Override
+    public Object get(Object key) {
+        return unwrap(index.get(key));
+    }
+    
+    @Override
+    public boolean containsKey(Object key) {
+        return index.containsKey(key);
+    }
+    
+    /**
+     * Compares the given value with all values, deserializing cold values one by one
+     * without moving them into the hot cache.
+     */
+    @Override
+    public boolean containsValue(Object value) {
+        if (value == null) return false;
+        for (Object stored : index.values()) {
+            if (value.equals(peek(stored))) return true;
+        }
+        return false;
+    }
+    
+    @Override
+    public int size() {
+        return index.size();
+    }
+    
+    @Override
+    public boolean isEmpty() {
+        return index.isEmpty();
+    }
+    
+    @Override
+    public Object put(Object key, Object value) {
+        final Object stored = wrap(value);
+        final Object previous = index.put(key, stored);
+        admit(stored);
+        release(previous);
+        return peek(previous);
+    }
+    
+    @Override
+    public Object putIfAbsent(Object key, Object value) {
+        final Object stored = wrap(value);
+        final Object previous = index.putIfAbsent(key, stored);
+        if (previous == null) {
+            admit(stored);
+            return null;
+        } else {
+            return unwrap(previous);
+        }
+    }
+    
+    @Override
+    public Object remove(Object key) {
+        final Object previous = index.remove(key);
+        release(previous);
+        return peek(previous);
+    }
+    
+    @Override
+    public boolean remove(Object key, Object value) {
+        while (true) {
+            final Object stored = index.get(key);
+            if (stored == null || !Objects.equal(peek(stored), value)) {
+                return false;
+            } else if (index.remove(key, stored)) {
+                release(stored);
+                return true;
+            }
+        }
+    }
+    
+    @Override
+    public Object replace(Object key, Object value) {
+        final Object replacement = wrap(value);
+        while (true) {
+            final Object stored = index.get(key);
+            if (stored == null) {
+                return null;
+            } else if (index.replace(key, stored, replacement)) {
+                admit(replacement);
+                release(stored);
+                return peek(stored);
+            }
+        }
+    }
+    
+    @Override
+    public boolean replace(Object key, Object oldValue, Object newValue) {
+        final Object replacement = wrap(newValue);
+        while (true) {
+            final Object stored = index.get(key);
+            if (stored == null || !Objects.equal(peek(stored), oldValue)) {
+                return false;
+            } else if (index.replace(key, stored, replacement)) {
+                admit(replacement);
+                release(stored);
+                return true;
+            }
+        }
+    }
+    
+    @Override
+    public void clear() {
+        index.clear();
+        synchronized (hot) {
+            hot.clear();
+        }
+    }
+    
+    @Override
+    public Set<Object> keySet() {
+        if (keySet == null) {
+            keySet = new KeySet();
+        }
+        return keySet;
+    }
+    
+    @Override
+    public Collection<Object> values() {
+        if (values == null) {
+            values = new Values();
+        }
+        return values;
+    }
+    
+    @Override
+    public Set<Entry<Object, Object>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new EntrySet();
+        }
+        return entrySet;
+    }
+    
+    /**
+     * Iterator over the index which releases removed values from the hot cache.
+     *
+     * @since 2.1
+     * @author Willi Schoenborn
+     * @param <E> the element type
+     */
+    private abstract class IndexIterator<E> implements Iterator<E> {
+        
+        private final Iterator<Entry<Object, Object>> iterator = index.entrySet().iterator();
+        
+        private Entry<Object, Object> current;
+        
+        @Override
+        public boolean hasNext() {
+            return iterator.hasNext();
+        }
+        
+        @Override
+        public E next() {
+            current = iterator.next();
+            return convert(current.getKey(), current.getValue());
+        }
+        
+        protected abstract E convert(Object key, Object stored);
+        
+        @Override
+        public void remove() {
+            iterator.remove();
+            release(current.getValue());
+        }
+        
+    }
+    
+    /**
+     * Key set view which never touches any values.
+     *
+     * @since 2.1
+     * @author Willi Schoenborn
+     */
+    private final class KeySet extends AbstractSet<Object> {
+        
+        @Override
+        public Iterator<Object> iterator() {
+            return new IndexIterator<Object>() {
+                
+                @Override
+                protected Object convert(Object key, Object stored) {
+                    return key;
+                }
+                
+            };
+        }
+        
+        @Override
+        public int size() {
+            return index.size();
+        }
+        
+        @Override
+        public boolean contains(Object o) {
+            return index.containsKey(o);
+        }
+        
+        @Override
+        public boolean remove(Object o) {
+            return OffHeapConcurrentMap.this.remove(o) != null;
+        }
+        
+        @Override
+        public void clear() {
+            OffHeapConcurrentMap.this.clear();
+        }
+        
+    }
+    
+    /**
+     * Values view which deserializes cold values without moving them into the hot cache.
+     *
+     * @since 2.1
+     * @author Willi Schoenborn
+     */
+    private final class Values extends AbstractCollection<Object> {
+        
+        @Override
+        public Iterator<Object> iterator() {
+            return new IndexIterator<Object>() {
+                
+                @Override
+                protected Object convert(Object key, Object stored) {
+                    return peek(stored);
+                }
+                
+            };
+        }
+        
+        @Override
+        public int size() {
+            return index.size();
+        }
+        
+        @Override
+        public boolean contains(Object o) {
+            return containsValue(o);
+        }
+        
+        @Override
+        public void clear() {
+            OffHeapConcurrentMap.this.clear();
+        }
+        
+    }
+    
+    /**
+     * Entry set view which deserializes cold values without moving them into the hot cache.
+     *
+     * @since 2.1
+     * @author Willi Schoenborn
+     */
+    private final class EntrySet extends AbstractSet<Entry<Object, Object>> {
+        
+        @Override
+        public Iterator<Entry<Object, Object>> iterator() {
+            return new IndexIterator<Entry<Object, Object>>() {
+                
+                @Override
+                protected Entry<Object, Object> convert(final Object key, Object stored) {
+                    return new SimpleEntry<Object, Object>(key, peek(stored)) {
+                        
+                        private static final long serialVersionUID = -1650935290279432018L;
+
+                        @Override
+                        public Object setValue(Object value) {
+                            super.setValue(value);
+                            return put(key, value);
+                        }
+                        
+                    };
+                }
+                
+            };
+        }
+        
+        @Override
+        public int size() {
+            return index.size();
+        }
+        
+        @Override
+        public void clear() {
+            OffHeapConcurrentMap.this.clear();
+        }
+        
+    }
+    
+    private void writeObject(ObjectOutputStream stream) throws IOException {
+        stream.defaultWriteObject();
+        stream.writeInt(index.size());
+        for (Entry<Object, Object> entry : index.entrySet()) {
+            stream.writeObject(entry.getKey());
+            stream.writeObject(peek(entry.getValue()));
+        }
+    }
+    
+    private void readObject(ObjectInputStream stream) throws IOException, ClassNotFoundException {
+        stream.defaultReadObject();
+        initialize();
+        final int size = stream.readInt();
+        for (int i = 0; i < size; i++) {
+            final Object key = stream.readObject();
+            final Object stored = wrap(stream.readObject());
+            if (stored instanceof Segment) {
+                Segment.class.cast(stored).evict();
+            }
+            index.put(key, stored);
+        }
+    }
+    
+}
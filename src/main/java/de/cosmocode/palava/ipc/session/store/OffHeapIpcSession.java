@@ -0,0 +1,105 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session.store;
+
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.base.Preconditions;
+
+import de.cosmocode.palava.ipc.AbstractIpcSession;
+
+/**
+ * An {@link AbstractIpcSession} implementation which keeps the serialized
+ * form of its values in direct memory and only a small number of recently
+ * used values on the heap.
+ * <p>
+ *   Values which are modified in place have to be reported using {@link #markDirty(Object)},
+ *   because a value may have been moved out of the heap since it was retrieved, in which
+ *   case unreported modifications are lost.
+ * </p>
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public final class OffHeapIpcSession extends AbstractIpcSession {
+
+    private static final long serialVersionUID = -7014720913640893541L;
+
+    private final String sessionId;
+    
+    private final String identifier;
+    
+    private final OffHeapConcurrentMap context;
+    
+    /**
+     * Creates a new {@link OffHeapIpcSession}.
+     * 
+     * @param sessionId the session id
+     * @param identifier the identifier, may be null
+     * @param cacheSize the maximum number of deserialized values kept on the heap
+     * @param threshold the serialized size in bytes from which on values are moved into direct memory
+     */
+    public OffHeapIpcSession(String sessionId, String identifier, int cacheSize, int threshold) {
+        this.sessionId = Preconditions.checkNotNull(sessionId, "SessionId");
+        this.identifier = identifier;
+        this.context = new OffHeapConcurrentMap(cacheSize, threshold);
+    }
+    
+    @Override
+    protected ConcurrentMap<Object, Object> delegate() {
+        return context;
+    }
+    
+    /**
+     * Writes back the value of the given key, in case it has been moved out of the heap
+     * since it was retrieved, and marks it as dirty.
+     */
+    @Override
+    public void markDirty(Object key) {
+        context.refresh(key);
+        super.markDirty(key);
+    }
+    
+    @Override
+    public boolean isSpillable() {
+        return true;
+    }
+    
+    /**
+     * Writes back all recently used values into direct memory.
+     */
+    @Override
+    protected void spill() {
+        context.spill();
+    }
+    
+    @Override
+    public String getSessionId() {
+        return sessionId;
+    }
+    
+    @Override
+    public String getIdentifier() {
+        return identifier;
+    }
+    
+    @Override
+    public String toString() {
+        return "OffHeapIpcSession [sessionId=" + sessionId + ", identifier=" + identifier + "]";
+    }
+    
+}
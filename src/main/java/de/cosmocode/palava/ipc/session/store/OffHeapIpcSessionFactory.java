@@ -0,0 +1,55 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session.store;
+
+import com.google.common.base.Preconditions;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+import de.cosmocode.palava.ipc.IpcSession;
+import de.cosmocode.palava.ipc.IpcSessionConfig;
+
+/**
+ * {@link IpcSessionFactory} which creates {@link OffHeapIpcSession}s.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+final class OffHeapIpcSessionFactory implements IpcSessionFactory {
+
+    private int cacheSize = 16;
+    
+    private int threshold = 1024;
+    
+    @Inject(optional = true)
+    void setCacheSize(@Named(IpcSessionConfig.OFF_HEAP_CACHE_SIZE) int cacheSize) {
+        Preconditions.checkArgument(cacheSize >= 0, "CacheSize must not be negative");
+        this.cacheSize = cacheSize;
+    }
+    
+    @Inject(optional = true)
+    void setThreshold(@Named(IpcSessionConfig.OFF_HEAP_THRESHOLD) int threshold) {
+        Preconditions.checkArgument(threshold >= 0, "Threshold must not be negative");
+        this.threshold = threshold;
+    }
+    
+    @Override
+    public IpcSession create(String sessionId, String identifier) {
+        return new OffHeapIpcSession(sessionId, identifier, cacheSize, threshold);
+    }
+    
+}
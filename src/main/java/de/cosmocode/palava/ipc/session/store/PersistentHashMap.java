@@ -0,0 +1,443 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session.store;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * An immutable, persistent hash map based on a hash array mapped trie. Modifications
+ * return a new map which shares all untouched nodes with this one and cost O(log32 n).
+ * Null keys and values are not supported.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+final class PersistentHashMap<K, V> extends AbstractMap<K, V> {
+
+    private static final int BITS = 5;
+    
+    private static final int MASK = (1 << BITS) - 1;
+    
+    private static final PersistentHashMap<Object, Object> EMPTY = new PersistentHashMap<Object, Object>(null, 0);
+    
+    private final Node root;
+    
+    private final int size;
+    
+    private transient Set<Entry<K, V>> entrySet;
+    
+    private PersistentHashMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+    
+    /**
+     * Provides the empty map.
+     * 
+     * @param <K> the key type
+     * @param <V> the value type
+     * @return the empty map
+     */
+    @SuppressWarnings("unchecked")
+    static <K, V> PersistentHashMap<K, V> empty() {
+        return (PersistentHashMap<K, V>) EMPTY;
+    }
+    
+    private static int hash(Object key) {
+        final int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+    
+    private static int bitOf(int hash, int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+    
+    /**
+     * Tracks whether a put added a new key.
+     */
+    private static final class Added {
+        
+        private boolean value;
+        
+    }
+    
+    /**
+     * A node of the trie.
+     */
+    private abstract static class Node {
+        
+        /**
+         * Alternating keys and values. A null key denotes a sub node as value.
+         */
+        final Object[] array;
+        
+        Node(Object[] array) {
+            this.array = array;
+        }
+        
+        abstract Object find(int shift, int hash, Object key);
+        
+        abstract Node put(int shift, int hash, Object key, Object value, Added added);
+        
+        abstract Node remove(int shift, int hash, Object key);
+        
+    }
+    
+    /**
+     * A node which uses a bitmap to index up to 32 entries or sub nodes.
+     */
+    private static final class BitmapNode extends Node {
+        
+        private static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+        
+        private final int bitmap;
+        
+        BitmapNode(int bitmap, Object[] array) {
+            super(array);
+            this.bitmap = bitmap;
+        }
+        
+        private int indexOf(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+        
+        private BitmapNode with(int position, Object value) {
+            final Object[] copy = array.clone();
+            copy[position] = value;
+            return new BitmapNode(bitmap, copy);
+        }
+        
+        @Override
+        Object find(int shift, int hash, Object key) {
+            final int bit = bitOf(hash, shift);
+            if ((bitmap & bit) == 0) return null;
+            final int index = indexOf(bit);
+            final Object present = array[2 * index];
+            final Object value = array[2 * index + 1];
+            if (present == null) {
+                return Node.class.cast(value).find(shift + BITS, hash, key);
+            } else {
+                return key.equals(present) ? value : null;
+            }
+        }
+        
+        @Override
+        Node put(int shift, int hash, Object key, Object value, Added added) {
+            final int bit = bitOf(hash, shift);
+            final int index = indexOf(bit);
+            
+            if ((bitmap & bit) == 0) {
+                final Object[] copy = new Object[array.length + 2];
+                System.arraycopy(array, 0, copy, 0, 2 * index);
+                copy[2 * index] = key;
+                copy[2 * index + 1] = value;
+                System.arraycopy(array, 2 * index, copy, 2 * index + 2, array.length - 2 * index);
+                added.value = true;
+                return new BitmapNode(bitmap | bit, copy);
+            }
+            
+            final Object present = array[2 * index];
+            final Object current = array[2 * index + 1];
+            
+            if (present == null) {
+                final Node node = Node.class.cast(current).put(shift + BITS, hash, key, value, added);
+                return node == current ? this : with(2 * index + 1, node);
+            } else if (key.equals(present)) {
+                return current == value ? this : with(2 * index + 1, value);
+            } else {
+                added.value = true;
+                final Node node = create(shift + BITS, present, current, hash, key, value);
+                final Object[] copy = array.clone();
+                copy[2 * index] = null;
+                copy[2 * index + 1] = node;
+                return new BitmapNode(bitmap, copy);
+            }
+        }
+        
+        @Override
+        Node remove(int shift, int hash, Object key) {
+            final int bit = bitOf(hash, shift);
+            if ((bitmap & bit) == 0) return this;
+            final int index = indexOf(bit);
+            final Object present = array[2 * index];
+            final Object current = array[2 * index + 1];
+            
+            if (present == null) {
+                final Node node = Node.class.cast(current).remove(shift + BITS, hash, key);
+                if (node == current) {
+                    return this;
+                } else if (node != null) {
+                    return with(2 * index + 1, node);
+                }
+            } else if (!key.equals(present)) {
+                return this;
+            }
+            
+            if (bitmap == bit) return null;
+            final Object[] copy = new Object[array.length - 2];
+            System.arraycopy(array, 0, copy, 0, 2 * index);
+            System.arraycopy(array, 2 * index + 2, copy, 2 * index, copy.length - 2 * index);
+            return new BitmapNode(bitmap ^ bit, copy);
+        }
+        
+    }
+    
+    /**
+     * A node which holds entries whose keys share the same hash.
+     */
+    private static final class CollisionNode extends Node {
+        
+        private final int hash;
+        
+        CollisionNode(int hash, Object[] array) {
+            super(array);
+            this.hash = hash;
+        }
+        
+        private int indexOf(Object key) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (key.equals(array[i])) return i;
+            }
+            return -1;
+        }
+        
+        @Override
+        Object find(int shift, int hash, Object key) {
+            if (hash != this.hash) return null;
+            final int index = indexOf(key);
+            return index < 0 ? null : array[index + 1];
+        }
+        
+        @Override
+        Node put(int shift, int hash, Object key, Object value, Added added) {
+            if (hash != this.hash) {
+                final Node nested = new BitmapNode(bitOf(this.hash, shift), new Object[] {null, this});
+                return nested.put(shift, hash, key, value, added);
+            }
+            final int index = indexOf(key);
+            if (index < 0) {
+                final Object[] copy = new Object[array.length + 2];
+                System.arraycopy(array, 0, copy, 0, array.length);
+                copy[array.length] = key;
+                copy[array.length + 1] = value;
+                added.value = true;
+                return new CollisionNode(hash, copy);
+            } else if (array[index + 1] == value) {
+                return this;
+            } else {
+                final Object[] copy = array.clone();
+                copy[index + 1] = value;
+                return new CollisionNode(hash, copy);
+            }
+        }
+        
+        @Override
+        Node remove(int shift, int hash, Object key) {
+            if (hash != this.hash) return this;
+            final int index = indexOf(key);
+            if (index < 0) return this;
+            if (array.length == 2) return null;
+            final Object[] copy = new Object[array.length - 2];
+            System.arraycopy(array, 0, copy, 0, index);
+            System.arraycopy(array, index + 2, copy, index, copy.length - index);
+            return new CollisionNode(hash, copy);
+        }
+        
+    }
+    
+    private static Node create(int shift, Object firstKey, Object firstValue, 
+        int secondHash, Object secondKey, Object secondValue) {
+        final int firstHash = hash(firstKey);
+        if (firstHash == secondHash) {
+            return new CollisionNode(firstHash, new Object[] {firstKey, firstValue, secondKey, secondValue});
+        }
+        final Added added = new Added();
+        return BitmapNode.EMPTY.
+            put(shift, firstHash, firstKey, firstValue, added).
+            put(shift, secondHash, secondKey, secondValue, added);
+    }
+    
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        if (key == null || root == null) return null;
+        return (V) root.find(0, hash(key), key);
+    }
+    
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+    
+    @Override
+    public int size() {
+        return size;
+    }
+    
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+    
+    /**
+     * Returns a map which additionally maps the given key to the given value.
+     * 
+     * @param key the key
+     * @param value the value
+     * @return the new map or this map if key is already mapped to value
+     * @throws NullPointerException if key or value is null
+     */
+    PersistentHashMap<K, V> plus(K key, V value) {
+        Preconditions.checkNotNull(key, "Key");
+        Preconditions.checkNotNull(value, "Value");
+        final Added added = new Added();
+        final Node node = (root == null ? BitmapNode.EMPTY : root).put(0, hash(key), key, value, added);
+        if (node == root) return this;
+        return new PersistentHashMap<K, V>(node, added.value ? size + 1 : size);
+    }
+    
+    /**
+     * Returns a map without the given key.
+     * 
+     * @param key the key
+     * @return the new map or this map if key is not present
+     */
+    PersistentHashMap<K, V> minus(Object key) {
+        if (key == null || root == null) return this;
+        final Node node = root.remove(0, hash(key), key);
+        if (node == root) return this;
+        return node == null ? PersistentHashMap.<K, V>empty() : new PersistentHashMap<K, V>(node, size - 1);
+    }
+    
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new EntrySet();
+        }
+        return entrySet;
+    }
+    
+    /**
+     * Entry set view of this immutable map.
+     */
+    private final class EntrySet extends AbstractSet<Entry<K, V>> {
+        
+        @Override
+        public Iterator<Entry<K, V>> iterator() {
+            return new EntryIterator<K, V>(root);
+        }
+        
+        @Override
+        public int size() {
+            return size;
+        }
+        
+    }
+    
+    /**
+     * Depth first iterator over all entries of a trie.
+     *
+     * @param <K> the key type
+     * @param <V> the value type
+     */
+    private static final class EntryIterator<K, V> implements Iterator<Entry<K, V>> {
+        
+        private final Deque<Object[]> arrays = new ArrayDeque<Object[]>();
+        
+        private final Deque<Integer> positions = new ArrayDeque<Integer>();
+        
+        private Entry<K, V> next;
+        
+        EntryIterator(Node root) {
+            if (root != null) {
+                arrays.push(root.array);
+                positions.push(0);
+            }
+            advance();
+        }
+        
+        @SuppressWarnings("unchecked")
+        private void advance() {
+            next = null;
+            while (!arrays.isEmpty()) {
+                final Object[] array = arrays.peek();
+                final int position = positions.pop();
+                if (position >= array.length) {
+                    arrays.pop();
+                    continue;
+                }
+                positions.push(position + 2);
+                final Object key = array[position];
+                final Object value = array[position + 1];
+                if (key == null) {
+                    arrays.push(Node.class.cast(value).array);
+                    positions.push(0);
+                } else {
+                    next = new SimpleImmutableEntry<K, V>((K) key, (V) value);
+                    return;
+                }
+            }
+        }
+        
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+        
+        @Override
+        public Entry<K, V> next() {
+            if (next == null) throw new NoSuchElementException();
+            final Entry<K, V> current = next;
+            advance();
+            return current;
+        }
+        
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+        
+    }
+    
+    /**
+     * Copies the given map.
+     * 
+     * @param <K> the key type
+     * @param <V> the value type
+     * @param map the map to copy
+     * @return a persistent copy of map
+     */
+    static <K, V> PersistentHashMap<K, V> copyOf(Map<? extends K, ? extends V> map) {
+        PersistentHashMap<K, V> copy = empty();
+        for (Entry<? extends K, ? extends V> entry : map.entrySet()) {
+            copy = copy.plus(entry.getKey(), entry.getValue());
+        }
+        return copy;
+    }
+    
+}
@@ -0,0 +1,299 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session.store;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+
+/**
+ * A {@link ConcurrentMap} which publishes every modification as a new version of an
+ * immutable {@link PersistentHashMap} using compare-and-set. Readers never lock and
+ * iterators always traverse the version which was current when they were created.
+ * Null keys and values are not supported.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+final class SnapshotConcurrentMap extends AbstractMap<Object, Object> 
+    implements ConcurrentMap<Object, Object>, Serializable {
+
+    private static final long serialVersionUID = -3519843702151385227L;
+
+    private transient AtomicReference<Version> current;
+    
+    private transient Set<Entry<Object, Object>> entrySet;
+    
+    SnapshotConcurrentMap() {
+        initialize(PersistentHashMap.<Object, Object>empty());
+    }
+    
+    private void initialize(PersistentHashMap<Object, Object> map) {
+        current = new AtomicReference<Version>(new Version(map, 0L));
+    }
+    
+    /**
+     * An immutable map together with its version number.
+     *
+     * @since 2.1
+     * @author Willi Schoenborn
+     */
+    private static final class Version {
+        
+        private final PersistentHashMap<Object, Object> map;
+        
+        private final long number;
+        
+        Version(PersistentHashMap<Object, Object> map, long number) {
+            this.map = map;
+            this.number = number;
+        }
+        
+    }
+    
+    private boolean publish(Version expected, PersistentHashMap<Object, Object> map) {
+        return map == expected.map || current.compareAndSet(expected, new Version(map, expected.number + 1));
+    }
+    
+    /**
+     * Provides the current content of this map. The returned map is immutable
+     * and unaffected by subsequent modifications.
+     * 
+     * @since 2.1
+     * @return the current immutable snapshot
+     */
+    Map<Object, Object> snapshot() {
+        return current.get().map;
+    }
+    
+    /**
+     * Provides the current version, which is incremented by every effective modification.
+     * 
+     * @since 2.1
+     * @return the current version
+     */
+    long getVersion() {
+        return current.get().number;
+    }
+    
+    @Override
+    public Object get(Object key) {
+        return current.get().map.get(key);
+    }
+    
+    @Override
+    public boolean containsKey(Object key) {
+        return current.get().map.containsKey(key);
+    }
+    
+    @Override
+    public int size() {
+        return current.get().map.size();
+    }
+    
+    @Override
+    public boolean isEmpty() {
+        return current.get().map.isEmpty();
+    }
+    
+    @Override
+    public Object put(Object key, Object value) {
+        Preconditions.checkNotNull(key, "Key");
+        Preconditions.checkNotNull(value, "Value");
+        while (true) {
+            final Version version = current.get();
+            if (publish(version, version.map.plus(key, value))) {
+                return version.map.get(key);
+            }
+        }
+    }
+    
+    @Override
+    public Object putIfAbsent(Object key, Object value) {
+        Preconditions.checkNotNull(key, "Key");
+        Preconditions.checkNotNull(value, "Value");
+        while (true) {
+            final Version version = current.get();
+            final Object previous = version.map.get(key);
+            if (previous != null) {
+                return previous;
+            } else if (publish(version, version.map.plus(key, value))) {
+                return null;
+            }
+        }
+    }
+    
+    @Override
+    public Object remove(Object key) {
+        while (true) {
+            final Version version = current.get();
+            if (publish(version, version.map.minus(key))) {
+                return version.map.get(key);
+            }
+        }
+    }
+    
+    @Override
+    public boolean remove(Object key, Object value) {
+        while (true) {
+            final Version version = current.get();
+            final Object previous = version.map.get(key);
+            if (previous == null || !Objects.equal(previous, value)) {
+                return false;
+            } else if (publish(version, version.map.minus(key))) {
+                return true;
+            }
+        }
+    }
+    
+    @Override
+    public Object replace(Object key, Object value) {
+        Preconditions.checkNotNull(value, "Value");
+        while (true) {
+            final Version version = current.get();
+            final Object previous = version.map.get(key);
+            if (previous == null) {
+                return null;
+            } else if (publish(version, version.map.plus(key, value))) {
+                return previous;
+            }
+        }
+    }
+    
+    @Override
+    public boolean replace(Object key, Object oldValue, Object newValue) {
+        Preconditions.checkNotNull(newValue, "NewValue");
+        while (true) {
+            final Version version = current.get();
+            final Object previous = version.map.get(key);
+            if (previous == null || !Objects.equal(previous, oldValue)) {
+                return false;
+            } else if (publish(version, version.map.plus(key, newValue))) {
+                return true;
+            }
+        }
+    }
+    
+    @Override
+    public void clear() {
+        while (true) {
+            final Version version = current.get();
+            if (publish(version, PersistentHashMap.<Object, Object>empty())) {
+                return;
+            }
+        }
+    }
+    
+    @Override
+    public Set<Entry<Object, Object>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new EntrySet();
+        }
+        return entrySet;
+    }
+    
+    /**
+     * Entry set view whose iterators traverse the version current at their creation.
+     *
+     * @since 2.1
+     * @author Willi Schoenborn
+     */
+    private final class EntrySet extends AbstractSet<Entry<Object, Object>> {
+        
+        @Override
+        public Iterator<Entry<Object, Object>> iterator() {
+            final Iterator<Entry<Object, Object>> iterator = current.get().map.entrySet().iterator();
+            return new Iterator<Entry<Object, Object>>() {
+                
+                private Entry<Object, Object> last;
+                
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+                
+                @Override
+                public Entry<Object, Object> next() {
+                    last = iterator.next();
+                    final Object key = last.getKey();
+                    return new SimpleEntry<Object, Object>(key, last.getValue()) {
+                        
+                        private static final long serialVersionUID = 6307417004569315413L;
+
+                        @Override
+                        public Object setValue(Object value) {
+                            super.setValue(value);
+                            return put(key, value);
+                        }
+                        
+                    };
+                }
+                
+                @Override
+                public void remove() {
+                    Preconditions.checkState(last != null, "next() has not been called");
+                    SnapshotConcurrentMap.this.remove(last.getKey(), last.getValue());
+                    last = null;
+                }
+                
+            };
+        }
+        
+        @Override
+        public int size() {
+            return SnapshotConcurrentMap.this.size();
+        }
+        
+        @Override
+        public void clear() {
+            SnapshotConcurrentMap.this.clear();
+        }
+        
+    }
+    
+    private void writeObject(ObjectOutputStream stream) throws IOException {
+        stream.defaultWriteObject();
+        final Map<Object, Object> snapshot = snapshot();
+        stream.writeInt(snapshot.size());
+        for (Entry<Object, Object> entry : snapshot.entrySet()) {
+            stream.writeObject(entry.getKey());
+            stream.writeObject(entry.getValue());
+        }
+    }
+    
+    private void readObject(ObjectInputStream stream) throws IOException, ClassNotFoundException {
+        stream.defaultReadObject();
+        PersistentHashMap<Object, Object> map = PersistentHashMap.empty();
+        final int size = stream.readInt();
+        for (int i = 0; i < size; i++) {
+            map = map.plus(stream.readObject(), stream.readObject());
+        }
+        initialize(map);
+    }
+    
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session.store;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.base.Preconditions;
+
+import de.cosmocode.palava.ipc.AbstractIpcSession;
+import de.cosmocode.palava.ipc.IpcSessionDelta;
+
+/**
+ * An {@link AbstractIpcSession} implementation which keeps its content in an immutable,
+ * persistent hash map. Every modification publishes a new version using compare-and-set,
+ * so readers never block writers and iterating this session always yields a consistent
+ * state, regardless of concurrent modifications.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public final class SnapshotIpcSession extends AbstractIpcSession {
+
+    private static final long serialVersionUID = 2931164817706640729L;
+
+    private final String sessionId;
+    
+    private final String identifier;
+    
+    private final SnapshotConcurrentMap context;
+    
+    /**
+     * Creates a new {@link SnapshotIpcSession}.
+     * 
+     * @param sessionId the session id
+     * @param identifier the identifier, may be null
+     */
+    public SnapshotIpcSession(String sessionId, String identifier) {
+        this.sessionId = Preconditions.checkNotNull(sessionId, "SessionId");
+        this.identifier = identifier;
+        this.context = new SnapshotConcurrentMap();
+    }
+    
+    @Override
+    protected ConcurrentMap<Object, Object> delegate() {
+        return context;
+    }
+    
+    /**
+     * Provides the version of the content of this session. It is incremented
+     * by every modification. This method does not touch this session.
+     * 
+     * @since 2.1
+     * @return the current version
+     */
+    public long getVersion() {
+        return context.getVersion();
+    }
+    
+    /**
+     * Provides an immutable view of the current content of this session in constant time.
+     * The returned map is unaffected by subsequent modifications. Entries with an expired
+     * time to live may still be part of it. This method does not touch this session.
+     * 
+     * @since 2.1
+     * @return an immutable snapshot of this session's content
+     */
+    public Map<Object, Object> getSnapshot() {
+        return context.snapshot();
+    }
+    
+    /**
+     * {@inheritDoc}
+     * <p>
+     *   The returned delta reflects exactly one version of this session.
+     * </p>
+     */
+    @Override
+    public IpcSessionDelta snapshot() {
+        return new IpcSessionDelta(getSessionId(), lastAccessTime().getTime(), 
+            context.snapshot(), Collections.<Object>emptySet());
+    }
+    
+    @Override
+    public String getSessionId() {
+        return sessionId;
+    }
+    
+    @Override
+    public String getIdentifier() {
+        return identifier;
+    }
+    
+    @Override
+    public String toString() {
+        return "SnapshotIpcSession [sessionId=" + sessionId + ", identifier=" + identifier + "]";
+    }
+    
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session.store;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+
+import de.cosmocode.palava.ipc.IpcSession;
+import de.cosmocode.palava.ipc.IpcSessionSuspendEvent;
+
+/**
+ * A suspended session along with the context informations collected
+ * by the {@link IpcSessionSuspendEvent}.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+final class SuspendedIpcSession implements Serializable {
+
+    private static final long serialVersionUID = 2862307512541924766L;
+
+    private final IpcSession session;
+    
+    private final HashMap<String, Serializable> data;
+
+    SuspendedIpcSession(IpcSession session, Map<String, Serializable> data) {
+        this.session = Preconditions.checkNotNull(session, "Session");
+        this.data = Maps.newHashMap(Preconditions.checkNotNull(data, "Data"));
+    }
+    
+    public IpcSession getSession() {
+        return session;
+    }
+    
+    public Map<String, Serializable> getData() {
+        return data;
+    }
+    
+    /**
+     * Serializes this suspended session.
+     * 
+     * @since 2.1
+     * @return the serialized form of this suspended session
+     * @throws IOException if serialization failed
+     */
+    byte[] toBytes() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream stream = new ObjectOutputStream(bytes);
+        try {
+            stream.writeObject(this);
+        } finally {
+            stream.close();
+        }
+        return bytes.toByteArray();
+    }
+    
+    /**
+     * Deserializes a suspended session.
+     * 
+     * @since 2.1
+     * @param payload the serialized form as produced by {@link #toBytes()}
+     * @return the suspended session
+     * @throws IOException if deserialization failed
+     */
+    static SuspendedIpcSession fromBytes(byte[] payload) throws IOException {
+        final ObjectInputStream stream = new ObjectInputStream(new ByteArrayInputStream(payload));
+        try {
+            return SuspendedIpcSession.class.cast(stream.readObject());
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        } finally {
+            stream.close();
+        }
+    }
+    
+}
@@ -0,0 +1,1027 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session.store;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+import de.cosmocode.palava.core.Registry.Proxy;
+import de.cosmocode.palava.core.lifecycle.Disposable;
+import de.cosmocode.palava.core.lifecycle.Initializable;
+import de.cosmocode.palava.core.lifecycle.LifecycleException;
+import de.cosmocode.palava.ipc.AbstractIpcSession;
+import de.cosmocode.palava.ipc.DefaultIpcSessionAttributeEstimator;
+import de.cosmocode.palava.ipc.DefaultIpcSessionIdGenerator;
+import de.cosmocode.palava.ipc.IpcSession;
+import de.cosmocode.palava.ipc.IpcSessionAttributeEstimator;
+import de.cosmocode.palava.ipc.IpcSessionChangeEvent;
+import de.cosmocode.palava.ipc.IpcSessionConfig;
+import de.cosmocode.palava.ipc.IpcSessionCreateEvent;
+import de.cosmocode.palava.ipc.IpcSessionDelta;
+import de.cosmocode.palava.ipc.IpcSessionDestroyEvent;
+import de.cosmocode.palava.ipc.IpcSessionEntryExpiry;
+import de.cosmocode.palava.ipc.IpcSessionIdGenerator;
+import de.cosmocode.palava.ipc.IpcSessionProvider;
+import de.cosmocode.palava.ipc.IpcSessionQuotaPolicy;
+import de.cosmocode.palava.ipc.IpcSessionResumeEvent;
+import de.cosmocode.palava.ipc.IpcSessionSuspendEvent;
+import de.cosmocode.palava.ipc.IpcSessionSuspendable;
+
+/**
+ * An {@link IpcSessionProvider} which keeps recently used sessions on the heap
+ * and suspends sessions being idle longer than the configured suspension time
+ * into an {@link IpcSessionSwap}. Suspended sessions are resumed transparently
+ * on the next {@link #getSession(String, String)}.
+ * <p>
+ *   Suspension happens in the background and may race with a request thread
+ *   which obtained the session before. The suspension time should therefore be
+ *   considerably longer than any call.
+ * </p>
+ * <p>
+ *   The number of sessions on the heap can be bounded using {@link IpcSessionConfig#MAX_SESSIONS}.
+ *   Exceeding it when a session is created, materialized from a lazy placeholder, resumed or
+ *   restored destroys the least recently used sessions. The estimated size of
+ *   all sessions can be bounded using {@link IpcSessionConfig#MAX_SIZE}, which is enforced by
+ *   the sweeper by destroying the largest sessions first.
+ * </p>
+ * <p>
+ *   {@link AbstractIpcSession}s account their size using the bound {@link IpcSessionAttributeEstimator}
+ *   and are limited to {@link IpcSessionConfig#QUOTA} bytes each, if configured.
+ * </p>
+ * <p>
+ *   If {@link IpcSessionConfig#LAZY} is enabled, new sessions are handed out as lightweight
+ *   placeholders which appear empty and are neither registered nor announced using
+ *   {@link IpcSessionCreateEvent} until the first write. Sessions of clients which never
+ *   write, e.g. crawlers, therefore don't occupy any space.
+ * </p>
+ * <p>
+ *   If {@link IpcSessionConfig#SNAPSHOT_DIRECTORY} is configured, all sessions are suspended
+ *   on shutdown into compressed files, one per available processor, which are written in parallel.
+ *   Sessions are only removed once their file has been moved into place, sessions which could
+ *   not be written are suspended or destroyed as if no snapshot directory was configured.
+ *   They are restored in parallel on startup or, if {@link IpcSessionConfig#RESTORE_LAZILY}
+ *   is enabled, handed to the swap and resumed on first access. Sessions
+ *   {@linkplain #restore(String, String, long, TimeUnit, Map) restored} afterwards, e.g. by a
+ *   journal, supersede restored or suspended sessions with the same id.
+ * </p>
+ * <p>
+ *   If {@link IpcSessionConfig#SUSPEND_ON_SHUTDOWN} is enabled, all sessions are suspended
+ *   on shutdown, which allows a persistent swap to restore them after a restart. Otherwise
+ *   all sessions, including the ones in the swap, are destroyed.
+ * </p>
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+final class TieredIpcSessionProvider implements IpcSessionProvider, IpcSessionStore, IpcSessionStatistics,
+    Initializable, Disposable, Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TieredIpcSessionProvider.class);
+    
+    private static final int LOCKS = 64;
+    
+    private static final String SNAPSHOT_SUFFIX = ".sessions.gz";
+    
+    private static final int BUFFER_SIZE = 64 * 1024;
+    
+    private final ConcurrentMap<String, IpcSession> sessions = Maps.newConcurrentMap();
+    
+    private final Object[] locks = new Object[LOCKS];
+    
+    private final IpcSessionSwap swap;
+    
+    private final IpcSessionCreateEvent createEvent;
+    
+    private final IpcSessionDestroyEvent destroyEvent;
+    
+    private final IpcSessionSuspendEvent suspendEvent;
+    
+    private final IpcSessionResumeEvent resumeEvent;
+    
+    private final IpcSessionChangeEvent changeEvent;
+    
+    private IpcSessionFactory factory = new DefaultIpcSessionFactory();
+    
+    private IpcSessionIdGenerator idGenerator = new DefaultIpcSessionIdGenerator();
+    
+    private long expirationTime = 30;
+    
+    private TimeUnit expirationTimeUnit = TimeUnit.MINUTES;
+    
+    private long suspensionTime = 5;
+    
+    private TimeUnit suspensionTimeUnit = TimeUnit.MINUTES;
+    
+    private long sweepInterval = 1;
+    
+    private TimeUnit sweepIntervalUnit = TimeUnit.MINUTES;
+    
+    private boolean suspendOnShutdown;
+    
+    private boolean lazy;
+    
+    private File snapshotDirectory;
+    
+    private boolean restoreLazily;
+    
+    private int maxSessions = Integer.MAX_VALUE;
+    
+    private long maxSize = Long.MAX_VALUE;
+    
+    private IpcSessionSizeEstimator sizeEstimator = new DefaultIpcSessionSizeEstimator();
+    
+    private IpcSessionAttributeEstimator attributeEstimator = new DefaultIpcSessionAttributeEstimator();
+    
+    private long quota;
+    
+    private IpcSessionQuotaPolicy quotaPolicy = IpcSessionQuotaPolicy.REJECT;
+    
+    private final Lock evictionLock = new ReentrantLock();
+    
+    private final AtomicLong evictions = new AtomicLong();
+    
+    private volatile long estimatedSize = -1L;
+    
+    private final AtomicBoolean spillWarned = new AtomicBoolean();
+    
+    private ScheduledExecutorService scheduler;
+    
+    /**
+     * A session and its size and last access time at the time of selection.
+     *
+     * @since 2.1
+     * @author Willi Schoenborn
+     */
+    private static final class Candidate implements Comparable<Candidate> {
+        
+        private final IpcSession session;
+        
+        private final long lastAccess;
+        
+        private final long size;
+        
+        public Candidate(IpcSession session, long size) {
+            this.session = session;
+            this.lastAccess = session.lastAccessTime().getTime();
+            this.size = size;
+        }
+        
+        /**
+         * Orders by size, descending, and last access, ascending.
+         */
+        @Override
+        public int compareTo(Candidate that) {
+            if (size != that.size) {
+                return size > that.size ? -1 : 1;
+            } else {
+                return lastAccess < that.lastAccess ? -1 : lastAccess == that.lastAccess ? 0 : 1;
+            }
+        }
+        
+    }
+    
+    
+    @Inject
+    public TieredIpcSessionProvider(IpcSessionSwap swap,
+        @Proxy IpcSessionCreateEvent createEvent, @Proxy IpcSessionDestroyEvent destroyEvent,
+        @Proxy IpcSessionSuspendEvent suspendEvent, @Proxy IpcSessionResumeEvent resumeEvent,
+        @Proxy IpcSessionChangeEvent changeEvent) {
+        
+        this.swap = Preconditions.checkNotNull(swap, "Swap");
+        this.createEvent = Preconditions.checkNotNull(createEvent, "CreateEvent");
+        this.destroyEvent = Preconditions.checkNotNull(destroyEvent, "DestroyEvent");
+        this.suspendEvent = Preconditions.checkNotNull(suspendEvent, "SuspendEvent");
+        this.resumeEvent = Preconditions.checkNotNull(resumeEvent, "ResumeEvent");
+        this.changeEvent = Preconditions.checkNotNull(changeEvent, "ChangeEvent");
+        
+        for (int i = 0; i < LOCKS; i++) {
+            locks[i] = new Object();
+        }
+    }
+    
+    @Inject(optional = true)
+    void setFactory(IpcSessionFactory factory) {
+        this.factory = Preconditions.checkNotNull(factory, "Factory");
+    }
+    
+    @Inject(optional = true)
+    void setIdGenerator(IpcSessionIdGenerator idGenerator) {
+        this.idGenerator = Preconditions.checkNotNull(idGenerator, "IdGenerator");
+    }
+    
+    @Inject(optional = true)
+    void setSizeEstimator(IpcSessionSizeEstimator sizeEstimator) {
+        this.sizeEstimator = Preconditions.checkNotNull(sizeEstimator, "SizeEstimator");
+    }
+    
+    @Inject(optional = true)
+    void setAttributeEstimator(IpcSessionAttributeEstimator attributeEstimator) {
+        this.attributeEstimator = Preconditions.checkNotNull(attributeEstimator, "AttributeEstimator");
+    }
+    
+    @Inject(optional = true)
+    void setQuota(@Named(IpcSessionConfig.QUOTA) long quota) {
+        this.quota = quota;
+    }
+    
+    @Inject(optional = true)
+    void setQuotaPolicy(@Named(IpcSessionConfig.QUOTA_POLICY) IpcSessionQuotaPolicy quotaPolicy) {
+        this.quotaPolicy = Preconditions.checkNotNull(quotaPolicy, "QuotaPolicy");
+    }
+    
+    @Inject(optional = true)
+    void setMaxSessions(@Named(IpcSessionConfig.MAX_SESSIONS) int maxSessions) {
+        Preconditions.checkArgument(maxSessions > 0, "MaxSessions must be positive");
+        this.maxSessions = maxSessions;
+    }
+    
+    @Inject(optional = true)
+    void setMaxSize(@Named(IpcSessionConfig.MAX_SIZE) long maxSize) {
+        Preconditions.checkArgument(maxSize > 0, "MaxSize must be positive");
+        this.maxSize = maxSize;
+    }
+    
+    @Inject(optional = true)
+    void setExpirationTime(@Named(IpcSessionConfig.EXPIRATION_TIME) long expirationTime) {
+        this.expirationTime = expirationTime;
+    }
+    
+    @Inject(optional = true)
+    void setExpirationTimeUnit(@Named(IpcSessionConfig.EXPIRATION_TIME_UNIT) TimeUnit expirationTimeUnit) {
+        this.expirationTimeUnit = Preconditions.checkNotNull(expirationTimeUnit, "ExpirationTimeUnit");
+    }
+    
+    @Inject(optional = true)
+    void setSuspensionTime(@Named(IpcSessionConfig.SUSPENSION_TIME) long suspensionTime) {
+        this.suspensionTime = suspensionTime;
+    }
+    
+    @Inject(optional = true)
+    void setSuspensionTimeUnit(@Named(IpcSessionConfig.SUSPENSION_TIME_UNIT) TimeUnit suspensionTimeUnit) {
+        this.suspensionTimeUnit = Preconditions.checkNotNull(suspensionTimeUnit, "SuspensionTimeUnit");
+    }
+    
+    @Inject(optional = true)
+    void setSweepInterval(@Named(IpcSessionConfig.SWEEP_INTERVAL) long sweepInterval) {
+        this.sweepInterval = sweepInterval;
+    }
+    
+    @Inject(optional = true)
+    void setSweepIntervalUnit(@Named(IpcSessionConfig.SWEEP_INTERVAL_UNIT) TimeUnit sweepIntervalUnit) {
+        this.sweepIntervalUnit = Preconditions.checkNotNull(sweepIntervalUnit, "SweepIntervalUnit");
+    }
+    
+    @Inject(optional = true)
+    void setSuspendOnShutdown(@Named(IpcSessionConfig.SUSPEND_ON_SHUTDOWN) boolean suspendOnShutdown) {
+        this.suspendOnShutdown = suspendOnShutdown;
+    }
+    
+    @Inject(optional = true)
+    void setSnapshotDirectory(@Named(IpcSessionConfig.SNAPSHOT_DIRECTORY) String snapshotDirectory) {
+        this.snapshotDirectory = new File(Preconditions.checkNotNull(snapshotDirectory, "SnapshotDirectory"));
+    }
+    
+    @Inject(optional = true)
+    void setRestoreLazily(@Named(IpcSessionConfig.RESTORE_LAZILY) boolean restoreLazily) {
+        this.restoreLazily = restoreLazily;
+    }
+    
+    @Inject(optional = true)
+    void setLazy(@Named(IpcSessionConfig.LAZY) boolean lazy) {
+        this.lazy = lazy;
+    }
+    
+    @Override
+    public void initialize() throws LifecycleException {
+        if (snapshotDirectory != null) {
+            if (!snapshotDirectory.isDirectory() && !snapshotDirectory.mkdirs()) {
+                throw new LifecycleException(String.format(
+                    "Unable to create snapshot directory %s", snapshotDirectory));
+            }
+            restore();
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("ipc-session-sweeper-%d").setDaemon(true).build()
+        );
+        scheduler.scheduleWithFixedDelay(this, sweepInterval, sweepInterval, sweepIntervalUnit);
+    }
+    
+    private Object lockOf(String sessionId) {
+        return locks[sessionId.hashCode() & (LOCKS - 1)];
+    }
+    
+    @Override
+    public IpcSession getSession(String sessionId, String identifier) {
+        if (sessionId != null) {
+            final IpcSession present = find(sessionId);
+            if (present == null) {
+                LOG.trace("No session found for id {}", sessionId);
+            } else if (!Objects.equal(identifier, present.getIdentifier())) {
+                LOG.warn("Identifier {} does not match {}", identifier, present);
+            } else if (present.isExpired()) {
+                LOG.trace("{} expired", present);
+                destroy(present);
+            } else {
+                present.touch();
+                return present;
+            }
+        }
+        if (lazy) {
+            return placeholder(identifier);
+        } else {
+            return create(idGenerator.generate(), identifier, expirationTime, expirationTimeUnit);
+        }
+    }
+    
+    private IpcSession find(String sessionId) {
+        final IpcSession hot = sessions.get(sessionId);
+        if (hot != null) return hot;
+        final IpcSession resumed;
+        synchronized (lockOf(sessionId)) {
+            final IpcSession present = sessions.get(sessionId);
+            if (present != null) return present;
+            resumed = resume(sessionId);
+        }
+        if (resumed != null) {
+            admit(resumed);
+        }
+        return resumed;
+    }
+    
+    private void attach(IpcSession session) {
+        if (session instanceof AbstractIpcSession) {
+            final AbstractIpcSession abstractSession = AbstractIpcSession.class.cast(session);
+            abstractSession.setChangeEvent(changeEvent);
+            abstractSession.setSizeEstimator(attributeEstimator);
+            if (quotaPolicy == IpcSessionQuotaPolicy.SPILL && !abstractSession.isSpillable()) {
+                if (spillWarned.compareAndSet(false, true)) {
+                    LOG.warn("{} does not support spilling, rejecting writes exceeding the quota instead",
+                        session.getClass().getName());
+                }
+                abstractSession.setQuota(quota, IpcSessionQuotaPolicy.REJECT);
+            } else {
+                abstractSession.setQuota(quota, quotaPolicy);
+            }
+        }
+    }
+    
+    private IpcSession placeholder(String identifier) {
+        final IpcSession placeholder = new LazyIpcSession(this, idGenerator.generate(), identifier);
+        placeholder.setTimeout(expirationTime, expirationTimeUnit);
+        LOG.trace("Handing out {}", placeholder);
+        return placeholder;
+    }
+    
+    /**
+     * Creates and registers the real session for the given placeholder. It is admitted
+     * like any created session, i.e. the least recently used sessions are evicted if
+     * the maximum number of sessions is exceeded.
+     * 
+     * @param placeholder the placeholder being written to
+     * @return the created session
+     */
+    IpcSession materialize(LazyIpcSession placeholder) {
+        return create(placeholder.getSessionId(), placeholder.getIdentifier(), 
+            placeholder.getTimeout(TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS);
+    }
+    
+    private IpcSession create(String sessionId, String identifier, long timeout, TimeUnit timeoutUnit) {
+        final IpcSession session = factory.create(sessionId, identifier);
+        session.setTimeout(timeout, timeoutUnit);
+        attach(session);
+        sessions.put(session.getSessionId(), session);
+        LOG.trace("Created {}", session);
+        createEvent.eventIpcSessionCreate(session);
+        admit(session);
+        return session;
+    }
+    
+    /**
+     * Enforces the maximum number of sessions after a session has been registered,
+     * regardless of whether it has been created, materialized, resumed or restored.
+     * The registered session itself is never evicted, even if it has not been accessed
+     * for a while, e.g. because it has just been resumed.
+     * 
+     * @param session the registered session, null if none
+     */
+    private void admit(IpcSession session) {
+        if (sessions.size() > maxSessions) {
+            evictLeastRecentlyUsed(session);
+        }
+    }
+    
+    private IpcSession resume(String sessionId) {
+        final byte[] payload;
+        
+        try {
+            payload = swap.remove(sessionId);
+        } catch (IOException e) {
+            LOG.error("Unable to resume session " + sessionId, e);
+            return null;
+        }
+        
+        return payload == null ? null : resume(sessionId, payload);
+    }
+    
+    private IpcSession resume(String sessionId, byte[] payload) {
+        final SuspendedIpcSession suspended = decode(sessionId, payload);
+        if (suspended == null) return null;
+        
+        final IpcSession session = suspended.getSession();
+        final Map<String, Serializable> data = suspended.getData();
+        
+        if (session.isExpired()) {
+            expire(session);
+            return null;
+        }
+        
+        LOG.trace("Resuming {}", session);
+        resumeEvent.eventIpcSessionResume(session, data);
+        if (session instanceof IpcSessionSuspendable) {
+            IpcSessionSuspendable.class.cast(session).resume(data);
+        }
+        attach(session);
+        sessions.put(sessionId, session);
+        return session;
+    }
+    
+    /**
+     * Decodes the given payload. Sessions which can't be decoded will never be resumed,
+     * which is why their destruction is announced using an empty stand-in.
+     * 
+     * @param sessionId the session id
+     * @param payload the payload, may be null if it could not be read
+     * @return the suspended session or null if decoding failed
+     */
+    private SuspendedIpcSession decode(String sessionId, byte[] payload) {
+        if (payload != null) {
+            try {
+                return SuspendedIpcSession.fromBytes(payload);
+            } catch (IOException e) {
+                LOG.error("Unable to decode session " + sessionId + ", destroying it", e);
+            }
+        }
+        destroyEvent.eventIpcSessionDestroy(factory.create(sessionId, null));
+        return null;
+    }
+    
+    private void expire(IpcSession session) {
+        LOG.trace("{} expired while being suspended", session);
+        destroyEvent.eventIpcSessionDestroy(session);
+        session.clear();
+    }
+    
+    /**
+     * Purges all suspended sessions which have been put into the swap before the given timestamp.
+     * Sessions may have a longer timeout than the configured expiration time, which is why
+     * purged sessions which are not yet expired are put back into the swap, unless all
+     * sessions should be destroyed.
+     * 
+     * @param timestamp the timestamp in milliseconds
+     * @param all whether all purged sessions should be destroyed, regardless of their timeout
+     */
+    private void purge(long timestamp, boolean all) {
+        final Map<String, byte[]> purged;
+        
+        try {
+            purged = swap.purge(timestamp);
+        } catch (IOException e) {
+            LOG.error("Unable to purge expired sessions from " + swap, e);
+            return;
+        }
+        
+        for (Map.Entry<String, byte[]> entry : purged.entrySet()) {
+            final String sessionId = entry.getKey();
+            final SuspendedIpcSession suspended = decode(sessionId, entry.getValue());
+            if (suspended == null) continue;
+            final IpcSession session = suspended.getSession();
+            if (all || session.isExpired() || !putBack(sessionId, entry.getValue())) {
+                expire(session);
+            }
+        }
+    }
+    
+    /**
+     * Puts a purged but still live session back into the swap. A request which missed the
+     * session in the meantime already started a new one, in which case it is given up.
+     * 
+     * @param sessionId the session id
+     * @param payload the payload
+     * @return true if the session has been put back, false otherwise
+     */
+    private boolean putBack(String sessionId, byte[] payload) {
+        synchronized (lockOf(sessionId)) {
+            if (sessions.containsKey(sessionId)) return false;
+            try {
+                swap.put(sessionId, payload);
+                return true;
+            } catch (IOException e) {
+                LOG.error("Unable to put " + sessionId + " back into " + swap, e);
+                return false;
+            }
+        }
+    }
+    
+    private void suspend(IpcSession session) {
+        final String sessionId = session.getSessionId();
+        synchronized (lockOf(sessionId)) {
+            if (!sessions.remove(sessionId, session)) return;
+            
+            LOG.trace("Suspending {}", session);
+            final Map<String, Serializable> data = Maps.newHashMap();
+            suspendEvent.eventIpcSessionSuspend(session, data);
+            if (session instanceof IpcSessionSuspendable) {
+                IpcSessionSuspendable.class.cast(session).suspend(data);
+            }
+            
+            try {
+                swap.put(sessionId, new SuspendedIpcSession(session, data).toBytes());
+            } catch (IOException e) {
+                LOG.warn("Unable to suspend " + session + ", keeping it on the heap", e);
+                reactivate(session, data);
+                sessions.put(sessionId, session);
+            }
+        }
+    }
+    
+    @Override
+    public IpcSession get(String sessionId) {
+        Preconditions.checkNotNull(sessionId, "SessionId");
+        return find(sessionId);
+    }
+    
+    @Override
+    public void put(IpcSession session) {
+        Preconditions.checkNotNull(session, "Session");
+        attach(session);
+        sessions.put(session.getSessionId(), session);
+        admit(session);
+    }
+    
+    @Override
+    public IpcSession restore(String sessionId, String identifier, long timeout, TimeUnit timeoutUnit, 
+        Map<Object, Object> values) {
+        Preconditions.checkNotNull(sessionId, "SessionId");
+        Preconditions.checkNotNull(timeoutUnit, "TimeoutUnit");
+        Preconditions.checkNotNull(values, "Values");
+        
+        final IpcSession session;
+        
+        synchronized (lockOf(sessionId)) {
+            try {
+                swap.remove(sessionId);
+            } catch (IOException e) {
+                LOG.warn("Unable to remove superseded session " + sessionId + " from " + swap, e);
+            }
+            
+            session = factory.create(sessionId, identifier);
+            session.setTimeout(timeout, timeoutUnit);
+            if (session instanceof AbstractIpcSession) {
+                AbstractIpcSession.class.cast(session).apply(new IpcSessionDelta(sessionId, 
+                    System.currentTimeMillis(), values, Collections.<Object>emptySet()));
+            } else {
+                session.putAll(values);
+            }
+            attach(session);
+            sessions.put(sessionId, session);
+            LOG.trace("Restored {}", session);
+            resumeEvent.eventIpcSessionResume(session, Maps.<String, Serializable>newHashMap());
+        }
+        
+        admit(session);
+        return session;
+    }
+    
+    @Override
+    public IpcSession remove(String sessionId) {
+        final IpcSession session = get(sessionId);
+        if (session == null) return null;
+        destroy(session);
+        return session;
+    }
+    
+    @Override
+    public IpcSession release(String sessionId) {
+        final IpcSession session = get(sessionId);
+        if (session == null) return null;
+        return sessions.remove(sessionId, session) ? session : null;
+    }
+    
+    @Override
+    public Set<String> getSessionIds() {
+        return ImmutableSet.copyOf(sessions.keySet());
+    }
+    
+    @Override
+    public int getSessionCount() {
+        return sessions.size();
+    }
+    
+    @Override
+    public long getEstimatedSize() {
+        return estimatedSize;
+    }
+    
+    @Override
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+    
+    @Override
+    public Map<String, Long> getLargestSessions(int limit) {
+        Preconditions.checkArgument(limit >= 0, "Limit must not be negative");
+        final PriorityQueue<Candidate> largest = new PriorityQueue<Candidate>(limit + 1, Collections.reverseOrder());
+        for (IpcSession session : sessions.values()) {
+            largest.add(new Candidate(session, sizeEstimator.estimate(session)));
+            if (largest.size() > limit) {
+                largest.poll();
+            }
+        }
+        final List<Candidate> candidates = Lists.newArrayList(largest);
+        Collections.sort(candidates);
+        final Map<String, Long> sizes = new LinkedHashMap<String, Long>();
+        for (Candidate candidate : candidates) {
+            sizes.put(candidate.session.getSessionId(), candidate.size);
+        }
+        return Collections.unmodifiableMap(sizes);
+    }
+    
+    private boolean destroy(IpcSession session) {
+        if (!sessions.remove(session.getSessionId(), session)) return false;
+        LOG.trace("Destroying {}", session);
+        destroyEvent.eventIpcSessionDestroy(session);
+        session.clear();
+        return true;
+    }
+    
+    private void evict(IpcSession session) {
+        if (destroy(session)) {
+            LOG.debug("Evicted {}", session);
+            evictions.incrementAndGet();
+        }
+    }
+    
+    private void evictLeastRecentlyUsed(IpcSession admitted) {
+        // concurrent creations don't need to wait, the bound is enforced by the thread holding the lock
+        if (!evictionLock.tryLock()) return;
+        try {
+            final int excess = sessions.size() - maxSessions;
+            if (excess <= 0) return;
+            // evicts a little more than necessary to spread the scan over several creations
+            final int count = excess + maxSessions / 100;
+            final PriorityQueue<Candidate> oldest = new PriorityQueue<Candidate>(count + 1, Collections.reverseOrder());
+            for (IpcSession session : sessions.values()) {
+                if (session == admitted) continue;
+                oldest.add(new Candidate(session, 0L));
+                if (oldest.size() > count) {
+                    oldest.poll();
+                }
+            }
+            LOG.info("{} sessions exceed the limit of {}, evicting {}", new Object[] {
+                excess + maxSessions, maxSessions, oldest.size()
+            });
+            for (Candidate candidate : oldest) {
+                evict(candidate.session);
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+    
+    private void evictLargest() {
+        // estimating every session is not worth it without a limit
+        if (maxSize == Long.MAX_VALUE) return;
+        evictionLock.lock();
+        try {
+            final List<Candidate> candidates = Lists.newArrayListWithExpectedSize(sessions.size());
+            long total = 0L;
+            for (IpcSession session : sessions.values()) {
+                final Candidate candidate = new Candidate(session, sizeEstimator.estimate(session));
+                candidates.add(candidate);
+                total += candidate.size;
+            }
+            
+            if (total > maxSize) {
+                LOG.info("Estimated session size of {} bytes exceeds the limit of {}", total, maxSize);
+                Collections.sort(candidates);
+                for (Candidate candidate : candidates) {
+                    if (total <= maxSize) break;
+                    evict(candidate.session);
+                    total -= candidate.size;
+                }
+            }
+            estimatedSize = total;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+    
+    @Override
+    public void run() {
+        final long now = System.currentTimeMillis();
+        final long threshold = suspensionTimeUnit.toMillis(suspensionTime);
+        
+        for (IpcSession session : sessions.values()) {
+            try {
+                if (session.isExpired()) {
+                    destroy(session);
+                } else if (now - session.lastAccessTime().getTime() > threshold) {
+                    suspend(session);
+                } else if (session instanceof IpcSessionEntryExpiry) {
+                    IpcSessionEntryExpiry.class.cast(session).purgeExpiredEntries();
+                }
+                /*CHECKSTYLE:OFF*/
+            } catch (RuntimeException e) {
+                /*CHECKSTYLE:ON*/
+                LOG.error("Unable to sweep " + session, e);
+            }
+        }
+        
+        admit(null);
+        evictLargest();
+        
+        purge(now - expirationTimeUnit.toMillis(expirationTime), false);
+    }
+    
+    private static ExecutorService newPool(int threads, String nameFormat) {
+        return Executors.newFixedThreadPool(threads, 
+            new ThreadFactoryBuilder().setNameFormat(nameFormat).setDaemon(true).build()
+        );
+    }
+    
+    private static int sum(List<Future<Integer>> futures, String message) {
+        int sum = 0;
+        for (Future<Integer> future : futures) {
+            try {
+                sum += future.get().intValue();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                LOG.error(message, e.getCause());
+            }
+        }
+        return sum;
+    }
+    
+    private void snapshot() {
+        final List<IpcSession> all = Lists.newArrayList(sessions.values());
+        final int shards = Math.max(1, Math.min(all.size(), Runtime.getRuntime().availableProcessors()));
+        final ExecutorService executor = newPool(shards, "ipc-session-snapshot-%d");
+        final List<Future<Integer>> futures = Lists.newArrayListWithCapacity(shards);
+        final Set<String> names = Sets.newHashSet();
+        
+        for (int i = 0; i < shards; i++) {
+            final List<IpcSession> shard = Lists.newArrayListWithCapacity(all.size() / shards + 1);
+            for (int j = i; j < all.size(); j += shards) {
+                shard.add(all.get(j));
+            }
+            final File file = new File(snapshotDirectory, String.format("%03d%s", i, SNAPSHOT_SUFFIX));
+            names.add(file.getName());
+            futures.add(executor.submit(new Callable<Integer>() {
+                
+                @Override
+                public Integer call() throws IOException {
+                    return write(file, shard);
+                }
+                
+            }));
+        }
+        
+        final int written = sum(futures, "Unable to write session snapshot");
+        executor.shutdown();
+        LOG.info("Wrote {} of {} sessions to {}", new Object[] {written, all.size(), snapshotDirectory});
+        
+        // snapshots are deleted once restored, remaining ones are outdated by now
+        final File[] files = snapshotDirectory.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            if (file.getName().endsWith(SNAPSHOT_SUFFIX) && !names.contains(file.getName()) && !file.delete()) {
+                LOG.warn("Unable to delete outdated snapshot {}", file);
+            }
+        }
+    }
+    
+    /**
+     * Writes the given sessions into the given file. The sessions stay registered until
+     * the file has been moved into place. If writing fails, all sessions of the shard are
+     * resumed and left to the regular shutdown handling.
+     * 
+     * @param file the snapshot file
+     * @param shard the sessions to write
+     * @return the number of written sessions
+     * @throws IOException if writing failed
+     */
+    private int write(File file, List<IpcSession> shard) throws IOException {
+        final File temporary = new File(snapshotDirectory, file.getName() + ".tmp");
+        final List<SuspendedIpcSession> written = Lists.newArrayListWithCapacity(shard.size());
+        boolean moved = false;
+        
+        try {
+            final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(new FileOutputStream(temporary), BUFFER_SIZE), BUFFER_SIZE));
+            
+            try {
+                for (IpcSession session : shard) {
+                    final SuspendedIpcSession suspended = suspendForSnapshot(session);
+                    if (suspended == null) continue;
+                    
+                    final byte[] payload;
+                    try {
+                        payload = suspended.toBytes();
+                    } catch (IOException e) {
+                        LOG.warn("Unable to write " + session + ", keeping it on the heap", e);
+                        reactivate(session, suspended.getData());
+                        continue;
+                    }
+                    
+                    written.add(suspended);
+                    output.writeUTF(session.getSessionId());
+                    output.writeInt(payload.length);
+                    output.write(payload);
+                }
+            } finally {
+                output.close();
+            }
+            
+            if (!temporary.renameTo(file) && !(file.delete() && temporary.renameTo(file))) {
+                throw new IOException(String.format("Unable to move %s to %s", temporary, file));
+            }
+            moved = true;
+        } finally {
+            if (!moved) {
+                temporary.delete();
+                for (SuspendedIpcSession suspended : written) {
+                    reactivate(suspended.getSession(), suspended.getData());
+                }
+            }
+        }
+        
+        for (SuspendedIpcSession suspended : written) {
+            final IpcSession session = suspended.getSession();
+            sessions.remove(session.getSessionId(), session);
+        }
+        return written.size();
+    }
+    
+    private SuspendedIpcSession suspendForSnapshot(IpcSession session) {
+        synchronized (lockOf(session.getSessionId())) {
+            if (sessions.get(session.getSessionId()) != session) return null;
+            
+            final Map<String, Serializable> data = Maps.newHashMap();
+            suspendEvent.eventIpcSessionSuspend(session, data);
+            if (session instanceof IpcSessionSuspendable) {
+                IpcSessionSuspendable.class.cast(session).suspend(data);
+            }
+            return new SuspendedIpcSession(session, data);
+        }
+    }
+    
+    private void reactivate(IpcSession session, Map<String, Serializable> data) {
+        resumeEvent.eventIpcSessionResume(session, data);
+        if (session instanceof IpcSessionSuspendable) {
+            IpcSessionSuspendable.class.cast(session).resume(data);
+        }
+    }
+    
+    private void restore() {
+        final File[] files = snapshotDirectory.listFiles();
+        if (files == null) return;
+        final List<File> snapshots = Lists.newArrayList();
+        for (File file : files) {
+            if (file.getName().endsWith(SNAPSHOT_SUFFIX)) {
+                snapshots.add(file);
+            }
+        }
+        if (snapshots.isEmpty()) return;
+        
+        final int threads = Math.min(snapshots.size(), Runtime.getRuntime().availableProcessors());
+        final ExecutorService executor = newPool(threads, "ipc-session-restore-%d");
+        final List<Future<Integer>> futures = Lists.newArrayListWithCapacity(snapshots.size());
+        
+        for (final File file : snapshots) {
+            futures.add(executor.submit(new Callable<Integer>() {
+                
+                @Override
+                public Integer call() throws IOException {
+                    return read(file);
+                }
+                
+            }));
+        }
+        
+        final int restored = sum(futures, "Unable to restore session snapshot");
+        executor.shutdown();
+        LOG.info("Restored {} sessions from {}", restored, snapshotDirectory);
+    }
+    
+    private int read(File file) throws IOException {
+        final DataInputStream input = new DataInputStream(new BufferedInputStream(
+            new GZIPInputStream(new FileInputStream(file), BUFFER_SIZE), BUFFER_SIZE));
+        int count = 0;
+        
+        try {
+            while (true) {
+                final String sessionId;
+                final byte[] payload;
+                try {
+                    sessionId = input.readUTF();
+                    payload = new byte[input.readInt()];
+                    input.readFully(payload);
+                } catch (EOFException e) {
+                    break;
+                }
+                
+                if (restoreLazily) {
+                    swap.put(sessionId, payload);
+                    count++;
+                } else if (resume(sessionId, payload) != null) {
+                    count++;
+                }
+            }
+        } finally {
+            input.close();
+        }
+        
+        if (!file.delete()) {
+            LOG.warn("Unable to delete restored snapshot {}", file);
+        }
+        return count;
+    }
+    
+    @Override
+    public void dispose() throws LifecycleException {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        if (snapshotDirectory != null) {
+            snapshot();
+        }
+        for (IpcSession session : sessions.values()) {
+            if (suspendOnShutdown) {
+                suspend(session);
+            } else {
+                destroy(session);
+            }
+        }
+        if (!suspendOnShutdown) {
+            purge(Long.MAX_VALUE, true);
+        }
+    }
+
+}
@@ -0,0 +1,43 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session.store;
+
+import com.google.inject.Binder;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+
+import de.cosmocode.palava.ipc.IpcSessionProvider;
+
+/**
+ * Binds {@link IpcSessionProvider} to a tiered implementation which suspends
+ * idle sessions into the bound {@link IpcSessionSwap}.
+ * See {@link FileIpcSessionSwapModule} and {@link MappedIpcSessionSwapModule}.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public final class TieredIpcSessionProviderModule implements Module {
+
+    @Override
+    public void configure(Binder binder) {
+        binder.bind(TieredIpcSessionProvider.class).in(Singleton.class);
+        binder.bind(IpcSessionProvider.class).to(TieredIpcSessionProvider.class);
+        binder.bind(IpcSessionStore.class).to(TieredIpcSessionProvider.class);
+        binder.bind(IpcSessionStatistics.class).to(TieredIpcSessionProvider.class);
+    }
+
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc;
+
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the throughput of {@link DefaultIpcSessionIdGenerator} with
+ * {@link UUID#randomUUID()}, which shares a single {@link java.security.SecureRandom},
+ * for an increasing number of threads. Run using {@link #main(String[])}.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public final class DefaultIpcSessionIdGeneratorBenchmark {
+
+    private static final int WARMUP = 100000;
+    
+    private static final int ITERATIONS = 200000;
+    
+    private static final IpcSessionIdGenerator UUIDS = new IpcSessionIdGenerator() {
+        
+        @Override
+        public String generate() {
+            return UUID.randomUUID().toString();
+        }
+        
+        @Override
+        public int getShard(String sessionId) {
+            return -1;
+        }
+        
+        @Override
+        public boolean isLocal(String sessionId) {
+            return false;
+        }
+        
+    };
+    
+    private DefaultIpcSessionIdGeneratorBenchmark() {
+        
+    }
+    
+    private static long measure(final IpcSessionIdGenerator generator, int threads, final int iterations) 
+        throws InterruptedException {
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            executor.execute(new Runnable() {
+                
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < iterations; j++) {
+                            generator.generate();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+                
+            });
+        }
+        final long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        final long elapsed = System.nanoTime() - begin;
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+        return (long) threads * iterations * TimeUnit.SECONDS.toNanos(1) / elapsed;
+    }
+    
+    /**
+     * Runs the benchmark.
+     * 
+     * @param args ignored
+     * @throws InterruptedException if interrupted while waiting for the workers
+     */
+    public static void main(String[] args) throws InterruptedException {
+        final DefaultIpcSessionIdGenerator generator = new DefaultIpcSessionIdGenerator();
+        generator.setNodeId("benchmark");
+        generator.setShards(64);
+        
+        measure(UUIDS, 1, WARMUP);
+        measure(generator, 1, WARMUP);
+        
+        for (int threads = 1; threads <= 16; threads *= 2) {
+            System.out.println(String.format("%2d threads uuid: %9d ids/s, generator: %9d ids/s", 
+                threads, measure(UUIDS, threads, ITERATIONS), measure(generator, threads, ITERATIONS)));
+        }
+    }
+    
+}
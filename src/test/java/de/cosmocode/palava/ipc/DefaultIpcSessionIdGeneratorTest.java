@@ -0,0 +1,77 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc;
+
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+
+/**
+ * Tests {@link DefaultIpcSessionIdGenerator}.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public final class DefaultIpcSessionIdGeneratorTest {
+
+    /**
+     * Tests that generated ids are url-safe, of constant length and unique.
+     */
+    @Test
+    public void generate() {
+        final DefaultIpcSessionIdGenerator unit = new DefaultIpcSessionIdGenerator();
+        final Set<String> ids = Sets.newHashSet();
+        for (int i = 0; i < 10000; i++) {
+            final String id = unit.generate();
+            Assert.assertEquals(24, id.length());
+            Assert.assertTrue(id.matches("[A-Za-z0-9_-]+"));
+            Assert.assertTrue(ids.add(id));
+        }
+        Assert.assertEquals(-1, unit.getShard(ids.iterator().next()));
+        Assert.assertFalse(unit.isLocal(ids.iterator().next()));
+    }
+    
+    /**
+     * Tests that node tag and shard can be extracted from generated ids.
+     */
+    @Test
+    public void routing() {
+        final DefaultIpcSessionIdGenerator unit = new DefaultIpcSessionIdGenerator();
+        unit.setNodeId("node-1");
+        unit.setShards(16);
+        final DefaultIpcSessionIdGenerator other = new DefaultIpcSessionIdGenerator();
+        other.setNodeId("node-2");
+        other.setShards(16);
+        
+        final Set<Integer> shards = Sets.newHashSet();
+        for (int i = 0; i < 1000; i++) {
+            final String id = unit.generate();
+            final int shard = unit.getShard(id);
+            Assert.assertTrue(shard >= 0 && shard < 16);
+            shards.add(shard);
+            Assert.assertTrue(unit.isLocal(id));
+            Assert.assertFalse(other.isLocal(id));
+        }
+        Assert.assertEquals(16, shards.size());
+        Assert.assertEquals(-1, unit.getShard("not generated"));
+        Assert.assertFalse(unit.isLocal("not generated"));
+    }
+    
+}
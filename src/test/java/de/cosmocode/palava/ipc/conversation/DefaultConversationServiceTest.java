@@ -0,0 +1,375 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.palava.ipc.conversation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.inject.Key;
+import com.google.inject.Provider;
+import com.google.inject.name.Names;
+
+import de.cosmocode.palava.core.Registry;
+import de.cosmocode.palava.core.lifecycle.LifecycleException;
+import de.cosmocode.palava.ipc.IpcSession;
+import de.cosmocode.palava.ipc.session.store.DefaultIpcSession;
+import de.cosmocode.palava.scope.Destroyable;
+
+/**
+ * Tests {@link DefaultConversationService}.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public final class DefaultConversationServiceTest {
+
+    private IpcSession session;
+    
+    private DefaultConversationService unit;
+    
+    /**
+     * A {@link Destroyable} which counts its destructions.
+     *
+     * @since 2.1
+     * @author Willi Schoenborn
+     */
+    private static final class Counter implements Destroyable, Serializable {
+        
+        private static final long serialVersionUID = 2270186458817458735L;
+        
+        private final AtomicInteger destroyed = new AtomicInteger();
+        
+        @Override
+        public void destroy() {
+            destroyed.incrementAndGet();
+        }
+        
+    }
+    
+    /**
+     * Sets up a service bound to a fresh session.
+     */
+    @Before
+    public void setUp() {
+        session = new DefaultIpcSession("session", "identifier");
+        unit = new DefaultConversationService(EasyMock.createNiceMock(Registry.class), new Provider<IpcSession>() {
+            
+            @Override
+            public IpcSession get() {
+                return session;
+            }
+            
+        });
+    }
+    
+    /**
+     * A {@link Completable} which waits until another one has been completed in the ending thread.
+     *
+     * @since 2.1
+     * @author Willi Schoenborn
+     */
+    private static final class Blocking implements Completable {
+        
+        private final Thread ending;
+        
+        private final CountDownLatch latch;
+        
+        Blocking(Thread ending, CountDownLatch latch) {
+            this.ending = ending;
+            this.latch = latch;
+        }
+        
+        @Override
+        public void complete() {
+            if (Thread.currentThread() == ending) {
+                latch.countDown();
+                return;
+            }
+            try {
+                if (!latch.await(1, TimeUnit.SECONDS)) {
+                    throw new IllegalStateException("No completion ran in the ending thread");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+        
+    }
+    
+    private int countConversations() {
+        int count = 0;
+        for (Object value : session.values()) {
+            if (value instanceof Conversation) {
+                count++;
+            }
+        }
+        return count;
+    }
+    
+    /**
+     * Tests that conversations are stored using the key of their name and found again.
+     */
+    @Test
+    public void get() {
+        final Conversation conversation = unit.get("name");
+        Assert.assertSame(conversation, session.get(Key.get(Conversation.class, Names.named("name")).toString()));
+        Assert.assertSame(conversation, unit.get("name"));
+        Assert.assertNotSame(conversation, unit.get("other"));
+        Assert.assertEquals(2, countConversations());
+    }
+    
+    /**
+     * Tests that concurrent calls for the same name share one conversation.
+     * 
+     * @throws Exception should not happen
+     */
+    @Test
+    public void getConcurrently() throws Exception {
+        final int threads = 8;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (int round = 0; round < 100; round++) {
+                final String name = "name-" + round;
+                final CyclicBarrier barrier = new CyclicBarrier(threads);
+                final List<Future<Conversation>> futures = Lists.newArrayList();
+                for (int i = 0; i < threads; i++) {
+                    futures.add(executor.submit(new Callable<Conversation>() {
+                        
+                        @Override
+                        public Conversation call() throws Exception {
+                            barrier.await();
+                            return unit.get(name);
+                        }
+                        
+                    }));
+                }
+                final Conversation expected = futures.get(0).get();
+                for (Future<Conversation> future : futures) {
+                    Assert.assertSame(expected, future.get());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Assert.assertEquals(100, countConversations());
+    }
+    
+    /**
+     * Tests that idle conversations are aborted by the sweeper.
+     * 
+     * @throws InterruptedException should not happen
+     */
+    @Test
+    public void sweep() throws InterruptedException {
+        unit.setTimeout(50);
+        unit.setTimeoutUnit(TimeUnit.MILLISECONDS);
+        final Conversation conversation = unit.get("name");
+        final Counter counter = new Counter();
+        conversation.put("counter", counter);
+        
+        unit.run();
+        Assert.assertEquals(0, counter.destroyed.get());
+        Assert.assertEquals(1, countConversations());
+        
+        Thread.sleep(60);
+        unit.run();
+        Assert.assertEquals(1, counter.destroyed.get());
+        Assert.assertEquals(0, countConversations());
+        Assert.assertNotSame(conversation, unit.get("name"));
+    }
+    
+    /**
+     * Tests that requesting a conversation keeps it from being swept.
+     * 
+     * @throws InterruptedException should not happen
+     */
+    @Test
+    public void sweepRequested() throws InterruptedException {
+        unit.setTimeout(100);
+        unit.setTimeoutUnit(TimeUnit.MILLISECONDS);
+        final Conversation conversation = unit.get("name");
+        final Counter counter = new Counter();
+        conversation.put("counter", counter);
+        
+        Thread.sleep(70);
+        Assert.assertSame(conversation, unit.get("name"));
+        Thread.sleep(50);
+        unit.run();
+        Assert.assertEquals(0, counter.destroyed.get());
+        Assert.assertSame(conversation, unit.get("name"));
+    }
+    
+    /**
+     * Serializes and deserializes the given session, like suspending and resuming it does.
+     * 
+     * @param original the session to copy
+     * @return the deserialized copy
+     * @throws IOException should not happen
+     * @throws ClassNotFoundException should not happen
+     */
+    private IpcSession roundTrip(IpcSession original) throws IOException, ClassNotFoundException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream output = new ObjectOutputStream(bytes);
+        output.writeObject(original);
+        output.close();
+        final ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        try {
+            return IpcSession.class.cast(input.readObject());
+        } finally {
+            input.close();
+        }
+    }
+    
+    /**
+     * Tests that conversations of resumed sessions keep their state and are swept again.
+     * 
+     * @throws Exception should not happen
+     */
+    @Test
+    public void sweepResumed() throws Exception {
+        unit.setTimeout(50);
+        unit.setTimeoutUnit(TimeUnit.MILLISECONDS);
+        unit.get("name").put("counter", new Counter());
+        
+        final IpcSession resumed = roundTrip(session);
+        final ManagedConversation conversation = 
+            ManagedConversation.class.cast(Iterables.getOnlyElement(resumed.values()));
+        Assert.assertEquals(50L, conversation.getTimeout(TimeUnit.MILLISECONDS));
+        final Counter counter = Counter.class.cast(conversation.get("counter"));
+        Assert.assertNotNull(counter);
+        
+        unit.eventIpcSessionResume(resumed, Maps.<String, Serializable>newHashMap());
+        Thread.sleep(60);
+        unit.run();
+        Assert.assertEquals(1, counter.destroyed.get());
+        Assert.assertTrue(resumed.isEmpty());
+    }
+    
+    /**
+     * Tests that conversations of resumed sessions complete concurrently again.
+     * 
+     * @throws Exception should not happen
+     */
+    @Test
+    public void endResumed() throws Exception {
+        unit.setCompletionThreads(2);
+        unit.initialize();
+        try {
+            unit.get("name");
+            final IpcSession resumed = roundTrip(session);
+            final ManagedConversation conversation = 
+                ManagedConversation.class.cast(Iterables.getOnlyElement(resumed.values()));
+            unit.eventIpcSessionResume(resumed, Maps.<String, Serializable>newHashMap());
+            
+            final CyclicBarrier barrier = new CyclicBarrier(2);
+            for (int i = 0; i < 2; i++) {
+                conversation.put("waiting-" + i, new Completable() {
+                    
+                    @Override
+                    public void complete() {
+                        try {
+                            barrier.await(1, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new IllegalStateException(e);
+                        } catch (BrokenBarrierException e) {
+                            throw new IllegalStateException(e);
+                        } catch (TimeoutException e) {
+                            throw new IllegalStateException(e);
+                        }
+                    }
+                    
+                });
+            }
+            conversation.end();
+        } finally {
+            unit.dispose();
+        }
+    }
+    
+    /**
+     * Tests that completions exceeding the bounded queue are run in the ending thread.
+     * 
+     * @throws LifecycleException should not happen
+     * @throws CompletionFailedException should not happen
+     */
+    @Test
+    public void endSaturated() throws LifecycleException, CompletionFailedException {
+        unit.setCompletionThreads(1);
+        unit.setCompletionQueueSize(1);
+        unit.initialize();
+        try {
+            final Conversation conversation = unit.get("name");
+            final CountDownLatch latch = new CountDownLatch(1);
+            for (int i = 0; i < 3; i++) {
+                conversation.put("blocking-" + i, new Blocking(Thread.currentThread(), latch));
+            }
+            conversation.end();
+        } finally {
+            unit.dispose();
+        }
+    }
+    
+    /**
+     * Tests that reaching the maximum number of conversations per session
+     * aborts the least recently used one.
+     * 
+     * @throws InterruptedException should not happen
+     */
+    @Test
+    public void maxConversations() throws InterruptedException {
+        unit.setMaxConversations(2);
+        final Counter first = new Counter();
+        unit.get("first").put("counter", first);
+        Thread.sleep(5);
+        final Counter second = new Counter();
+        unit.get("second").put("counter", second);
+        Thread.sleep(5);
+        
+        unit.get("third");
+        Assert.assertEquals(2, countConversations());
+        Assert.assertEquals(1, first.destroyed.get());
+        Assert.assertEquals(0, second.destroyed.get());
+        Assert.assertTrue(unit.get("first").isEmpty());
+    }
+    
+}
@@ -0,0 +1,239 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.palava.ipc.conversation;
+
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import de.cosmocode.palava.ipc.session.store.DefaultIpcSession;
+
+/**
+ * Tests {@link DefaultConversation}.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public final class DefaultConversationTest {
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    
+    private final List<Integer> completed = Lists.newArrayList();
+    
+    /**
+     * A {@link Completable} which records its order on completion.
+     *
+     * @since 2.1
+     * @author Willi Schoenborn
+     */
+    private class Recording implements Completable {
+        
+        private final int order;
+        
+        Recording(int order) {
+            this.order = order;
+        }
+        
+        @Override
+        public void complete() {
+            synchronized (completed) {
+                completed.add(order);
+            }
+        }
+        
+    }
+    
+    /**
+     * A completable of order 1.
+     *
+     * @since 2.1
+     * @author Willi Schoenborn
+     */
+    @CompletionOrder(1)
+    private final class First extends Recording {
+        
+        First() {
+            super(1);
+        }
+        
+    }
+    
+    /**
+     * A completable of order 2.
+     *
+     * @since 2.1
+     * @author Willi Schoenborn
+     */
+    @CompletionOrder(2)
+    private final class Second extends Recording {
+        
+        Second() {
+            super(2);
+        }
+        
+    }
+    
+    /**
+     * A {@link Completable} which waits for all others sharing its barrier.
+     *
+     * @since 2.1
+     * @author Willi Schoenborn
+     */
+    private static final class Waiting implements Completable {
+        
+        private final CyclicBarrier barrier;
+        
+        Waiting(CyclicBarrier barrier) {
+            this.barrier = barrier;
+        }
+        
+        @Override
+        public void complete() {
+            try {
+                barrier.await(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            } catch (BrokenBarrierException e) {
+                throw new IllegalStateException(e);
+            } catch (TimeoutException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        
+    }
+    
+    /**
+     * A {@link Completable} which always fails.
+     *
+     * @since 2.1
+     * @author Willi Schoenborn
+     */
+    private static final class Failing implements Completable {
+        
+        @Override
+        public void complete() {
+            throw new IllegalStateException("failed");
+        }
+        
+    }
+    
+    /**
+     * Shuts the executor down.
+     */
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+    
+    private DefaultConversation newConversation() {
+        return new DefaultConversation(new DefaultIpcSession("session", "identifier"), "key");
+    }
+    
+    /**
+     * Tests that all completables of a lower order are completed before any of a higher order.
+     * 
+     * @throws CompletionFailedException should not happen
+     */
+    @Test
+    public void endOrder() throws CompletionFailedException {
+        final DefaultConversation conversation = newConversation();
+        for (int i = 0; i < 10; i++) {
+            conversation.put("second-" + i, new Second());
+            conversation.put("none-" + i, new Recording(0));
+            conversation.put("first-" + i, new First());
+        }
+        conversation.end(executor);
+        Assert.assertEquals(30, completed.size());
+        for (int i = 1; i < completed.size(); i++) {
+            Assert.assertTrue(completed.toString(), completed.get(i - 1) <= completed.get(i));
+        }
+    }
+    
+    /**
+     * Tests that completables of the same order are completed concurrently.
+     * 
+     * @throws CompletionFailedException should not happen
+     */
+    @Test
+    public void endConcurrently() throws CompletionFailedException {
+        final DefaultConversation conversation = new DefaultConversation(
+            new DefaultIpcSession("session", "identifier"), "key", executor);
+        final CyclicBarrier barrier = new CyclicBarrier(3);
+        for (int i = 0; i < 3; i++) {
+            conversation.put("waiting-" + i, new Waiting(barrier));
+        }
+        conversation.end();
+    }
+    
+    /**
+     * Tests that all completables are completed and all failures are collected.
+     */
+    @Test
+    public void endFailures() {
+        final DefaultConversation conversation = newConversation();
+        conversation.put("failing-1", new Failing());
+        conversation.put("failing-2", new Failing());
+        conversation.put("first", new First());
+        try {
+            conversation.end(executor);
+            Assert.fail("expected CompletionFailedException");
+        } catch (CompletionFailedException e) {
+            Assert.assertEquals(2, e.getErrors().size());
+            for (Object source : e.getErrors().values()) {
+                Assert.assertTrue(source instanceof Failing);
+            }
+        }
+        Assert.assertEquals(ImmutableList.of(1), completed);
+    }
+    
+    /**
+     * Tests that completions rejected by the executor run in the ending thread.
+     * 
+     * @throws CompletionFailedException should not happen
+     */
+    @Test
+    public void endRejected() throws CompletionFailedException {
+        final DefaultConversation conversation = newConversation();
+        conversation.put("none", new Recording(0));
+        conversation.put("first", new First());
+        conversation.end(new Executor() {
+            
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException();
+            }
+            
+        });
+        Assert.assertEquals(ImmutableList.of(0, 1), completed);
+    }
+    
+}
@@ -0,0 +1,210 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import de.cosmocode.palava.ipc.DefaultIpcSessionAttributeEstimator;
+import de.cosmocode.palava.ipc.IpcCommandExecutionException;
+import de.cosmocode.palava.ipc.IpcSessionQuotaPolicy;
+import de.cosmocode.palava.ipc.session.store.DefaultIpcSession;
+
+/**
+ * Tests {@link Batch}.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public final class BatchTest {
+
+    private final Batch unit = new Batch();
+    
+    private final DefaultIpcSession session = new DefaultIpcSession("session", null);
+    
+    private Object batch(boolean atomic, Object... operations) throws IpcCommandExecutionException {
+        final Map<String, Object> arguments = Maps.newHashMap();
+        arguments.put(Naming.OPERATIONS, ImmutableList.copyOf(operations));
+        arguments.put(Naming.ATOMIC, atomic);
+        final Map<String, Object> result = Maps.newHashMap();
+        unit.execute(IpcCalls.of(session, arguments), result);
+        return result.get(Naming.RESULTS);
+    }
+    
+    private static Map<String, Object> set(String namespace, Map<Object, Object> entries) {
+        final Map<String, Object> operation = Maps.newHashMap();
+        operation.put(Naming.TYPE, "set");
+        operation.put(Naming.NAMESPACE, namespace);
+        operation.put(Naming.ENTRIES, entries);
+        return operation;
+    }
+    
+    private static Map<String, Object> operation(String type, String namespace, Object... keys) {
+        final Map<String, Object> operation = Maps.newHashMap();
+        operation.put(Naming.TYPE, type);
+        operation.put(Naming.NAMESPACE, namespace);
+        operation.put(Naming.KEYS, ImmutableList.copyOf(keys));
+        return operation;
+    }
+    
+    /**
+     * Tests that all operations are executed in order.
+     * 
+     * @throws IpcCommandExecutionException should not happen
+     */
+    @Test
+    public void batch() throws IpcCommandExecutionException {
+        session.put("b", 2);
+        final List<Object> expected = Lists.newArrayList();
+        expected.add(null);
+        expected.add(ImmutableMap.of("a", 1));
+        expected.add(null);
+        expected.add(ImmutableMap.of("a", true, "b", false));
+        
+        Assert.assertEquals(expected, batch(false,
+            set("namespace", ImmutableMap.<Object, Object>of("a", 1)),
+            operation("get", "namespace", "a"),
+            operation("remove", null, "b"),
+            operation("contains", "namespace", "a", "b")));
+        Assert.assertEquals(ImmutableMap.of("a", 1), Namespaces.get(session, "namespace"));
+        Assert.assertFalse(session.containsKey("b"));
+    }
+    
+    /**
+     * Tests that malformed operations are rejected before any operation is executed.
+     * 
+     * @throws IpcCommandExecutionException should not happen
+     */
+    @Test
+    public void malformed() throws IpcCommandExecutionException {
+        try {
+            batch(false, set(null, ImmutableMap.<Object, Object>of("a", 1)), operation("unknown", null));
+            Assert.fail("Expected malformed operation to be rejected");
+        } catch (IpcCommandExecutionException e) {
+            Assert.assertFalse(session.containsKey("a"));
+        }
+    }
+    
+    /**
+     * Tests that an atomic batch undoes all writes and created namespaces if an operation fails midway.
+     * 
+     * @throws IpcCommandExecutionException should not happen
+     */
+    @Test
+    public void undo() throws IpcCommandExecutionException {
+        session.put("a", 1);
+        session.put("b", 2);
+        session.put("invalid", "not a namespace");
+        
+        try {
+            batch(true,
+                set(null, ImmutableMap.<Object, Object>of("a", 10, "c", 30)),
+                operation("remove", null, "b"),
+                set("namespace", ImmutableMap.<Object, Object>of("d", 40)),
+                set("invalid", ImmutableMap.<Object, Object>of("e", 50)),
+                set(null, ImmutableMap.<Object, Object>of("f", 60)));
+            Assert.fail("Expected invalid namespace to be rejected");
+        } catch (IpcCommandExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+        Assert.assertEquals(ImmutableMap.of("a", 1, "b", 2, "invalid", "not a namespace"), 
+            ImmutableMap.copyOf(session));
+    }
+    
+    /**
+     * Tests that a batch which is not atomic keeps the writes preceding a failing operation.
+     * 
+     * @throws IpcCommandExecutionException should not happen
+     */
+    @Test
+    public void noUndo() throws IpcCommandExecutionException {
+        session.put("invalid", "not a namespace");
+        try {
+            batch(false, 
+                set("namespace", ImmutableMap.<Object, Object>of("a", 1)),
+                operation("get", "invalid", "b"));
+            Assert.fail("Expected invalid namespace to be rejected");
+        } catch (IpcCommandExecutionException e) {
+            Assert.assertEquals(ImmutableMap.of("a", 1), Namespaces.get(session, "namespace"));
+        }
+    }
+    
+    /**
+     * Tests that entries which have been overwritten concurrently are kept by the undo.
+     * 
+     * @throws IpcCommandExecutionException should not happen
+     */
+    @Test
+    public void undoConcurrentlyOverwritten() throws IpcCommandExecutionException {
+        final ConcurrentMap<Object, Object> namespaced = new ConcurrentHashMap<Object, Object>() {
+            
+            private static final long serialVersionUID = 1L;
+            
+            @Override
+            public Object put(Object key, Object value) {
+                final Object previous = super.put(key, value);
+                // simulates a concurrent call overwriting the entry right after the batch wrote it
+                if ("overwritten".equals(key)) {
+                    super.put(key, "concurrent");
+                }
+                return previous;
+            }
+            
+        };
+        namespaced.putAll(ImmutableMap.of("kept", "before", "overwritten", "before"));
+        session.put("namespace", namespaced);
+        session.put("invalid", "not a namespace");
+        
+        try {
+            batch(true,
+                set("namespace", ImmutableMap.<Object, Object>of("kept", "batch", "overwritten", "batch")),
+                operation("remove", "invalid", "a"));
+            Assert.fail("Expected invalid namespace to be rejected");
+        } catch (IpcCommandExecutionException e) {
+            Assert.assertEquals(ImmutableMap.of("kept", "before", "overwritten", "concurrent"), namespaced);
+        }
+    }
+    
+    /**
+     * Tests that a write rejected by the quota does not leave an empty namespace behind.
+     * 
+     * @throws IpcCommandExecutionException should not happen
+     */
+    @Test
+    public void quota() throws IpcCommandExecutionException {
+        session.setSizeEstimator(new DefaultIpcSessionAttributeEstimator());
+        session.setQuota(1000, IpcSessionQuotaPolicy.REJECT);
+        try {
+            batch(false, set("namespace", ImmutableMap.<Object, Object>of("a", Strings.repeat("x", 1000))));
+            Assert.fail("Expected quota to be exceeded");
+        } catch (IpcCommandExecutionException e) {
+            Assert.assertFalse(session.containsKey("namespace"));
+        }
+    }
+    
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session;
+
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+
+import de.cosmocode.palava.ipc.IpcCommandExecutionException;
+import de.cosmocode.palava.ipc.session.store.DefaultIpcSession;
+
+/**
+ * Tests {@link CompareAndSet}.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public final class CompareAndSetTest {
+
+    private final CompareAndSet unit = new CompareAndSet();
+    
+    private final DefaultIpcSession session = new DefaultIpcSession("session", null);
+    
+    private Object compareAndSet(String namespace, Object expected, Object value) throws IpcCommandExecutionException {
+        final Map<String, Object> arguments = Maps.newHashMap();
+        arguments.put(Naming.KEY, "key");
+        arguments.put(Naming.EXPECTED, expected);
+        arguments.put(Naming.VALUE, value);
+        arguments.put(Naming.NAMESPACE, namespace);
+        final Map<String, Object> result = Maps.newHashMap();
+        unit.execute(IpcCalls.of(session, arguments), result);
+        return result.get(Naming.STATUS);
+    }
+    
+    /**
+     * Tests that entries are set, replaced and removed if the expected value matches.
+     * 
+     * @throws IpcCommandExecutionException should not happen
+     */
+    @Test
+    public void compareAndSet() throws IpcCommandExecutionException {
+        Assert.assertEquals(Boolean.TRUE, compareAndSet(null, null, "a"));
+        Assert.assertEquals("a", session.get("key"));
+        Assert.assertEquals(Boolean.TRUE, compareAndSet(null, "a", "b"));
+        Assert.assertEquals("b", session.get("key"));
+        Assert.assertEquals(Boolean.TRUE, compareAndSet(null, "b", null));
+        Assert.assertFalse(session.containsKey("key"));
+        Assert.assertEquals(Boolean.TRUE, compareAndSet(null, null, null));
+    }
+    
+    /**
+     * Tests that entries are kept if the expected value does not match.
+     * 
+     * @throws IpcCommandExecutionException should not happen
+     */
+    @Test
+    public void failure() throws IpcCommandExecutionException {
+        session.put("key", "a");
+        Assert.assertEquals(Boolean.FALSE, compareAndSet(null, null, "b"));
+        Assert.assertEquals(Boolean.FALSE, compareAndSet(null, "b", "c"));
+        Assert.assertEquals(Boolean.FALSE, compareAndSet(null, "b", null));
+        Assert.assertEquals(Boolean.FALSE, compareAndSet(null, null, null));
+        Assert.assertEquals("a", session.get("key"));
+    }
+    
+    /**
+     * Tests that values of different types never match.
+     * 
+     * @throws IpcCommandExecutionException should not happen
+     */
+    @Test
+    public void typeMismatch() throws IpcCommandExecutionException {
+        session.put("key", Long.valueOf(1L));
+        Assert.assertEquals(Boolean.FALSE, compareAndSet(null, Integer.valueOf(1), "b"));
+        Assert.assertEquals(Boolean.FALSE, compareAndSet(null, "1", "b"));
+        Assert.assertEquals(1L, session.get("key"));
+    }
+    
+    /**
+     * Tests that entries in namespaces are set.
+     * 
+     * @throws IpcCommandExecutionException should not happen
+     */
+    @Test
+    public void namespace() throws IpcCommandExecutionException {
+        Assert.assertEquals(Boolean.TRUE, compareAndSet("namespace", null, "a"));
+        Assert.assertEquals(Boolean.FALSE, compareAndSet("namespace", null, "b"));
+        Assert.assertEquals("a", Namespaces.get(session, "namespace").get("key"));
+        Assert.assertFalse(session.containsKey("key"));
+    }
+    
+}
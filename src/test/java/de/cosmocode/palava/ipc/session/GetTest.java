@@ -0,0 +1,93 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session;
+
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+import de.cosmocode.palava.ipc.IpcCommandExecutionException;
+import de.cosmocode.palava.ipc.session.store.DefaultIpcSession;
+
+/**
+ * Tests {@link Get}.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public final class GetTest {
+
+    private final Get unit = new Get();
+    
+    private final DefaultIpcSession session = new DefaultIpcSession("session", null);
+    
+    private Object get(String namespace, Object... keys) throws IpcCommandExecutionException {
+        final Map<String, Object> arguments = Maps.newHashMap();
+        arguments.put(Naming.KEYS, ImmutableList.copyOf(keys));
+        arguments.put(Naming.NAMESPACE, namespace);
+        final Map<String, Object> result = Maps.newHashMap();
+        unit.execute(IpcCalls.of(session, arguments), result);
+        return result.get(Naming.ENTRIES);
+    }
+    
+    /**
+     * Tests that values are read from the namespace and missing keys map to null.
+     * 
+     * @throws IpcCommandExecutionException should not happen
+     */
+    @Test
+    public void namespace() throws IpcCommandExecutionException {
+        Namespaces.getOrCreate(session, "namespace").put("a", 1);
+        session.put("a", 2);
+        
+        final Map<Object, Object> expected = Maps.newHashMap();
+        expected.put("a", 1);
+        expected.put("b", null);
+        Assert.assertEquals(expected, get("namespace", "a", "b"));
+        Assert.assertEquals(ImmutableMap.of("a", 2), get(null, "a"));
+    }
+    
+    /**
+     * Tests that reading from an absent namespace does not create it.
+     * 
+     * @throws IpcCommandExecutionException should not happen
+     */
+    @Test
+    public void absent() throws IpcCommandExecutionException {
+        final Map<Object, Object> expected = Maps.newHashMap();
+        expected.put("a", null);
+        Assert.assertEquals(expected, get("namespace", "a"));
+        Assert.assertFalse(session.containsKey("namespace"));
+    }
+    
+    /**
+     * Tests that namespaces stored as plain maps can be read.
+     * 
+     * @throws IpcCommandExecutionException should not happen
+     */
+    @Test
+    public void legacy() throws IpcCommandExecutionException {
+        session.put("namespace", Maps.newHashMap(ImmutableMap.of("a", 1)));
+        Assert.assertEquals(ImmutableMap.of("a", 1), get("namespace", "a"));
+    }
+    
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session;
+
+import java.math.BigDecimal;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+
+import de.cosmocode.palava.ipc.IpcCommandExecutionException;
+import de.cosmocode.palava.ipc.session.store.DefaultIpcSession;
+
+/**
+ * Tests {@link Increment}.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public final class IncrementTest {
+
+    private final Increment unit = new Increment();
+    
+    private final DefaultIpcSession session = new DefaultIpcSession("session", null);
+    
+    private Object increment(String namespace, String key, long delta) throws IpcCommandExecutionException {
+        final Map<String, Object> arguments = Maps.newHashMap();
+        arguments.put(Naming.KEY, key);
+        arguments.put(Naming.DELTA, delta);
+        arguments.put(Naming.NAMESPACE, namespace);
+        final Map<String, Object> result = Maps.newHashMap();
+        unit.execute(IpcCalls.of(session, arguments), result);
+        return result.get(Naming.VALUE);
+    }
+    
+    /**
+     * Tests that absent entries count as zero and present ones are incremented.
+     * 
+     * @throws IpcCommandExecutionException should not happen
+     */
+    @Test
+    public void increment() throws IpcCommandExecutionException {
+        Assert.assertEquals(2L, increment(null, "counter", 2L));
+        Assert.assertEquals(5L, increment(null, "counter", 3L));
+        Assert.assertEquals(5L, session.get("counter"));
+        
+        session.put("int", Integer.valueOf(1));
+        Assert.assertEquals(0L, increment(null, "int", -1L));
+        session.put("decimal", new BigDecimal("4.0"));
+        Assert.assertEquals(5L, increment(null, "decimal", 1L));
+    }
+    
+    /**
+     * Tests that counters in namespaces are incremented.
+     * 
+     * @throws IpcCommandExecutionException should not happen
+     */
+    @Test
+    public void namespace() throws IpcCommandExecutionException {
+        Assert.assertEquals(1L, increment("namespace", "counter", 1L));
+        Assert.assertEquals(1L, Namespaces.get(session, "namespace").get("counter"));
+        Assert.assertFalse(session.containsKey("counter"));
+    }
+    
+    /**
+     * Tests that entries which are not numbers are rejected.
+     * 
+     * @throws IpcCommandExecutionException expected
+     */
+    @Test(expected = IpcCommandExecutionException.class)
+    public void notANumber() throws IpcCommandExecutionException {
+        session.put("counter", "1");
+        increment(null, "counter", 1L);
+    }
+    
+    /**
+     * Tests that entries holding fractional numbers are rejected.
+     * 
+     * @throws IpcCommandExecutionException expected
+     */
+    @Test(expected = IpcCommandExecutionException.class)
+    public void fractional() throws IpcCommandExecutionException {
+        session.put("counter", Double.valueOf(1.5));
+        increment(null, "counter", 1L);
+    }
+    
+    /**
+     * Tests that overflowing results are rejected and the entry is kept.
+     * 
+     * @throws IpcCommandExecutionException should not happen
+     */
+    @Test
+    public void overflow() throws IpcCommandExecutionException {
+        session.put("counter", Long.MAX_VALUE);
+        try {
+            increment(null, "counter", 1L);
+            Assert.fail("Expected overflow to be rejected");
+        } catch (IpcCommandExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof ArithmeticException);
+        }
+        session.put("counter", Long.MIN_VALUE);
+        try {
+            increment(null, "counter", -1L);
+            Assert.fail("Expected underflow to be rejected");
+        } catch (IpcCommandExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof ArithmeticException);
+        }
+        Assert.assertEquals(Long.MIN_VALUE, session.get("counter"));
+        Assert.assertEquals(-1L, increment(null, "counter", Long.MAX_VALUE));
+    }
+    
+}
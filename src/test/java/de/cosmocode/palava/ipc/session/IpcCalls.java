@@ -0,0 +1,57 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session;
+
+import java.util.Map;
+
+import org.easymock.EasyMock;
+
+import de.cosmocode.palava.ipc.IpcCall;
+import de.cosmocode.palava.ipc.IpcConnection;
+import de.cosmocode.palava.ipc.IpcSession;
+import de.cosmocode.palava.ipc.MapIpcArguments;
+
+/**
+ * Creates {@link IpcCall}s for testing session commands.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+final class IpcCalls {
+
+    private IpcCalls() {
+        
+    }
+    
+    /**
+     * Creates a call on a connection bound to the given session.
+     * 
+     * @param session the session of the connection
+     * @param arguments the arguments of the call
+     * @return a new call
+     */
+    static IpcCall of(IpcSession session, Map<String, Object> arguments) {
+        final IpcConnection connection = EasyMock.createMock("connection", IpcConnection.class);
+        EasyMock.expect(connection.getSession()).andReturn(session).anyTimes();
+        final IpcCall call = EasyMock.createMock("call", IpcCall.class);
+        EasyMock.expect(call.getConnection()).andReturn(connection).anyTimes();
+        EasyMock.expect(call.getArguments()).andReturn(new MapIpcArguments(arguments)).anyTimes();
+        EasyMock.replay(connection, call);
+        return call;
+    }
+    
+}
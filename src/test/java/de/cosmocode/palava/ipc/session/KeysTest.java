@@ -0,0 +1,77 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+
+import de.cosmocode.palava.ipc.IpcCommandExecutionException;
+import de.cosmocode.palava.ipc.session.store.DefaultIpcSession;
+
+/**
+ * Tests {@link Keys}.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public final class KeysTest {
+
+    private final Keys unit = new Keys();
+    
+    private final DefaultIpcSession session = new DefaultIpcSession("session", null);
+    
+    private Object keys(String namespace) throws IpcCommandExecutionException {
+        final Map<String, Object> arguments = Collections.<String, Object>singletonMap(Naming.NAMESPACE, namespace);
+        final Map<String, Object> result = Maps.newHashMap();
+        unit.execute(IpcCalls.of(session, arguments), result);
+        return result.get(Naming.KEYS);
+    }
+    
+    /**
+     * Tests that the keys of the namespace or the session are listed.
+     * 
+     * @throws IpcCommandExecutionException should not happen
+     */
+    @Test
+    public void namespace() throws IpcCommandExecutionException {
+        final Map<Object, Object> namespaced = Namespaces.getOrCreate(session, "namespace");
+        namespaced.put("a", 1);
+        namespaced.put("b", 2);
+        session.put("c", 3);
+        
+        Assert.assertEquals(ImmutableSet.of("a", "b"), ImmutableSet.copyOf((Iterable<?>) keys("namespace")));
+        Assert.assertEquals(ImmutableSet.of("namespace", "c"), ImmutableSet.copyOf((Iterable<?>) keys(null)));
+    }
+    
+    /**
+     * Tests that listing an absent namespace does not create it.
+     * 
+     * @throws IpcCommandExecutionException should not happen
+     */
+    @Test
+    public void absent() throws IpcCommandExecutionException {
+        Assert.assertEquals(Collections.emptyList(), keys("namespace"));
+        Assert.assertFalse(session.containsKey("namespace"));
+    }
+    
+}
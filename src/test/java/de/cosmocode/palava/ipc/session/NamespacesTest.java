@@ -0,0 +1,127 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import de.cosmocode.palava.ipc.DefaultIpcSessionAttributeEstimator;
+import de.cosmocode.palava.ipc.IpcSessionQuotaExceededException;
+import de.cosmocode.palava.ipc.IpcSessionQuotaPolicy;
+import de.cosmocode.palava.ipc.session.store.DefaultIpcSession;
+
+/**
+ * Tests {@link Namespaces}.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public final class NamespacesTest {
+
+    private final DefaultIpcSession session = new DefaultIpcSession("session", null);
+    
+    /**
+     * Tests that absent namespaces resolve to null and the null namespace to the session.
+     */
+    @Test
+    public void get() {
+        Assert.assertNull(Namespaces.get(session, "namespace"));
+        Assert.assertSame(session, Namespaces.get(session, null));
+        Assert.assertFalse(session.containsKey("namespace"));
+    }
+    
+    /**
+     * Tests that plain maps stored by previous versions are upgraded to concurrent maps.
+     */
+    @Test
+    public void upgrade() {
+        final Map<Object, Object> legacy = Maps.newHashMap();
+        legacy.put("a", 1);
+        legacy.put("b", null);
+        session.put("namespace", legacy);
+        
+        final ConcurrentMap<Object, Object> namespaced = Namespaces.get(session, "namespace");
+        Assert.assertEquals(ImmutableMap.of("a", 1), namespaced);
+        Assert.assertSame(namespaced, session.get("namespace"));
+        Assert.assertSame(namespaced, Namespaces.get(session, "namespace"));
+    }
+    
+    /**
+     * Tests that keys holding values which are not maps are rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void notANamespace() {
+        session.put("namespace", "value");
+        Namespaces.get(session, "namespace");
+    }
+    
+    /**
+     * Tests that concurrent creations of the same namespace resolve to the same map.
+     * 
+     * @throws InterruptedException should not happen
+     * @throws ExecutionException should not happen
+     */
+    @Test
+    public void getOrCreateConcurrently() throws InterruptedException, ExecutionException {
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<ConcurrentMap<Object, Object>>> futures = Lists.newArrayList();
+            for (int i = 0; i < 64; i++) {
+                futures.add(executor.submit(new Callable<ConcurrentMap<Object, Object>>() {
+                    
+                    @Override
+                    public ConcurrentMap<Object, Object> call() {
+                        return Namespaces.getOrCreate(session, "namespace");
+                    }
+                    
+                }));
+            }
+            for (Future<ConcurrentMap<Object, Object>> future : futures) {
+                Assert.assertSame(session.get("namespace"), future.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    /**
+     * Tests that writes into a namespace are checked against the quota of the session.
+     */
+    @Test(expected = IpcSessionQuotaExceededException.class)
+    public void checkQuota() {
+        session.setSizeEstimator(new DefaultIpcSessionAttributeEstimator());
+        session.setQuota(1000, IpcSessionQuotaPolicy.REJECT);
+        Namespaces.checkQuota(session, null, ImmutableMap.of("a", Strings.repeat("x", 1000)));
+        Namespaces.checkQuota(session, "namespace", ImmutableMap.of("a", "value"));
+        Namespaces.checkQuota(session, "namespace", ImmutableMap.of("a", Strings.repeat("x", 1000)));
+    }
+    
+}
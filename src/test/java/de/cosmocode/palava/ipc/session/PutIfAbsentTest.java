@@ -0,0 +1,96 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session;
+
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+
+import de.cosmocode.palava.ipc.IpcCommandExecutionException;
+import de.cosmocode.palava.ipc.session.store.DefaultIpcSession;
+
+/**
+ * Tests {@link PutIfAbsent}.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public final class PutIfAbsentTest {
+
+    private final PutIfAbsent unit = new PutIfAbsent();
+    
+    private final DefaultIpcSession session = new DefaultIpcSession("session", null);
+    
+    private Map<String, Object> putIfAbsent(String namespace, Object value) throws IpcCommandExecutionException {
+        final Map<String, Object> arguments = Maps.newHashMap();
+        arguments.put(Naming.KEY, "key");
+        arguments.put(Naming.VALUE, value);
+        arguments.put(Naming.NAMESPACE, namespace);
+        final Map<String, Object> result = Maps.newHashMap();
+        unit.execute(IpcCalls.of(session, arguments), result);
+        return result;
+    }
+    
+    /**
+     * Tests that absent entries are set and present ones are kept.
+     * 
+     * @throws IpcCommandExecutionException should not happen
+     */
+    @Test
+    public void putIfAbsent() throws IpcCommandExecutionException {
+        final Map<String, Object> first = putIfAbsent(null, "a");
+        Assert.assertEquals(Boolean.TRUE, first.get(Naming.STATUS));
+        Assert.assertEquals("a", first.get(Naming.VALUE));
+        
+        final Map<String, Object> second = putIfAbsent(null, "b");
+        Assert.assertEquals(Boolean.FALSE, second.get(Naming.STATUS));
+        Assert.assertEquals("a", second.get(Naming.VALUE));
+        Assert.assertEquals("a", session.get("key"));
+    }
+    
+    /**
+     * Tests that entries in namespaces are set.
+     * 
+     * @throws IpcCommandExecutionException should not happen
+     */
+    @Test
+    public void namespace() throws IpcCommandExecutionException {
+        Assert.assertEquals(Boolean.TRUE, putIfAbsent("namespace", "a").get(Naming.STATUS));
+        Assert.assertEquals("a", Namespaces.get(session, "namespace").get("key"));
+        Assert.assertFalse(session.containsKey("key"));
+    }
+    
+    /**
+     * Tests that a missing value is rejected without creating the namespace.
+     * 
+     * @throws IpcCommandExecutionException should not happen
+     */
+    @Test
+    public void missingValue() throws IpcCommandExecutionException {
+        try {
+            putIfAbsent("namespace", null);
+            Assert.fail("Expected missing value to be rejected");
+        } catch (IpcCommandExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+        Assert.assertFalse(session.containsKey("namespace"));
+    }
+    
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import de.cosmocode.palava.ipc.IpcCommandExecutionException;
+import de.cosmocode.palava.ipc.session.store.DefaultIpcSession;
+
+/**
+ * Tests {@link Remove}.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public final class RemoveTest {
+
+    private final Remove unit = new Remove();
+    
+    private final DefaultIpcSession session = new DefaultIpcSession("session", null);
+    
+    private void remove(String namespace, Object... keys) throws IpcCommandExecutionException {
+        final Map<String, Object> arguments = Maps.newHashMap();
+        arguments.put(Naming.KEYS, ImmutableList.copyOf(keys));
+        arguments.put(Naming.NAMESPACE, namespace);
+        unit.execute(IpcCalls.of(session, arguments), Maps.<String, Object>newHashMap());
+    }
+    
+    /**
+     * Tests that entries are removed from the namespace only.
+     * 
+     * @throws IpcCommandExecutionException should not happen
+     */
+    @Test
+    public void namespace() throws IpcCommandExecutionException {
+        final Map<Object, Object> namespaced = Namespaces.getOrCreate(session, "namespace");
+        namespaced.put("a", 1);
+        namespaced.put("b", 2);
+        session.put("a", 3);
+        
+        remove("namespace", "a", "c");
+        Assert.assertEquals(ImmutableMap.of("b", 2), namespaced);
+        Assert.assertEquals(3, session.get("a"));
+    }
+    
+    /**
+     * Tests that removing from an absent namespace does not create it.
+     * 
+     * @throws IpcCommandExecutionException should not happen
+     */
+    @Test
+    public void absent() throws IpcCommandExecutionException {
+        remove("namespace", "a");
+        Assert.assertFalse(session.containsKey("namespace"));
+    }
+    
+    /**
+     * Tests that concurrent calls on disjoint keys of the same namespace do not interfere.
+     * 
+     * @throws InterruptedException should not happen
+     * @throws ExecutionException should not happen
+     */
+    @Test
+    public void concurrently() throws InterruptedException, ExecutionException {
+        final ConcurrentMap<Object, Object> namespaced = Namespaces.getOrCreate(session, "namespace");
+        for (int i = 0; i < 1000; i++) {
+            namespaced.put(i, i);
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<Void>> futures = Lists.newArrayList();
+            for (int i = 0; i < 1000; i++) {
+                final int key = i;
+                futures.add(executor.submit(new Callable<Void>() {
+                    
+                    @Override
+                    public Void call() throws IpcCommandExecutionException {
+                        if (key % 2 == 0) {
+                            remove("namespace", key);
+                        } else {
+                            namespaced.put(key + 1000, key);
+                        }
+                        return null;
+                    }
+                    
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Assert.assertEquals(1000, namespaced.size());
+        Assert.assertSame(namespaced, session.get("namespace"));
+    }
+    
+}
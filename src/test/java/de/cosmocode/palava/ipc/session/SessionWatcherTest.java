@@ -0,0 +1,87 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.palava.ipc.session;
+
+import java.util.concurrent.TimeUnit;
+
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import de.cosmocode.palava.core.Registry;
+import de.cosmocode.palava.ipc.IpcSession;
+import de.cosmocode.palava.ipc.session.store.DefaultIpcSession;
+
+/**
+ * Tests {@link SessionWatcher}.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public final class SessionWatcherTest {
+
+    private final SessionWatcher unit = new SessionWatcher(EasyMock.createNiceMock(Registry.class));
+    
+    /**
+     * Tests that changes are reported together with the version they have been determined at.
+     * 
+     * @throws InterruptedException should not happen
+     */
+    @Test
+    public void await() throws InterruptedException {
+        final IpcSession session = new DefaultIpcSession("session", null);
+        final SessionWatcher.Watched watched = unit.watch(session);
+        final long since = watched.current(ImmutableList.<Object>of("a")).getVersion();
+        
+        unit.eventIpcSessionChange(session, "a");
+        unit.eventIpcSessionChange(session, "b");
+        final SessionWatcher.Changes changes = watched.await(ImmutableList.<Object>of("a", "c"), since, 0L);
+        Assert.assertEquals(ImmutableSet.of("a"), changes.getKeys());
+        Assert.assertEquals(since + 2, changes.getVersion());
+        
+        final SessionWatcher.Changes timeout = watched.await(ImmutableList.<Object>of("a"), changes.getVersion(), 10L);
+        Assert.assertTrue(timeout.getKeys().isEmpty());
+        Assert.assertEquals(changes.getVersion(), timeout.getVersion());
+    }
+    
+    /**
+     * Tests that expired sessions are pruned by the sweep, while active ones are kept.
+     * 
+     * @throws InterruptedException should not happen
+     */
+    @Test
+    public void prune() throws InterruptedException {
+        final IpcSession expired = new DefaultIpcSession("expired", null);
+        expired.setTimeout(1, TimeUnit.MILLISECONDS);
+        final IpcSession active = new DefaultIpcSession("active", null);
+        final SessionWatcher.Watched watched = unit.watch(expired);
+        Assert.assertSame(watched, unit.watch(expired));
+        final SessionWatcher.Watched kept = unit.watch(active);
+        Thread.sleep(10);
+        
+        unit.run();
+        Assert.assertNotSame(watched, unit.watch(expired));
+        Assert.assertSame(kept, unit.watch(active));
+        Assert.assertEquals(ImmutableSet.of("a"), 
+            watched.await(ImmutableList.<Object>of("a"), 1L, 1000L).getKeys());
+    }
+    
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session;
+
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+import de.cosmocode.palava.ipc.DefaultIpcSessionAttributeEstimator;
+import de.cosmocode.palava.ipc.IpcCommandExecutionException;
+import de.cosmocode.palava.ipc.IpcSessionQuotaExceededException;
+import de.cosmocode.palava.ipc.IpcSessionQuotaPolicy;
+import de.cosmocode.palava.ipc.session.store.DefaultIpcSession;
+
+/**
+ * Tests {@link Set}.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public final class SetTest {
+
+    private final Set unit = new Set();
+    
+    private final DefaultIpcSession session = new DefaultIpcSession("session", null);
+    
+    private Map<String, Object> execute(Map<String, Object> arguments) throws IpcCommandExecutionException {
+        final Map<String, Object> result = Maps.newHashMap();
+        unit.execute(IpcCalls.of(session, arguments), result);
+        return result;
+    }
+    
+    /**
+     * Tests that entries are written into a concurrent namespace and null values remove entries.
+     * 
+     * @throws IpcCommandExecutionException should not happen
+     */
+    @Test
+    public void namespace() throws IpcCommandExecutionException {
+        execute(ImmutableMap.<String, Object>of(
+            Naming.NAMESPACE, "namespace",
+            Naming.ENTRIES, ImmutableMap.of("a", 1, "b", 2)));
+        Assert.assertEquals(ImmutableMap.of("a", 1, "b", 2), Namespaces.get(session, "namespace"));
+        
+        final Map<Object, Object> entries = Maps.newHashMap();
+        entries.put("a", null);
+        entries.put("c", 3);
+        execute(ImmutableMap.<String, Object>of(Naming.NAMESPACE, "namespace", Naming.ENTRIES, entries));
+        Assert.assertEquals(ImmutableMap.of("b", 2, "c", 3), Namespaces.get(session, "namespace"));
+    }
+    
+    /**
+     * Tests that a rejected write does not leave an empty namespace behind.
+     * 
+     * @throws IpcCommandExecutionException should not happen
+     */
+    @Test
+    public void quota() throws IpcCommandExecutionException {
+        session.setSizeEstimator(new DefaultIpcSessionAttributeEstimator());
+        session.setQuota(1000, IpcSessionQuotaPolicy.REJECT);
+        try {
+            execute(ImmutableMap.<String, Object>of(
+                Naming.NAMESPACE, "namespace",
+                Naming.ENTRIES, ImmutableMap.of("a", Strings.repeat("x", 1000))));
+            Assert.fail("Expected quota to be exceeded");
+        } catch (IpcSessionQuotaExceededException e) {
+            Assert.assertFalse(session.containsKey("namespace"));
+        }
+    }
+    
+    /**
+     * Tests that a time to live is rejected for namespaced entries.
+     * 
+     * @throws IpcCommandExecutionException expected
+     */
+    @Test(expected = IpcCommandExecutionException.class)
+    public void namespaceWithTtl() throws IpcCommandExecutionException {
+        execute(ImmutableMap.<String, Object>of(
+            Naming.NAMESPACE, "namespace",
+            Naming.ENTRIES, ImmutableMap.of("a", 1),
+            Naming.TTL, 60L));
+    }
+    
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session;
+
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+import de.cosmocode.palava.ipc.IpcCommandExecutionException;
+import de.cosmocode.palava.ipc.session.store.DefaultIpcSession;
+
+/**
+ * Tests {@link Update}.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public final class UpdateTest {
+
+    private final Update unit = new Update();
+    
+    private final DefaultIpcSession session = new DefaultIpcSession("session", null);
+    
+    private Object update(String namespace, Map<Object, Object> entries, Map<Object, Object> expected) 
+        throws IpcCommandExecutionException {
+        
+        final Map<String, Object> arguments = Maps.newHashMap();
+        arguments.put(Naming.ENTRIES, entries);
+        arguments.put(Naming.EXPECTED, expected);
+        arguments.put(Naming.NAMESPACE, namespace);
+        final Map<String, Object> result = Maps.newHashMap();
+        unit.execute(IpcCalls.of(session, arguments), result);
+        return result.get(Naming.STATUS);
+    }
+    
+    /**
+     * Tests that entries are set unconditionally or if their expected value matches.
+     * 
+     * @throws IpcCommandExecutionException should not happen
+     */
+    @Test
+    public void update() throws IpcCommandExecutionException {
+        session.put("a", 1);
+        session.put("b", 2);
+        session.put("c", 3);
+        
+        final Map<Object, Object> entries = Maps.newHashMap();
+        entries.put("a", 10);
+        entries.put("b", 20);
+        entries.put("c", null);
+        entries.put("d", 40);
+        final Map<Object, Object> expected = Maps.newHashMap();
+        expected.put("a", 1);
+        expected.put("b", 3);
+        expected.put("d", null);
+        
+        Assert.assertEquals(ImmutableMap.of("a", true, "b", false, "c", true, "d", true), 
+            update(null, entries, expected));
+        Assert.assertEquals(ImmutableMap.of("a", 10, "b", 2, "d", 40), ImmutableMap.copyOf(session));
+    }
+    
+    /**
+     * Tests that expected values of a different type do not match.
+     * 
+     * @throws IpcCommandExecutionException should not happen
+     */
+    @Test
+    public void typeMismatch() throws IpcCommandExecutionException {
+        session.put("a", 1L);
+        final Map<Object, Object> entries = ImmutableMap.<Object, Object>of("a", 2L);
+        final Map<Object, Object> expected = ImmutableMap.<Object, Object>of("a", 1);
+        Assert.assertEquals(ImmutableMap.of("a", false), update(null, entries, expected));
+        Assert.assertEquals(1L, session.get("a"));
+    }
+    
+    /**
+     * Tests that entries in namespaces are updated.
+     * 
+     * @throws IpcCommandExecutionException should not happen
+     */
+    @Test
+    public void namespace() throws IpcCommandExecutionException {
+        final Map<Object, Object> entries = ImmutableMap.<Object, Object>of("a", 1);
+        Assert.assertEquals(ImmutableMap.of("a", true), update("namespace", entries, null));
+        Assert.assertEquals(ImmutableMap.of("a", false), 
+            update("namespace", ImmutableMap.<Object, Object>of("a", 3), ImmutableMap.<Object, Object>of("a", 2)));
+        Assert.assertEquals(entries, Namespaces.get(session, "namespace"));
+    }
+    
+}
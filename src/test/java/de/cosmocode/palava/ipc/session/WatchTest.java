@@ -0,0 +1,83 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session;
+
+import java.util.Map;
+
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+import de.cosmocode.palava.core.Registry;
+import de.cosmocode.palava.ipc.IpcCommandExecutionException;
+import de.cosmocode.palava.ipc.session.store.DefaultIpcSession;
+
+/**
+ * Tests {@link Watch}.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public final class WatchTest {
+
+    private final SessionWatcher watcher = new SessionWatcher(EasyMock.createNiceMock(Registry.class));
+    
+    private final Watch unit = new Watch(watcher);
+    
+    private final DefaultIpcSession session = new DefaultIpcSession("session", null);
+    
+    private Map<String, Object> watch(Long version) throws IpcCommandExecutionException {
+        final Map<String, Object> arguments = Maps.newHashMap();
+        arguments.put(Naming.KEYS, ImmutableList.of("a"));
+        arguments.put(Naming.VERSION, version);
+        arguments.put(Naming.TIMEOUT, 0L);
+        final Map<String, Object> result = Maps.newHashMap();
+        unit.execute(IpcCalls.of(session, arguments), result);
+        return result;
+    }
+    
+    /**
+     * Tests that changes reported by the session are returned together with their values.
+     * 
+     * @throws IpcCommandExecutionException should not happen
+     */
+    @Test
+    public void watch() throws IpcCommandExecutionException {
+        session.setChangeEvent(watcher);
+        final Object version = watch(null).get(Naming.VERSION);
+        
+        session.put("a", 1);
+        final Map<String, Object> result = watch((Long) version);
+        Assert.assertEquals(ImmutableMap.of("a", 1), result.get(Naming.ENTRIES));
+        Assert.assertEquals((Long) version + 1, result.get(Naming.VERSION));
+    }
+    
+    /**
+     * Tests that sessions which don't report their changes are rejected instead of waiting forever.
+     * 
+     * @throws IpcCommandExecutionException expected
+     */
+    @Test(expected = IpcCommandExecutionException.class)
+    public void noChangeEvent() throws IpcCommandExecutionException {
+        watch(null);
+    }
+    
+}
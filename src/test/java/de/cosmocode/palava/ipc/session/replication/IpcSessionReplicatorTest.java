@@ -0,0 +1,210 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session.replication;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import de.cosmocode.palava.core.Registry;
+import de.cosmocode.palava.ipc.IpcSession;
+import de.cosmocode.palava.ipc.IpcSessionDelta;
+import de.cosmocode.palava.ipc.session.store.DefaultIpcSession;
+import de.cosmocode.palava.ipc.session.store.IpcSessionStore;
+
+/**
+ * Tests {@link IpcSessionReplicator} using two nodes connected by a
+ * {@link LoopbackIpcSessionReplicationTransport}.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public final class IpcSessionReplicatorTest {
+
+    private final MapStore leftStore = new MapStore();
+    
+    private final MapStore rightStore = new MapStore();
+    
+    private IpcSessionReplicator left;
+    
+    private IpcSessionReplicator right;
+    
+    /**
+     * Simple map based {@link IpcSessionStore}.
+     *
+     * @since 2.1
+     * @author Willi Schoenborn
+     */
+    private static final class MapStore implements IpcSessionStore {
+        
+        private final ConcurrentMap<String, IpcSession> sessions = Maps.newConcurrentMap();
+        
+        private final Set<String> restored = Sets.newHashSet();
+        
+        @Override
+        public IpcSession get(String sessionId) {
+            return sessions.get(sessionId);
+        }
+        
+        @Override
+        public void put(IpcSession session) {
+            sessions.put(session.getSessionId(), session);
+        }
+        
+        @Override
+        public IpcSession restore(String sessionId, String identifier, long timeout, TimeUnit timeoutUnit,
+            Map<Object, Object> values) {
+            final IpcSession session = new DefaultIpcSession(sessionId, identifier);
+            session.setTimeout(timeout, timeoutUnit);
+            session.putAll(values);
+            sessions.put(sessionId, session);
+            restored.add(sessionId);
+            return session;
+        }
+        
+        @Override
+        public IpcSession remove(String sessionId) {
+            return sessions.remove(sessionId);
+        }
+        
+        @Override
+        public IpcSession release(String sessionId) {
+            return sessions.remove(sessionId);
+        }
+        
+        @Override
+        public Set<String> getSessionIds() {
+            return ImmutableSet.copyOf(sessions.keySet());
+        }
+        
+    }
+    
+    /**
+     * Connects both nodes.
+     */
+    @Before
+    public void connect() {
+        final LoopbackIpcSessionReplicationTransport leftTransport = new LoopbackIpcSessionReplicationTransport();
+        final LoopbackIpcSessionReplicationTransport rightTransport = new LoopbackIpcSessionReplicationTransport();
+        leftTransport.connect(rightTransport);
+        
+        left = new IpcSessionReplicator(EasyMock.createNiceMock(Registry.class), leftTransport, leftStore);
+        left.setNodeId("left");
+        leftTransport.setReceiver(left);
+        
+        right = new IpcSessionReplicator(EasyMock.createNiceMock(Registry.class), rightTransport, rightStore);
+        right.setNodeId("right");
+        rightTransport.setReceiver(right);
+    }
+    
+    private DefaultIpcSession create() {
+        final DefaultIpcSession session = new DefaultIpcSession("session", "identifier");
+        session.setTimeout(1, TimeUnit.HOURS);
+        session.setChangeEvent(left);
+        leftStore.put(session);
+        return session;
+    }
+    
+    /**
+     * Tests whether modifications are applied to peers.
+     */
+    @Test
+    public void replicate() {
+        final DefaultIpcSession session = create();
+        session.put("a", "b");
+        session.put("c", "d");
+        left.run();
+        
+        final IpcSession replica = rightStore.get("session");
+        Assert.assertNotNull(replica);
+        Assert.assertTrue(rightStore.restored.contains("session"));
+        Assert.assertEquals("identifier", replica.getIdentifier());
+        Assert.assertEquals(1L, replica.getTimeout(TimeUnit.HOURS));
+        Assert.assertEquals("b", replica.get("a"));
+        Assert.assertEquals("d", replica.get("c"));
+        
+        session.remove("a");
+        left.run();
+        Assert.assertFalse(replica.containsKey("a"));
+        Assert.assertEquals("d", replica.get("c"));
+    }
+    
+    /**
+     * Tests whether destroying the original session destroys replicas.
+     */
+    @Test
+    public void destroy() {
+        final DefaultIpcSession session = create();
+        session.put("a", "b");
+        left.run();
+        Assert.assertNotNull(rightStore.get("session"));
+        
+        left.eventIpcSessionDestroy(session);
+        left.run();
+        Assert.assertNull(rightStore.get("session"));
+    }
+    
+    /**
+     * Tests whether destroying a replica leaves the original session untouched.
+     */
+    @Test
+    public void destroyReplica() {
+        final DefaultIpcSession session = create();
+        session.put("a", "b");
+        left.run();
+        
+        right.eventIpcSessionDestroy(rightStore.remove("session"));
+        right.run();
+        Assert.assertSame(session, leftStore.get("session"));
+    }
+    
+    /**
+     * Tests whether replicas which expired locally forget the sequences of their origins,
+     * so that a session recreated with the same id is replicated again.
+     */
+    @Test
+    public void expireReplica() {
+        final DefaultIpcSession session = create();
+        session.put("a", "b");
+        left.run();
+        session.put("a", "c");
+        left.run();
+        
+        right.eventIpcSessionDestroy(rightStore.remove("session"));
+        
+        // the origin restarted and starts numbering from scratch
+        final IpcSessionDelta delta = new IpcSessionDelta("session", System.currentTimeMillis(), 
+            ImmutableMap.<Object, Object>of("a", "d"), ImmutableSet.<Object>of());
+        right.receive(ImmutableList.of(IpcSessionReplicationMessage.update("left", "identifier", 
+            TimeUnit.HOURS.toMillis(1), 1L, delta)));
+        Assert.assertNotNull(rightStore.get("session"));
+        Assert.assertEquals("d", rightStore.get("session").get("a"));
+    }
+    
+}
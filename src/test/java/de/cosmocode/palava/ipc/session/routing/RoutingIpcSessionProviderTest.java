@@ -0,0 +1,204 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session.routing;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+
+import de.cosmocode.palava.ipc.IpcSession;
+import de.cosmocode.palava.ipc.IpcSessionProvider;
+import de.cosmocode.palava.ipc.session.store.DefaultIpcSession;
+import de.cosmocode.palava.ipc.session.store.IpcSessionStore;
+
+/**
+ * Tests {@link ConsistentHashRing} and {@link RoutingIpcSessionProvider} by simulating
+ * several nodes in one jvm.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public final class RoutingIpcSessionProviderTest {
+
+    private static final int VIRTUAL_NODES = 64;
+    
+    private final MapNode first = new MapNode();
+    
+    private final MapNode second = new MapNode();
+    
+    private RoutingIpcSessionProvider router;
+    
+    private LocalIpcSessionNode secondNode;
+    
+    /**
+     * Simple map based {@link IpcSessionProvider} and {@link IpcSessionStore}.
+     *
+     * @since 2.1
+     * @author Willi Schoenborn
+     */
+    private static final class MapNode implements IpcSessionProvider, IpcSessionStore {
+        
+        private final ConcurrentMap<String, IpcSession> sessions = Maps.newConcurrentMap();
+        
+        @Override
+        public IpcSession getSession(String sessionId, String identifier) {
+            final IpcSession present = sessionId == null ? null : sessions.get(sessionId);
+            if (present != null) return present;
+            final IpcSession session = new DefaultIpcSession(UUID.randomUUID().toString(), identifier);
+            sessions.put(session.getSessionId(), session);
+            return session;
+        }
+        
+        @Override
+        public IpcSession get(String sessionId) {
+            return sessions.get(sessionId);
+        }
+        
+        @Override
+        public void put(IpcSession session) {
+            sessions.put(session.getSessionId(), session);
+        }
+        
+        @Override
+        public IpcSession restore(String sessionId, String identifier, long timeout, TimeUnit timeoutUnit,
+            Map<Object, Object> values) {
+            final IpcSession session = new DefaultIpcSession(sessionId, identifier);
+            session.setTimeout(timeout, timeoutUnit);
+            session.putAll(values);
+            sessions.put(sessionId, session);
+            return session;
+        }
+        
+        @Override
+        public IpcSession remove(String sessionId) {
+            return sessions.remove(sessionId);
+        }
+        
+        @Override
+        public IpcSession release(String sessionId) {
+            return sessions.remove(sessionId);
+        }
+        
+        @Override
+        public Set<String> getSessionIds() {
+            return ImmutableSet.copyOf(sessions.keySet());
+        }
+        
+    }
+    
+    /**
+     * Sets up a single node cluster.
+     */
+    @Before
+    public void setUp() {
+        router = new RoutingIpcSessionProvider(new LocalIpcSessionNode("first", first, first), VIRTUAL_NODES);
+        secondNode = new LocalIpcSessionNode("second", second, second);
+    }
+    
+    /**
+     * Tests that adding a node only moves keys to the new node.
+     */
+    @Test
+    public void ringMinimalMovement() {
+        final ConsistentHashRing before = ConsistentHashRing.of(ImmutableSet.of("a", "b", "c"), VIRTUAL_NODES);
+        final ConsistentHashRing after = before.with("d");
+        int moved = 0;
+        for (int i = 0; i < 10000; i++) {
+            final String key = "key" + i;
+            final String owner = after.ownerOf(key);
+            if (!owner.equals(before.ownerOf(key))) {
+                Assert.assertEquals("d", owner);
+                moved++;
+            }
+        }
+        Assert.assertTrue(moved > 1000 && moved < 4000);
+        Assert.assertEquals(before.getNodes(), after.without("d").getNodes());
+    }
+    
+    /**
+     * Tests that new sessions end up on their owner and lookups are forwarded.
+     */
+    @Test
+    public void routing() {
+        router.join(secondNode);
+        for (int i = 0; i < 100; i++) {
+            final IpcSession session = router.getSession(null, "identifier");
+            final String sessionId = session.getSessionId();
+            final MapNode owner = router.isLocal(sessionId) ? first : second;
+            final MapNode other = owner == first ? second : first;
+            Assert.assertSame(session, owner.get(sessionId));
+            Assert.assertNull(other.get(sessionId));
+            Assert.assertSame(session, router.getSession(sessionId, "identifier"));
+        }
+    }
+    
+    /**
+     * Tests that sessions are handed over in batches after a node joined.
+     */
+    @Test
+    public void rebalance() {
+        for (int i = 0; i < 100; i++) {
+            router.getSession(null, "identifier");
+        }
+        Assert.assertEquals(100, first.getSessionIds().size());
+        
+        router.join(secondNode);
+        router.setBatchSize(10);
+        router.run();
+        Assert.assertEquals(10, second.getSessionIds().size());
+        
+        for (int i = 0; i < 10; i++) {
+            router.run();
+        }
+        final Map<String, IpcSession> all = Maps.newHashMap(first.sessions);
+        all.putAll(second.sessions);
+        Assert.assertEquals(100, all.size());
+        for (String sessionId : first.getSessionIds()) {
+            Assert.assertTrue(router.isLocal(sessionId));
+        }
+        for (String sessionId : second.getSessionIds()) {
+            Assert.assertFalse(router.isLocal(sessionId));
+        }
+    }
+    
+    /**
+     * Tests that a lookup pulls a session from its previous owner after that owner left.
+     */
+    @Test
+    public void pullAfterLeave() {
+        router.join(secondNode);
+        IpcSession remote = null;
+        while (remote == null) {
+            final IpcSession session = router.getSession(null, "identifier");
+            if (!router.isLocal(session.getSessionId())) remote = session;
+        }
+        router.leave("second");
+        Assert.assertSame(remote, router.getSession(remote.getSessionId(), "identifier"));
+        Assert.assertSame(remote, first.get(remote.getSessionId()));
+        Assert.assertNull(second.get(remote.getSessionId()));
+    }
+    
+}
@@ -0,0 +1,65 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.palava.ipc.session.store;
+
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.collect.ConcurrentMapInterfaceTest;
+import com.google.common.collect.Lists;
+
+/**
+ * Abstract {@link ConcurrentMapInterfaceTest} for the maps backing sessions, which
+ * support neither null keys nor null values.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public abstract class AbstractConcurrentMapTest extends ConcurrentMapInterfaceTest<Object, Object> {
+
+    public AbstractConcurrentMapTest() {
+        super(false, false, true, true, true, true);
+    }
+    
+    @Override
+    protected abstract ConcurrentMap<Object, Object> makeEmptyMap();
+
+    @Override
+    protected ConcurrentMap<Object, Object> makePopulatedMap() {
+        final ConcurrentMap<Object, Object> map = makeEmptyMap();
+        map.put("one", Lists.newArrayList(1));
+        map.put("two", Lists.newArrayList(2));
+        map.put("three", Lists.newArrayList(3));
+        return map;
+    }
+
+    @Override
+    protected Object getKeyNotInPopulatedMap() {
+        return "four";
+    }
+
+    @Override
+    protected Object getValueNotInPopulatedMap() {
+        return Lists.newArrayList(4);
+    }
+
+    @Override
+    protected Object getSecondValueNotInPopulatedMap() {
+        return Lists.newArrayList(5);
+    }
+
+}
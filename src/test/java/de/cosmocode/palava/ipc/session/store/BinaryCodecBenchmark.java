@@ -0,0 +1,191 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session.store;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import de.cosmocode.palava.scope.AbstractScopeContext;
+
+/**
+ * Compares the binary format of {@link DefaultIpcSession} with its previous format,
+ * plain java serialization of the session class hierarchy, for typical session shapes.
+ * Run using {@link #main(String[])}.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public final class BinaryCodecBenchmark {
+
+    private static final int WARMUP = 20000;
+    
+    private static final int ITERATIONS = 100000;
+    
+    private BinaryCodecBenchmark() {
+        
+    }
+    
+    /**
+     * Mirrors the serialized form of {@link de.cosmocode.palava.ipc.AbstractIpcSession}
+     * before sessions were {@link java.io.Externalizable}.
+     *
+     * @since 2.1
+     * @author Willi Schoenborn
+     */
+    private abstract static class LegacyAbstractIpcSession extends AbstractScopeContext implements Serializable {
+        
+        private static final long serialVersionUID = 6438707896566787757L;
+
+        private long timeout = 30;
+
+        private TimeUnit timeoutUnit = TimeUnit.MINUTES;
+
+        private Date startedAt = new Date();
+
+        private long lastAccess = System.currentTimeMillis();
+
+        private boolean suppressingTouch;
+        
+    }
+    
+    /**
+     * Mirrors the serialized form of {@link DefaultIpcSession} before the binary format.
+     *
+     * @since 2.1
+     * @author Willi Schoenborn
+     */
+    private static final class LegacyDefaultIpcSession extends LegacyAbstractIpcSession {
+        
+        private static final long serialVersionUID = -3253150612389431436L;
+
+        private final String sessionId;
+        
+        private final String identifier;
+        
+        private final ConcurrentMap<Object, Object> context = Maps.newConcurrentMap();
+        
+        LegacyDefaultIpcSession(String sessionId, String identifier, Map<Object, Object> entries) {
+            this.sessionId = sessionId;
+            this.identifier = identifier;
+            this.context.putAll(entries);
+        }
+        
+        @Override
+        protected ConcurrentMap<Object, Object> delegate() {
+            return context;
+        }
+        
+    }
+    
+    private static Map<Object, Object> small() {
+        final Map<Object, Object> entries = Maps.newHashMap();
+        entries.put("locale", "de_DE");
+        entries.put("userId", Long.valueOf(4711L));
+        entries.put("loggedIn", Boolean.TRUE);
+        return entries;
+    }
+    
+    private static Map<Object, Object> namespaced() {
+        final Map<Object, Object> entries = small();
+        for (int i = 0; i < 5; i++) {
+            final Map<Object, Object> namespace = Maps.newHashMap();
+            for (int j = 0; j < 10; j++) {
+                namespace.put("key" + j, "value" + j);
+            }
+            entries.put("namespace" + i, namespace);
+        }
+        return entries;
+    }
+    
+    private static Map<Object, Object> cart() {
+        final Map<Object, Object> entries = small();
+        final List<Object> items = Lists.newArrayList();
+        for (int i = 0; i < 20; i++) {
+            final Map<Object, Object> item = Maps.newHashMap();
+            item.put("sku", "SKU-" + i);
+            item.put("quantity", Integer.valueOf(i % 3 + 1));
+            item.put("price", Double.valueOf(9.99 * i));
+            items.add(item);
+        }
+        entries.put("cart", items);
+        return entries;
+    }
+    
+    private static byte[] write(Object object) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream stream = new ObjectOutputStream(bytes);
+        stream.writeObject(object);
+        stream.close();
+        return bytes.toByteArray();
+    }
+    
+    private static Object read(byte[] bytes) throws IOException, ClassNotFoundException {
+        final ObjectInputStream stream = new ObjectInputStream(new ByteArrayInputStream(bytes));
+        try {
+            return stream.readObject();
+        } finally {
+            stream.close();
+        }
+    }
+    
+    private static long measure(Object object, int iterations) throws IOException, ClassNotFoundException {
+        final long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            read(write(object));
+        }
+        return (System.nanoTime() - start) / iterations;
+    }
+    
+    private static void run(String shape, Map<Object, Object> entries) throws IOException, ClassNotFoundException {
+        final DefaultIpcSession binary = new DefaultIpcSession("0123456789abcdef", "127.0.0.1");
+        binary.setTimeout(30, TimeUnit.MINUTES);
+        binary.putAll(entries);
+        final LegacyDefaultIpcSession legacy = new LegacyDefaultIpcSession("0123456789abcdef", "127.0.0.1", entries);
+        
+        measure(binary, WARMUP);
+        measure(legacy, WARMUP);
+        
+        System.out.println(String.format("%-12s binary: %5d bytes %7d ns/op, legacy: %5d bytes %7d ns/op",
+            shape, write(binary).length, measure(binary, ITERATIONS), 
+            write(legacy).length, measure(legacy, ITERATIONS)));
+    }
+    
+    /**
+     * Runs the benchmark.
+     * 
+     * @param args ignored
+     * @throws Exception if serialization failed
+     */
+    public static void main(String[] args) throws Exception {
+        run("small", small());
+        run("namespaced", namespaced());
+        run("cart", cart());
+    }
+    
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session.store;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Tests {@link BinaryCodec}.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public final class BinaryCodecTest {
+
+    private Object roundTrip(Object value) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinaryCodec.writeValue(new DataOutputStream(bytes), value);
+        return BinaryCodec.readValue(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+    
+    /**
+     * Tests {@link BinaryCodec#writeVarLong(java.io.DataOutput, long)} using extreme values.
+     * 
+     * @throws IOException should not happen
+     */
+    @Test
+    public void varLong() throws IOException {
+        for (long value : new long[] {0L, 1L, -1L, 127L, 128L, Long.MIN_VALUE, Long.MAX_VALUE}) {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            BinaryCodec.writeVarLong(new DataOutputStream(bytes), value);
+            final DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+            Assert.assertEquals(value, BinaryCodec.readVarLong(input));
+        }
+    }
+    
+    /**
+     * Tests tagged and fallback values.
+     * 
+     * @throws IOException should not happen
+     */
+    @Test
+    public void values() throws IOException {
+        final Map<Object, Object> map = Maps.newHashMap();
+        map.put("list", Lists.newArrayList("a", Integer.valueOf(1), null));
+        map.put("immutable", ImmutableList.of("b"));
+        map.put(Long.valueOf(42L), Double.valueOf(1.5));
+        map.put("flag", Boolean.FALSE);
+        map.put("date", new Date(0L));
+        Assert.assertEquals(map, roundTrip(map));
+        Assert.assertNull(roundTrip(null));
+    }
+    
+    /**
+     * Tests {@link DefaultIpcSession} serialization.
+     * 
+     * @throws Exception should not happen
+     */
+    @Test
+    public void session() throws Exception {
+        final DefaultIpcSession session = new DefaultIpcSession("id", null);
+        session.setTimeout(5, TimeUnit.MINUTES);
+        session.put("key", "value");
+        session.put("token", "value", 5, TimeUnit.MINUTES);
+        final SuspendedIpcSession suspended = SuspendedIpcSession.fromBytes(
+            new SuspendedIpcSession(session, Maps.<String, Serializable>newHashMap()).toBytes());
+        final DefaultIpcSession copy = (DefaultIpcSession) suspended.getSession();
+        Assert.assertEquals("id", copy.getSessionId());
+        Assert.assertNull(copy.getIdentifier());
+        Assert.assertEquals(session.startedAt(), copy.startedAt());
+        Assert.assertEquals(session.lastAccessTime(), copy.lastAccessTime());
+        Assert.assertEquals(5L, copy.getTimeout(TimeUnit.MINUTES));
+        Assert.assertEquals("value", copy.get("key"));
+        Assert.assertTrue(copy.getTimeToLive("token", TimeUnit.SECONDS) > 250);
+        Assert.assertEquals(-1L, copy.getTimeToLive("key", TimeUnit.SECONDS));
+    }
+    
+    /**
+     * Tests that serialized attributes referring to the same object still do so after deserialization.
+     * 
+     * @throws Exception should not happen
+     */
+    @Test
+    public void sharedReferences() throws Exception {
+        final DefaultIpcSession session = new DefaultIpcSession("id", null);
+        final Date date = new Date(0L);
+        session.put("first", ImmutableList.of(date));
+        session.put("second", date);
+        final SuspendedIpcSession suspended = SuspendedIpcSession.fromBytes(
+            new SuspendedIpcSession(session, Maps.<String, Serializable>newHashMap()).toBytes());
+        final DefaultIpcSession copy = (DefaultIpcSession) suspended.getSession();
+        final ImmutableList<?> first = (ImmutableList<?>) copy.get("first");
+        Assert.assertSame(first.get(0), copy.get("second"));
+    }
+    
+}
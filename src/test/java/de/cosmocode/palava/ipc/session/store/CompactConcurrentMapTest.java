@@ -0,0 +1,111 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session.store;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+
+/**
+ * Tests {@link CompactConcurrentMap}.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public final class CompactConcurrentMapTest extends AbstractConcurrentMapTest {
+
+    @Override
+    protected ConcurrentMap<Object, Object> makeEmptyMap() {
+        return new CompactConcurrentMap(2);
+    }
+    
+    /**
+     * Tests that exceeding the threshold keeps all entries and the map fully functional.
+     */
+    public void testThresholdMigration() {
+        final CompactConcurrentMap map = new CompactConcurrentMap(2);
+        map.put("one", "1");
+        map.put("two", "2");
+        map.put("two", "22");
+        assertEquals(2, map.size());
+        map.put("three", "3");
+        assertEquals(ImmutableMap.of("one", "1", "two", "22", "three", "3"), map);
+        assertEquals("1", map.remove("one"));
+        assertNull(map.putIfAbsent("four", "4"));
+        assertEquals(ImmutableMap.of("two", "22", "three", "3", "four", "4"), map);
+        map.clear();
+        assertTrue(map.isEmpty());
+        map.put("five", "5");
+        assertEquals(ImmutableMap.of("five", "5"), map);
+    }
+    
+    /**
+     * Tests that string keys are shared across maps, before and after the migration.
+     */
+    public void testInterning() {
+        final CompactConcurrentMap small = new CompactConcurrentMap(2);
+        final CompactConcurrentMap large = new CompactConcurrentMap(0);
+        small.put(new String("key"), "value");
+        large.put(new String("key"), "value");
+        final Object smallKey = Iterables.getOnlyElement(small.keySet());
+        final Object largeKey = Iterables.getOnlyElement(large.keySet());
+        assertEquals("key", smallKey);
+        assertSame(smallKey, largeKey);
+    }
+    
+    /**
+     * Tests that readers never miss present entries while another thread triggers the migration.
+     * 
+     * @throws InterruptedException should not happen
+     */
+    public void testReadsDuringMigration() throws InterruptedException {
+        for (int round = 0; round < 100; round++) {
+            final CompactConcurrentMap map = new CompactConcurrentMap();
+            map.put("stable", "value");
+            final CountDownLatch started = new CountDownLatch(1);
+            final AtomicBoolean running = new AtomicBoolean(true);
+            final AtomicInteger misses = new AtomicInteger();
+            final Thread reader = new Thread() {
+                
+                @Override
+                public void run() {
+                    started.countDown();
+                    while (running.get()) {
+                        if (!"value".equals(map.get("stable"))) {
+                            misses.incrementAndGet();
+                        }
+                    }
+                }
+                
+            };
+            reader.start();
+            started.await();
+            for (int i = 0; i < CompactConcurrentMap.DEFAULT_THRESHOLD * 2; i++) {
+                map.put("key" + i, Integer.valueOf(i));
+            }
+            running.set(false);
+            reader.join();
+            assertEquals(0, misses.get());
+            assertEquals(CompactConcurrentMap.DEFAULT_THRESHOLD * 2 + 1, map.size());
+        }
+    }
+
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session.store;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+
+/**
+ * Tests {@link CompressingIpcSessionSwap}.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public final class CompressingIpcSessionSwapTest {
+
+    private final CompressingIpcSessionSwap unit = new CompressingIpcSessionSwap();
+    
+    private static byte[] bytes(String value) {
+        return value.getBytes(Charsets.UTF_8);
+    }
+    
+    /**
+     * Tests that payloads can be removed exactly once and replaced.
+     * 
+     * @throws IOException should not happen
+     */
+    @Test
+    public void roundTrip() throws IOException {
+        unit.put("a", bytes(Strings.repeat("first", 1000)));
+        unit.put("b", new byte[0]);
+        unit.put("a", bytes("second"));
+        
+        Assert.assertArrayEquals(bytes("second"), unit.remove("a"));
+        Assert.assertNull(unit.remove("a"));
+        Assert.assertArrayEquals(new byte[0], unit.remove("b"));
+        Assert.assertNull(unit.remove("c"));
+    }
+    
+    /**
+     * Tests that arbitrary, incompressible payloads are stored unchanged at every level.
+     * 
+     * @throws IOException should not happen
+     */
+    @Test
+    public void incompressible() throws IOException {
+        final byte[] payload = new byte[100000];
+        new Random(42).nextBytes(payload);
+        for (int level = Deflater.NO_COMPRESSION; level <= Deflater.BEST_COMPRESSION; level++) {
+            unit.setLevel(level);
+            unit.put("random", payload);
+            Assert.assertArrayEquals(payload, unit.remove("random"));
+        }
+    }
+    
+    /**
+     * Tests that invalid levels are rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidLevel() {
+        unit.setLevel(Deflater.BEST_COMPRESSION + 1);
+    }
+    
+    /**
+     * Tests that purging returns and removes the payloads stored before the given timestamp only.
+     * 
+     * @throws IOException should not happen
+     * @throws InterruptedException should not happen
+     */
+    @Test
+    public void purge() throws IOException, InterruptedException {
+        unit.put("old", bytes("old"));
+        Thread.sleep(5);
+        final long timestamp = System.currentTimeMillis();
+        Thread.sleep(5);
+        unit.put("new", bytes("new"));
+        
+        final Map<String, byte[]> purged = unit.purge(timestamp);
+        Assert.assertEquals(1, purged.size());
+        Assert.assertArrayEquals(bytes("old"), purged.get("old"));
+        Assert.assertNull(unit.remove("old"));
+        Assert.assertTrue(unit.purge(timestamp).isEmpty());
+        Assert.assertArrayEquals(bytes("new"), unit.remove("new"));
+    }
+    
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.palava.ipc.session.store;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import de.cosmocode.palava.ipc.DefaultIpcSessionAttributeEstimator;
+import de.cosmocode.palava.ipc.IpcSessionDelta;
+import de.cosmocode.palava.ipc.IpcSessionQuotaExceededException;
+import de.cosmocode.palava.ipc.IpcSessionQuotaPolicy;
+
+/**
+ * Tests {@link DefaultIpcSession}.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public final class DefaultIpcSessionTest {
+
+    private final DefaultIpcSession unit = new DefaultIpcSession("session", "identifier");
+    
+    /**
+     * Tests that the first checkpoint is a full snapshot and later ones contain modified keys only.
+     */
+    @Test
+    public void checkpoint() {
+        unit.put("a", 1);
+        unit.put("b", 2);
+        Assert.assertTrue(unit.isDirty());
+        
+        final IpcSessionDelta first = unit.checkpoint();
+        Assert.assertEquals(ImmutableMap.of("a", 1, "b", 2), first.getUpdates());
+        Assert.assertFalse(unit.isDirty());
+        
+        unit.put("a", 3);
+        unit.remove("b");
+        Assert.assertTrue(unit.isDirty());
+        
+        final IpcSessionDelta second = unit.checkpoint();
+        Assert.assertEquals(ImmutableMap.of("a", 3), second.getUpdates());
+        Assert.assertEquals(ImmutableSet.of("b"), second.getRemovals());
+        Assert.assertTrue(unit.checkpoint().isEmpty());
+    }
+    
+    /**
+     * Tests that a write exceeding the quota is rejected, unless it does not write anything.
+     */
+    @Test
+    public void quota() {
+        unit.setSizeEstimator(new DefaultIpcSessionAttributeEstimator());
+        unit.setQuota(1000, IpcSessionQuotaPolicy.REJECT);
+        unit.put("key", "value");
+        
+        Assert.assertEquals("value", unit.putIfAbsent("key", Strings.repeat("x", 1000)));
+        try {
+            unit.put("other", Strings.repeat("x", 1000));
+            Assert.fail("Expected quota to be exceeded");
+        } catch (IpcSessionQuotaExceededException e) {
+            Assert.assertFalse(unit.containsKey("other"));
+        }
+        try {
+            unit.checkQuota("namespace", ImmutableMap.of("nested", Strings.repeat("x", 1000)));
+            Assert.fail("Expected quota to be exceeded");
+        } catch (IpcSessionQuotaExceededException e) {
+            unit.checkQuota("namespace", ImmutableMap.of("nested", "value"));
+        }
+    }
+    
+    /**
+     * Tests that sessions which can't spill reject the spill policy.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void spill() {
+        Assert.assertFalse(unit.isSpillable());
+        unit.setQuota(1000, IpcSessionQuotaPolicy.SPILL);
+    }
+    
+    /**
+     * Tests that replacing a value keeps its expiration and overwriting it removes it.
+     */
+    @Test
+    public void ttl() {
+        unit.put("replaced", "first", 1, TimeUnit.HOURS);
+        unit.replace("replaced", "second");
+        Assert.assertTrue(unit.getTimeToLive("replaced", TimeUnit.MINUTES) > 50);
+        unit.replace("replaced", "second", "third");
+        Assert.assertTrue(unit.getTimeToLive("replaced", TimeUnit.MINUTES) > 50);
+        unit.put("replaced", "fourth");
+        Assert.assertEquals(-1L, unit.getTimeToLive("replaced", TimeUnit.MINUTES));
+    }
+    
+}
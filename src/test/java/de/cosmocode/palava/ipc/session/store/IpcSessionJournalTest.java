@@ -0,0 +1,202 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session.store;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+
+import de.cosmocode.palava.core.Registry;
+import de.cosmocode.palava.core.lifecycle.LifecycleException;
+import de.cosmocode.palava.ipc.IpcSession;
+
+/**
+ * Tests {@link IpcSessionJournal}.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public final class IpcSessionJournalTest {
+
+    private File directory;
+    
+    /**
+     * Simple map based {@link IpcSessionStore}.
+     *
+     * @since 2.1
+     * @author Willi Schoenborn
+     */
+    private static final class MapStore implements IpcSessionStore {
+        
+        private final ConcurrentMap<String, IpcSession> sessions = Maps.newConcurrentMap();
+        
+        @Override
+        public IpcSession get(String sessionId) {
+            return sessions.get(sessionId);
+        }
+        
+        @Override
+        public void put(IpcSession session) {
+            sessions.put(session.getSessionId(), session);
+        }
+        
+        @Override
+        public IpcSession restore(String sessionId, String identifier, long timeout, TimeUnit timeoutUnit,
+            Map<Object, Object> values) {
+            final IpcSession session = new DefaultIpcSession(sessionId, identifier);
+            session.setTimeout(timeout, timeoutUnit);
+            session.putAll(values);
+            sessions.put(sessionId, session);
+            return session;
+        }
+        
+        @Override
+        public IpcSession remove(String sessionId) {
+            return sessions.remove(sessionId);
+        }
+        
+        @Override
+        public IpcSession release(String sessionId) {
+            return sessions.remove(sessionId);
+        }
+        
+        @Override
+        public Set<String> getSessionIds() {
+            return ImmutableSet.copyOf(sessions.keySet());
+        }
+        
+    }
+    
+    /**
+     * Creates the journal directory.
+     */
+    @Before
+    public void setUp() {
+        directory = Files.createTempDir();
+    }
+    
+    /**
+     * Deletes the journal directory.
+     */
+    @After
+    public void tearDown() {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+    
+    private IpcSessionJournal open(IpcSessionStore store) throws LifecycleException {
+        final IpcSessionJournal journal = new IpcSessionJournal(
+            EasyMock.createNiceMock(Registry.class), store, directory.getPath());
+        journal.setShards(4);
+        journal.setInterval(1);
+        journal.setIntervalUnit(TimeUnit.HOURS);
+        journal.initialize();
+        return journal;
+    }
+    
+    private DefaultIpcSession create(IpcSessionJournal journal, MapStore store, String sessionId) {
+        final DefaultIpcSession session = new DefaultIpcSession(sessionId, "identifier");
+        session.setTimeout(1, TimeUnit.HOURS);
+        session.setChangeEvent(journal);
+        store.put(session);
+        return session;
+    }
+    
+    /**
+     * Tests that committed modifications and destructions are recovered.
+     * 
+     * @throws LifecycleException should not happen
+     */
+    @Test
+    public void recover() throws LifecycleException {
+        final MapStore store = new MapStore();
+        final IpcSessionJournal journal = open(store);
+        final DefaultIpcSession kept = create(journal, store, "kept");
+        kept.put("a", "b");
+        kept.put("c", 1L);
+        journal.run();
+        kept.remove("a");
+        final DefaultIpcSession destroyed = create(journal, store, "destroyed");
+        destroyed.put("a", "b");
+        journal.run();
+        journal.eventIpcSessionDestroy(destroyed);
+        journal.run();
+        destroyed.clear();
+        journal.run();
+        
+        final MapStore recovered = new MapStore();
+        open(recovered).dispose();
+        Assert.assertEquals(ImmutableSet.of("kept"), recovered.getSessionIds());
+        final IpcSession session = recovered.get("kept");
+        Assert.assertEquals("identifier", session.getIdentifier());
+        Assert.assertEquals(1L, session.getTimeout(TimeUnit.HOURS));
+        Assert.assertFalse(session.containsKey("a"));
+        Assert.assertEquals(1L, session.get("c"));
+        journal.dispose();
+    }
+    
+    /**
+     * Tests that snapshots and torn records are handled on recovery.
+     * 
+     * @throws LifecycleException should not happen
+     * @throws IOException should not happen
+     */
+    @Test
+    public void snapshot() throws LifecycleException, IOException {
+        final MapStore store = new MapStore();
+        final IpcSessionJournal journal = open(store);
+        journal.setSnapshotInterval(0);
+        final DefaultIpcSession session = create(journal, store, "session");
+        session.put("a", "b");
+        journal.run();
+        session.put("c", "d");
+        journal.setSnapshotInterval(10);
+        journal.run();
+        journal.dispose();
+        
+        for (File file : directory.listFiles()) {
+            if (file.getName().endsWith(".journal") && file.length() > 0) {
+                final FileOutputStream stream = new FileOutputStream(file, true);
+                stream.write(new byte[] {0, 0, 0, 42, 1, 2});
+                stream.close();
+            }
+        }
+        
+        final MapStore recovered = new MapStore();
+        open(recovered).dispose();
+        final IpcSession restored = recovered.get("session");
+        Assert.assertEquals("b", restored.get("a"));
+        Assert.assertEquals("d", restored.get("c"));
+    }
+    
+}
@@ -0,0 +1,191 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import de.cosmocode.palava.core.lifecycle.LifecycleException;
+
+/**
+ * Tests {@link MappedIpcSessionSwap}.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public final class MappedIpcSessionSwapTest {
+
+    private File directory;
+    
+    private MappedIpcSessionSwap unit;
+    
+    /**
+     * Opens the unit in a temporary directory.
+     * 
+     * @throws LifecycleException should not happen
+     */
+    @Before
+    public void setUp() throws LifecycleException {
+        directory = Files.createTempDir();
+        unit = open();
+    }
+    
+    private MappedIpcSessionSwap open() throws LifecycleException {
+        final MappedIpcSessionSwap swap = new MappedIpcSessionSwap(directory.getPath());
+        swap.initialize();
+        return swap;
+    }
+    
+    /**
+     * Closes the unit and deletes the temporary directory.
+     * 
+     * @throws LifecycleException should not happen
+     */
+    @After
+    public void tearDown() throws LifecycleException {
+        unit.dispose();
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+    
+    private static byte[] bytes(String value) {
+        return value.getBytes(Charsets.UTF_8);
+    }
+    
+    /**
+     * Tests that payloads can be removed exactly once and replaced.
+     * 
+     * @throws IOException should not happen
+     */
+    @Test
+    public void roundTrip() throws IOException {
+        unit.put("a", bytes("first"));
+        unit.put("b", new byte[0]);
+        unit.put("a", bytes("second"));
+        
+        Assert.assertArrayEquals(bytes("second"), unit.remove("a"));
+        Assert.assertNull(unit.remove("a"));
+        Assert.assertArrayEquals(new byte[0], unit.remove("b"));
+        Assert.assertNull(unit.remove("c"));
+    }
+    
+    /**
+     * Tests that stored payloads survive a restart, including replacements and removals.
+     * 
+     * @throws LifecycleException should not happen
+     * @throws IOException should not happen
+     */
+    @Test
+    public void restart() throws LifecycleException, IOException {
+        unit.put("a", bytes("first"));
+        unit.put("b", bytes("removed"));
+        unit.put("a", bytes("second"));
+        unit.remove("b");
+        unit.dispose();
+        
+        unit = open();
+        Assert.assertArrayEquals(bytes("second"), unit.remove("a"));
+        Assert.assertNull(unit.remove("b"));
+    }
+    
+    /**
+     * Tests that purging returns and removes the payloads stored before the given timestamp only.
+     * 
+     * @throws IOException should not happen
+     * @throws InterruptedException should not happen
+     */
+    @Test
+    public void purge() throws IOException, InterruptedException {
+        unit.put("old", bytes("old"));
+        Thread.sleep(5);
+        final long timestamp = System.currentTimeMillis();
+        Thread.sleep(5);
+        unit.put("new", bytes("new"));
+        
+        final Map<String, byte[]> purged = unit.purge(timestamp);
+        Assert.assertEquals(1, purged.size());
+        Assert.assertArrayEquals(bytes("old"), purged.get("old"));
+        Assert.assertNull(unit.remove("old"));
+        Assert.assertTrue(unit.purge(timestamp).isEmpty());
+        Assert.assertArrayEquals(bytes("new"), unit.remove("new"));
+    }
+    
+    /**
+     * Tests that replacing large payloads reclaims the dead records.
+     * 
+     * @throws LifecycleException should not happen
+     * @throws IOException should not happen
+     */
+    @Test
+    public void compaction() throws LifecycleException, IOException {
+        final byte[] payload = new byte[100000];
+        final Random random = new Random(42);
+        for (int i = 0; i < 50; i++) {
+            random.nextBytes(payload);
+            unit.put("session", payload);
+        }
+        unit.put("other", bytes("other"));
+        Assert.assertTrue(new File(directory, "sessions.dat").length() < 50 * payload.length);
+        Assert.assertArrayEquals(payload, unit.remove("session"));
+        unit.dispose();
+        
+        unit = open();
+        Assert.assertArrayEquals(bytes("other"), unit.remove("other"));
+    }
+    
+    /**
+     * Tests that a corrupt record header ends the scan on startup without affecting preceding records.
+     * 
+     * @throws LifecycleException should not happen
+     * @throws IOException should not happen
+     */
+    @Test
+    public void corrupt() throws LifecycleException, IOException {
+        unit.put("a", bytes("first"));
+        unit.put("b", bytes("second"));
+        unit.dispose();
+        
+        final RandomAccessFile file = new RandomAccessFile(new File(directory, "sessions.dat"), "rw");
+        try {
+            // the payload length of the second record, which starts after the header, id and payload of the first
+            file.seek(17 + 1 + 5 + 13);
+            file.writeInt(Integer.MAX_VALUE - 100);
+        } finally {
+            file.close();
+        }
+        
+        unit = open();
+        Assert.assertNull(unit.remove("b"));
+        Assert.assertArrayEquals(bytes("first"), unit.remove("a"));
+        unit.put("c", bytes("third"));
+        Assert.assertArrayEquals(bytes("third"), unit.remove("c"));
+    }
+    
+}
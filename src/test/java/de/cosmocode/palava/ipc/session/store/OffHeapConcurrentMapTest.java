@@ -0,0 +1,185 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session.store;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * Tests {@link OffHeapConcurrentMap}.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public final class OffHeapConcurrentMapTest extends AbstractConcurrentMapTest {
+
+    @Override
+    protected ConcurrentMap<Object, Object> makeEmptyMap() {
+        return new OffHeapConcurrentMap(1, 0);
+    }
+
+    /**
+     * A value which counts how often it has been serialized.
+     *
+     * @since 2.1
+     * @author Willi Schoenborn
+     */
+    private static final class Counted implements Serializable {
+        
+        private static final long serialVersionUID = 5311617591785391544L;
+
+        private static final AtomicInteger WRITES = new AtomicInteger();
+        
+        private final int value;
+        
+        Counted(int value) {
+            this.value = value;
+        }
+        
+        private void writeObject(ObjectOutputStream stream) throws IOException {
+            WRITES.incrementAndGet();
+            stream.defaultWriteObject();
+        }
+        
+        @Override
+        public boolean equals(Object that) {
+            return that instanceof Counted && Counted.class.cast(that).value == value;
+        }
+        
+        @Override
+        public int hashCode() {
+            return value;
+        }
+        
+    }
+    
+    /**
+     * Tests that the key set, the values and containsValue don't move values into the hot cache,
+     * which would evict the hot value.
+     */
+    public void testViewsKeepHotCache() {
+        final OffHeapConcurrentMap map = new OffHeapConcurrentMap(1, 0);
+        map.put("one", new Counted(1));
+        map.put("two", new Counted(2));
+        final int writes = Counted.WRITES.get();
+        
+        assertEquals(Sets.newHashSet("one", "two"), Sets.newHashSet(map.keySet()));
+        assertEquals(Sets.newHashSet(new Counted(1), new Counted(2)), Sets.newHashSet(map.values()));
+        assertTrue(map.containsValue(new Counted(1)));
+        assertFalse(map.containsValue(new Counted(3)));
+        assertTrue(map.values().contains(new Counted(2)));
+        assertEquals(writes, Counted.WRITES.get());
+        
+        assertEquals(new Counted(1), map.get("one"));
+        assertEquals(writes + 1, Counted.WRITES.get());
+    }
+    
+    /**
+     * Tests that iterating the entry set doesn't move values into the hot cache.
+     */
+    public void testEntrySetKeepsHotCache() {
+        final OffHeapConcurrentMap map = new OffHeapConcurrentMap(1, 0);
+        map.put("one", new Counted(1));
+        map.put("two", new Counted(2));
+        final int writes = Counted.WRITES.get();
+        
+        for (Map.Entry<Object, Object> entry : map.entrySet()) {
+            assertNotNull(entry.getValue());
+        }
+        assertEquals(writes, Counted.WRITES.get());
+        
+        assertEquals(new Counted(2), map.get("two"));
+        assertEquals(writes, Counted.WRITES.get());
+    }
+    
+    /**
+     * Tests that values which have been modified after a hot read are written back on eviction,
+     * instead of keeping the buffer they have been read from.
+     * 
+     * @throws InterruptedException should not happen
+     */
+    public void testHotModificationsWrittenBack() throws InterruptedException {
+        final OffHeapConcurrentMap map = new OffHeapConcurrentMap(1, 0);
+        map.put("list", Lists.newArrayList(1));
+        map.put("other", Lists.newArrayList(2));
+        
+        @SuppressWarnings("unchecked")
+        List<Integer> list = (List<Integer>) map.get("list");
+        list.add(2);
+        assertEquals(Lists.newArrayList(2), map.get("other"));
+        
+        // releases the evicted value, so the next read has to use the buffer
+        final WeakReference<List<Integer>> reference = new WeakReference<List<Integer>>(list);
+        list = null;
+        for (int i = 0; i < 100 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(reference.get());
+        assertTrue(map.containsValue(Lists.newArrayList(1, 2)));
+    }
+    
+    /**
+     * Tests removals using the key set and the values.
+     */
+    public void testViewRemovals() {
+        final OffHeapConcurrentMap map = new OffHeapConcurrentMap(1, 0);
+        map.put("one", new Counted(1));
+        map.put("two", new Counted(2));
+        map.put("three", new Counted(3));
+        
+        assertTrue(map.keySet().remove("one"));
+        assertFalse(map.keySet().remove("one"));
+        assertNull(map.get("one"));
+        
+        final Iterator<Object> iterator = map.values().iterator();
+        while (iterator.hasNext()) {
+            if (new Counted(2).equals(iterator.next())) {
+                iterator.remove();
+            }
+        }
+        assertEquals(Sets.newHashSet("three"), map.keySet());
+        assertEquals(new Counted(3), map.get("three"));
+    }
+    
+    /**
+     * Tests that an evicted value which is still referenced is handed out again,
+     * including modifications made after the eviction.
+     */
+    public void testEvictedValueKeepsIdentity() {
+        final OffHeapConcurrentMap map = new OffHeapConcurrentMap(1, 0);
+        final List<Integer> list = Lists.newArrayList(1);
+        map.put("list", list);
+        map.put("other", Lists.newArrayList(2));
+        list.add(2);
+        map.refresh("list");
+        
+        assertSame(list, map.get("list"));
+        assertEquals(Lists.newArrayList(1, 2), map.get("list"));
+    }
+    
+}
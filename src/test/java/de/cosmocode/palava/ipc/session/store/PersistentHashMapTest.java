@@ -0,0 +1,103 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session.store;
+
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Tests {@link PersistentHashMap}.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public final class PersistentHashMapTest {
+
+    /**
+     * A key with a configurable hash code to provoke collisions.
+     */
+    private static final class Key {
+        
+        private final int id;
+        
+        private final int hash;
+        
+        Key(int id, int hash) {
+            this.id = id;
+            this.hash = hash;
+        }
+        
+        @Override
+        public boolean equals(Object that) {
+            return that instanceof Key && Key.class.cast(that).id == id;
+        }
+        
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+        
+    }
+    
+    /**
+     * Tests that plus and minus behave like a {@link java.util.HashMap}, including
+     * colliding hash codes, and never modify previous versions.
+     */
+    @Test
+    public void plusMinus() {
+        final Map<Object, Object> expected = Maps.newHashMap();
+        PersistentHashMap<Object, Object> map = PersistentHashMap.empty();
+        
+        for (int i = 0; i < 2000; i++) {
+            final Key key = new Key(i, i % 700);
+            expected.put(key, i);
+            map = map.plus(key, i);
+        }
+        Assert.assertEquals(expected, map);
+        Assert.assertEquals(expected, Maps.newHashMap(map));
+        
+        final PersistentHashMap<Object, Object> full = map;
+        for (int i = 0; i < 2000; i += 3) {
+            final Key key = new Key(i, i % 700);
+            expected.remove(key);
+            map = map.minus(key);
+        }
+        Assert.assertEquals(expected, map);
+        Assert.assertEquals(expected.size(), map.size());
+        Assert.assertEquals(2000, full.size());
+        Assert.assertEquals(0, full.get(new Key(0, 0)));
+        Assert.assertNull(map.get(new Key(0, 0)));
+        Assert.assertSame(map, map.minus(new Key(0, 0)));
+    }
+    
+    /**
+     * Tests that replacing a value keeps the size.
+     */
+    @Test
+    public void replace() {
+        final PersistentHashMap<Object, Object> map = PersistentHashMap.<Object, Object>empty().plus("a", 1);
+        final PersistentHashMap<Object, Object> replaced = map.plus("a", 2);
+        Assert.assertEquals(1, replaced.size());
+        Assert.assertEquals(2, replaced.get("a"));
+        Assert.assertEquals(1, map.get("a"));
+    }
+    
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session.store;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Sets;
+
+/**
+ * Tests {@link SnapshotConcurrentMap}.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public final class SnapshotConcurrentMapTest extends AbstractConcurrentMapTest {
+
+    @Override
+    protected ConcurrentMap<Object, Object> makeEmptyMap() {
+        return new SnapshotConcurrentMap();
+    }
+    
+    /**
+     * Tests that the version is incremented by effective modifications only.
+     */
+    public void testVersion() {
+        final SnapshotConcurrentMap map = new SnapshotConcurrentMap();
+        assertEquals(0L, map.getVersion());
+        map.put("key", "value");
+        assertEquals(1L, map.getVersion());
+        map.putIfAbsent("key", "other");
+        map.remove("absent");
+        map.remove("key", "other");
+        map.replace("absent", "value");
+        map.replace("key", "other", "value");
+        assertEquals(1L, map.getVersion());
+        map.replace("key", "value", "other");
+        assertEquals(2L, map.getVersion());
+        map.remove("key");
+        assertEquals(3L, map.getVersion());
+    }
+    
+    /**
+     * Tests that snapshots are unaffected by subsequent modifications.
+     */
+    public void testSnapshot() {
+        final SnapshotConcurrentMap map = new SnapshotConcurrentMap();
+        map.put("one", "1");
+        final Map<Object, Object> snapshot = map.snapshot();
+        map.put("two", "2");
+        map.remove("one");
+        assertEquals(ImmutableMap.of("one", "1"), snapshot);
+        assertEquals(ImmutableMap.of("two", "2"), map.snapshot());
+    }
+    
+    /**
+     * Tests that iterators traverse exactly the version which was current at their creation,
+     * while another thread keeps modifying the map.
+     * 
+     * @throws InterruptedException should not happen
+     */
+    public void testIterationUnderConcurrentWrites() throws InterruptedException {
+        final SnapshotConcurrentMap map = new SnapshotConcurrentMap();
+        for (int i = 0; i < 1000; i++) {
+            map.put("key" + i, Integer.valueOf(i));
+        }
+        final Set<Object> expected = Sets.newHashSet(map.keySet());
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final Thread writer = new Thread() {
+            
+            @Override
+            public void run() {
+                for (int i = 0; running.get(); i++) {
+                    map.remove("key" + (i % 1000));
+                    map.put("other" + i, Integer.valueOf(i));
+                    started.countDown();
+                }
+            }
+            
+        };
+        
+        final Iterator<Object> iterator = map.keySet().iterator();
+        writer.start();
+        started.await();
+        final Set<Object> actual = Sets.newHashSet();
+        while (iterator.hasNext()) {
+            actual.add(iterator.next());
+            Thread.yield();
+        }
+        running.set(false);
+        writer.join();
+        
+        assertEquals(expected, actual);
+        assertTrue(map.getVersion() > 1000L);
+    }
+
+}
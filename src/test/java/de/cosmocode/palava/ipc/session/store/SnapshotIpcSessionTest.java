@@ -0,0 +1,91 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.palava.ipc.session.store;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests {@link SnapshotIpcSession}.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public final class SnapshotIpcSessionTest {
+
+    private SnapshotIpcSession roundTrip(SnapshotIpcSession session) throws IOException, ClassNotFoundException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream output = new ObjectOutputStream(bytes);
+        output.writeObject(session);
+        output.close();
+        final ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        try {
+            return SnapshotIpcSession.class.cast(input.readObject());
+        } finally {
+            input.close();
+        }
+    }
+    
+    /**
+     * Tests that sessions without expiring entries remain fully usable after serialization.
+     * 
+     * @throws Exception should not happen
+     */
+    @Test
+    public void serialize() throws Exception {
+        final SnapshotIpcSession session = new SnapshotIpcSession("session", "identifier");
+        session.put("key", "value");
+        
+        final SnapshotIpcSession copy = roundTrip(session);
+        Assert.assertEquals("value", copy.get("key"));
+        Assert.assertEquals(-1L, copy.getTimeToLive("key", TimeUnit.MILLISECONDS));
+        copy.put("other", "value", 1, TimeUnit.HOURS);
+        Assert.assertEquals(2, copy.size());
+        Assert.assertTrue(copy.getTimeToLive("other", TimeUnit.MILLISECONDS) > 0);
+    }
+    
+    /**
+     * Tests that expirations survive serialization.
+     * 
+     * @throws Exception should not happen
+     */
+    @Test
+    public void serializeExpirations() throws Exception {
+        final SnapshotIpcSession session = new SnapshotIpcSession("session", "identifier");
+        session.put("key", "value");
+        session.put("expiring", "value", 1, TimeUnit.HOURS);
+        session.put("expired", "value", 50, TimeUnit.MILLISECONDS);
+        
+        final SnapshotIpcSession copy = roundTrip(session);
+        final long ttl = copy.getTimeToLive("expiring", TimeUnit.MINUTES);
+        Assert.assertTrue(ttl > 58 && ttl <= 60);
+        Assert.assertEquals(-1L, copy.getTimeToLive("key", TimeUnit.MILLISECONDS));
+        
+        Thread.sleep(60);
+        Assert.assertFalse(copy.containsKey("expired"));
+        Assert.assertEquals(2, copy.size());
+    }
+    
+}
@@ -0,0 +1,488 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.session.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+import de.cosmocode.palava.core.lifecycle.LifecycleException;
+import de.cosmocode.palava.ipc.IpcSession;
+import de.cosmocode.palava.ipc.IpcSessionChangeEvent;
+import de.cosmocode.palava.ipc.IpcSessionCreateEvent;
+import de.cosmocode.palava.ipc.IpcSessionDestroyEvent;
+import de.cosmocode.palava.ipc.IpcSessionEntryExpiry;
+import de.cosmocode.palava.ipc.IpcSessionQuotaExceededException;
+import de.cosmocode.palava.ipc.IpcSessionQuotaPolicy;
+import de.cosmocode.palava.ipc.IpcSessionResumeEvent;
+import de.cosmocode.palava.ipc.IpcSessionSuspendEvent;
+
+/**
+ * Tests the bounds of {@link TieredIpcSessionProvider}.
+ *
+ * @since 2.1
+ * @author Willi Schoenborn
+ */
+public final class TieredIpcSessionProviderTest {
+
+    private TieredIpcSessionProvider unit;
+    
+    /**
+     * Creates the unit using mocked events and swap.
+     */
+    @Before
+    public void setUp() {
+        unit = new TieredIpcSessionProvider(
+            new CompressingIpcSessionSwap(),
+            EasyMock.createNiceMock(IpcSessionCreateEvent.class),
+            EasyMock.createNiceMock(IpcSessionDestroyEvent.class),
+            EasyMock.createNiceMock(IpcSessionSuspendEvent.class),
+            EasyMock.createNiceMock(IpcSessionResumeEvent.class),
+            EasyMock.createNiceMock(IpcSessionChangeEvent.class)
+        );
+    }
+    
+    /**
+     * Tests that exceeding the maximum number of sessions evicts the least recently used one.
+     * 
+     * @throws InterruptedException should not happen
+     */
+    @Test
+    public void maxSessions() throws InterruptedException {
+        unit.setMaxSessions(10);
+        final List<IpcSession> sessions = Lists.newArrayList();
+        for (int i = 0; i < 10; i++) {
+            sessions.add(unit.getSession(null, null));
+        }
+        Thread.sleep(10);
+        for (IpcSession session : sessions.subList(0, 9)) {
+            Assert.assertSame(session, unit.getSession(session.getSessionId(), null));
+        }
+        
+        unit.getSession(null, null);
+        Assert.assertEquals(10, unit.getSessionCount());
+        Assert.assertEquals(1L, unit.getEvictionCount());
+        Assert.assertNull(unit.get(sessions.get(9).getSessionId()));
+        for (IpcSession session : sessions.subList(0, 9)) {
+            Assert.assertSame(session, unit.get(session.getSessionId()));
+        }
+    }
+    
+    /**
+     * Tests that exceeding the maximum size evicts the largest session.
+     */
+    @Test
+    public void maxSize() {
+        final IpcSession small = unit.getSession(null, null);
+        small.put("key", "value");
+        final IpcSession large = unit.getSession(null, null);
+        large.put("key", Strings.repeat("x", 100000));
+        
+        unit.run();
+        Assert.assertEquals(-1L, unit.getEstimatedSize());
+        
+        unit.setMaxSize(1000000);
+        unit.run();
+        Assert.assertEquals(2, unit.getSessionCount());
+        Assert.assertTrue(unit.getEstimatedSize() > 200000);
+        
+        unit.setMaxSize(100000);
+        unit.run();
+        Assert.assertEquals(1, unit.getSessionCount());
+        Assert.assertEquals(1L, unit.getEvictionCount());
+        Assert.assertSame(small, unit.get(small.getSessionId()));
+        Assert.assertTrue(large.isEmpty());
+    }
+    
+    /**
+     * Tests that the estimated size is updated on writes and removals.
+     */
+    @Test
+    public void accounting() {
+        final DefaultIpcSession session = DefaultIpcSession.class.cast(unit.getSession(null, null));
+        Assert.assertEquals(0L, session.getEstimatedSize());
+        session.put("key", Strings.repeat("x", 1000));
+        final long size = session.getEstimatedSize();
+        Assert.assertTrue(size > 2000);
+        session.put("key", Strings.repeat("x", 500));
+        Assert.assertEquals(size - 1000, session.getEstimatedSize());
+        session.remove("key");
+        Assert.assertEquals(0L, session.getEstimatedSize());
+        
+        unit.getSession(null, null).put("key", "value");
+        Assert.assertEquals(1, unit.getLargestSessions(1).size());
+    }
+    
+    /**
+     * Tests that writes exceeding the quota are rejected.
+     */
+    @Test
+    public void quota() {
+        unit.setQuota(1000L);
+        unit.setQuotaPolicy(IpcSessionQuotaPolicy.REJECT);
+        final IpcSession session = unit.getSession(null, null);
+        session.put("small", "value");
+        try {
+            session.put("large", Strings.repeat("x", 1000));
+            Assert.fail("expected IpcSessionQuotaExceededException");
+        } catch (IpcSessionQuotaExceededException e) {
+            Assert.assertFalse(session.containsKey("large"));
+        }
+        Assert.assertEquals("value", session.get("small"));
+    }
+    
+    /**
+     * Tests that expired entries are reclaimed on access and by the sweeper.
+     * 
+     * @throws InterruptedException should not happen
+     */
+    @Test
+    public void ttl() throws InterruptedException {
+        final IpcSession session = unit.getSession(null, null);
+        final IpcSessionEntryExpiry expiry = IpcSessionEntryExpiry.class.cast(session);
+        expiry.put("lazy", "value", 10, TimeUnit.MILLISECONDS);
+        expiry.put("swept", "value", 10, TimeUnit.MILLISECONDS);
+        expiry.put("kept", "value", 10, TimeUnit.MILLISECONDS);
+        session.put("kept", "value");
+        expiry.put("long", "value", 1, TimeUnit.HOURS);
+        Thread.sleep(20);
+        
+        Assert.assertNull(session.get("lazy"));
+        unit.run();
+        Assert.assertEquals(0, expiry.purgeExpiredEntries());
+        Assert.assertEquals("value", session.get("kept"));
+        Assert.assertEquals("value", session.get("long"));
+        Assert.assertEquals(-1L, expiry.getTimeToLive("kept", TimeUnit.SECONDS));
+        Assert.assertEquals(ImmutableSet.of("kept", "long"), ImmutableSet.copyOf(session.keySet()));
+    }
+    
+    /**
+     * Tests that expired entries are not visible through the size and the views of a session.
+     * 
+     * @throws InterruptedException should not happen
+     */
+    @Test
+    public void ttlViews() throws InterruptedException {
+        final IpcSession session = unit.getSession(null, null);
+        final IpcSessionEntryExpiry expiry = IpcSessionEntryExpiry.class.cast(session);
+        session.put("kept", "value");
+        expiry.put("keys", "value", 10, TimeUnit.MILLISECONDS);
+        expiry.put("values", "expired", 10, TimeUnit.MILLISECONDS);
+        expiry.put("entries", "value", 10, TimeUnit.MILLISECONDS);
+        expiry.put("size", "value", 10, TimeUnit.MILLISECONDS);
+        Thread.sleep(20);
+        
+        Assert.assertFalse(session.keySet().contains("keys"));
+        Assert.assertFalse(session.values().contains("expired"));
+        Assert.assertFalse(session.containsValue("expired"));
+        Assert.assertEquals(1, session.entrySet().size());
+        Assert.assertEquals(1, session.size());
+    }
+    
+    /**
+     * Tests that lazy sessions are registered on the first write only.
+     */
+    @Test
+    public void lazy() {
+        unit.setLazy(true);
+        final IpcSession session = unit.getSession(null, null);
+        Assert.assertTrue(session.isEmpty());
+        Assert.assertNull(session.get("key"));
+        Assert.assertNull(session.remove("key"));
+        Assert.assertEquals(0, unit.getSessionCount());
+        Assert.assertNotSame(session, unit.getSession(session.getSessionId(), null));
+        
+        session.put("key", "value");
+        Assert.assertEquals(1, unit.getSessionCount());
+        Assert.assertEquals("value", session.get("key"));
+        final IpcSession real = unit.getSession(session.getSessionId(), null);
+        Assert.assertEquals(session.getSessionId(), real.getSessionId());
+        Assert.assertEquals("value", real.get("key"));
+        Assert.assertEquals(1, unit.getSessionCount());
+    }
+    
+    /**
+     * Tests that materializing a lazy placeholder evicts the least recently used session
+     * if the maximum number of sessions is exceeded.
+     * 
+     * @throws InterruptedException should not happen
+     */
+    @Test
+    public void lazyMaxSessions() throws InterruptedException {
+        unit.setLazy(true);
+        unit.setMaxSessions(2);
+        final IpcSession first = unit.getSession(null, null);
+        first.put("key", "first");
+        final IpcSession second = unit.getSession(null, null);
+        second.put("key", "second");
+        final IpcSession third = unit.getSession(null, null);
+        Thread.sleep(10);
+        second.get("key");
+        
+        third.put("key", "third");
+        Assert.assertEquals(2, unit.getSessionCount());
+        Assert.assertEquals(1L, unit.getEvictionCount());
+        Assert.assertNull(unit.get(first.getSessionId()));
+        Assert.assertEquals("second", unit.get(second.getSessionId()).get("key"));
+        Assert.assertEquals("third", unit.get(third.getSessionId()).get("key"));
+    }
+    
+    /**
+     * Tests that resuming a suspended session evicts the least recently used session
+     * if the maximum number of sessions is exceeded, but never the resumed one.
+     * 
+     * @throws InterruptedException should not happen
+     */
+    @Test
+    public void resumeMaxSessions() throws InterruptedException {
+        unit.setSuspensionTime(0);
+        final IpcSession suspended = unit.getSession(null, null);
+        suspended.put("key", "suspended");
+        Thread.sleep(5);
+        unit.run();
+        Assert.assertEquals(0, unit.getSessionCount());
+        
+        unit.setMaxSessions(1);
+        final IpcSession active = unit.getSession(null, null);
+        final IpcSession resumed = unit.getSession(suspended.getSessionId(), null);
+        Assert.assertEquals("suspended", resumed.get("key"));
+        Assert.assertEquals(1, unit.getSessionCount());
+        Assert.assertEquals(1L, unit.getEvictionCount());
+        Assert.assertSame(resumed, unit.get(suspended.getSessionId()));
+        Assert.assertNull(unit.get(active.getSessionId()));
+    }
+    
+    /**
+     * Tests that expired and undecodable suspended sessions are destroyed using events
+     * and suspended sessions with a longer timeout are kept.
+     * 
+     * @throws IOException should not happen
+     * @throws InterruptedException should not happen
+     */
+    @Test
+    public void purge() throws IOException, InterruptedException {
+        final List<String> destroyed = Lists.newArrayList();
+        final IpcSessionSwap swap = new CompressingIpcSessionSwap();
+        final TieredIpcSessionProvider provider = new TieredIpcSessionProvider(swap,
+            EasyMock.createNiceMock(IpcSessionCreateEvent.class),
+            new IpcSessionDestroyEvent() {
+                
+                @Override
+                public void eventIpcSessionDestroy(IpcSession session) {
+                    destroyed.add(session.getSessionId());
+                }
+                
+            },
+            EasyMock.createNiceMock(IpcSessionSuspendEvent.class),
+            EasyMock.createNiceMock(IpcSessionResumeEvent.class),
+            EasyMock.createNiceMock(IpcSessionChangeEvent.class)
+        );
+        provider.setSuspensionTime(0);
+        provider.setExpirationTime(50);
+        provider.setExpirationTimeUnit(TimeUnit.MILLISECONDS);
+        
+        final IpcSession session = provider.getSession(null, null);
+        session.put("key", "value");
+        final IpcSession longer = provider.getSession(null, null);
+        longer.setTimeout(1, TimeUnit.HOURS);
+        longer.put("key", "longer");
+        Thread.sleep(5);
+        provider.run();
+        Assert.assertEquals(0, provider.getSessionCount());
+        Assert.assertTrue(destroyed.isEmpty());
+        
+        Thread.sleep(60);
+        provider.run();
+        Assert.assertEquals(Lists.newArrayList(session.getSessionId()), destroyed);
+        Assert.assertNull(provider.get(session.getSessionId()));
+        Assert.assertEquals("longer", provider.get(longer.getSessionId()).get("key"));
+        
+        destroyed.clear();
+        swap.put("corrupt", new byte[] {1, 2, 3});
+        Assert.assertNull(provider.get("corrupt"));
+        Assert.assertEquals(Lists.newArrayList("corrupt"), destroyed);
+    }
+    
+    /**
+     * Tests that restored sessions are created by the factory, announced as resumed
+     * and supersede suspended sessions with the same id.
+     * 
+     * @throws InterruptedException should not happen
+     */
+    @Test
+    public void restore() throws InterruptedException {
+        final List<String> created = Lists.newArrayList();
+        final List<String> resumed = Lists.newArrayList();
+        final TieredIpcSessionProvider provider = new TieredIpcSessionProvider(new CompressingIpcSessionSwap(),
+            EasyMock.createNiceMock(IpcSessionCreateEvent.class),
+            EasyMock.createNiceMock(IpcSessionDestroyEvent.class),
+            EasyMock.createNiceMock(IpcSessionSuspendEvent.class),
+            new IpcSessionResumeEvent() {
+                
+                @Override
+                public void eventIpcSessionResume(IpcSession session, Map<String, ? extends Serializable> data) {
+                    resumed.add(session.getSessionId());
+                }
+                
+            },
+            EasyMock.createNiceMock(IpcSessionChangeEvent.class)
+        );
+        provider.setFactory(new IpcSessionFactory() {
+            
+            @Override
+            public IpcSession create(String sessionId, String identifier) {
+                created.add(sessionId);
+                return new DefaultIpcSession(sessionId, identifier);
+            }
+            
+        });
+        provider.setSuspensionTime(0);
+        
+        final IpcSession suspended = provider.getSession(null, null);
+        final String sessionId = suspended.getSessionId();
+        suspended.put("key", "suspended");
+        Thread.sleep(5);
+        provider.run();
+        Assert.assertEquals(0, provider.getSessionCount());
+        
+        final Map<Object, Object> values = ImmutableMap.<Object, Object>of("key", "journaled");
+        final IpcSession session = provider.restore(sessionId, "identifier", 1, TimeUnit.HOURS, values);
+        Assert.assertEquals(Lists.newArrayList(sessionId, sessionId), created);
+        Assert.assertEquals(Lists.newArrayList(sessionId), resumed);
+        Assert.assertEquals("identifier", session.getIdentifier());
+        Assert.assertEquals(TimeUnit.HOURS.toMillis(1), session.getTimeout(TimeUnit.MILLISECONDS));
+        Assert.assertSame(session, provider.get(sessionId));
+        Assert.assertEquals("journaled", session.get("key"));
+        
+        provider.release(sessionId);
+        Assert.assertNull(provider.get(sessionId));
+    }
+    
+    private TieredIpcSessionProvider restarted(IpcSessionSwap swap, File directory, boolean lazily) 
+        throws LifecycleException {
+        final TieredIpcSessionProvider provider = new TieredIpcSessionProvider(swap,
+            EasyMock.createNiceMock(IpcSessionCreateEvent.class),
+            EasyMock.createNiceMock(IpcSessionDestroyEvent.class),
+            EasyMock.createNiceMock(IpcSessionSuspendEvent.class),
+            EasyMock.createNiceMock(IpcSessionResumeEvent.class),
+            EasyMock.createNiceMock(IpcSessionChangeEvent.class)
+        );
+        provider.setSnapshotDirectory(directory.getPath());
+        provider.setRestoreLazily(lazily);
+        provider.initialize();
+        return provider;
+    }
+    
+    /**
+     * Tests that sessions which could not be written into a snapshot are handled
+     * as if no snapshot directory was configured.
+     * 
+     * @throws LifecycleException should not happen
+     */
+    @Test
+    public void snapshotFailure() throws LifecycleException {
+        final File directory = Files.createTempDir();
+        final List<String> destroyed = Lists.newArrayList();
+        final TieredIpcSessionProvider provider = new TieredIpcSessionProvider(new CompressingIpcSessionSwap(),
+            EasyMock.createNiceMock(IpcSessionCreateEvent.class),
+            new IpcSessionDestroyEvent() {
+                
+                @Override
+                public void eventIpcSessionDestroy(IpcSession session) {
+                    destroyed.add(session.getSessionId());
+                }
+                
+            },
+            EasyMock.createNiceMock(IpcSessionSuspendEvent.class),
+            EasyMock.createNiceMock(IpcSessionResumeEvent.class),
+            EasyMock.createNiceMock(IpcSessionChangeEvent.class)
+        );
+        provider.setSnapshotDirectory(directory.getPath());
+        provider.initialize();
+        
+        final IpcSession session = provider.getSession(null, null);
+        session.put("key", "value");
+        final File blocked = new File(directory, "000.sessions.gz");
+        final File child = new File(blocked, "child");
+        Assert.assertTrue(child.mkdirs());
+        
+        provider.dispose();
+        Assert.assertEquals(Lists.newArrayList(session.getSessionId()), destroyed);
+        Assert.assertEquals(0, provider.getSessionCount());
+        Assert.assertFalse(new File(directory, "000.sessions.gz.tmp").exists());
+        
+        child.delete();
+        blocked.delete();
+        directory.delete();
+    }
+    
+    /**
+     * Tests that all sessions are written on shutdown and restored on startup,
+     * either eagerly or lazily using the swap.
+     * 
+     * @throws LifecycleException should not happen
+     */
+    @Test
+    public void snapshot() throws LifecycleException {
+        final File directory = Files.createTempDir();
+        final File swapDirectory = Files.createTempDir();
+        final FileIpcSessionSwap swap = new FileIpcSessionSwap(swapDirectory.getPath());
+        swap.initialize();
+        
+        final List<String> sessionIds = Lists.newArrayList();
+        unit.setSnapshotDirectory(directory.getPath());
+        unit.initialize();
+        for (int i = 0; i < 100; i++) {
+            final IpcSession session = unit.getSession(null, null);
+            session.put("index", i);
+            sessionIds.add(session.getSessionId());
+        }
+        unit.dispose();
+        Assert.assertEquals(0, unit.getSessionCount());
+        
+        final TieredIpcSessionProvider eager = restarted(swap, directory, false);
+        Assert.assertEquals(100, eager.getSessionCount());
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(i, eager.get(sessionIds.get(i)).get("index"));
+        }
+        eager.dispose();
+        
+        final TieredIpcSessionProvider lazily = restarted(swap, directory, true);
+        Assert.assertEquals(0, lazily.getSessionCount());
+        Assert.assertEquals(42, lazily.getSession(sessionIds.get(42), null).get("index"));
+        Assert.assertEquals(1, lazily.getSessionCount());
+        lazily.dispose();
+        
+        directory.delete();
+        swapDirectory.delete();
+    }
+    
+}